@@ -3,10 +3,7 @@ package de.mpc.proteogenomics.pipeline;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -32,6 +29,8 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Logger;
 
+import de.mpc.proteogenomics.pipeline.io.CompressedFiles;
+import de.mpc.proteogenomics.pipeline.io.SortedGFFWriter;
 import de.mpc.proteogenomics.pipeline.peptide.IdentifiedPeptide;
 import de.mpc.proteogenomics.pipeline.protein.AbstractProtein;
 import de.mpc.proteogenomics.pipeline.protein.GenericProtein;
@@ -181,8 +180,7 @@ public class CombineIdentificationResults implements Serializable {
 		
 		MZTabErrorList errorList = new MZTabErrorList();
 		
-		BufferedReader fileReader = new BufferedReader(
-				new InputStreamReader(new FileInputStream(fileName)));
+		BufferedReader fileReader = CompressedFiles.openReader(fileName);
 		
 		Metadata metadata = null;
 		MTDLineParser mtdParser = new MTDLineParser();
@@ -402,18 +400,43 @@ public class CombineIdentificationResults implements Serializable {
 	 */
 	public void writeIdentifiedPeptidesToGFF(String onlyPseudoFilename, 
 			String otherFilename) throws IOException {
+		writeIdentifiedPeptidesToGFF(onlyPseudoFilename, otherFilename, false);
+	}
+	
+	
+	/**
+	 * Writes out the identified  peptides to GFF files, which are optionally
+	 * sorted by position, BGZF compressed and indexed (see
+	 * {@link SortedGFFWriter}).
+	 * 
+	 * @param onlyPseudoFilename
+	 * @param otherFilename
+	 * @param indexed whether the files are sorted and indexed, the file names
+	 * then get the extension ".gz", if missing
+	 * @throws IOException 
+	 */
+	public void writeIdentifiedPeptidesToGFF(String onlyPseudoFilename, 
+			String otherFilename, boolean indexed) throws IOException {
+		if (indexed) {
+			if (onlyPseudoFilename != null) {
+				onlyPseudoFilename =
+						SortedGFFWriter.getSortedFileName(onlyPseudoFilename);
+			}
+			if (otherFilename != null) {
+				otherFilename = SortedGFFWriter.getSortedFileName(otherFilename);
+			}
+		}
 		
 		BufferedWriter pseudoWriter = null;
 		if (onlyPseudoFilename != null) {
-			pseudoWriter =
-					new BufferedWriter(new FileWriter(onlyPseudoFilename));
+			pseudoWriter = openGFFWriter(onlyPseudoFilename, indexed);
 			pseudoWriter.append("##gff-version 3\n");
 			logger.info("writing pseudo peptide to " + onlyPseudoFilename);
 		}
 		
 		BufferedWriter otherWriter = null;
 		if (otherFilename != null) {
-			otherWriter = new BufferedWriter(new FileWriter(otherFilename));
+			otherWriter = openGFFWriter(otherFilename, indexed);
 			otherWriter.append("##gff-version 3\n");
 			logger.info("writing all other peptide to " + otherFilename);
 		}
@@ -541,6 +564,18 @@ public class CombineIdentificationResults implements Serializable {
 	}
 	
 	
+	/**
+	 * Opens a writer for a GFF file, which is optionally sorted and indexed.
+	 */
+	private static BufferedWriter openGFFWriter(String fileName,
+			boolean indexed) throws IOException {
+		if (indexed) {
+			return new BufferedWriter(new SortedGFFWriter(fileName));
+		}
+		return CompressedFiles.openWriter(fileName);
+	}
+	
+	
 	/**
 	 * Writes out the identified  peptides to a TSV file
 	 * 
@@ -550,7 +585,7 @@ public class CombineIdentificationResults implements Serializable {
 	public void writeIdentifiedPeptidesToTSV(String tsvFilename)
 			throws IOException {
 		BufferedWriter peptideWriter =
-				new BufferedWriter(new FileWriter(tsvFilename));
+				CompressedFiles.openWriter(tsvFilename);
 		
 		logger.info("TSV export of peptides to " + tsvFilename);
 		
@@ -1147,6 +1182,12 @@ public class CombineIdentificationResults implements Serializable {
                 		"all other identifications")
                 .create("outOther"));
 		
+		options.addOption(OptionBuilder
+				.withArgName("indexGFF")
+                .withDescription("write the GFF files sorted by position and " +
+                		"BGZF compressed (.gz) with a tabix index (.tbi)")
+                .create("indexGFF"));
+		
 		options.addOption(OptionBuilder
 				.withArgName("filename")
                 .hasArg(true)
@@ -1227,7 +1268,8 @@ public class CombineIdentificationResults implements Serializable {
 					if (line.hasOption("outPseudo") || line.hasOption("outOther")) {
 						combiner.writeIdentifiedPeptidesToGFF(
 								line.getOptionValue("outPseudo"),
-								line.getOptionValue("outOther"));
+								line.getOptionValue("outOther"),
+								line.hasOption("indexGFF"));
 					}
 				}
 			}
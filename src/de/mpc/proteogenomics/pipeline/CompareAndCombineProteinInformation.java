@@ -2,11 +2,8 @@ package de.mpc.proteogenomics.pipeline;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -25,6 +22,7 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Logger;
 
+import de.mpc.proteogenomics.pipeline.io.CompressedFiles;
 import de.mpc.proteogenomics.pipeline.protein.GenericProtein;
 
 
@@ -140,8 +138,7 @@ public class CompareAndCombineProteinInformation {
 		BufferedReader fastaReader = null;
 		
 		try {
-			fastaReader = new BufferedReader(
-					new InputStreamReader(new FileInputStream(fastaFileName)));
+			fastaReader = CompressedFiles.openReader(fastaFileName);
 			
 			Pattern accessionPattern = Pattern.compile(accessionRegex);
 			Matcher accessionMatcher;
@@ -193,8 +190,7 @@ public class CompareAndCombineProteinInformation {
 		logger.info("Start parsing " + fastaFileName +
 				" to get protein sequences.");
 		
-		BufferedReader fastaReader = new BufferedReader(
-				new InputStreamReader(new FileInputStream(fastaFileName)));
+		BufferedReader fastaReader = CompressedFiles.openReader(fastaFileName);
 		
 		StringBuilder sequence = null;
 		GenericProtein protein = null;
@@ -286,8 +282,7 @@ public class CompareAndCombineProteinInformation {
 		
 		BufferedReader fastaReader = null;
 		try {
-			fastaReader = new BufferedReader(
-					new InputStreamReader(new FileInputStream(fileName)));
+			fastaReader = CompressedFiles.openReader(fileName);
 			
 			String line;
 			while ((line = fastaReader.readLine()) != null) {
@@ -346,8 +341,7 @@ public class CompareAndCombineProteinInformation {
 		
 		BufferedReader fastaReader = null;
 		try {
-			fastaReader = new BufferedReader(
-					new InputStreamReader(new FileInputStream(fileName)));
+			fastaReader = CompressedFiles.openReader(fileName);
 			
 			String line;
 			while (((line = fastaReader.readLine()) != null) &&
@@ -422,8 +416,7 @@ public class CompareAndCombineProteinInformation {
 				" to map targets to reference.");
 		BufferedReader fastaReader = null;
 		try  {
-			fastaReader = new BufferedReader(
-					new InputStreamReader(new FileInputStream(referenceFasta)));
+			fastaReader = CompressedFiles.openReader(referenceFasta);
 			
 			StringBuilder sequence = null;
 			GenericProtein protein = null;
@@ -836,8 +829,7 @@ public class CompareAndCombineProteinInformation {
 		
 		BufferedReader fastaReader = null;
 		try  {
-			fastaReader = new BufferedReader(
-					new InputStreamReader(new FileInputStream(referenceFasta)));
+			fastaReader = CompressedFiles.openReader(referenceFasta);
 			
 			String line;
 			while (((line = fastaReader.readLine()) != null) &&
@@ -899,18 +891,18 @@ public class CompareAndCombineProteinInformation {
 		
 		BufferedWriter gffWriter = null;
 		try {
-			gffWriter = new BufferedWriter(new FileWriter(gffFileName));
+			gffWriter = CompressedFiles.openWriter(gffFileName);
 			gffWriter.append("##gff-version 3");
 			gffWriter.newLine();
 			
 			for (GenericProtein protein : mappedProteins.values()) {
-				gffWriter.append(protein.buildGFFline());
+				protein.writeGFFLine(gffWriter);
 				gffWriter.newLine();
 				writtenProteins++;
 			}
 			
 			for (GenericProtein target : sequencelessProteins.values()) {
-				gffWriter.append(target.buildGFFline());
+				target.writeGFFLine(gffWriter);
 				gffWriter.newLine();
 				writtenProteins++;
 			}
@@ -941,10 +933,10 @@ public class CompareAndCombineProteinInformation {
 		
 		BufferedWriter fastaWriter = null;
 		try {
-			fastaWriter = new BufferedWriter(new FileWriter(fastaFileName));
+			fastaWriter = CompressedFiles.openWriter(fastaFileName);
 			
 			for (GenericProtein protein : mappedProteins.values()) {
-				fastaWriter.append(protein.toFastaEntry());
+				protein.writeFasta(fastaWriter);
 				fastaWriter.newLine();
 				writtenProteins++;
 			}
@@ -2,10 +2,7 @@ package de.mpc.proteogenomics.pipeline;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -20,6 +17,8 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Logger;
 
+import de.mpc.proteogenomics.pipeline.io.CompressedFiles;
+
 /**
  * This class helps in generating a shuffled decoy database from a given
  * protein database in FASTA format.
@@ -104,18 +103,17 @@ public class CreateDecoyDB {
 		BufferedWriter fastaWriter = null;
 		if (fastaOutfile != null) {
 			fastaWriter =
-					new BufferedWriter(new FileWriter(fastaOutfile));
+					CompressedFiles.openWriter(fastaOutfile);
 		}
 		
 		BufferedWriter decoyWriter = null;
 		if (fastaDecoyOutfile != null) {
 			decoyWriter =
-					new BufferedWriter(new FileWriter(fastaDecoyOutfile));
+					CompressedFiles.openWriter(fastaDecoyOutfile);
 		}
 		
 		for (String inFile : fastaInfiles) {
-			BufferedReader fastaReader = new BufferedReader(
-					new InputStreamReader(new FileInputStream(inFile)));
+			BufferedReader fastaReader = CompressedFiles.openReader(inFile);
 			
 			logger.info("Reading in proteins from " + inFile);
 			
@@ -34,6 +34,44 @@ public class GeneticCode {
 		{"ATG", "TTG", "CTG", "ATT", "ATC", "ATA", "GTG"};
 	
 	
+	/** the bacterial code, used by the static translation methods */
+	private static final TranslationTable bacterialTable =
+			TranslationTable.getDefault();
+	
+	/** code for any character which is not a valid nucleotide */
+	public static final int INVALID_NUCLEOTIDE = -1;
+	
+	/** the stop codon's amino acid */
+	public static final char STOP = '*';
+	
+	/**
+	 * 2-bit codes of the nucleotides (A=0, C=1, G=2, T/U=3), indexed by the
+	 * ASCII character, INVALID_NUCLEOTIDE for everything else
+	 */
+	private static final byte nucleotideCodes[] = new byte[256];
+	
+	/** the index of the reverse complement codon, indexed by the 6-bit codon index */
+	private static final byte reverseComplementCodons[] = new byte[64];
+	
+	static {
+		for (int i=0; i < nucleotideCodes.length; i++) {
+			nucleotideCodes[i] = INVALID_NUCLEOTIDE;
+		}
+		nucleotideCodes['A'] = 0;
+		nucleotideCodes['C'] = 1;
+		nucleotideCodes['G'] = 2;
+		nucleotideCodes['T'] = 3;
+		nucleotideCodes['U'] = 3;
+		
+		for (int codonIndex=0; codonIndex < 64; codonIndex++) {
+			reverseComplementCodons[codonIndex] = (byte)(
+					(complementCode(codonIndex & 0x03) << 4) |
+					(complementCode((codonIndex >> 2) & 0x03) << 2) |
+					complementCode(codonIndex >> 4));
+		}
+	}
+	
+	
 	/**
 	 * Returns the amino acid one letter code, given a codon triplet.<br/>
 	 * 
@@ -41,280 +79,86 @@ public class GeneticCode {
 	 * @return the one letter amino acid code, * for stop or null, if no valid triplet
 	 */
 	public static Character nt2aa(String triplet) {
-		
 		if (triplet.length() == 3) {
-			Character charOne = triplet.charAt(0);
-			Character charTwo = triplet.charAt(1);
-			Character charThree = triplet.charAt(2);
-			
-			switch (charOne) {
-			case 'T':
-			case 'U':
-				switch (charTwo) {
-				case 'T':
-				case 'U':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-						return 'F';
-						
-					case 'A':
-					case 'G':
-						return 'L';
-						
-					default:
-						return null;
-					}
-					
-				case 'C':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-					case 'A':
-					case 'G':
-						return 'S';
-						
-					default:
-						return null;
-					}
-					
-				case 'A':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-						return 'Y';
-						
-					case 'A':
-					case 'G':
-						return '*';
-						
-					default:
-						return null;
-					}
-					
-				case 'G':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-						return 'C';
-						
-					case 'A':
-						return '*';
-						
-					case 'G':
-						return 'W';
-						
-					default:
-						return null;
-					}
-					
-				default:
+			int codonIndex = 0;
+			for (int i=0; i < 3; i++) {
+				int code = nucleotideCode(triplet.charAt(i));
+				if (code == INVALID_NUCLEOTIDE) {
 					return null;
-					
 				}
-			
-			case 'C':
-				switch (charTwo) {
-				case 'T':
-				case 'U':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-					case 'A':
-					case 'G':
-						return 'L';
-						
-					default:
-						return null;
-					}
-					
-				case 'C':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-					case 'A':
-					case 'G':
-						return 'P';
-						
-					default:
-						return null;
-					}
-				
-				case 'A':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-						return 'H';
-						
-					case 'A':
-					case 'G':
-						return 'Q';
-						
-					default:
-						return null;
-					}
-					
-				case 'G':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-					case 'A':
-					case 'G':
-						return 'R';
-						
-					default:
-						return null;
-					}
-					
-				default:
-					return null;
-				}
-				
-			case 'A':
-				switch (charTwo) {
-				case 'T':
-				case 'U':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-					case 'A':
-						return 'I';
-						
-					case 'G':
-						return 'M';
-						
-					default:
-						return null;
-					}
-					
-				case 'C':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-					case 'A':
-					case 'G':
-						return 'T';
-						
-					default:
-						return null;
-					}
-				
-				case 'A':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-						return 'N';
-						
-					case 'A':
-					case 'G':
-						return 'K';
-						
-					default:
-						return null;
-					}
-					
-				case 'G':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-						return 'S';
-						
-					case 'A':
-					case 'G':
-						return 'R';
-						
-					default:
-						return null;
-					}
-					
-				default:
-					return null;
-				}
-				
-			case 'G':
-				switch (charTwo) {
-				case 'T':
-				case 'U':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-					case 'A':
-					case 'G':
-						return 'V';
-						
-					default:
-						return null;
-					}
-					
-				case 'C':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-					case 'A':
-					case 'G':
-						return 'A';
-						
-					default:
-						return null;
-					}
-				
-				case 'A':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-						return 'D';
-						
-					case 'A':
-					case 'G':
-						return 'E';
-						
-					default:
-						return null;
-					}
-					
-				case 'G':
-					switch (charThree) {
-					case 'T':
-					case 'U':
-					case 'C':
-					case 'A':
-					case 'G':
-						return 'G';
-						
-					default:
-						return null;
-					}
-					
-				default:
-					return null;
-				}
-				
-			default:
-				return null;
+				codonIndex = (codonIndex << 2) | code;
 			}
 			
+			return translateCodon(codonIndex);
 		}
 		
-		
 		return null;
 	}
 	
 	
+	/**
+	 * Returns the 2-bit code of the given nucleotide (A=0, C=1, G=2, T/U=3) or
+	 * {@link #INVALID_NUCLEOTIDE}, if it is no valid nucleotide.
+	 * 
+	 * @param nucleotide
+	 * @return
+	 */
+	public static int nucleotideCode(int nucleotide) {
+		return ((nucleotide & ~0xff) == 0) ?
+				nucleotideCodes[nucleotide] : INVALID_NUCLEOTIDE;
+	}
+	
+	
+	/**
+	 * Returns the 2-bit code of the complementary nucleotide for the given
+	 * (valid) 2-bit nucleotide code.
+	 * 
+	 * @param code
+	 * @return
+	 */
+	public static int complementCode(int code) {
+		return 3 - code;
+	}
+	
+	
+	/**
+	 * Returns the 6-bit index of the reverse complement of the given codon,
+	 * i.e. the codon read on the backward strand at the same positions.
+	 * 
+	 * @param codonIndex
+	 * @return
+	 */
+	public static int reverseComplementCodon(int codonIndex) {
+		return reverseComplementCodons[codonIndex];
+	}
+	
+	
+	/**
+	 * Returns the amino acid of the bacterial code for the given 6-bit codon
+	 * index, which is built of the three 2-bit nucleotide codes with the first
+	 * base in the highest bits. Other codes are given by a
+	 * {@link TranslationTable}.
+	 * 
+	 * @param codonIndex
+	 * @return the one letter amino acid code, * for stop
+	 */
+	public static char translateCodon(int codonIndex) {
+		return bacterialTable.translateCodon(codonIndex);
+	}
+	
+	
+	/**
+	 * Returns whether the codon given by the 6-bit codon index is a potential
+	 * start codon of the bacterial code.
+	 * 
+	 * @param codonIndex
+	 * @return
+	 */
+	public static boolean isStartCodon(int codonIndex) {
+		return bacterialTable.isStartCodon(codonIndex);
+	}
+	
+	
 	/**
 	 * Returns the complementary nucleotide of the given nucleotide
 	 * @return
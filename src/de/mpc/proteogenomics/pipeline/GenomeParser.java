@@ -2,14 +2,19 @@ package de.mpc.proteogenomics.pipeline;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,8 +27,29 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Logger;
 
+import de.mpc.proteogenomics.pipeline.genome.ChunkedSixFrameTranslator;
+import de.mpc.proteogenomics.pipeline.genome.FastaRecordBounds;
+import de.mpc.proteogenomics.pipeline.genome.FrameParallelSixFrameTranslator;
+import de.mpc.proteogenomics.pipeline.genome.GenomeBatchParser;
+import de.mpc.proteogenomics.pipeline.genome.GenomeParserStatistics;
+import de.mpc.proteogenomics.pipeline.genome.GenomeRecord;
+import de.mpc.proteogenomics.pipeline.genome.KnownProteinFilter;
+import de.mpc.proteogenomics.pipeline.genome.MappedGenomeReader;
+import de.mpc.proteogenomics.pipeline.genome.PipelinedProteinWriter;
+import de.mpc.proteogenomics.pipeline.genome.ProteinDeduplicator;
+import de.mpc.proteogenomics.pipeline.genome.ProteinStream;
+import de.mpc.proteogenomics.pipeline.genome.ResultCache;
+import de.mpc.proteogenomics.pipeline.genome.SixFrameTranslator;
+import de.mpc.proteogenomics.pipeline.genome.StopCodonSixFrameTranslator;
+import de.mpc.proteogenomics.pipeline.genome.Topology;
+import de.mpc.proteogenomics.pipeline.genome.TranslatedProteinHandler;
+import de.mpc.proteogenomics.pipeline.genome.TranslationEngine;
+import de.mpc.proteogenomics.pipeline.io.CompressedFiles;
+import de.mpc.proteogenomics.pipeline.io.SortedGFFWriter;
+import de.mpc.proteogenomics.pipeline.io.TabixIndex;
 import de.mpc.proteogenomics.pipeline.protein.GenericProtein;
 import de.mpc.proteogenomics.pipeline.protein.GenomeTranslatedProtein;
+import de.mpc.proteogenomics.pipeline.protein.ProteinIntervalIndex;
 
 
 /**
@@ -45,8 +71,60 @@ public class GenomeParser {
 	/** the name of the genome, either given by command line or the header up to the first space*/
 	String genomeName;
 	
-	/** width of the protein position hashes */
-	public static Long default_hashWidth = 100000L;
+	/** whether each FASTA record is parsed as a separate replicon */
+	private boolean recordsAsReplicons;
+	
+	/** the number of threads used for the parallel parsing */
+	private int nrThreads;
+	
+	/** the engine used to translate the whole genome */
+	private TranslationEngine engine;
+	
+	/** the size of the chunks for the chunked translation */
+	private int chunkSize;
+	
+	/** the topology of the records (or the whole genome) */
+	private Topology topology;
+	
+	/** whether the ORFs of all start codons in a protein are reported */
+	private boolean allStartSites;
+	
+	/** the genetic code of the genome */
+	private TranslationTable translationTable;
+	
+	/** whether the relations to the known proteins are found by a sweep line */
+	private boolean sweepRelations;
+	
+	/** whether the proteins are classified and written in a pipeline of threads */
+	private boolean pipelinedOutput;
+	
+	/** whether the GFF files are written sorted, compressed and indexed */
+	private boolean indexedGFF;
+	
+	/** the name of the single, sorted GFF file of all frames (or null) */
+	private String sortedGFFFileName;
+	
+	/** the maximal memory in bytes of the GFF records held for sorting */
+	private long sortMemory;
+	
+	/** the directory for the temporary files of the sorting (or null) */
+	private File tempDirectory;
+	
+	/** the cache of the parsing results (or null) */
+	private ResultCache resultCache;
+	
+	/**
+	 * the version of the parsing engine, which is part of the keys of the
+	 * result cache. Increase it, whenever the written results change.
+	 */
+	public static final int engineVersion = 1;
+	
+	/** the buffer size of the output writers for the pipelined output */
+	private static final int pipelineBufferSize = 1 << 20;
+	
+	/** the pattern for the name in a FASTA header */
+	private static final Pattern recordNamePattern =
+			Pattern.compile("^>\\s*([^\\s]+).*?");
 	
 	
 	/**
@@ -59,69 +137,324 @@ public class GenomeParser {
 		this.genomeFileName = genomeFileName;
 		this.min_protein_length = minimalProteinLength;
 		this.genomeName = genomeName;
+		this.recordsAsReplicons = false;
+		this.nrThreads = Runtime.getRuntime().availableProcessors();
+		this.engine = TranslationEngine.SERIAL;
+		this.chunkSize = ChunkedSixFrameTranslator.default_chunkSize;
+		this.topology = Topology.CIRCULAR;
+		this.allStartSites = false;
+		this.translationTable = TranslationTable.getDefault();
+		this.sweepRelations = false;
+		this.pipelinedOutput = false;
+		this.indexedGFF = false;
+		this.sortedGFFFileName = null;
+		this.sortMemory = SortedGFFWriter.default_maxMemory;
+		this.tempDirectory = null;
+		this.resultCache = null;
 	}
 	
 	
 	/**
-	 * Go through the genome FASTA file and parse the proteins.
+	 * Creates a parser for another genome with the settings of the given
+	 * parser (without its output file names).
+	 * 
+	 * @param settings
+	 * @param genomeFileName
+	 * @param genomeName
+	 */
+	public GenomeParser(GenomeParser settings, String genomeFileName,
+			String genomeName) {
+		this(genomeFileName, settings.min_protein_length, genomeName);
+		this.recordsAsReplicons = settings.recordsAsReplicons;
+		this.nrThreads = settings.nrThreads;
+		this.engine = settings.engine;
+		this.chunkSize = settings.chunkSize;
+		this.topology = settings.topology;
+		this.allStartSites = settings.allStartSites;
+		this.translationTable = settings.translationTable;
+		this.sweepRelations = settings.sweepRelations;
+		this.pipelinedOutput = settings.pipelinedOutput;
+		this.indexedGFF = settings.indexedGFF;
+		this.sortMemory = settings.sortMemory;
+		this.tempDirectory = settings.tempDirectory;
+		this.resultCache = settings.resultCache;
+	}
+	
+	
+	/**
+	 * Sets whether each record of the FASTA file is parsed as a separate
+	 * replicon (e.g. chromosome and plasmids or the contigs of a
+	 * draft assembly), named by the record's header. Otherwise all records
+	 * are concatenated into one genome.
+	 * 
+	 * @param recordsAsReplicons
+	 */
+	public void setRecordsAsReplicons(boolean recordsAsReplicons) {
+		this.recordsAsReplicons = recordsAsReplicons;
+	}
+	
+	
+	/**
+	 * Sets the number of threads used for the parallel parsing.
+	 * 
+	 * @param nrThreads
+	 */
+	public void setNrThreads(int nrThreads) {
+		this.nrThreads = Math.max(1, nrThreads);
+	}
+	
+	
+	/**
+	 * Sets the engine used to translate the whole genome. If the records are
+	 * parsed as separate replicons, these are parsed in parallel and each
+	 * record is translated serially, or by locating its stop codons first for
+	 * the {@link TranslationEngine#STOPS} engine.
+	 * 
+	 * @param engine
+	 */
+	public void setEngine(TranslationEngine engine) {
+		this.engine = engine;
+	}
+	
+	
+	/**
+	 * Sets the topology of the records (or the whole genome, if the records
+	 * are not parsed as separate replicons). The last proteins of a circular
+	 * record are combined with its first proteins, while in a linear record
+	 * all proteins are reported as soon as they are finished and the proteins
+	 * at its ends are cut at the ends.
+	 * 
+	 * @param topology
+	 */
+	public void setTopology(Topology topology) {
+		this.topology = topology;
+	}
+	
+	
+	/**
+	 * Sets whether the ORFs of all start codons in a protein are reported
+	 * (i.e. the N-terminal isoforms of alternative start sites), instead of
+	 * only the ORF of the first start codon.
+	 * 
+	 * @param allStartSites
+	 */
+	public void setAllStartSites(boolean allStartSites) {
+		this.allStartSites = allStartSites;
+	}
+	
+	
+	/**
+	 * Sets the genetic code, by which the genome is translated (defaults to
+	 * the bacterial code, NCBI table 11).
+	 * 
+	 * @param translationTable
+	 */
+	public void setTranslationTable(TranslationTable translationTable) {
+		this.translationTable = translationTable;
+	}
+	
+	
+	/**
+	 * Sets the size of the chunks (in nucleotides) for the chunked
+	 * translation.
+	 * 
+	 * @param chunkSize
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+	
+	
+	/**
+	 * Sets whether the relations of the pseudo proteins to the known proteins
+	 * are found by sweeping over the sorted known proteins (which is faster
+	 * for large annotations) instead of looking up each pseudo protein.
+	 * 
+	 * @param sweepRelations
+	 */
+	public void setSweepRelations(boolean sweepRelations) {
+		this.sweepRelations = sweepRelations;
+	}
+	
+	
+	/**
+	 * Sets whether the known proteins are checked and the outputs are written
+	 * in own threads (see {@link PipelinedProteinWriter}), decoupled from the
+	 * translation. This is used for the whole genome with the serial and the
+	 * stops engine.
+	 * 
+	 * @param pipelinedOutput
+	 */
+	public void setPipelinedOutput(boolean pipelinedOutput) {
+		this.pipelinedOutput = pipelinedOutput;
+	}
+	
+	
+	/**
+	 * Sets whether the GFF files of the frames are written sorted by position
+	 * into BGZF compressed files (base_frameN.gff.gz) with a tabix index.
+	 * 
+	 * @param indexedGFF
+	 */
+	public void setIndexedGFF(boolean indexedGFF) {
+		this.indexedGFF = indexedGFF;
+	}
+	
+	
+	/**
+	 * Sets the name of a single GFF file, into which the records of all frames
+	 * are written sorted by sequence id, start and end. If the name ends with
+	 * ".gz", the file is BGZF compressed and gets a tabix index. This replaces
+	 * the GFF files of the frames.
+	 * 
+	 * @param sortedGFFFileName
+	 */
+	public void setSortedGFFFileName(String sortedGFFFileName) {
+		this.sortedGFFFileName = sortedGFFFileName;
+	}
+	
+	
+	/**
+	 * Sets the maximal (estimated) memory in bytes of the GFF records held in
+	 * memory for the sorting. Further records are sorted in runs, which are
+	 * spilled into temporary files and merged at the end.
 	 * 
+	 * @param sortMemory
+	 */
+	public void setSortMemory(long sortMemory) {
+		this.sortMemory = sortMemory;
+	}
+	
+	
+	/**
+	 * Sets the directory for the temporary files of the sorting, null for the
+	 * default temporary directory.
+	 * 
+	 * @param tempDirectory
+	 */
+	public void setTempDirectory(File tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+	
+	
+	/**
+	 * Sets the cache of the parsing results. If the results of a parsing with
+	 * the same genome, known proteins, settings and outputs are cached, the
+	 * output files are copied from the cache instead of parsing the genome.
+	 * 
+	 * @param resultCache the cache or null for no caching
+	 */
+	public void setResultCache(ResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+	
+	
+	/**
+	 * Returns the name of the GFF file of the given frame. If the base name
+	 * ends with ".gz", the GFF file is named base_frameN.gff.gz and written
+	 * compressed.
+	 * 
+	 * @param outputGFFBaseName
+	 * @param frame
 	 * @return
 	 */
+	public static String getFrameGFFFileName(String outputGFFBaseName,
+			int frame) {
+		if (CompressedFiles.isCompressedName(outputGFFBaseName)) {
+			return outputGFFBaseName.substring(0, outputGFFBaseName.length() -
+					CompressedFiles.gzipExtension.length()) +
+					"_frame" + frame + ".gff" + CompressedFiles.gzipExtension;
+		}
+		return outputGFFBaseName + "_frame" + frame + ".gff";
+	}
+	
+	
+	/**
+	 * Go through the genome FASTA file and parse the proteins.
+	 * 
+	 * @return the number of parsed pseudo proteins, -1 on errors
+	 */
 	public long parseGenome(String outputFileName, String outputGFFBaseName,
 			String proteinsFile) throws IOException {
-		long nrParsedProteins = 0;
-		long position = 0;	// current position in the genome
-		StringBuffer codon[];					/*< the current codon, in its frame */
-		GenomeTranslatedProtein protein[];		/*< the currently parsed protein, in its frame*/
-		GenomeTranslatedProtein foundORF[];		/*< whether an ORF was found in the frame and the resulting protein (first AA translates to M) */
-		Character firstNucleotides[];
-		GenomeTranslatedProtein firstProtein[];	/*< the first protein in the genome, may be extended due to the circular genome */
-		GenomeTranslatedProtein firstORF[];		/*< the first ORF in the genome, may be extended due to the circular genome */
-		
-		long extra_short_proteins = 0;
-		long extra_long_proteins = 0;
-		long length_longest_protein = 0;
-		long proteins_with_orf = 0;
-		long known_proteins = 0;
-		long nr_entries = 0;
-		
-		// get the known proteins, if a file is given
-		Map<Long, List<GenericProtein>> knownProteins;
-		if (proteinsFile != null) {
-			knownProteins = parseProteinsFromGFF(proteinsFile, default_hashWidth);
-		} else {
-			knownProteins = new HashMap<Long, List<GenericProtein>>();
+		GenomeParserStatistics statistics =
+				parse(outputFileName, outputGFFBaseName, proteinsFile);
+		if (statistics == null) {
+			return -1;
+		}
+		return statistics.getNrParsedProteins();
+	}
+	
+	
+	/**
+	 * Go through the genome FASTA file and parse the proteins.
+	 * 
+	 * @return the statistics of the parsing, null on errors
+	 */
+	public GenomeParserStatistics parse(String outputFileName,
+			String outputGFFBaseName, String proteinsFile) throws IOException {
+		if ((sortedGFFFileName != null) && (outputGFFBaseName != null)) {
+			logger.error("either the GFF files of the frames or a single " +
+					"sorted GFF file can be written");
+			return null;
 		}
 		
-		codon = new StringBuffer[6];
-		protein = new GenomeTranslatedProtein[6];
-		foundORF = new GenomeTranslatedProtein[6];
-		firstProtein = new GenomeTranslatedProtein[6];
-		firstORF = new GenomeTranslatedProtein[6];
-		for (int frame=0; frame < 6; frame++) {
-			codon[frame] = null;
-			protein[frame] = null;
-			foundORF[frame] = null;
-			firstProtein[frame] = null;
-			firstORF[frame] = null;
+		Map<String, String> outputFiles = null;
+		String cacheKey = null;
+		if (resultCache != null) {
+			outputFiles = getOutputFiles(outputFileName, outputGFFBaseName);
+			cacheKey = getCacheKey(proteinsFile, outputFiles);
+			GenomeParserStatistics cachedStatistics = resultCache.restore(
+					cacheKey, outputFiles, min_protein_length);
+			resultCache.logStatistics(logger);
+			if (cachedStatistics != null) {
+				cachedStatistics.logStatistics(logger);
+				return cachedStatistics;
+			}
+		}
+		
+		ProteinIntervalIndex knownProteins = getKnownProteins(proteinsFile);
+		
+		if (pipelinedOutput && (recordsAsReplicons ||
+				(engine == TranslationEngine.CHUNKED) ||
+				(engine == TranslationEngine.FRAMES))) {
+			logger.warn("the pipelined output is only used for the whole " +
+					"genome with the " + TranslationEngine.SERIAL.getName() +
+					" and " + TranslationEngine.STOPS.getName() + " engines");
 		}
-		firstNucleotides = new Character[3];
 		
-		BufferedReader  br = new BufferedReader(
-				new InputStreamReader(new FileInputStream(genomeFileName)));
+		// the output threads of the pipeline write larger blocks
+		int bufferSize = pipelinedOutput ? pipelineBufferSize : 8192;
 		
 		BufferedWriter fastaWriter = null;
 		if (outputFileName != null) {
-			fastaWriter =
-					new BufferedWriter(new FileWriter(outputFileName));
+			fastaWriter = CompressedFiles.openWriter(outputFileName, bufferSize);
 		}
 		
 		BufferedWriter gffFrameWriters[] = new BufferedWriter[6];
-		if (outputGFFBaseName != null) {
+		SortedGFFWriter sortedGFFWriter = null;
+		if (sortedGFFFileName != null) {
+			// each frame writes its complete lines into the sorted file
+			sortedGFFWriter = new SortedGFFWriter(sortedGFFFileName,
+					sortMemory, tempDirectory);
+			sortedGFFWriter.write("##gff-version 3\n");
 			for (int frame=0; frame < 6; frame++) {
-				gffFrameWriters[frame] = 
-						new BufferedWriter(new FileWriter(outputGFFBaseName +
-								"_frame" + frame + ".gff"));
+				gffFrameWriters[frame] = new BufferedWriter(
+						sortedGFFWriter.createPartWriter(), bufferSize);
+			}
+		} else if (outputGFFBaseName != null) {
+			for (int frame=0; frame < 6; frame++) {
+				if (indexedGFF) {
+					gffFrameWriters[frame] = new BufferedWriter(
+							new SortedGFFWriter(getFrameGFFFileName(
+									SortedGFFWriter.getSortedFileName(
+											outputGFFBaseName), frame),
+									sortMemory / 6, tempDirectory),
+							bufferSize);
+				} else {
+					gffFrameWriters[frame] = CompressedFiles.openWriter(
+							getFrameGFFFileName(outputGFFBaseName, frame),
+							bufferSize);
+				}
 				gffFrameWriters[frame].append("##gff-version 3");
 				gffFrameWriters[frame].newLine();
 			}
@@ -132,473 +465,608 @@ public class GenomeParser {
 		}
 		
 		logger.info("start parsing " + genomeFileName);
-		String line;
-		while ((line = br.readLine()) != null) {
-			if (line.startsWith(">")) {
-				// this is the FASTA header
-				if (genomeName == null) {
-					Matcher matcher =
-							Pattern.compile("^>\\s*([^\\s]+).*?").matcher(line);
-					
-					if (matcher.matches()) {
-						genomeName = matcher.group(1);
-						logger.info("Assuming '" + genomeName +
-								"' as genome name");
-					}
-				}
-				
-				continue;
+		GenomeParserStatistics statistics;
+		try {
+			if (!recordsAsReplicons && (pipelinedOutput ||
+					(engine == TranslationEngine.CHUNKED) ||
+					(engine == TranslationEngine.FRAMES))) {
+				statistics = parseWholeGenome(knownProteins, fastaWriter,
+						gffFrameWriters);
+			} else {
+				// the serial and stops engines write the stream's proteins
+				statistics = createProteinStream(knownProteins).writeProteins(
+						fastaWriter, gffFrameWriters);
 			}
-			
-			// go through the line's characters
-			for (int idx=0; idx < line.length(); idx++) {
-				Character nucleotide = line.charAt(idx);
-				if (position < 3) {
-					firstNucleotides[(int)position] = nucleotide;
+		} finally {
+			try {
+				if (fastaWriter != null) {
+					fastaWriter.close();
 				}
-				position++;
-				
-				for (int frame=0; frame < 6; frame++) {
-					
-					if ((codon[frame] == null) && (position-1 >= frame % 3)) {
-						// initialise the codon for the frame shift and the first protein
-						codon[frame] = new StringBuffer(3);
-						
-						protein[frame] = new GenomeTranslatedProtein(genomeName,
-								position, frame);
-					}
-					
-					if ((codon[frame] != null) && (codon[frame].length() < 3)) {
-						if (frame < 3) {
-							// the forward frames
-							codon[frame].append(nucleotide);
-						} else {
-							// the backward frames
-							codon[frame].insert(0, 
-									GeneticCode.getComplementaryNucleotide(nucleotide));
-						}
-					}
-					
-					if ((codon[frame] != null) &&
-							(codon[frame].length() == 3)) {
-						Character aminoacid = GeneticCode.nt2aa(codon[frame].toString());
-						
-						if ((aminoacid != null) && !aminoacid.equals('*')) {
-							// the found amino acid is not a stop codon
-							//   -> append it
-							protein[frame].appendAminoAcid(aminoacid);
-							if ((frame < 3) && (foundORF[frame] != null)) {
-								// grow the forward-ORF
-								foundORF[frame].appendAminoAcid(aminoacid);
-							}
-							
-							if (GeneticCode.isStartCodon(codon[frame].toString())) {
-								// a start codon is found 
-								
-								if ((frame < 3) && (foundORF[frame] == null)) {
-									// for a forward strand: start new protein
-									// here with sequence M
-									foundORF[frame] =
-											new GenomeTranslatedProtein(
-													genomeName,
-													position-2,
-													frame);
-									foundORF[frame].setIsORFProtein(true);
-									foundORF[frame].appendAminoAcid('M');
-								} else if (frame >= 3) {
-									// for a backward strand, we need the
-									// sequence up to the last amino acid
-									foundORF[frame] =
-											new GenomeTranslatedProtein(
-													genomeName,
-													protein[frame].getStart(),
-													frame);
-									foundORF[frame].setIsORFProtein(true);
-									for (Character aa
-											: protein[frame].getSequence().substring(0, protein[frame].length()-1).toCharArray()) {
-										foundORF[frame].appendAminoAcid(aa);
-									}
-									foundORF[frame].appendAminoAcid('M');
-									foundORF[frame].setEnd(position);
-								}
-							}
-						} else if ((aminoacid != null) && aminoacid.equals('*')) {
-							int proteinLength = protein[frame].length();
-							
-							if (frame < 3) {
-								// the protein ends with the stop codon
-								protein[frame].setEnd(position);
-								
-								if (foundORF[frame] != null) {
-									foundORF[frame].setEnd(position);
-								}
-							} else {
-								// the protein started before the stop codon
-								protein[frame].setEnd(position-3);
-								
-								protein[frame].reverseProtein();
-								if (foundORF[frame] != null) {
-									foundORF[frame].reverseProtein();
-								}
-							}
-							
-							if (firstProtein[frame] != null) {
-								// this is not the first protein / stop codon
-								if (proteinLength > 500) {
-									extra_long_proteins++;
-								} else if (proteinLength < min_protein_length) {
-									extra_short_proteins++;
-								}
-								
-								if (proteinLength > length_longest_protein) {
-									length_longest_protein = proteinLength;
-								}
-								
-								nrParsedProteins++;
-								
-								if (proteinLength >= min_protein_length) {
-									if ((foundORF[frame] == null) ||
-											!protein[frame].getSequence().equals(foundORF[frame].getSequence())) {
-										if (checkAndWriteProtein(protein[frame],
-												knownProteins, default_hashWidth,
-												fastaWriter, gffFrameWriters[frame])) {
-											nr_entries++;
-										} else {
-											known_proteins++;
-										}
-									}
-									
-									if ((foundORF[frame] != null) && 
-											foundORF[frame].length() >= min_protein_length) {
-										if (checkAndWriteProtein(foundORF[frame],
-												knownProteins, default_hashWidth,
-												fastaWriter, gffFrameWriters[frame])) {
-											nr_entries++;
-											proteins_with_orf++;
-										} else {
-											known_proteins++;
-										}
-									}
-								}
-							} else {
-								// the first protein is cached for later
-								// processing due to the circular genome
-								firstProtein[frame] = protein[frame];
-								firstORF[frame] = foundORF[frame];
-							}
-							
-							foundORF[frame] = null;
-							if (frame < 3) {
-								protein[frame] = new GenomeTranslatedProtein(
-										genomeName, position + 1, frame);
-							} else {
-								// the protein should later stop with the stop codon
-								protein[frame] = new GenomeTranslatedProtein(
-										genomeName, position - 2, frame);
-							}
-						} else {
-							logger.error("could not generate amino acid for " +
-									codon[frame].toString());
-							br.close();
-							return -1;
-						}
-						
-						// clear the codon
-						codon[frame].delete(0, 3);
+				for (BufferedWriter bw : gffFrameWriters) {
+					if (bw != null) {
+						bw.close();
 					}
 				}
+			} finally {
+				if (sortedGFFWriter != null) {
+					sortedGFFWriter.close();
+				}
 			}
 		}
-		br.close();
 		
-		for (int frame=0; frame < 6; frame++) {
-			// finalize the last and first proteins
+		if (statistics == null) {
+			return null;
+		}
+		
+		if (fastaWriter != null) {
+			logger.info("pseudo proteins written to " + outputFileName +
+					" in FASTA format");
+		}
+		
+		statistics.logStatistics(logger);
+		
+		if (resultCache != null) {
+			resultCache.store(cacheKey, outputFiles, statistics);
+			resultCache.logStatistics(logger);
+		}
+		
+		return statistics;
+	}
+	
+	
+	/**
+	 * Starts the translation of the genome and returns a stream of the pseudo
+	 * proteins, which are not known, so they can be consumed in memory instead
+	 * of writing and reading files. The proteins are the same as written by
+	 * {@link #parse(String, String, String)} in the same order.
+	 * <p>
+	 * The stream translates the whole genome in one thread (or the records
+	 * concurrently), with the stops engine or otherwise the serial engine.
+	 * 
+	 * @param proteinsFile the GFF file of the known proteins (may be null)
+	 * @return the stream, which must be closed, if it is not read to the end
+	 * @throws IOException
+	 */
+	public ProteinStream streamProteins(String proteinsFile)
+			throws IOException {
+		if ((engine == TranslationEngine.CHUNKED) ||
+				(engine == TranslationEngine.FRAMES)) {
+			logger.warn("the protein stream uses the " +
+					TranslationEngine.SERIAL.getName() + " engine instead of " +
+					"the " + engine.getName() + " engine");
+		}
+		
+		return createProteinStream(getKnownProteins(proteinsFile));
+	}
+	
+	
+	/**
+	 * Creates the stream of the proteins, which are not known, translated by
+	 * {@link #translateProteins(ProteinIntervalIndex, TranslatedProteinHandler)}.
+	 */
+	private ProteinStream createProteinStream(
+			final ProteinIntervalIndex knownProteins) {
+		return new ProteinStream(new ProteinStream.ProteinSource() {
+			@Override
+			public GenomeParserStatistics translate(
+					TranslatedProteinHandler handler) throws IOException {
+				return translateProteins(knownProteins, handler);
+			}
+		}, ProteinStream.default_queueSize);
+	}
+	
+	
+	/**
+	 * Translates the genome (or each record as replicon) with the stops
+	 * engine or otherwise the serial engine and passes the proteins, which
+	 * are not known, to the handler in the order of the genome.
+	 * 
+	 * @return the statistics of the parsing or null, if an error occurred
+	 * @throws IOException
+	 */
+	private GenomeParserStatistics translateProteins(
+			ProteinIntervalIndex knownProteins,
+			TranslatedProteinHandler handler) throws IOException {
+		MappedGenomeReader reader = new MappedGenomeReader(genomeFileName);
+		try {
+			List<FastaRecordBounds> records = reader.indexRecords();
+			if (records.isEmpty()) {
+				logger.error("no sequence found in " + genomeFileName);
+				return null;
+			}
 			
-			int combineFrame  = (3 - codon[frame].length()) % 3;
-			if (frame >= 3) {
-				combineFrame += 3;
+			if (recordsAsReplicons) {
+				return translateRecords(reader, records, knownProteins,
+						handler);
 			}
 			
-			if (codon[frame].length() > 0) {
-				// fill the codon to get the overlap-aminoacid
-				long overlapPosition;
-				for (overlapPosition = 0;
-						codon[frame].length() < 3;
-						overlapPosition++) {
-					if (frame < 3) {
-						// the forward frames
-						codon[frame].append(firstNucleotides[(int)overlapPosition]);
-					} else {
-						// the backward frames
-						codon[frame].insert(0, 
-								GeneticCode.getComplementaryNucleotide(firstNucleotides[(int)overlapPosition]));
-					}
-				}
-				
-				Character overlapAminoacid =
-						GeneticCode.nt2aa(codon[frame].toString());
-				
-				if ((overlapAminoacid != null) && !overlapAminoacid.equals('*')) {
-					// the found amino acid is not a stop codon
-					//   -> append the amino acid and the firstProtein
-					protein[frame].appendAminoAcid(overlapAminoacid);
-					
-					if ((frame < 3) && (foundORF[frame] != null)) {
-						// grow the forward-ORF
-						foundORF[frame].appendAminoAcid(overlapAminoacid);
-					}
-					
-					if (GeneticCode.isStartCodon(codon[frame].toString())) {
-						// a start codon is found 
-						
-						if ((frame < 3) && (foundORF[frame] == null)) {
-							// for a forward strand: start new ORF protein
-							// here with sequence M
-							foundORF[frame] =
-									new GenomeTranslatedProtein(
-											genomeName,
-											overlapPosition-2,
-											combineFrame);
-							foundORF[frame].setIsORFProtein(true);
-							foundORF[frame].appendAminoAcid('M');
-						} else if (frame >= 3) {
-							// for a backward strand, we need the sequence up to
-							// the last amino acid
-							foundORF[frame] =
-									new GenomeTranslatedProtein(
-											genomeName,
-											protein[frame].getStart(),
-											combineFrame);
-							foundORF[frame].setIsORFProtein(true);
-							for (Character aa
-									: protein[frame].getSequence().substring(0, protein[frame].length()-1).toCharArray()) {
-								foundORF[frame].appendAminoAcid(aa);
-							}
-							foundORF[frame].appendAminoAcid('M');
-							foundORF[frame].setEnd(overlapPosition);
-						}
-					}
-				} else if ((overlapAminoacid != null) &&
-						overlapAminoacid.equals('*')) {
-					// the protein ends in the overlap
-					int proteinLength = protein[frame].length();
-					
-					if (frame < 3) {
-						// the protein ends with the stop codon
-						protein[frame].setEnd(position + overlapPosition);
-						
-						if (foundORF[frame] != null) {
-							foundORF[frame].setEnd(position + overlapPosition);
-						}
-					} else {
-						// the pseudo protein started before the stop codon
-						protein[frame].setEnd(position + frame - 6 );
-						
-						protein[frame].reverseProtein();
-						if (foundORF[frame] != null) {
-							foundORF[frame].reverseProtein();
-						}
-					}
-					
-					if (proteinLength > 500) {
-						extra_long_proteins++;
-					} else if (proteinLength < min_protein_length) {
-						extra_short_proteins++;
-					}
-					
-					if (proteinLength > length_longest_protein) {
-						length_longest_protein = proteinLength;
-					}
-					
-					nrParsedProteins++;
-					
-					if (proteinLength >= min_protein_length) {
-						if ((foundORF[frame] == null) ||
-								!protein[frame].getSequence().equals(foundORF[frame].getSequence())) {
-							if (checkAndWriteProtein(protein[frame],
-									knownProteins, default_hashWidth,
-									fastaWriter, gffFrameWriters[frame])) {
-								nr_entries++;
-							} else {
-								known_proteins++;
-							}
-						}
-						
-						if ((foundORF[frame] != null) && 
-								foundORF[frame].length() >= min_protein_length) {
-							if (checkAndWriteProtein(foundORF[frame],
-									knownProteins, default_hashWidth,
-									fastaWriter, gffFrameWriters[frame])) {
-								nr_entries++;
-								proteins_with_orf++;
-							} else {
-								known_proteins++;
-							}
-						}
-					}
-					
-					// the protein ended, do not concatenate it with the firstProtein
-					protein[frame] = null;
-					foundORF[frame] = null;
+			initGenomeName(records);
+			return translateWholeGenome(reader, records, knownProteins,
+					new KnownProteinFilter(knownProteins, handler));
+		} finally {
+			reader.close();
+		}
+	}
+	
+	
+	/**
+	 * Returns the index of the known proteins from the given GFF file or an
+	 * empty index, if no file is given.
+	 * 
+	 * @throws IOException
+	 */
+	private ProteinIntervalIndex getKnownProteins(String proteinsFile)
+			throws IOException {
+		if (proteinsFile != null) {
+			return parseProteinsFromGFF(proteinsFile);
+		}
+		return new ProteinIntervalIndex(new ArrayList<GenericProtein>(),
+				sweepRelations);
+	}
+	
+	
+	/**
+	 * Returns the names of all files written by the parsing by their roles
+	 * in the result cache. The roles contain the kind and compression of the
+	 * files, but not their names.
+	 */
+	private Map<String, String> getOutputFiles(String outputFileName,
+			String outputGFFBaseName) {
+		Map<String, String> outputFiles = new TreeMap<String, String>();
+		
+		if (outputFileName != null) {
+			outputFiles.put(getOutputRole("fasta", outputFileName),
+					outputFileName);
+		}
+		
+		if (sortedGFFFileName != null) {
+			String role = getOutputRole("sorted.gff", sortedGFFFileName);
+			outputFiles.put(role, sortedGFFFileName);
+			if (CompressedFiles.isCompressedName(sortedGFFFileName)) {
+				outputFiles.put(TabixIndex.getIndexFileName(role),
+						TabixIndex.getIndexFileName(sortedGFFFileName));
+			}
+		} else if (outputGFFBaseName != null) {
+			for (int frame=0; frame < 6; frame++) {
+				if (indexedGFF) {
+					String fileName = getFrameGFFFileName(
+							SortedGFFWriter.getSortedFileName(
+									outputGFFBaseName), frame);
+					String role = "frame" + frame + ".sorted.gff" +
+							CompressedFiles.gzipExtension;
+					outputFiles.put(role, fileName);
+					outputFiles.put(TabixIndex.getIndexFileName(role),
+							TabixIndex.getIndexFileName(fileName));
 				} else {
-					logger.error("could not generate amino acid for " +
-							codon[frame].toString());
-					br.close();
-					return -1;
+					String fileName =
+							getFrameGFFFileName(outputGFFBaseName, frame);
+					outputFiles.put(
+							getOutputRole("frame" + frame + ".gff", fileName),
+							fileName);
 				}
 			}
+		}
+		
+		return outputFiles;
+	}
+	
+	
+	/**
+	 * Returns the role of an output file, i.e. the kind with the compression
+	 * extension, if the file is compressed.
+	 */
+	private static String getOutputRole(String kind, String fileName) {
+		if (CompressedFiles.isCompressedName(fileName)) {
+			return kind + CompressedFiles.gzipExtension;
+		}
+		return kind;
+	}
+	
+	
+	/**
+	 * Computes the key of the parsing in the result cache from the contents
+	 * of the genome and known proteins files, the settings changing the
+	 * results, the roles of the outputs and the engine version.
+	 */
+	private String getCacheKey(String proteinsFile,
+			Map<String, String> outputFiles) throws IOException {
+		List<String> settings = new ArrayList<String>();
+		settings.add("engineVersion=" + engineVersion);
+		settings.add("min_protein_length=" + min_protein_length);
+		settings.add("genomeName=" + genomeName);
+		settings.add("recordsAsReplicons=" + recordsAsReplicons);
+		settings.add("topology=" + topology.getName());
+		settings.add("allStartSites=" + allStartSites);
+		settings.add("translationTable=" + translationTable.getId());
+		settings.add("outputs=" + outputFiles.keySet());
+		
+		return ResultCache.computeKey(settings, genomeFileName, proteinsFile);
+	}
+	
+	
+	/**
+	 * Parses the whole genome FASTA file as one genome, i.e. all
+	 * sequence lines are concatenated, with the chunked or frames engine or
+	 * with the pipelined output.
+	 * 
+	 * @return the statistics of the parsing or null, if an error occurred
+	 * @throws IOException
+	 */
+	private GenomeParserStatistics parseWholeGenome(
+			ProteinIntervalIndex knownProteins,
+			BufferedWriter fastaWriter, BufferedWriter[] gffFrameWriters)
+			throws IOException {
+		MappedGenomeReader reader = new MappedGenomeReader(genomeFileName);
+		try {
+			List<FastaRecordBounds> records = reader.indexRecords();
+			if (records.isEmpty()) {
+				logger.error("no sequence found in " + genomeFileName);
+				return null;
+			}
 			
-			if (protein[frame] != null) {
-				// the protein did not end in the overlap, concatenate it
-				if (frame >= 3) {
-					firstProtein[combineFrame].reverseProtein();
-					if (firstORF[combineFrame] != null) {
-						firstORF[combineFrame].reverseProtein();
-					}
-				}
-				
-				for (Character aa
-						: firstProtein[combineFrame].getSequence().toCharArray()) {
-					protein[frame].appendAminoAcid(aa);
-					
-					if ((foundORF[frame] != null) && (frame < 3)) {
-						foundORF[frame].appendAminoAcid(aa);
-					}
+			initGenomeName(records);
+			
+			if (engine == TranslationEngine.CHUNKED) {
+				GenomeRecord genome = readWholeGenome(reader, records);
+				if (genome == null) {
+					return null;
 				}
 				
-				protein[frame].setEnd(firstProtein[combineFrame].getEnd());
-				protein[frame].recalculateStartForOverlap();
-				if (foundORF[frame] != null) {
-					foundORF[frame].setEnd(firstProtein[combineFrame].getEnd());
-					foundORF[frame].recalculateStartForOverlap();
-				} else if (firstORF[combineFrame] != null) {
-					foundORF[frame] = firstORF[combineFrame]; 
+				ChunkedSixFrameTranslator translator =
+						new ChunkedSixFrameTranslator(min_protein_length,
+								knownProteins, chunkSize,
+								nrThreads);
+				translator.setAllStartSites(allStartSites);
+				return translator.translate(genome, fastaWriter,
+						gffFrameWriters);
+			} else if (engine == TranslationEngine.FRAMES) {
+				GenomeRecord genome = readWholeGenome(reader, records);
+				if (genome == null) {
+					return null;
 				}
 				
-				if ((frame >= 3) && (firstORF[combineFrame] != null)) {
-					// there is a big reverse strand ORF
-					
-					foundORF[frame] =
-							new GenomeTranslatedProtein(
-									genomeName,
-									protein[frame].getStart(),
-									combineFrame);
-					foundORF[frame].setIsORFProtein(true);
-					
-					
-					
-					for (Character aa
-							: protein[frame].getSequence().substring(
-									0, protein[frame].length() - firstProtein[combineFrame].length()).
-									toCharArray()) {
-						foundORF[frame].appendAminoAcid(aa);
-					}
-					for (Character aa
-							: firstORF[combineFrame].getSequence().toCharArray()) {
-						foundORF[frame].appendAminoAcid(aa);
-					}
-					
-					foundORF[frame].setEnd(firstORF[combineFrame].getEnd());
-					foundORF[frame].recalculateStartForOverlap();
-				}
+				FrameParallelSixFrameTranslator translator =
+						new FrameParallelSixFrameTranslator(min_protein_length,
+								knownProteins, nrThreads);
+				translator.setAllStartSites(allStartSites);
+				return translator.translate(genome, fastaWriter,
+						gffFrameWriters);
+			}
+			
+			// the engines translating in one thread use the pipelined output
+			PipelinedProteinWriter pipeline = new PipelinedProteinWriter(
+					knownProteins, fastaWriter, gffFrameWriters);
+			try {
+				GenomeParserStatistics statistics = translateWholeGenome(
+						reader, records, knownProteins, pipeline);
 				
-				if (frame >= 3) {
-					protein[frame].reverseProtein();
-					if (foundORF[frame] != null) {
-						foundORF[frame].reverseProtein();
-					}
+				GenomeParserStatistics knownCorrections = pipeline.finish();
+				pipeline.logCounters();
+				if (statistics != null) {
+					statistics.add(knownCorrections);
 				}
-			} else {
-				// the protein was finished in the overlap -> write the combineFrame's protein/ORF now
-				protein[frame] = firstProtein[combineFrame]; 
-				foundORF[frame] = firstORF[combineFrame];
+				return statistics;
+			} finally {
+				pipeline.stop();
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
+	
+	/**
+	 * Translates the whole genome in the current thread, with the stops
+	 * engine or otherwise the serial engine, and passes the proteins to the
+	 * handler.
+	 * 
+	 * @return the statistics of the parsing or null, if an error occurred
+	 * @throws IOException
+	 */
+	private GenomeParserStatistics translateWholeGenome(
+			MappedGenomeReader reader, List<FastaRecordBounds> records,
+			ProteinIntervalIndex knownProteins,
+			TranslatedProteinHandler handler) throws IOException {
+		if (engine == TranslationEngine.STOPS) {
+			GenomeRecord genome = readWholeGenome(reader, records);
+			if (genome == null) {
+				return null;
 			}
 			
+			StopCodonSixFrameTranslator translator =
+					new StopCodonSixFrameTranslator(min_protein_length,
+							knownProteins);
+			translator.setAllStartSites(allStartSites);
+			return translator.translate(genome, handler);
+		}
+		
+		return streamWholeGenome(reader, records, handler);
+	}
+	
+	
+	/**
+	 * Streams the nucleotides of all records directly into a serial
+	 * translator of the whole genome.
+	 * 
+	 * @return the statistics of the parsing or null, if an error occurred
+	 * @throws IOException
+	 */
+	private GenomeParserStatistics streamWholeGenome(MappedGenomeReader reader,
+			List<FastaRecordBounds> records, TranslatedProteinHandler handler)
+			throws IOException {
+		SixFrameTranslator translator = new SixFrameTranslator(genomeName,
+				isWholeGenomeCircular(records), translationTable,
+				min_protein_length, handler);
+		translator.setAllStartSites(allStartSites);
+		for (FastaRecordBounds record : records) {
+			if (!reader.readSequence(record, getRecordName(record),
+					translator)) {
+				return null;
+			}
+		}
+		
+		translator.finish();
+		return translator.getStatistics();
+	}
+	
+	
+	/**
+	 * Reads the sequences of all given records into one genome.
+	 * 
+	 * @return the genome or null, if an error occurred
+	 * @throws IOException
+	 */
+	private GenomeRecord readWholeGenome(MappedGenomeReader reader,
+			List<FastaRecordBounds> records) throws IOException {
+		long genomeLength = 0;
+		for (FastaRecordBounds record : records) {
+			genomeLength += record.getSequenceLength();
+		}
+		if (genomeLength > Integer.MAX_VALUE) {
+			logger.error("the genome in " + genomeFileName + " is too large " +
+					"for the " + engine.getName() + " engine");
+			return null;
+		}
+		
+		GenomeRecord genome = new GenomeRecord(genomeName, (int)genomeLength);
+		genome.setCircular(isWholeGenomeCircular(records));
+		genome.setTranslationTable(translationTable);
+		for (FastaRecordBounds record : records) {
+			if (!reader.readSequence(record, getRecordName(record), genome)) {
+				return null;
+			}
+		}
+		return genome;
+	}
+	
+	
+	/**
+	 * Returns whether the whole genome is circular, which is given by the
+	 * header of the first record for the automatic topology.
+	 * 
+	 * @param records
+	 * @return
+	 */
+	private boolean isWholeGenomeCircular(List<FastaRecordBounds> records) {
+		return topology.isCircular(records.get(0).getHeader());
+	}
+	
+	
+	/**
+	 * Sets the genome name from the first record header, which has a name, if
+	 * none is given.
+	 * 
+	 * @param records
+	 */
+	private void initGenomeName(List<FastaRecordBounds> records) {
+		if (genomeName == null) {
+			genomeName = findGenomeName(records);
 			
-			int proteinLength = protein[frame].length();
-			if (proteinLength > 0) {
-				if (proteinLength > 500) {
-					extra_long_proteins++;
-				} else if (proteinLength < min_protein_length) {
-					extra_short_proteins++;
+			if (genomeName != null) {
+				logger.info("Assuming '" + genomeName + "' as genome name");
+			}
+		}
+	}
+	
+	
+	/**
+	 * Returns the name of the first record header, which has a name, or null.
+	 * 
+	 * @param records
+	 * @return
+	 */
+	private static String findGenomeName(List<FastaRecordBounds> records) {
+		for (FastaRecordBounds record : records) {
+			if (record.getHeader() != null) {
+				String name = parseRecordName(record.getHeader());
+				if (name != null) {
+					return name;
 				}
+			}
+		}
+		return null;
+	}
+	
+	
+	/**
+	 * Returns the name of the record given by its header or the genome name,
+	 * if there is none.
+	 * 
+	 * @param record
+	 * @return
+	 */
+	private String getRecordName(FastaRecordBounds record) {
+		String recordName = null;
+		if (record.getHeader() != null) {
+			recordName = parseRecordName(record.getHeader());
+		}
+		return (recordName != null) ? recordName : genomeName;
+	}
+	
+	
+	/**
+	 * Translates each record of the genome FASTA file as a separate
+	 * replicon, named by its header. The records are translated concurrently
+	 * and their proteins are passed to the handler in the order of the FASTA
+	 * file.
+	 * 
+	 * @return the statistics of the parsing or null, if an error occurred
+	 * @throws IOException
+	 */
+	private GenomeParserStatistics translateRecords(MappedGenomeReader reader,
+			List<FastaRecordBounds> records, ProteinIntervalIndex knownProteins,
+			TranslatedProteinHandler handler) throws IOException {
+		GenomeParserStatistics statistics =
+				new GenomeParserStatistics(min_protein_length);
+		
+		logger.info("parsing each record as a replicon, using " + nrThreads +
+				" threads");
+		
+		ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+		LinkedList<Future<RecordResult>> pendingRecords =
+				new LinkedList<Future<RecordResult>>();
+		int nrRecords = 0;
+		
+		try {
+			for (FastaRecordBounds bounds : records) {
+				String recordName = getRepliconName(bounds, nrRecords);
+				nrRecords++;
 				
-				if (proteinLength > length_longest_protein) {
-					length_longest_protein = proteinLength;
+				GenomeRecord record = reader.readRecord(bounds, recordName);
+				if (record == null) {
+					return null;
 				}
+				record.setCircular(topology.isCircular(bounds.getHeader()));
+				record.setTranslationTable(translationTable);
 				
-				nrParsedProteins++;
-				
-				if (proteinLength >= min_protein_length) {
-					if ((foundORF[frame] == null) ||
-							!protein[frame].getSequence().equals(foundORF[frame].getSequence())) {
-						if (checkAndWriteProtein(protein[frame],
-								knownProteins, default_hashWidth,
-								fastaWriter, gffFrameWriters[frame])) {
-							nr_entries++;
-						} else {
-							known_proteins++;
-						}
-					}
-					
-					if ((foundORF[frame] != null) && 
-							foundORF[frame].length() >= min_protein_length) {
-						if (checkAndWriteProtein(foundORF[frame],
-								knownProteins, default_hashWidth,
-								fastaWriter, gffFrameWriters[frame])) {
-							nr_entries++;
-							proteins_with_orf++;
-						} else {
-							known_proteins++;
-						}
-					}
-				}
+				submitRecord(record, knownProteins, executor, pendingRecords,
+						statistics, handler);
+			}
+			
+			while (!pendingRecords.isEmpty()) {
+				passRecordResult(pendingRecords.removeFirst(), statistics,
+						handler);
 			}
+		} finally {
+			executor.shutdownNow();
 		}
 		
-		if (fastaWriter != null) {
-			fastaWriter.close();
-			logger.info("pseudo proteins written to " + outputFileName +
-					" in FASTA format");
+		logger.info("parsed " + nrRecords + " records");
+		return statistics;
+	}
+	
+	
+	/**
+	 * Returns the name of a record parsed as separate replicon, i.e. the name
+	 * in its header or otherwise the genome name.
+	 * 
+	 * @param bounds
+	 * @param recordNr the number of the record in the file
+	 * @return
+	 */
+	private String getRepliconName(FastaRecordBounds bounds, int recordNr) {
+		String recordName = genomeName;
+		if (bounds.getHeader() != null) {
+			recordName = parseRecordName(bounds.getHeader());
+			if (recordName == null) {
+				recordName = (genomeName != null) ?
+						genomeName : ("record" + recordNr);
+				logger.warn("no name in header '" + bounds.getHeader() +
+						"', using '" + recordName + "'");
+			}
 		}
-		for (BufferedWriter bw : gffFrameWriters) {
-			if (bw != null) {
-				bw.close();
+		return recordName;
+	}
+	
+	
+	/**
+	 * Submits the translation of the record to the executor. If too many
+	 * records are pending, the results of the oldest ones are passed on
+	 * before, to keep the memory bounded.
+	 * 
+	 * @throws IOException
+	 */
+	private void submitRecord(GenomeRecord record,
+			ProteinIntervalIndex knownProteins,
+			ExecutorService executor,
+			LinkedList<Future<RecordResult>> pendingRecords,
+			GenomeParserStatistics statistics,
+			TranslatedProteinHandler handler) throws IOException {
+		if (record.getLength() < 1) {
+			logger.warn("record " + record.getName() + " has no sequence");
+			return;
+		}
+		
+		pendingRecords.add(executor.submit(
+				new RecordTranslation(record, knownProteins)));
+		
+		while (pendingRecords.size() > 2 * nrThreads) {
+			passRecordResult(pendingRecords.removeFirst(), statistics,
+					handler);
+		}
+	}
+	
+	
+	/**
+	 * Waits for the given record translation and passes its proteins to the
+	 * handler.
+	 * 
+	 * @throws IOException
+	 */
+	private void passRecordResult(Future<RecordResult> futureResult,
+			GenomeParserStatistics statistics,
+			TranslatedProteinHandler handler) throws IOException {
+		RecordResult result;
+		try {
+			result = futureResult.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while parsing the records", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
 			}
+			throw new IOException("error while parsing a record", e.getCause());
 		}
 		
-		logger.info("#parsed pseudo-proteins: " + nrParsedProteins);
-		logger.info("#proteins longer 500 aa: " + extra_long_proteins);
-		logger.info("#proteins shorter " + min_protein_length + " aa (NOT written to files): " +
-				extra_short_proteins);
-		logger.info("longest protein: " + length_longest_protein);
-		logger.info("#proteins with ORF: " + proteins_with_orf);
-		logger.info("#proteins left out, because they are known: " + known_proteins);
-		logger.info("#processed FASTA entries: " + nr_entries);
+		for (int idx=0; idx < result.proteins.size(); idx++) {
+			handler.handleProtein(result.proteins.get(idx),
+					result.frames[idx]);
+		}
 		
-		return nrParsedProteins;
+		statistics.add(result.statistics);
+	}
+	
+	
+	/**
+	 * Returns the record name from the FASTA header, i.e. the header up to the
+	 * first space, or null if there is none.
+	 * 
+	 * @param header
+	 * @return
+	 */
+	public static String parseRecordName(String header) {
+		Matcher matcher = recordNamePattern.matcher(header);
+		if (matcher.matches()) {
+			return matcher.group(1);
+		}
+		return null;
 	}
 	
 	
 	/**
-	 * Parses the proteins from a file and returns a hash map, mapping from a
-	 * hash of the genome position to the proteins in this hash-area. The
-	 * hash-areas are the genome positions spanned divided by the hashWidth.
+	 * Parses the proteins from a file and returns an index of their genome
+	 * positions.
 	 * 
 	 * @param proteinsFile
 	 * @return
 	 * @throws IOException 
 	 */
-	private Map<Long, List<GenericProtein>> parseProteinsFromGFF(
-			String proteinsFile, Long hashWidth)
+	private ProteinIntervalIndex parseProteinsFromGFF(String proteinsFile)
 			throws IOException, NumberFormatException {
+		List<GenericProtein> proteins = new ArrayList<GenericProtein>();
 		
-		//  100k base-hash of the proteins
-		Map<Long, List<GenericProtein>> hashProteins =
-				new HashMap<Long, List<GenericProtein>>();
-		
-		BufferedReader gffReader = new BufferedReader(
-				new InputStreamReader(new FileInputStream(proteinsFile)));
+		BufferedReader gffReader = CompressedFiles.openReader(proteinsFile);
 		
 		logger.info("start parsing " + genomeFileName);
 		String line;
@@ -618,18 +1086,7 @@ public class GenomeParser {
 				
 				if ((protein != null) &&
 						(protein.getStart() != null) && (protein.getEnd() != null)) {
-					Long startHash = protein.getStart() / hashWidth;
-					Long endHash = protein.getEnd() / hashWidth;
-					
-					for (Long h = startHash; h <= endHash; h++) {
-						List<GenericProtein> protList = hashProteins.get(h);
-						if (protList == null) {
-							protList = new ArrayList<GenericProtein>();
-							hashProteins.put(h, protList);
-						}
-						protList.add(protein);
-					}
-					
+					proteins.add(protein);
 					nr_proteins++;
 				}
 			}
@@ -637,45 +1094,84 @@ public class GenomeParser {
 		gffReader.close();
 		logger.info("got " + nr_proteins + " known proteins");
 		
-		return hashProteins;
+		return new ProteinIntervalIndex(proteins, sweepRelations);
 	}
 	
 	
 	/**
-	 * Checks whether the protein is a known database protein in the
-	 * knownProteins hash map. If it is not, write the protein to the FASTA and 
-	 * GFF file.
-	 * 
-	 * @param protein
-	 * @param knownProteins
-	 * @param hashWidth
-	 * @param fastaWriter
-	 * @param gffFrameWriter
-	 * @return true, if the protein was valid to be written to the files
-	 * @throws IOException
+	 * The buffered proteins of a translated record, which are not known.
 	 */
-	private boolean checkAndWriteProtein(GenomeTranslatedProtein protein,
-			Map<Long, List<GenericProtein>> knownProteins, Long hashWidth,
-			BufferedWriter fastaWriter, BufferedWriter gffFrameWriter)
-			throws IOException {
+	private static class RecordResult implements TranslatedProteinHandler {
+		
+		private List<GenomeTranslatedProtein> proteins;
 		
-		protein.checkProteinRelations(knownProteins, hashWidth);
+		private int frames[];
 		
-		if (!protein.isInKnownProtein()) {
-			if (fastaWriter != null) {
-				fastaWriter.write(protein.toFastaEntry());
-				fastaWriter.newLine();
+		private GenomeParserStatistics statistics;
+		
+		
+		public RecordResult() {
+			this.proteins = new ArrayList<GenomeTranslatedProtein>();
+			this.frames = new int[16];
+			this.statistics = null;
+		}
+		
+		
+		@Override
+		public boolean handleProtein(GenomeTranslatedProtein protein,
+				int frame) {
+			if (proteins.size() == frames.length) {
+				frames = Arrays.copyOf(frames, 2 * frames.length);
 			}
+			frames[proteins.size()] = frame;
+			proteins.add(protein);
+			return true;
+		}
+	}
+	
+	
+	/**
+	 * Translates a single record as replicon into a
+	 * {@link RecordResult}.
+	 */
+	private class RecordTranslation implements Callable<RecordResult> {
+		
+		private GenomeRecord record;
+		
+		private ProteinIntervalIndex knownProteins;
+		
+		
+		public RecordTranslation(GenomeRecord record,
+				ProteinIntervalIndex knownProteins) {
+			this.record = record;
+			this.knownProteins = knownProteins;
+		}
+		
+		
+		@Override
+		public RecordResult call() throws IOException {
+			RecordResult result = new RecordResult();
+			TranslatedProteinHandler filter =
+					new KnownProteinFilter(knownProteins, result);
 			
-			if (gffFrameWriter != null) {
-				gffFrameWriter.append(
-						protein.buildGFFline());
-				gffFrameWriter.newLine();
+			if (engine == TranslationEngine.STOPS) {
+				StopCodonSixFrameTranslator translator =
+						new StopCodonSixFrameTranslator(min_protein_length,
+								knownProteins);
+				translator.setAllStartSites(allStartSites);
+				result.statistics = translator.translate(record, filter);
+				return result;
 			}
-						
-			return true;
-		} else {
-			return false;
+			
+			SixFrameTranslator translator = new SixFrameTranslator(
+					record, min_protein_length, filter);
+			translator.setAllStartSites(allStartSites);
+			translator.addNucleotides(record.getNucleotides(), 0,
+					record.getLength());
+			translator.finish();
+			
+			result.statistics = translator.getStatistics();
+			return result;
 		}
 	}
 	
@@ -727,12 +1223,202 @@ public class GenomeParser {
                 		"not be listed in the new FASTA and GFF files." )
                 .create("proteins"));
 		
+		options.addOption(OptionBuilder
+				.withArgName("perRecord")
+                .withDescription( "parse each record of the FASTA file as a " +
+                		"separate replicon (e.g. chromosome and " +
+                		"plasmids or contigs), named by its header. Otherwise " +
+                		"all records are concatenated into one genome." )
+                .create("perRecord"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("number")
+                .hasArg()
+                .withDescription( "the number of threads used for parallel " +
+                		"parsing (defaults to the number of processors)" )
+                .create("threads"));
+		
+		StringBuilder engineNames = new StringBuilder();
+		for (TranslationEngine engine : TranslationEngine.values()) {
+			if (engineNames.length() > 0) {
+				engineNames.append(", ");
+			}
+			engineNames.append(engine.getName());
+		}
+		options.addOption(OptionBuilder
+				.withArgName("name")
+                .hasArg()
+                .withDescription( "the engine for the translation of the " +
+                		"genome, one of " + engineNames +
+                		" (defaults to " + TranslationEngine.SERIAL.getName() +
+                		")" )
+                .create("engine"));
+		
+		StringBuilder topologyNames = new StringBuilder();
+		for (Topology topology : Topology.values()) {
+			if (topologyNames.length() > 0) {
+				topologyNames.append(", ");
+			}
+			topologyNames.append(topology.getName());
+		}
+		options.addOption(OptionBuilder
+				.withArgName("name")
+                .hasArg()
+                .withDescription( "the topology of the records (or the " +
+                		"genome), one of " + topologyNames + ". The " +
+                		"proteins of linear records are not combined over " +
+                		"the ends and " + Topology.AUTO.getName() + " takes " +
+                		"the topology from the header (defaults to " +
+                		Topology.CIRCULAR.getName() + ")" )
+                .create("topology"));
+		
+		StringBuilder tableIds = new StringBuilder();
+		for (TranslationTable table : TranslationTable.getTables()) {
+			if (tableIds.length() > 0) {
+				tableIds.append(", ");
+			}
+			tableIds.append(table.getId());
+		}
+		options.addOption(OptionBuilder
+				.withArgName("id")
+                .hasArg()
+                .withDescription( "the NCBI translation table of the " +
+                		"genetic code, one of " + tableIds + " (defaults to " +
+                		TranslationTable.default_id + ", e.g. 4 for " +
+                		"mycoplasma)" )
+                .create("code"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("number")
+                .hasArg()
+                .withDescription( "the size of the chunks in nucleotides for " +
+                		"the chunked engine (defaults to " +
+                		ChunkedSixFrameTranslator.default_chunkSize + ")" )
+                .create("chunkSize"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("allStarts")
+                .withDescription( "report the ORFs of all start codons in a " +
+                		"protein (the N-terminal isoforms of alternative start " +
+                		"sites), not only the ORF of the first start codon" )
+                .create("allStarts"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("sweep")
+                .withDescription( "find the relations to the known proteins " +
+                		"by sweeping over the sorted known proteins, which is " +
+                		"faster for large annotations" )
+                .create("sweep"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("pipeline")
+                .withDescription( "check the known proteins and write the " +
+                		"outputs in own threads, decoupled from the translation " +
+                		"(for the serial and stops engines)" )
+                .create("pipeline"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("indexGFF")
+                .withDescription( "write the GFF files sorted by position " +
+                		"and BGZF compressed (base_frameN.gff.gz) with a " +
+                		"tabix index (.tbi) for region queries" )
+                .create("indexGFF"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("filename")
+                .hasArg()
+                .withDescription( "output a single GFF file with the " +
+                		"proteins of all frames, sorted by position (instead " +
+                		"of the files given by outgff). If the name ends " +
+                		"with .gz, it is BGZF compressed with a tabix index." )
+                .create("outsortedgff"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("number")
+                .hasArg()
+                .withDescription( "the maximal memory in MB for the sorting " +
+                		"of the GFF records, further records are sorted in " +
+                		"temporary files (defaults to " +
+                		(SortedGFFWriter.default_maxMemory >> 20) + ")" )
+                .create("sortMemory"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("directory")
+                .hasArg()
+                .withDescription( "the directory for temporary files " +
+                		"(defaults to the system's temporary directory)" )
+                .create("tempDir"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("directory")
+                .hasArg()
+                .withDescription( "the directory of the result cache, if " +
+                		"given, the outputs of a parsing with the same " +
+                		"genome, known proteins and settings are copied " +
+                		"from the cache" )
+                .create("cacheDir"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("number")
+                .hasArg()
+                .withDescription( "the maximal size of the result cache in " +
+                		"MB, the least recently used results are evicted " +
+                		"(defaults to " +
+                		(ResultCache.default_maxSize >> 20) + ")" )
+                .create("cacheSize"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("filename")
+                .hasArg()
+                .withDescription( "parse all genomes of the given manifest " +
+                		"(instead of infile), a tab separated file with the " +
+                		"columns genome, prefix and optionally proteins, " +
+                		"name and code. The outputs are written to prefix.fasta and " +
+                		"prefix_frameN.gff." )
+                .create("batch"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("filename")
+                .hasArg()
+                .withDescription( "the summary table with the counts of " +
+                		"each genome of the batch" )
+                .create("summary"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("number")
+                .hasArg()
+                .withDescription( "the maximal number of genomes of the " +
+                		"batch parsed at the same time (defaults to " +
+                		GenomeBatchParser.default_maxInFlight + ")" )
+                .create("inFlight"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("filename")
+                .hasArg()
+                .withDescription( "write each sequence of the FASTA output " +
+                		"(of all genomes of the batch) only once into this " +
+                		"file, needs outloci" )
+                .create("outuniquefasta"));
+		
+		options.addOption(OptionBuilder
+				.withArgName("filename")
+                .hasArg()
+                .withDescription( "the table of all loci of the sequences " +
+                		"in outuniquefasta" )
+                .create("outloci"));
+		
 		try {
 			CommandLine line = cliParser.parse( options, args );
 			
 			if ((line.getOptions().length == 0) ||  line.hasOption("help") ||
-					!line.hasOption("infile")) {
+					(!line.hasOption("infile") && !line.hasOption("batch"))) {
 				showHelp = true;
+			} else if (line.hasOption("outuniquefasta") &&
+					(!line.hasOption("outloci") ||
+							(!line.hasOption("batch") &&
+									!line.hasOption("outfasta")))) {
+				throw new ParseException("outuniquefasta needs outloci and " +
+						"the FASTA output");
 			} else {
 				String genomeName = null;
 				if (line.hasOption("genomeName")) {
@@ -743,10 +1429,100 @@ public class GenomeParser {
 						new GenomeParser(line.getOptionValue("infile"), 5,
 								genomeName);
 				
-				parser.parseGenome(
-						line.getOptionValue("outfasta"),
-						line.getOptionValue("outgff"),
-						line.getOptionValue("proteins"));
+				parser.setRecordsAsReplicons(line.hasOption("perRecord"));
+				if (line.hasOption("threads")) {
+					parser.setNrThreads(
+							Integer.parseInt(line.getOptionValue("threads")));
+				}
+				if (line.hasOption("engine")) {
+					TranslationEngine engine = TranslationEngine.getByName(
+							line.getOptionValue("engine"));
+					if (engine == null) {
+						throw new ParseException("unknown engine " +
+								line.getOptionValue("engine"));
+					}
+					parser.setEngine(engine);
+				}
+				if (line.hasOption("topology")) {
+					Topology topology = Topology.getByName(
+							line.getOptionValue("topology"));
+					if (topology == null) {
+						throw new ParseException("unknown topology " +
+								line.getOptionValue("topology"));
+					}
+					parser.setTopology(topology);
+				}
+				if (line.hasOption("code")) {
+					TranslationTable table = TranslationTable.getById(
+							line.getOptionValue("code"));
+					if (table == null) {
+						throw new ParseException("unknown genetic code " +
+								line.getOptionValue("code"));
+					}
+					parser.setTranslationTable(table);
+				}
+				if (line.hasOption("chunkSize")) {
+					parser.setChunkSize(
+							Integer.parseInt(line.getOptionValue("chunkSize")));
+				}
+				parser.setAllStartSites(line.hasOption("allStarts"));
+				parser.setSweepRelations(line.hasOption("sweep"));
+				parser.setPipelinedOutput(line.hasOption("pipeline"));
+				parser.setIndexedGFF(line.hasOption("indexGFF"));
+				parser.setSortedGFFFileName(
+						line.getOptionValue("outsortedgff"));
+				if (line.hasOption("sortMemory")) {
+					parser.setSortMemory(Long.parseLong(
+							line.getOptionValue("sortMemory")) << 20);
+				}
+				if (line.hasOption("tempDir")) {
+					parser.setTempDirectory(
+							new File(line.getOptionValue("tempDir")));
+				}
+				if (line.hasOption("cacheDir")) {
+					long cacheSize = ResultCache.default_maxSize;
+					if (line.hasOption("cacheSize")) {
+						cacheSize = Long.parseLong(
+								line.getOptionValue("cacheSize")) << 20;
+					}
+					parser.setResultCache(new ResultCache(
+							new File(line.getOptionValue("cacheDir")),
+							cacheSize));
+				}
+				
+				if (line.hasOption("batch")) {
+					int maxInFlight = GenomeBatchParser.default_maxInFlight;
+					if (line.hasOption("inFlight")) {
+						maxInFlight = Integer.parseInt(
+								line.getOptionValue("inFlight"));
+					}
+					GenomeBatchParser batchParser =
+							new GenomeBatchParser(parser, maxInFlight);
+					batchParser.readManifest(line.getOptionValue("batch"));
+					batchParser.parseGenomes(line.getOptionValue("summary"));
+					if (line.hasOption("outuniquefasta")) {
+						batchParser.deduplicate(
+								line.getOptionValue("outuniquefasta"),
+								line.getOptionValue("outloci"));
+					}
+				} else {
+					long nrProteins = parser.parseGenome(
+							line.getOptionValue("outfasta"),
+							line.getOptionValue("outgff"),
+							line.getOptionValue("proteins"));
+					if ((nrProteins >= 0) && line.hasOption("outuniquefasta")) {
+						ProteinDeduplicator deduplicator =
+								new ProteinDeduplicator(
+										line.getOptionValue("outuniquefasta"),
+										line.getOptionValue("outloci"));
+						try {
+							deduplicator.addFasta(
+									line.getOptionValue("outfasta"));
+						} finally {
+							deduplicator.close();
+						}
+					}
+				}
 			}
 		} catch (ParseException e) {
 			logger.error("Error while parsing the command line: " + e.getMessage());
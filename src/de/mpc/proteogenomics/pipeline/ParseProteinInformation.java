@@ -2,11 +2,7 @@ package de.mpc.proteogenomics.pipeline;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
@@ -22,6 +18,7 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Logger;
 
+import de.mpc.proteogenomics.pipeline.io.CompressedFiles;
 import de.mpc.proteogenomics.pipeline.protein.GenericProtein;
 import au.com.bytecode.opencsv.CSVReader;
 
@@ -152,11 +149,10 @@ public class ParseProteinInformation {
 	public void parseFASTAFile(String fastaInfile, String gffOutFile,
 			String genomeName)
 			throws IOException{
-		BufferedReader fastaReader = new BufferedReader(
-				new InputStreamReader(new FileInputStream(fastaInfile)));
+		BufferedReader fastaReader = CompressedFiles.openReader(fastaInfile);
 		
 		BufferedWriter gffWriter =
-				new BufferedWriter(new FileWriter(gffOutFile));
+				CompressedFiles.openWriter(gffOutFile);
 		gffWriter.append("##gff-version 3");
 		gffWriter.newLine();
 		
@@ -171,7 +167,7 @@ public class ParseProteinInformation {
 				GenericProtein protein =
 						createProteinFromFASTA(line, genomeName, false);
 				if (protein != null) {
-					gffWriter.append(protein.buildGFFline());
+					protein.writeGFFLine(gffWriter);
 					gffWriter.newLine();
 					nr_proteins++;
 				} else {
@@ -207,8 +203,7 @@ public class ParseProteinInformation {
 		List<GenericProtein> proteinList =
 				new ArrayList<GenericProtein>(nrEntries);
 		
-		BufferedReader fastaReader = new BufferedReader(
-				new InputStreamReader(new FileInputStream(fastaInfile)));
+		BufferedReader fastaReader = CompressedFiles.openReader(fastaInfile);
 		
 		String line;
 		while (((line = fastaReader.readLine()) != null) &&
@@ -274,7 +269,7 @@ public class ParseProteinInformation {
 	public void parseTXTFile(String txtInfile, String gffOutFile)
 			throws IOException {
 		BufferedWriter gffWriter =
-				new BufferedWriter(new FileWriter(gffOutFile));
+				CompressedFiles.openWriter(gffOutFile);
 		gffWriter.append("##gff-version 3");
 		gffWriter.newLine();
 		
@@ -282,7 +277,7 @@ public class ParseProteinInformation {
 		
 		int nr_proteins = 0;
 		int nr_error_proteins = 0;
-		CSVReader reader = new CSVReader(new FileReader(txtInfile), separator,
+		CSVReader reader = new CSVReader(CompressedFiles.openReader(txtInfile), separator,
 				'"', 0);
 		
 		for (String[] line = reader.readNext();
@@ -291,7 +286,7 @@ public class ParseProteinInformation {
 				GenericProtein protein = createProteinFromTXTLine(line);
 				
 				if (protein != null) {
-					gffWriter.append(protein.buildGFFline());
+					protein.writeGFFLine(gffWriter);
 					gffWriter.newLine();
 					nr_proteins++;
 				} else {
@@ -326,7 +321,7 @@ public class ParseProteinInformation {
 		List<GenericProtein> proteinList = new ArrayList<GenericProtein>(lines);
 		
 		CSVReader reader =
-				new CSVReader(new FileReader(txtInfile), separator, '"', 0);
+				new CSVReader(CompressedFiles.openReader(txtInfile), separator, '"', 0);
 		
 		int lineCount = 0;
 		for (String[] line = reader.readNext();
@@ -0,0 +1,260 @@
+package de.mpc.proteogenomics.pipeline;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * A genetic code given by an NCBI translation table (transl_table). The
+ * amino acids and start codons of the table are compiled once into arrays
+ * indexed by the 6-bit codon index (see {@link GeneticCode}), so translating
+ * with any table costs the same as with the bacterial code.
+ * <p>
+ * The registry holds the NCBI tables with fixed stop codons, the tables 27,
+ * 28 and 31 (whose stop codons depend on the context) are left out.
+ *
+ * http://www.ncbi.nlm.nih.gov/Taxonomy/Utils/wprintgc.cgi
+ *
+ * @author julian
+ *
+ */
+public class TranslationTable {
+
+	/** the id of the bacterial, archaeal and plant plastid code */
+	public static final int default_id = 11;
+
+	/** the order of the nucleotides in the NCBI tables */
+	private static final String ncbiBaseOrder = "TCAG";
+
+	/** the order of the nucleotides in the 2-bit codes */
+	private static final String codeBaseOrder = "ACGT";
+
+	/** the registered tables by their id */
+	private static final Map<Integer, TranslationTable> tables =
+			new TreeMap<Integer, TranslationTable>();
+
+
+	/** the NCBI id of the table */
+	private final int id;
+
+	/** the NCBI name of the table */
+	private final String name;
+
+	/** the amino acids, indexed by the 6-bit codon index */
+	private final byte aminoAcids[];
+
+	/** whether the codon is a start codon (1) or not (0), indexed by the 6-bit codon index */
+	private final byte startCodonFlags[];
+
+
+	static {
+		register(1, "Standard",
+				"FFLLSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"---M---------------M---------------M----------------------------");
+		register(2, "Vertebrate Mitochondrial",
+				"FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIMMTTTTNNKKSS**VVVVAAAADDEEGGGG",
+				"--------------------------------MMMM---------------M------------");
+		register(3, "Yeast Mitochondrial",
+				"FFLLSSSSYY**CCWWTTTTPPPPHHQQRRRRIIMMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"----------------------------------MM---------------M------------");
+		register(4, "Mold, Protozoan, and Coelenterate Mitochondrial and " +
+				"Mycoplasma/Spiroplasma",
+				"FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"--MM---------------M------------MMMM---------------M------------");
+		register(5, "Invertebrate Mitochondrial",
+				"FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIMMTTTTNNKKSSSSVVVVAAAADDEEGGGG",
+				"---M----------------------------MMMM---------------M------------");
+		register(6, "Ciliate, Dasycladacean and Hexamita Nuclear",
+				"FFLLSSSSYYQQCC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"-----------------------------------M----------------------------");
+		register(9, "Echinoderm and Flatworm Mitochondrial",
+				"FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIIMTTTTNNNKSSSSVVVVAAAADDEEGGGG",
+				"-----------------------------------M---------------M------------");
+		register(10, "Euplotid Nuclear",
+				"FFLLSSSSYY**CCCWLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"-----------------------------------M----------------------------");
+		register(11, "Bacterial, Archaeal and Plant Plastid",
+				"FFLLSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"---M---------------M------------MMMM---------------M------------");
+		register(12, "Alternative Yeast Nuclear",
+				"FFLLSSSSYY**CC*WLLLSPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"-------------------M---------------M----------------------------");
+		register(13, "Ascidian Mitochondrial",
+				"FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIMMTTTTNNKKSSGGVVVVAAAADDEEGGGG",
+				"---M------------------------------MM---------------M------------");
+		register(14, "Alternative Flatworm Mitochondrial",
+				"FFLLSSSSYYY*CCWWLLLLPPPPHHQQRRRRIIIMTTTTNNNKSSSSVVVVAAAADDEEGGGG",
+				"-----------------------------------M----------------------------");
+		register(16, "Chlorophycean Mitochondrial",
+				"FFLLSSSSYY*LCC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"-----------------------------------M----------------------------");
+		register(21, "Trematode Mitochondrial",
+				"FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIMMTTTTNNNKSSSSVVVVAAAADDEEGGGG",
+				"-----------------------------------M---------------M------------");
+		register(22, "Scenedesmus obliquus Mitochondrial",
+				"FFLLSS*SYY*LCC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"-----------------------------------M----------------------------");
+		register(23, "Thraustochytrium Mitochondrial",
+				"FF*LSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"--------------------------------M--M---------------M------------");
+		register(24, "Rhabdopleuridae Mitochondrial",
+				"FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSSKVVVVAAAADDEEGGGG",
+				"---M---------------M---------------M---------------M------------");
+		register(25, "Candidate Division SR1 and Gracilibacteria",
+				"FFLLSSSSYY**CCGWLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"---M-------------------------------M---------------M------------");
+		register(26, "Pachysolen tannophilus Nuclear",
+				"FFLLSSSSYY**CC*WLLLAPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"-------------------M---------------M----------------------------");
+		register(29, "Mesodinium Nuclear",
+				"FFLLSSSSYYYYCC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"-----------------------------------M----------------------------");
+		register(30, "Peritrich Nuclear",
+				"FFLLSSSSYYEECC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+				"-----------------------------------M----------------------------");
+		register(33, "Cephalodiscidae Mitochondrial",
+				"FFLLSSSSYYY*CCWWLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSSKVVVVAAAADDEEGGGG",
+				"---M---------------M---------------M---------------M------------");
+	}
+
+
+	/**
+	 * Compiles the table given by the NCBI strings of the amino acids and
+	 * start codons, in which the first, second and third base each iterate
+	 * over TCAG.
+	 */
+	private TranslationTable(int id, String name, String ncbiAminoAcids,
+			String ncbiStarts) {
+		if ((ncbiAminoAcids.length() != 64) || (ncbiStarts.length() != 64)) {
+			throw new IllegalArgumentException("the translation table " + id +
+					" does not have 64 codons");
+		}
+
+		this.id = id;
+		this.name = name;
+		this.aminoAcids = new byte[64];
+		this.startCodonFlags = new byte[64];
+
+		for (int ncbiIdx=0; ncbiIdx < 64; ncbiIdx++) {
+			int codonIndex = (baseCode(ncbiIdx / 16) << 4) |
+					(baseCode((ncbiIdx / 4) % 4) << 2) |
+					baseCode(ncbiIdx % 4);
+
+			aminoAcids[codonIndex] = (byte)ncbiAminoAcids.charAt(ncbiIdx);
+			startCodonFlags[codonIndex] =
+					(byte)((ncbiStarts.charAt(ncbiIdx) == 'M') ? 1 : 0);
+		}
+	}
+
+
+	/**
+	 * Returns the 2-bit code of the nucleotide at the given index of the NCBI
+	 * base order.
+	 */
+	private static int baseCode(int ncbiBaseIdx) {
+		return codeBaseOrder.indexOf(ncbiBaseOrder.charAt(ncbiBaseIdx));
+	}
+
+
+	private static void register(int id, String name, String ncbiAminoAcids,
+			String ncbiStarts) {
+		tables.put(id,
+				new TranslationTable(id, name, ncbiAminoAcids, ncbiStarts));
+	}
+
+
+	/**
+	 * Returns the table with the given NCBI id or null, if there is none.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public static TranslationTable getById(int id) {
+		return tables.get(id);
+	}
+
+
+	/**
+	 * Returns the table with the given NCBI id (as string) or null, if there
+	 * is none.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public static TranslationTable getById(String id) {
+		try {
+			return getById(Integer.parseInt(id.trim()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * Returns the bacterial, archaeal and plant plastid code (table 11).
+	 *
+	 * @return
+	 */
+	public static TranslationTable getDefault() {
+		return tables.get(default_id);
+	}
+
+
+	/**
+	 * Returns all registered tables, ordered by their id.
+	 *
+	 * @return
+	 */
+	public static Collection<TranslationTable> getTables() {
+		return Collections.unmodifiableCollection(tables.values());
+	}
+
+
+	/**
+	 * Returns the NCBI id of the table
+	 * @return
+	 */
+	public int getId() {
+		return id;
+	}
+
+
+	/**
+	 * Returns the NCBI name of the table
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+
+	/**
+	 * Returns the amino acid for the given 6-bit codon index.
+	 *
+	 * @param codonIndex
+	 * @return the one letter amino acid code, * for stop
+	 */
+	public char translateCodon(int codonIndex) {
+		return (char)aminoAcids[codonIndex];
+	}
+
+
+	/**
+	 * Returns whether the codon given by the 6-bit codon index is a potential
+	 * start codon.
+	 *
+	 * @param codonIndex
+	 * @return
+	 */
+	public boolean isStartCodon(int codonIndex) {
+		return startCodonFlags[codonIndex] != 0;
+	}
+
+
+	@Override
+	public String toString() {
+		return id + " (" + name + ")";
+	}
+}
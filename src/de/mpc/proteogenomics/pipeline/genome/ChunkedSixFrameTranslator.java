@@ -0,0 +1,550 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.GeneticCode;
+import de.mpc.proteogenomics.pipeline.TranslationTable;
+import de.mpc.proteogenomics.pipeline.protein.GenomeTranslatedProtein;
+import de.mpc.proteogenomics.pipeline.protein.ProteinIntervalIndex;
+
+
+/**
+ * Translates a genome in all six frames by splitting it into chunks, which
+ * are translated concurrently.
+ * <p>
+ * The translation of a frame can only be started at a known state, which is
+ * directly after a stop codon. Therefore each chunk starts in each frame after
+ * the first stop codon behind the chunk's start and its window overlaps into
+ * the following chunk up to the first stop codon there. This way, every
+ * pseudo protein crossing a chunk border is translated completely by one
+ * chunk. The first protein of each frame (before the first stop codon) is
+ * combined with the last protein of a circular genome like in the
+ * {@link SixFrameTranslator} by
+ * {@link FrameTranslator#finishCircular(int[], long, FrameTranslator)}.
+ * <p>
+ * The proteins are written in the same order as by the
+ * {@link SixFrameTranslator}, so the output is identical.
+ *
+ * @author julian
+ *
+ */
+public class ChunkedSixFrameTranslator {
+
+	private final static Logger logger = Logger.getLogger(ChunkedSixFrameTranslator.class);
+
+	/** the default size of the chunks in nucleotides */
+	public static final int default_chunkSize = 1000000;
+
+	/** marks a frame without stop codon behind a position */
+	private static final long NO_STOP = Long.MAX_VALUE;
+
+	/** the minimal reported protein length */
+	private final int min_protein_length;
+
+	/** the known proteins, indexed by their position */
+	private final ProteinIntervalIndex knownProteins;
+
+	/** the size of the chunks in nucleotides */
+	private final int chunkSize;
+
+	/** the number of threads used for the translation */
+	private final int nrThreads;
+
+	/** whether the ORFs of all start codons are reported */
+	private boolean allStartSites;
+
+
+	public ChunkedSixFrameTranslator(int minimalProteinLength,
+			ProteinIntervalIndex knownProteins,
+			int chunkSize, int nrThreads) {
+		this.min_protein_length = minimalProteinLength;
+		this.knownProteins = knownProteins;
+		this.chunkSize = Math.max(1, chunkSize);
+		this.nrThreads = Math.max(1, nrThreads);
+		this.allStartSites = false;
+	}
+
+
+	/**
+	 * Sets whether the ORFs of all start codons in a protein are reported,
+	 * instead of only the ORF of the first start codon.
+	 *
+	 * @param allStartSites
+	 */
+	public void setAllStartSites(boolean allStartSites) {
+		this.allStartSites = allStartSites;
+	}
+
+
+	/**
+	 * Translates the given circular genome and writes the not known proteins
+	 * into the given outputs.
+	 *
+	 * @param genome the whole genome
+	 * @param fastaWriter the FASTA output (may be null)
+	 * @param gffFrameWriters the GFF outputs of the frames (entries may be
+	 * null)
+	 * @return the statistics of the translation
+	 * @throws IOException
+	 */
+	public GenomeParserStatistics translate(GenomeRecord genome,
+			Appendable fastaWriter, Appendable[] gffFrameWriters)
+			throws IOException {
+		int length = genome.getLength();
+		int nrChunks = Math.max(1, (length + chunkSize - 1) / chunkSize);
+
+		logger.info("translating " + genome.getName() + " in " + nrChunks +
+				" chunks of " + chunkSize + " nucleotides, using " +
+				nrThreads + " threads");
+
+		long[][] syncPositions = findSyncPositions(genome, nrChunks);
+
+		GenomeParserStatistics statistics =
+				new GenomeParserStatistics(min_protein_length);
+
+		FrameTranslator firstTranslators[] = null;
+		FrameTranslator lastTranslators[] = new FrameTranslator[6];
+		ChunkFrameOutput lastOutputs[] = new ChunkFrameOutput[6];
+		List<GenomeParserStatistics> chunkStatistics =
+				new ArrayList<GenomeParserStatistics>();
+
+		List<LinkedList<ChunkFrameOutput>> frameQueues =
+				new ArrayList<LinkedList<ChunkFrameOutput>>(6);
+		for (int frame=0; frame < 6; frame++) {
+			frameQueues.add(new LinkedList<ChunkFrameOutput>());
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+		LinkedList<Future<ChunkResult>> pendingChunks =
+				new LinkedList<Future<ChunkResult>>();
+		try {
+			int nextChunk = 0;
+			for (int chunk=0; chunk < nrChunks; chunk++) {
+				while ((nextChunk < nrChunks) &&
+						(pendingChunks.size() < 2 * nrThreads)) {
+					pendingChunks.add(executor.submit(
+							new ChunkTranslation(genome, nextChunk, nrChunks,
+									syncPositions)));
+					nextChunk++;
+				}
+
+				ChunkResult result = getChunkResult(pendingChunks.removeFirst());
+				if (chunk == 0) {
+					firstTranslators = result.translators;
+				}
+
+				for (int frame=0; frame < 6; frame++) {
+					if (result.translators[frame] != null) {
+						chunkStatistics.add(
+								result.translators[frame].getStatistics());
+						frameQueues.get(frame).add(result.outputs[frame]);
+
+						if (result.outputs[frame].reachesEnd) {
+							lastTranslators[frame] = result.translators[frame];
+							lastOutputs[frame] = result.outputs[frame];
+						}
+					}
+				}
+
+				// proteins of the following chunks end behind the next chunk's start
+				long writeLimit = (chunk < nrChunks - 1) ?
+						(long)(chunk + 1) * chunkSize : NO_STOP;
+				writeOrdered(frameQueues, writeLimit, fastaWriter,
+						gffFrameWriters);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		if (length < 3) {
+			logger.warn(genome.getName() + " is shorter than one codon, no " +
+					"proteins are reported");
+		} else {
+			// finish the last proteins, combined with the first ones of a
+			// circular genome
+			int firstNucleotides[] = new int[3];
+			for (int i=0; i < 3; i++) {
+				firstNucleotides[i] = genome.getNucleotides()[i];
+			}
+
+			for (int frame=0; frame < 6; frame++) {
+				lastOutputs[frame].clear();
+			}
+			for (int frame=0; frame < 6; frame++) {
+				FrameTranslator translator = lastTranslators[frame];
+				if (genome.isCircular()) {
+					translator.finishCircular(firstNucleotides, length,
+							firstTranslators[translator.getCombineFrame()]);
+				} else {
+					translator.finishLinear();
+				}
+			}
+			for (int frame=0; frame < 6; frame++) {
+				lastOutputs[frame].writeProteins(0, lastOutputs[frame].size,
+						fastaWriter, gffFrameWriters[frame]);
+			}
+		}
+
+		for (GenomeParserStatistics stats : chunkStatistics) {
+			statistics.add(stats);
+		}
+		return statistics;
+	}
+
+
+	/**
+	 * Finds for each chunk (except the first) and frame the position of the
+	 * first stop codon, which ends behind the chunk's start. The translation
+	 * of the chunk starts after this stop codon and the previous chunk ends
+	 * with it.
+	 *
+	 * @return the positions of the stop codons, indexed by chunk and frame.
+	 * {@link #NO_STOP}, if there is no stop codon in the remaining genome
+	 */
+	private long[][] findSyncPositions(GenomeRecord genome, int nrChunks) {
+		long[][] syncPositions = new long[nrChunks + 1][6];
+		for (int frame=0; frame < 6; frame++) {
+			syncPositions[0][frame] = 0;
+			syncPositions[nrChunks][frame] = NO_STOP;
+		}
+
+		for (int chunk=nrChunks-1; chunk > 0; chunk--) {
+			long chunkStart = (long)chunk * chunkSize;
+			long chunkEnd = Math.min(chunkStart + chunkSize, genome.getLength());
+
+			for (int frame=0; frame < 6; frame++) {
+				long stopPosition = findFirstStop(genome, frame, chunkStart,
+						chunkEnd);
+				syncPositions[chunk][frame] = (stopPosition != NO_STOP) ?
+						stopPosition : syncPositions[chunk+1][frame];
+			}
+		}
+
+		return syncPositions;
+	}
+
+
+	/**
+	 * Returns the end position of the first stop codon in the frame, which
+	 * ends in the region (from, to].
+	 *
+	 * @return the 1-based position of the stop codon's last nucleotide or
+	 * {@link #NO_STOP}
+	 */
+	private static long findFirstStop(GenomeRecord genome, int frame, long from,
+			long to) {
+		byte nucleotides[] = genome.getNucleotides();
+		TranslationTable translationTable = genome.getTranslationTable();
+
+		// the codons of the frame end at positions equal to the frame modulo 3
+		long codonEnd = from + 1 + ((frame % 3) - (from + 1) % 3 + 3) % 3;
+		codonEnd = Math.max(codonEnd, frame % 3 + 3);
+
+		for (; codonEnd <= to; codonEnd += 3) {
+			int idx = (int)codonEnd - 1;
+			int codon = (nucleotides[idx-2] << 4) | (nucleotides[idx-1] << 2) |
+					nucleotides[idx];
+			if (frame >= 3) {
+				codon = GeneticCode.reverseComplementCodon(codon);
+			}
+
+			if (translationTable.translateCodon(codon) == GeneticCode.STOP) {
+				return codonEnd;
+			}
+		}
+
+		return NO_STOP;
+	}
+
+
+	/**
+	 * Waits for the chunk translation and returns its result.
+	 *
+	 * @throws IOException
+	 */
+	private static ChunkResult getChunkResult(Future<ChunkResult> futureResult)
+			throws IOException {
+		try {
+			return futureResult.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while translating the chunks", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException("error while translating a chunk", e.getCause());
+		}
+	}
+
+
+	/**
+	 * Writes the queued proteins of all frames, which end up to the given
+	 * limit, in the order of the {@link SixFrameTranslator}, i.e. ordered by
+	 * the position of the stop codon and then by the frame.
+	 *
+	 * @throws IOException
+	 */
+	private static void writeOrdered(List<LinkedList<ChunkFrameOutput>> frameQueues,
+			long writeLimit, Appendable fastaWriter,
+			Appendable[] gffFrameWriters) throws IOException {
+		int cursors[] = new int[6];
+
+		while (true) {
+			int nextFrame = -1;
+			long nextPosition = NO_STOP;
+
+			for (int frame=0; frame < 6; frame++) {
+				LinkedList<ChunkFrameOutput> queue = frameQueues.get(frame);
+				while (!queue.isEmpty() &&
+						(cursors[frame] >= queue.getFirst().size)) {
+					queue.removeFirst();
+					cursors[frame] = 0;
+				}
+
+				if (!queue.isEmpty()) {
+					long position = queue.getFirst().positions[cursors[frame]];
+					if ((position <= writeLimit) && (position < nextPosition)) {
+						nextFrame = frame;
+						nextPosition = position;
+					}
+				}
+			}
+
+			if (nextFrame < 0) {
+				break;
+			}
+
+			// write all proteins of this frame's stop codon
+			ChunkFrameOutput output = frameQueues.get(nextFrame).getFirst();
+			int from = cursors[nextFrame];
+			int to = from;
+			while ((to < output.size) && (output.positions[to] == nextPosition)) {
+				to++;
+			}
+			output.writeProteins(from, to, fastaWriter,
+					gffFrameWriters[nextFrame]);
+			cursors[nextFrame] = to;
+		}
+
+		// keep partially written outputs at the queue's head
+		for (int frame=0; frame < 6; frame++) {
+			LinkedList<ChunkFrameOutput> queue = frameQueues.get(frame);
+			if (!queue.isEmpty() && (cursors[frame] > 0)) {
+				queue.getFirst().removeWritten(cursors[frame]);
+			}
+		}
+	}
+
+
+	/**
+	 * The translation of one chunk of the genome.
+	 */
+	private class ChunkTranslation implements Callable<ChunkResult> {
+
+		private GenomeRecord genome;
+
+		private int chunk;
+
+		private int nrChunks;
+
+		private long[][] syncPositions;
+
+
+		public ChunkTranslation(GenomeRecord genome, int chunk, int nrChunks,
+				long[][] syncPositions) {
+			this.genome = genome;
+			this.chunk = chunk;
+			this.nrChunks = nrChunks;
+			this.syncPositions = syncPositions;
+		}
+
+
+		@Override
+		public ChunkResult call() throws IOException {
+			ChunkResult result = new ChunkResult();
+			byte nucleotides[] = genome.getNucleotides();
+
+			for (int frame=0; frame < 6; frame++) {
+				long from = syncPositions[chunk][frame];
+				if (from == NO_STOP) {
+					// the frame is translated by a previous chunk up to the end
+					continue;
+				}
+
+				long to = syncPositions[chunk + 1][frame];
+				if ((to == NO_STOP) || (chunk == nrChunks - 1)) {
+					to = genome.getLength();
+				}
+
+				ChunkFrameOutput output = new ChunkFrameOutput(frame);
+				output.reachesEnd = (to == genome.getLength());
+				FrameTranslator translator = new FrameTranslator(frame,
+						genome, min_protein_length, output);
+				translator.setAllStartSites(allStartSites);
+				output.translator = translator;
+
+				if (chunk > 0) {
+					translator.startAfterStop(from);
+				}
+
+				for (long position=from+1; position <= to; position++) {
+					translator.addNucleotide(nucleotides[(int)position-1],
+							position);
+				}
+
+				result.translators[frame] = translator;
+				result.outputs[frame] = output;
+			}
+
+			return result;
+		}
+	}
+
+
+	/**
+	 * The result of a chunk translation
+	 */
+	private static class ChunkResult {
+
+		private FrameTranslator translators[];
+
+		private ChunkFrameOutput outputs[];
+
+
+		public ChunkResult() {
+			this.translators = new FrameTranslator[6];
+			this.outputs = new ChunkFrameOutput[6];
+		}
+	}
+
+
+	/**
+	 * Collects the formatted output of the reported proteins of one frame in
+	 * a chunk, together with the position of the stop codon, at which they
+	 * were finished.
+	 */
+	private class ChunkFrameOutput implements TranslatedProteinHandler {
+
+		private FrameTranslator translator;
+
+		private boolean reachesEnd;
+
+		private StringBuilder fasta;
+
+		private StringBuilder gff;
+
+		private ProteinWriter writer;
+
+		/** the positions, at which the proteins were finished */
+		private long positions[];
+
+		/** the ends of the proteins' FASTA entries */
+		private int fastaEnds[];
+
+		/** the ends of the proteins' GFF lines */
+		private int gffEnds[];
+
+		/** the number of proteins */
+		private int size;
+
+
+		public ChunkFrameOutput(int frame) {
+			this.fasta = new StringBuilder();
+			this.gff = new StringBuilder();
+
+			Appendable gffFrames[] = new Appendable[6];
+			gffFrames[frame] = gff;
+			this.writer = new ProteinWriter(knownProteins, fasta,
+					gffFrames);
+
+			this.positions = new long[64];
+			this.fastaEnds = new int[64];
+			this.gffEnds = new int[64];
+			this.size = 0;
+		}
+
+
+		@Override
+		public boolean handleProtein(GenomeTranslatedProtein protein, int frame)
+				throws IOException {
+			if (writer.handleProtein(protein, frame)) {
+				if (size == positions.length) {
+					positions = Arrays.copyOf(positions, 2 * size);
+					fastaEnds = Arrays.copyOf(fastaEnds, 2 * size);
+					gffEnds = Arrays.copyOf(gffEnds, 2 * size);
+				}
+				positions[size] = translator.getPosition();
+				fastaEnds[size] = fasta.length();
+				gffEnds[size] = gff.length();
+				size++;
+				return true;
+			}
+			return false;
+		}
+
+
+		/**
+		 * Writes the proteins with the indices in [from, to) to the outputs.
+		 *
+		 * @throws IOException
+		 */
+		private void writeProteins(int from, int to, Appendable fastaWriter,
+				Appendable gffWriter) throws IOException {
+			if (from >= to) {
+				return;
+			}
+
+			if (fastaWriter != null) {
+				fastaWriter.append(fasta,
+						(from > 0) ? fastaEnds[from - 1] : 0, fastaEnds[to - 1]);
+			}
+			if (gffWriter != null) {
+				gffWriter.append(gff,
+						(from > 0) ? gffEnds[from - 1] : 0, gffEnds[to - 1]);
+			}
+		}
+
+
+		/**
+		 * Removes the given number of already written proteins.
+		 */
+		private void removeWritten(int nrWritten) {
+			int fastaOffset = fastaEnds[nrWritten - 1];
+			int gffOffset = gffEnds[nrWritten - 1];
+
+			fasta.delete(0, fastaOffset);
+			gff.delete(0, gffOffset);
+
+			size -= nrWritten;
+			System.arraycopy(positions, nrWritten, positions, 0, size);
+			System.arraycopy(fastaEnds, nrWritten, fastaEnds, 0, size);
+			System.arraycopy(gffEnds, nrWritten, gffEnds, 0, size);
+			for (int i=0; i < size; i++) {
+				fastaEnds[i] -= fastaOffset;
+				gffEnds[i] -= gffOffset;
+			}
+		}
+
+
+		/**
+		 * Removes all proteins.
+		 */
+		private void clear() {
+			fasta.setLength(0);
+			gff.setLength(0);
+			size = 0;
+		}
+	}
+}
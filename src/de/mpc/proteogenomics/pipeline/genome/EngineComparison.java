@@ -0,0 +1,680 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.GenomeParser;
+import de.mpc.proteogenomics.pipeline.protein.GenomeTranslatedProtein;
+
+
+/**
+ * Differential test harness for the translation engines: parses genomes with
+ * the serial engine and another engine and checks, that the FASTA and GFF
+ * outputs are byte-identical.
+ * <p>
+ * Either given genomes are compared or random genomes are generated, which
+ * have varying lengths and nucleotide compositions (AT-rich genomes contain
+ * long open stretches spanning several chunks) and are parsed with several
+ * (also very small) chunk sizes.
+ * <p>
+ * For each run, the throughput (in MB of the genome file per second) is
+ * reported, so the engines can be compared with the serial engine.
+ * <p>
+ * Additionally, the engines are compared with known proteins spanning the
+ * origin of the circular genome (i.e. with negative starts), which are taken
+ * from the output of the serial engine. The pseudo proteins equal to these
+ * known proteins must be left out, as by the frame check of the relations.
+ * The engine runs with the interval index and with the sweep over the known
+ * proteins.
+ * <p>
+ * Also the {@link ProteinStream} of the parser is compared with the written
+ * files, for the serial and stops engines.
+ *
+ * @author julian
+ *
+ */
+public class EngineComparison {
+
+	private final static Logger logger = Logger.getLogger(EngineComparison.class);
+
+	/** the chunk sizes used for the comparisons */
+	private static final int chunkSizes[] = {1, 7, 100, 1000, 65536};
+
+	/** the lengths of the random genomes */
+	private static final int genomeLengths[] = {2, 300, 10000, 100001, 250002};
+
+	/** the GC contents of the random genomes */
+	private static final double gcContents[] = {0.5, 0.15, 0.7};
+
+	/**
+	 * the shifts of the start and end of the known proteins spanning the
+	 * origin, which give the equal, elongated, partially elongated and
+	 * containing known proteins
+	 */
+	private static final int knownShifts[][] = {{0, 0}, {3, 0}, {-6, -6}, {-3, 60}};
+
+	/** the engine to compare to the serial engine */
+	private TranslationEngine engine;
+
+	/** the number of threads used by the engine */
+	private int nrThreads;
+
+	/** the known proteins file (may be null) */
+	private String proteinsFile;
+
+	/** the directory for the temporary files */
+	private File workDirectory;
+
+
+	public EngineComparison(TranslationEngine engine, int nrThreads,
+			String proteinsFile, File workDirectory) {
+		this.engine = engine;
+		this.nrThreads = nrThreads;
+		this.proteinsFile = proteinsFile;
+		this.workDirectory = workDirectory;
+	}
+
+
+	/**
+	 * Compares the serial engine with the engine for the given genome file
+	 * with all chunk sizes.
+	 *
+	 * @param genomeFile
+	 * @param perRecord parse each record as replicon
+	 * @return the number of differing comparisons
+	 * @throws IOException
+	 */
+	public int compareEngines(String genomeFile, boolean perRecord)
+			throws IOException {
+		long fileSize = new File(genomeFile).length();
+		String serialBase = new File(workDirectory, "serial").getPath();
+		long serialTime = runParser(genomeFile, perRecord,
+				TranslationEngine.SERIAL,
+				ChunkedSixFrameTranslator.default_chunkSize, serialBase,
+				proteinsFile, false);
+		logger.info(genomeFile + ": " + TranslationEngine.SERIAL.getName() +
+				" took " + serialTime + " ms, " +
+				getThroughput(fileSize, serialTime));
+
+		int nrDiffs = 0;
+		for (int chunkSize : chunkSizes) {
+			String engineBase = new File(workDirectory, engine.getName()).getPath();
+			long engineTime = runParser(genomeFile, perRecord, engine,
+					chunkSize, engineBase, proteinsFile, false);
+			logger.info(genomeFile + ": " + engine.getName() + " (chunk size " +
+					chunkSize + ") took " + engineTime + " ms, " +
+					getThroughput(fileSize, engineTime));
+
+			List<String> diffs = compareOutputs(serialBase, engineBase);
+			if (diffs.isEmpty()) {
+				logger.info(genomeFile + ": " + engine.getName() +
+						" (chunk size " + chunkSize + ") is identical");
+			} else {
+				logger.error(genomeFile + ": " + engine.getName() +
+						" (chunk size " + chunkSize + ") differs in " + diffs);
+				nrDiffs++;
+			}
+		}
+
+		return nrDiffs;
+	}
+
+
+	/**
+	 * Compares the serial engine with the engine for the given genome file
+	 * with the known proteins spanning the origin. These (and shifted copies
+	 * of them) are taken from the output of the serial engine without known
+	 * proteins, so the output must not contain the proteins equal to them.
+	 *
+	 * @param genomeFile
+	 * @param perRecord parse each record as replicon
+	 * @return the number of differing comparisons
+	 * @throws IOException
+	 */
+	public int compareWrapAroundKnownProteins(String genomeFile,
+			boolean perRecord) throws IOException {
+		String plainBase = new File(workDirectory, "plain").getPath();
+		runParser(genomeFile, perRecord, TranslationEngine.SERIAL,
+				ChunkedSixFrameTranslator.default_chunkSize, plainBase, null,
+				false);
+
+		File knownFile = new File(workDirectory, "wraparound_known.gff");
+		Set<String> knownAccessions =
+				writeWrapAroundProteins(plainBase, knownFile);
+		if (knownAccessions.isEmpty()) {
+			logger.info(genomeFile + ": no proteins span the origin");
+			return 0;
+		}
+
+		int nrDiffs = 0;
+		String serialBase =
+				new File(workDirectory, "serial_wraparound").getPath();
+		runParser(genomeFile, perRecord, TranslationEngine.SERIAL,
+				ChunkedSixFrameTranslator.default_chunkSize, serialBase,
+				knownFile.getPath(), false);
+
+		List<String> notLeftOut =
+				getWrittenAccessions(serialBase + ".fasta", knownAccessions);
+		if (notLeftOut.isEmpty()) {
+			logger.info(genomeFile + ": all " + knownAccessions.size() +
+					" known proteins spanning the origin are left out");
+		} else {
+			logger.error(genomeFile + ": the known proteins spanning the " +
+					"origin " + notLeftOut + " are not left out");
+			nrDiffs++;
+		}
+
+		// the engine with the index and with the sweep of the relations
+		for (boolean sweep : new boolean[] {false, true}) {
+			String runName = engine.getName() + (sweep ? " (sweep)" : "");
+			String engineBase = new File(workDirectory, engine.getName() +
+					(sweep ? "_sweep" : "") + "_wraparound").getPath();
+			runParser(genomeFile, perRecord, engine,
+					ChunkedSixFrameTranslator.default_chunkSize, engineBase,
+					knownFile.getPath(), sweep);
+
+			List<String> diffs = compareOutputs(serialBase, engineBase);
+			if (diffs.isEmpty()) {
+				logger.info(genomeFile + ": " + runName + " with known " +
+						"proteins spanning the origin is identical");
+			} else {
+				logger.error(genomeFile + ": " + runName + " with known " +
+						"proteins spanning the origin differs in " + diffs);
+				nrDiffs++;
+			}
+		}
+
+		return nrDiffs;
+	}
+
+
+	/**
+	 * Compares the proteins of the {@link ProteinStream} with the files
+	 * written by the parser (and their statistics), for the serial and stops
+	 * engines. For the whole genome, the files are written with the pipelined
+	 * output, which does not use the stream. For the records, the files are
+	 * written from the stream, so its iteration is compared with
+	 * {@link ProteinStream#writeProteins(Appendable, Appendable[])}. Also a
+	 * stream, which is closed before its end, is read.
+	 *
+	 * @param genomeFile
+	 * @param perRecord parse each record as replicon
+	 * @return the number of differing comparisons
+	 * @throws IOException
+	 */
+	public int compareStream(String genomeFile, boolean perRecord)
+			throws IOException {
+		int nrDiffs = 0;
+
+		for (TranslationEngine streamEngine : new TranslationEngine[] {
+				TranslationEngine.SERIAL, TranslationEngine.STOPS}) {
+			String runName = streamEngine.getName() + " stream" +
+					(perRecord ? " (per record)" : "");
+			String filesBase = new File(workDirectory,
+					streamEngine.getName() + "_files").getPath();
+			GenomeParser parser = createParser(genomeFile, perRecord,
+					streamEngine, ChunkedSixFrameTranslator.default_chunkSize,
+					false);
+			parser.setPipelinedOutput(!perRecord);
+			GenomeParserStatistics fileStatistics = parser.parse(
+					filesBase + ".fasta", filesBase, proteinsFile);
+
+			String streamBase = new File(workDirectory,
+					streamEngine.getName() + "_stream").getPath();
+			ProteinStream stream = createParser(genomeFile, perRecord,
+					streamEngine, ChunkedSixFrameTranslator.default_chunkSize,
+					false).streamProteins(proteinsFile);
+			writeStream(stream, streamBase);
+
+			List<String> diffs = compareOutputs(filesBase, streamBase);
+			if ((fileStatistics == null) || (stream.getStatistics() == null) ||
+					!fileStatistics.toProperties().equals(
+							stream.getStatistics().toProperties())) {
+				diffs.add("statistics");
+			}
+
+			if (diffs.isEmpty()) {
+				logger.info(genomeFile + ": " + runName + " is identical");
+			} else {
+				logger.error(genomeFile + ": " + runName + " differs in " +
+						diffs);
+				nrDiffs++;
+			}
+
+			// only the first batch of a stream is read
+			ProteinStream closedStream = createParser(genomeFile, perRecord,
+					streamEngine, ChunkedSixFrameTranslator.default_chunkSize,
+					false).streamProteins(proteinsFile);
+			try {
+				for (int i=0; (i < ProteinStream.batchSize) &&
+						closedStream.hasNext(); i++) {
+					closedStream.next();
+				}
+			} finally {
+				closedStream.close();
+			}
+		}
+
+		return nrDiffs;
+	}
+
+
+	/**
+	 * Reads the proteins of the stream one by one and writes them into the
+	 * FASTA and GFF files with the given base name.
+	 *
+	 * @throws IOException
+	 */
+	private static void writeStream(ProteinStream stream, String outputBase)
+			throws IOException {
+		BufferedWriter fastaWriter =
+				new BufferedWriter(new FileWriter(outputBase + ".fasta"));
+		BufferedWriter gffFrameWriters[] = new BufferedWriter[6];
+		for (int frame=0; frame < 6; frame++) {
+			gffFrameWriters[frame] = new BufferedWriter(new FileWriter(
+					GenomeParser.getFrameGFFFileName(outputBase, frame)));
+			gffFrameWriters[frame].append("##gff-version 3");
+			gffFrameWriters[frame].newLine();
+		}
+
+		try {
+			while (stream.hasNext()) {
+				GenomeTranslatedProtein protein = stream.next();
+				ProteinWriter.writeProtein(protein, stream.getFrame(),
+						fastaWriter, gffFrameWriters);
+			}
+		} finally {
+			stream.close();
+			fastaWriter.close();
+			for (BufferedWriter writer : gffFrameWriters) {
+				writer.close();
+			}
+		}
+	}
+
+
+	/**
+	 * Writes the proteins with negative starts of the GFF files with the
+	 * given base name into the known proteins file, each with all
+	 * {@link #knownShifts}.
+	 *
+	 * @return the accessions of the written (not shifted) proteins
+	 * @throws IOException
+	 */
+	private static Set<String> writeWrapAroundProteins(String gffBase,
+			File knownFile) throws IOException {
+		Set<String> accessions = new HashSet<String>();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(knownFile));
+		writer.append("##gff-version 3");
+		writer.newLine();
+
+		for (int frame=0; frame < 6; frame++) {
+			BufferedReader reader = new BufferedReader(
+					new FileReader(gffBase + "_frame" + frame + ".gff"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String columns[] = line.split("\t");
+				if (line.startsWith("#") || (columns.length < 9) ||
+						(Long.parseLong(columns[3]) >= 1)) {
+					continue;
+				}
+
+				for (int shift[] : knownShifts) {
+					columns[3] = Long.toString(
+							Long.parseLong(columns[3]) + shift[0]);
+					columns[4] = Long.toString(
+							Long.parseLong(columns[4]) + shift[1]);
+					for (int i=0; i < columns.length; i++) {
+						if (i > 0) {
+							writer.append('\t');
+						}
+						writer.append(columns[i]);
+					}
+					writer.newLine();
+				}
+
+				int idStart = columns[8].indexOf("ID=") + 3;
+				int idEnd = columns[8].indexOf(';', idStart);
+				accessions.add(columns[8].substring(idStart,
+						(idEnd < 0) ? columns[8].length() : idEnd));
+			}
+			reader.close();
+		}
+
+		writer.close();
+		return accessions;
+	}
+
+
+	/**
+	 * Returns the accessions of the FASTA file, which are in the given set.
+	 *
+	 * @throws IOException
+	 */
+	private static List<String> getWrittenAccessions(String fastaFile,
+			Set<String> accessions) throws IOException {
+		List<String> written = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(fastaFile));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith(">")) {
+				int end = line.indexOf(' ');
+				String accession = line.substring(1,
+						(end < 0) ? line.length() : end);
+				if (accessions.contains(accession)) {
+					written.add(accession);
+				}
+			}
+		}
+		reader.close();
+		return written;
+	}
+
+
+	/**
+	 * Compares the engines on random genomes.
+	 *
+	 * @param seed seed for the random genomes
+	 * @return the number of differing comparisons
+	 * @throws IOException
+	 */
+	public int compareRandomGenomes(long seed) throws IOException {
+		Random random = new Random(seed);
+		int nrDiffs = 0;
+
+		for (int length : genomeLengths) {
+			for (double gcContent : gcContents) {
+				File genomeFile = new File(workDirectory,
+						"random_" + length + "_" + gcContent + ".fasta");
+				writeRandomGenome(genomeFile, random, length, gcContent, 1);
+				nrDiffs += compareEngines(genomeFile.getPath(), false);
+				nrDiffs += compareWrapAroundKnownProteins(
+						genomeFile.getPath(), false);
+				nrDiffs += compareStream(genomeFile.getPath(), false);
+
+				File recordsFile = new File(workDirectory,
+						"random_records_" + length + "_" + gcContent + ".fasta");
+				writeRandomGenome(recordsFile, random, length, gcContent, 5);
+				nrDiffs += compareEngines(recordsFile.getPath(), true);
+				nrDiffs += compareWrapAroundKnownProteins(
+						recordsFile.getPath(), true);
+				nrDiffs += compareStream(recordsFile.getPath(), true);
+			}
+		}
+
+		return nrDiffs;
+	}
+
+
+	/**
+	 * Returns the throughput for the given file size and time as text.
+	 */
+	private static String getThroughput(long fileSize, long timeMillis) {
+		return String.format("%.2f MB/s",
+				fileSize / 1048576.0 / Math.max(1, timeMillis) * 1000.0);
+	}
+
+
+	/**
+	 * Runs the {@link GenomeParser} with the given settings.
+	 *
+	 * @return the time of the parsing in milliseconds
+	 * @throws IOException
+	 */
+	private long runParser(String genomeFile, boolean perRecord,
+			TranslationEngine parseEngine, int chunkSize, String outputBase,
+			String knownProteinsFile, boolean sweepRelations)
+			throws IOException {
+		GenomeParser parser = createParser(genomeFile, perRecord, parseEngine,
+				chunkSize, sweepRelations);
+
+		long startTime = System.currentTimeMillis();
+		parser.parseGenome(outputBase + ".fasta", outputBase,
+				knownProteinsFile);
+		return System.currentTimeMillis() - startTime;
+	}
+
+
+	/**
+	 * Creates a {@link GenomeParser} with the given settings.
+	 */
+	private GenomeParser createParser(String genomeFile, boolean perRecord,
+			TranslationEngine parseEngine, int chunkSize,
+			boolean sweepRelations) {
+		GenomeParser parser = new GenomeParser(genomeFile, 5, null);
+		parser.setRecordsAsReplicons(perRecord);
+		parser.setEngine(parseEngine);
+		parser.setChunkSize(chunkSize);
+		parser.setNrThreads(nrThreads);
+		parser.setSweepRelations(sweepRelations);
+		return parser;
+	}
+
+
+	/**
+	 * Compares the FASTA and GFF outputs with the given base names.
+	 *
+	 * @return the names of the differing files
+	 * @throws IOException
+	 */
+	private static List<String> compareOutputs(String baseOne, String baseTwo)
+			throws IOException {
+		List<String> diffs = new ArrayList<String>();
+
+		if (!filesEqual(baseOne + ".fasta", baseTwo + ".fasta")) {
+			diffs.add(baseTwo + ".fasta");
+		}
+		for (int frame=0; frame < 6; frame++) {
+			String suffix = "_frame" + frame + ".gff";
+			if (!filesEqual(baseOne + suffix, baseTwo + suffix)) {
+				diffs.add(baseTwo + suffix);
+			}
+		}
+
+		return diffs;
+	}
+
+
+	/**
+	 * Checks whether the files have byte-identical content
+	 *
+	 * @throws IOException
+	 */
+	private static boolean filesEqual(String fileOne, String fileTwo)
+			throws IOException {
+		if (new File(fileOne).length() != new File(fileTwo).length()) {
+			return false;
+		}
+
+		InputStream inOne = new BufferedInputStream(new FileInputStream(fileOne));
+		InputStream inTwo = new BufferedInputStream(new FileInputStream(fileTwo));
+		try {
+			int b;
+			while ((b = inOne.read()) != -1) {
+				if (b != inTwo.read()) {
+					return false;
+				}
+			}
+			return inTwo.read() == -1;
+		} finally {
+			inOne.close();
+			inTwo.close();
+		}
+	}
+
+
+	/**
+	 * Writes a random genome with the given length and GC content, split into
+	 * the given number of records.
+	 *
+	 * @throws IOException
+	 */
+	private static void writeRandomGenome(File genomeFile, Random random,
+			int length, double gcContent, int nrRecords) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(genomeFile));
+
+		int written = 0;
+		for (int record=0; record < nrRecords; record++) {
+			int recordLength = (record < nrRecords - 1) ?
+					random.nextInt(length / nrRecords + 1) : (length - written);
+
+			writer.append(">random_" + record + " random genome");
+			writer.newLine();
+			for (int pos=0; pos < recordLength; pos++) {
+				boolean gc = random.nextDouble() < gcContent;
+				boolean first = random.nextBoolean();
+				if (gc) {
+					writer.append(first ? 'G' : 'C');
+				} else {
+					writer.append(first ? 'A' : 'T');
+				}
+
+				if ((pos % 70 == 69) || (pos == recordLength - 1)) {
+					writer.newLine();
+				}
+			}
+			written += recordLength;
+		}
+
+		writer.close();
+	}
+
+
+	@SuppressWarnings("static-access")
+	public static void main(String[] args) {
+		boolean showHelp = false;
+		CommandLineParser cliParser = new GnuParser();
+
+		Options options = new Options();
+		options.addOption(OptionBuilder
+                .withDescription("show help")
+                .create("help"));
+
+		options.addOption(OptionBuilder
+				.withArgName("filename")
+                .hasArgs()
+                .withDescription("genome FASTA files to compare, if none is " +
+                		"given, random genomes are compared")
+                .create("infile"));
+
+		options.addOption(OptionBuilder
+				.withArgName("name")
+                .hasArg()
+                .withDescription("the engine to compare to the serial engine " +
+                		"(defaults to " + TranslationEngine.CHUNKED.getName() +
+                		")")
+                .create("engine"));
+
+		options.addOption(OptionBuilder
+				.withArgName("filename")
+                .hasArg()
+                .withDescription("optional GFF file with known proteins")
+                .create("proteins"));
+
+		options.addOption(OptionBuilder
+				.withArgName("number")
+                .hasArg()
+                .withDescription("the number of threads (defaults to 4)")
+                .create("threads"));
+
+		options.addOption(OptionBuilder
+				.withArgName("number")
+                .hasArg()
+                .withDescription("seed for the random genomes")
+                .create("seed"));
+
+		try {
+			CommandLine line = cliParser.parse( options, args );
+
+			if (line.hasOption("help")) {
+				showHelp = true;
+			} else {
+				TranslationEngine engine = TranslationEngine.CHUNKED;
+				if (line.hasOption("engine")) {
+					engine = TranslationEngine.getByName(
+							line.getOptionValue("engine"));
+					if (engine == null) {
+						throw new ParseException("unknown engine " +
+								line.getOptionValue("engine"));
+					}
+				}
+
+				File workDirectory = File.createTempFile("enginecomparison", "");
+				if (!workDirectory.delete() || !workDirectory.mkdir()) {
+					throw new IOException("could not create " + workDirectory);
+				}
+
+				EngineComparison comparison = new EngineComparison(engine,
+						Integer.parseInt(line.getOptionValue("threads", "4")),
+						line.getOptionValue("proteins"), workDirectory);
+
+				int nrDiffs = 0;
+				if (line.hasOption("infile")) {
+					for (String genomeFile : line.getOptionValues("infile")) {
+						nrDiffs += comparison.compareEngines(genomeFile, false);
+						nrDiffs += comparison.compareWrapAroundKnownProteins(
+								genomeFile, false);
+						nrDiffs += comparison.compareStream(genomeFile, false);
+						nrDiffs += comparison.compareStream(genomeFile, true);
+					}
+				} else {
+					nrDiffs += comparison.compareRandomGenomes(
+							Long.parseLong(line.getOptionValue("seed", "42")));
+				}
+
+				for (File file : workDirectory.listFiles()) {
+					file.delete();
+				}
+				workDirectory.delete();
+
+				if (nrDiffs > 0) {
+					logger.error(nrDiffs + " comparisons differ");
+					System.exit(1);
+				}
+				logger.info("all comparisons are identical");
+			}
+		} catch (ParseException e) {
+			logger.error("Error while parsing the command line: " + e.getMessage());
+			showHelp = true;
+		} catch (IOException e) {
+			logger.error("Error while comparing: " + e.getMessage());
+			System.exit(1);
+		}
+
+		if (showHelp) {
+			HelpFormatter formatter = new HelpFormatter();
+
+			formatter.printHelp(EngineComparison.class.getSimpleName(),
+					"This tool compares the output of a translation engine " +
+					"with the output of the serial engine." +
+					"\nOptions:",
+					options,
+					"\nCopyright (C) 2013-2014 Medizinisches Proteom-Center, " +
+					"julian.uszkoreit@rub.de" +
+					"\nThis is free software; see the source for copying " +
+					"conditions. There is ABSOLUTELY NO warranty!",
+					true);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+
+/**
+ * The boundaries of a record in a genome FASTA file, given as byte offsets
+ * in the file.
+ * 
+ * @author julian
+ *
+ */
+public class FastaRecordBounds {
+	
+	/** the header line without the line break, null if the sequence has no header */
+	private String header;
+	
+	/** the offset of the header's '>' (or of the sequence, if there is no header) */
+	private long headerOffset;
+	
+	/** the offset of the first byte after the header line */
+	private long sequenceOffset;
+	
+	/** the offset of the first byte after the record */
+	private long endOffset;
+	
+	/** the number of nucleotides in the record */
+	private long sequenceLength;
+	
+	
+	public FastaRecordBounds(String header, long headerOffset,
+			long sequenceOffset, long endOffset, long sequenceLength) {
+		this.header = header;
+		this.headerOffset = headerOffset;
+		this.sequenceOffset = sequenceOffset;
+		this.endOffset = endOffset;
+		this.sequenceLength = sequenceLength;
+	}
+	
+	
+	/**
+	 * Returns the header line (without line break) or null, if the sequence
+	 * has no header.
+	 * @return
+	 */
+	public String getHeader() {
+		return header;
+	}
+	
+	
+	/**
+	 * Returns the offset of the record's start in the file
+	 * @return
+	 */
+	public long getHeaderOffset() {
+		return headerOffset;
+	}
+	
+	
+	/**
+	 * Returns the offset of the first sequence line in the file
+	 * @return
+	 */
+	public long getSequenceOffset() {
+		return sequenceOffset;
+	}
+	
+	
+	/**
+	 * Returns the offset of the first byte after the record
+	 * @return
+	 */
+	public long getEndOffset() {
+		return endOffset;
+	}
+	
+	
+	/**
+	 * Returns the number of nucleotides (i.e. sequence bytes without line
+	 * breaks) in the record
+	 * @return
+	 */
+	public long getSequenceLength() {
+		return sequenceLength;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return header + " [" + headerOffset + ", " + endOffset + ")";
+	}
+}
@@ -0,0 +1,402 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.protein.GenomeTranslatedProtein;
+import de.mpc.proteogenomics.pipeline.protein.ProteinIntervalIndex;
+
+
+/**
+ * Translates a genome by running the six frames as independent
+ * tasks on the shared nucleotides of the genome.
+ * <p>
+ * Each frame writes its GFF output directly into the frame's GFF writer. The
+ * FASTA entries of each frame are spooled into a temporary file and merged at
+ * the end ordered by the position of the stop codon and then by the frame,
+ * which is the order of the {@link SixFrameTranslator}.
+ *
+ * @author julian
+ *
+ */
+public class FrameParallelSixFrameTranslator {
+
+	private final static Logger logger = Logger.getLogger(FrameParallelSixFrameTranslator.class);
+
+	/** the size, after which the FASTA buffer of a frame is spooled */
+	private static final int spoolSize = 1 << 20;
+
+	/** the minimal reported protein length */
+	private final int min_protein_length;
+
+	/** the known proteins, indexed by their position */
+	private final ProteinIntervalIndex knownProteins;
+
+	/** the number of threads used for the translation */
+	private final int nrThreads;
+
+	/** whether the ORFs of all start codons are reported */
+	private boolean allStartSites;
+
+
+	public FrameParallelSixFrameTranslator(int minimalProteinLength,
+			ProteinIntervalIndex knownProteins,
+			int nrThreads) {
+		this.min_protein_length = minimalProteinLength;
+		this.knownProteins = knownProteins;
+		this.nrThreads = Math.max(1, Math.min(6, nrThreads));
+		this.allStartSites = false;
+	}
+
+
+	/**
+	 * Sets whether the ORFs of all start codons in a protein are reported,
+	 * instead of only the ORF of the first start codon.
+	 *
+	 * @param allStartSites
+	 */
+	public void setAllStartSites(boolean allStartSites) {
+		this.allStartSites = allStartSites;
+	}
+
+
+	/**
+	 * Translates the given circular genome and writes the not known proteins
+	 * into the given outputs.
+	 *
+	 * @param genome the whole genome
+	 * @param fastaWriter the FASTA output (may be null)
+	 * @param gffFrameWriters the GFF outputs of the frames (entries may be
+	 * null)
+	 * @return the statistics of the translation
+	 * @throws IOException
+	 */
+	public GenomeParserStatistics translate(GenomeRecord genome,
+			Appendable fastaWriter, Appendable[] gffFrameWriters)
+			throws IOException {
+		logger.info("translating the frames of " + genome.getName() +
+				", using " + nrThreads + " threads");
+
+		FrameTranslator translators[] = new FrameTranslator[6];
+		FrameOutput outputs[] = new FrameOutput[6];
+
+		ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+		try {
+			List<Future<FrameTranslator>> futures =
+					new ArrayList<Future<FrameTranslator>>(6);
+			for (int frame=0; frame < 6; frame++) {
+				outputs[frame] = new FrameOutput(frame, (fastaWriter != null),
+						gffFrameWriters[frame]);
+				futures.add(executor.submit(
+						new FrameTranslation(genome, frame, outputs[frame])));
+			}
+
+			for (int frame=0; frame < 6; frame++) {
+				translators[frame] = getFrameResult(futures.get(frame));
+			}
+
+			if (fastaWriter != null) {
+				mergeFasta(outputs, fastaWriter);
+			}
+		} finally {
+			executor.shutdownNow();
+			for (FrameOutput output : outputs) {
+				if (output != null) {
+					output.deleteSpool();
+				}
+			}
+		}
+
+		if (genome.getLength() < 3) {
+			logger.warn(genome.getName() + " is shorter than one codon, no " +
+					"proteins are reported");
+		} else {
+			// finish the last proteins, combined with the first ones of a
+			// circular genome
+			int firstNucleotides[] = new int[3];
+			for (int i=0; i < 3; i++) {
+				firstNucleotides[i] = genome.getNucleotides()[i];
+			}
+
+			for (int frame=0; frame < 6; frame++) {
+				outputs[frame].writeDirectly(fastaWriter);
+			}
+			for (int frame=0; frame < 6; frame++) {
+				if (genome.isCircular()) {
+					translators[frame].finishCircular(firstNucleotides,
+							genome.getLength(),
+							translators[translators[frame].getCombineFrame()]);
+				} else {
+					translators[frame].finishLinear();
+				}
+			}
+		}
+
+		GenomeParserStatistics statistics =
+				new GenomeParserStatistics(min_protein_length);
+		for (FrameTranslator translator : translators) {
+			statistics.add(translator.getStatistics());
+		}
+		return statistics;
+	}
+
+
+	/**
+	 * Waits for the frame translation and returns its translator.
+	 *
+	 * @throws IOException
+	 */
+	private static FrameTranslator getFrameResult(
+			Future<FrameTranslator> futureResult) throws IOException {
+		try {
+			return futureResult.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while translating the frames", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException("error while translating a frame", e.getCause());
+		}
+	}
+
+
+	/**
+	 * Merges the spooled FASTA entries of the frames ordered by the position
+	 * of the stop codon and the frame.
+	 *
+	 * @throws IOException
+	 */
+	private static void mergeFasta(FrameOutput[] outputs, Appendable fastaWriter)
+			throws IOException {
+		BufferedReader readers[] = new BufferedReader[6];
+		int cursors[] = new int[6];
+		char buffer[] = new char[4096];
+
+		try {
+			for (int frame=0; frame < 6; frame++) {
+				readers[frame] = new BufferedReader(
+						new FileReader(outputs[frame].spoolFile));
+			}
+
+			while (true) {
+				int nextFrame = -1;
+				long nextPosition = Long.MAX_VALUE;
+				for (int frame=0; frame < 6; frame++) {
+					if ((cursors[frame] < outputs[frame].size) &&
+							(outputs[frame].positions[cursors[frame]] < nextPosition)) {
+						nextFrame = frame;
+						nextPosition = outputs[frame].positions[cursors[frame]];
+					}
+				}
+
+				if (nextFrame < 0) {
+					break;
+				}
+
+				// copy the entry from the spool
+				int remaining = outputs[nextFrame].entryLengths[cursors[nextFrame]];
+				while (remaining > 0) {
+					int read = readers[nextFrame].read(buffer, 0,
+							Math.min(remaining, buffer.length));
+					if (read < 0) {
+						throw new IOException("unexpected end of spooled FASTA "
+								+ outputs[nextFrame].spoolFile);
+					}
+					fastaWriter.append(CharBuffer.wrap(buffer, 0, read));
+					remaining -= read;
+				}
+				cursors[nextFrame]++;
+			}
+		} finally {
+			for (BufferedReader reader : readers) {
+				if (reader != null) {
+					reader.close();
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * The translation of one frame of the genome.
+	 */
+	private class FrameTranslation implements Callable<FrameTranslator> {
+
+		private GenomeRecord genome;
+
+		private int frame;
+
+		private FrameOutput output;
+
+
+		public FrameTranslation(GenomeRecord genome, int frame,
+				FrameOutput output) {
+			this.genome = genome;
+			this.frame = frame;
+			this.output = output;
+		}
+
+
+		@Override
+		public FrameTranslator call() throws IOException {
+			FrameTranslator translator = new FrameTranslator(frame,
+					genome, min_protein_length, output);
+			translator.setAllStartSites(allStartSites);
+			output.translator = translator;
+
+			byte nucleotides[] = genome.getNucleotides();
+			int length = genome.getLength();
+			for (int idx=0; idx < length; idx++) {
+				translator.addNucleotide(nucleotides[idx], idx + 1);
+			}
+
+			output.closeSpool();
+			return translator;
+		}
+	}
+
+
+	/**
+	 * The output of one frame: the GFF lines are written directly, the FASTA
+	 * entries are spooled together with the position of their stop codon.
+	 * After {@link #writeDirectly(Appendable)} is called, the FASTA entries are
+	 * written directly into the given FASTA writer.
+	 */
+	private class FrameOutput implements TranslatedProteinHandler {
+
+		private FrameTranslator translator;
+
+		private Appendable gffFrameWriters[];
+
+		/** the buffer for the FASTA entries, null if no FASTA is spooled */
+		private StringBuilder fasta;
+
+		/** writes into the FASTA buffer and the GFF writer */
+		private ProteinWriter spoolingWriter;
+
+		/** writes directly into the FASTA and GFF writers */
+		private ProteinWriter directWriter;
+
+		private File spoolFile;
+
+		private BufferedWriter spoolWriter;
+
+		/** the positions, at which the proteins were finished */
+		private long positions[];
+
+		/** the lengths of the proteins' FASTA entries */
+		private int entryLengths[];
+
+		/** the number of spooled entries */
+		private int size;
+
+
+		public FrameOutput(int frame, boolean writeFasta, Appendable gffWriter)
+				throws IOException {
+			this.gffFrameWriters = new Appendable[6];
+			this.gffFrameWriters[frame] = gffWriter;
+
+			this.positions = new long[64];
+			this.entryLengths = new int[64];
+			this.size = 0;
+
+			if (writeFasta) {
+				this.fasta = new StringBuilder();
+				this.spoolFile = File.createTempFile("frame" + frame, ".fasta");
+				this.spoolFile.deleteOnExit();
+				this.spoolWriter =
+						new BufferedWriter(new FileWriter(spoolFile));
+				this.spoolingWriter = new ProteinWriter(knownProteins,
+						fasta, gffFrameWriters);
+				this.directWriter = null;
+			} else {
+				this.fasta = null;
+				this.spoolFile = null;
+				this.spoolWriter = null;
+				this.spoolingWriter = null;
+				this.directWriter = new ProteinWriter(knownProteins,
+						null, gffFrameWriters);
+			}
+		}
+
+
+		/**
+		 * Writes all further FASTA entries directly into the given writer.
+		 *
+		 * @param fastaWriter
+		 */
+		private void writeDirectly(Appendable fastaWriter) {
+			directWriter = new ProteinWriter(knownProteins,
+					fastaWriter, gffFrameWriters);
+		}
+
+
+		@Override
+		public boolean handleProtein(GenomeTranslatedProtein protein, int frame)
+				throws IOException {
+			if (spoolWriter == null) {
+				return directWriter.handleProtein(protein, frame);
+			}
+
+			int fastaStart = fasta.length();
+			if (spoolingWriter.handleProtein(protein, frame)) {
+				if (size == positions.length) {
+					positions = Arrays.copyOf(positions, 2 * size);
+					entryLengths = Arrays.copyOf(entryLengths, 2 * size);
+				}
+				positions[size] = translator.getPosition();
+				entryLengths[size] = fasta.length() - fastaStart;
+				size++;
+
+				if (fasta.length() > spoolSize) {
+					spoolWriter.append(fasta);
+					fasta.setLength(0);
+				}
+				return true;
+			}
+			return false;
+		}
+
+
+		/**
+		 * Writes the remaining buffer into the spool and closes it.
+		 *
+		 * @throws IOException
+		 */
+		private void closeSpool() throws IOException {
+			if (spoolWriter != null) {
+				spoolWriter.append(fasta);
+				spoolWriter.close();
+				spoolWriter = null;
+				fasta = null;
+			}
+		}
+
+
+		/**
+		 * Deletes the spool file
+		 */
+		private void deleteSpool() {
+			if (spoolFile != null) {
+				spoolFile.delete();
+			}
+		}
+	}
+}
@@ -0,0 +1,870 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.GeneticCode;
+import de.mpc.proteogenomics.pipeline.TranslationTable;
+import de.mpc.proteogenomics.pipeline.protein.GenomeTranslatedProtein;
+
+
+/**
+ * Translates one of the six reading frames of a genome into pseudo proteins.
+ * The nucleotides are given one by one as 2-bit codes (see
+ * {@link GeneticCode#nucleotideCode(int)}), the finished proteins are passed
+ * to a {@link TranslatedProteinHandler}. The codons are translated by the
+ * {@link TranslationTable} of the genome's sequence.
+ * <p>
+ * While scanning, only the coordinates of the current protein and its ORF
+ * are tracked. The amino acid sequences are built from the nucleotides of the
+ * genome's sequence only for the proteins, which pass the length filter, and
+ * for the first and last protein, which may be extended due to the circular
+ * genome. In a linear genome, the first protein is reported at its stop codon
+ * like all others and the last one is cut at the end of the genome.
+ * <p>
+ * Both strands use the same codon index, read on the forward strand. For the
+ * backward frames, it is mapped by a table to the reverse complement codon
+ * (see {@link GeneticCode#reverseComplementCodon(int)}) and the proteins are
+ * built from their last codon to the first, i.e. already in the reading
+ * direction of the backward strand.
+ * <p>
+ * Optionally, all start codons of each open stretch are recorded during the
+ * scan. Besides the ORF of the first start codon, the ORFs of the alternative
+ * start sites are then reported as views on the protein's amino acids (see
+ * {@link GenomeTranslatedProtein#createStartSiteView(int, long, long)}),
+ * except for the proteins combined over the ends of a circular genome.
+ *
+ * @author julian
+ *
+ */
+public class FrameTranslator {
+
+	private final static Logger logger = Logger.getLogger(FrameTranslator.class);
+
+	/** the frame (0,1,2 for forward, 3,4,5 for backward strand) */
+	private final int frame;
+
+	/** the name of the translated genome */
+	private final String genomeName;
+
+	/** the sequence of the genome, containing at least the added nucleotides */
+	private final GenomeRecord sequence;
+
+	/** the genetic code of the sequence */
+	private final TranslationTable translationTable;
+
+	/** the minimal reported protein length */
+	private final int min_protein_length;
+
+	/** handles the finished proteins */
+	private final TranslatedProteinHandler handler;
+
+	/** the counts of this frame */
+	private final GenomeParserStatistics statistics;
+
+	/** the 6-bit index of the current codon, read on the forward strand */
+	private int codon;
+
+	/** the number of nucleotides in the current codon, -1 before the frame starts */
+	private int codonLength;
+
+	/** the start of the current protein */
+	private long proteinStart;
+
+	/** the position of the first codon, which is translated in the current protein */
+	private long firstCodonPosition;
+
+	/** the number of amino acids of the current protein */
+	private int proteinLength;
+
+	/** the start (forward) or end (backward) of the current protein's ORF, -1 if there is none */
+	private long orfPosition;
+
+	/** the number of amino acids of the current protein's ORF */
+	private int orfLength;
+
+	/** whether the ORFs of all start codons are reported */
+	private boolean allStartSites;
+
+	/** the indices of the start codons in the current protein, in genome order */
+	private int startCodonIndices[];
+
+	/** the number of start codons in the current protein */
+	private int nrStartCodons;
+
+	/** the built current protein, only used for the circular genome */
+	private GenomeTranslatedProtein protein;
+
+	/** the built ORF of the current protein, only used for the circular genome */
+	private GenomeTranslatedProtein foundORF;
+
+	/** the first protein in the genome, may be extended due to the circular genome */
+	private GenomeTranslatedProtein firstProtein;
+
+	/** the first ORF in the genome, may be extended due to the circular genome */
+	private GenomeTranslatedProtein firstORF;
+
+	/** whether the first protein of the frame is already finished */
+	private boolean firstProteinFinished;
+
+	/** the position of the last added nucleotide */
+	private long position;
+
+
+	/**
+	 * Creates a translator for the given frame of the sequence. The
+	 * nucleotides must be in the sequence, when they are added to the
+	 * translator.
+	 *
+	 * @param frame
+	 * @param sequence
+	 * @param minimalProteinLength
+	 * @param handler
+	 */
+	public FrameTranslator(int frame, GenomeRecord sequence,
+			int minimalProteinLength, TranslatedProteinHandler handler) {
+		this.frame = frame;
+		this.genomeName = sequence.getName();
+		this.sequence = sequence;
+		this.translationTable = sequence.getTranslationTable();
+		this.min_protein_length = minimalProteinLength;
+		this.handler = handler;
+		this.statistics = new GenomeParserStatistics(minimalProteinLength);
+
+		this.codon = 0;
+		this.codonLength = -1;
+		this.protein = null;
+		this.foundORF = null;
+		this.firstProtein = null;
+		this.firstORF = null;
+		// the first protein is only kept back for the circular genome
+		this.firstProteinFinished = !sequence.isCircular();
+		this.position = 0;
+
+		this.allStartSites = false;
+		this.startCodonIndices = null;
+		this.nrStartCodons = 0;
+	}
+
+
+	/**
+	 * Sets whether the ORFs of all start codons in a protein are reported,
+	 * instead of only the ORF of the first start codon.
+	 *
+	 * @param allStartSites
+	 */
+	public void setAllStartSites(boolean allStartSites) {
+		this.allStartSites = allStartSites;
+		if (allStartSites && (startCodonIndices == null)) {
+			startCodonIndices = new int[16];
+		}
+	}
+
+
+	/**
+	 * Returns the frame of this translator
+	 * @return
+	 */
+	public int getFrame() {
+		return frame;
+	}
+
+
+	/**
+	 * Returns the counts of this frame
+	 * @return
+	 */
+	public GenomeParserStatistics getStatistics() {
+		return statistics;
+	}
+
+
+	/**
+	 * Returns the position of the last added nucleotide
+	 * @return
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+
+	/**
+	 * Returns the first position of the genome, which is still needed to
+	 * build the current protein (or its ORF).
+	 *
+	 * @return
+	 */
+	public long getFirstNeededPosition() {
+		return (codonLength < 0) ? (position + 1) : firstCodonPosition;
+	}
+
+
+	/**
+	 * Sets the translator into the state directly after a stop codon, which
+	 * ends at the given position. The first protein of the frame is treated as
+	 * already finished, so this is used to start the translation of a genome
+	 * region at a known stop codon.
+	 *
+	 * @param stopPosition the 1-based position of the stop codon's last
+	 * nucleotide
+	 */
+	public void startAfterStop(long stopPosition) {
+		codon = 0;
+		codonLength = 0;
+		firstProteinFinished = true;
+		position = stopPosition;
+
+		startProtein(stopPosition);
+	}
+
+
+	/**
+	 * Starts a new protein after the stop codon ending at the given position.
+	 *
+	 * @param stopPosition
+	 */
+	private void startProtein(long stopPosition) {
+		if (frame < 3) {
+			proteinStart = stopPosition + 1;
+		} else {
+			// the protein should later stop with the stop codon
+			proteinStart = stopPosition - 2;
+		}
+		firstCodonPosition = stopPosition + 1;
+		proteinLength = 0;
+		orfPosition = -1;
+		orfLength = 0;
+		nrStartCodons = 0;
+	}
+
+
+	/**
+	 * Adds the nucleotide, which is at the given position of the genome.
+	 *
+	 * @param nucleotide the 2-bit code of the nucleotide
+	 * @param position the 1-based position of the nucleotide
+	 * @throws IOException
+	 */
+	public void addNucleotide(int nucleotide, long position)
+			throws IOException {
+		this.position = position;
+
+		if (codonLength < 0) {
+			if (position-1 >= frame % 3) {
+				// initialise the codon for the frame shift and the first protein
+				codonLength = 0;
+				startProtein(position - 1);
+				proteinStart = position;
+			} else {
+				return;
+			}
+		}
+
+		codon = ((codon << 2) | nucleotide) & 0x3f;
+		codonLength++;
+
+		if (codonLength == 3) {
+			translateCodon(position);
+
+			// clear the codon
+			codonLength = 0;
+		}
+	}
+
+
+	/**
+	 * Translates the completed codon, which ends at the given position. Only
+	 * the coordinates of the protein and its ORF are updated.
+	 *
+	 * @param position
+	 * @throws IOException
+	 */
+	private void translateCodon(long position) throws IOException {
+		int strandCodon = getStrandCodon(codon);
+		if (translationTable.translateCodon(strandCodon) != GeneticCode.STOP) {
+			// the found amino acid is not a stop codon
+			//   -> count it
+			proteinLength++;
+			if ((frame < 3) && (orfPosition > -1)) {
+				// grow the forward-ORF
+				orfLength++;
+			}
+
+			if (translationTable.isStartCodon(strandCodon)) {
+				// a start codon is found
+				if (allStartSites) {
+					addStartCodon(proteinLength - 1);
+				}
+				if (frame < 3) {
+					if (orfPosition < 0) {
+						// for a forward strand: start new protein here
+						orfPosition = position - 2;
+						orfLength = 1;
+					}
+				} else {
+					// for a backward strand, the ORF ends here
+					orfPosition = position;
+					orfLength = proteinLength;
+				}
+			}
+		} else {
+			finishProtein(position);
+		}
+	}
+
+
+	/**
+	 * Records a start codon at the given codon index of the current protein.
+	 */
+	private void addStartCodon(int codonIdx) {
+		if (nrStartCodons == startCodonIndices.length) {
+			startCodonIndices = Arrays.copyOf(startCodonIndices,
+					2 * nrStartCodons);
+		}
+		startCodonIndices[nrStartCodons++] = codonIdx;
+	}
+
+
+	/**
+	 * Returns the index of the given forward strand codon on the strand of
+	 * this frame.
+	 *
+	 * @param forwardCodon
+	 * @return
+	 */
+	private int getStrandCodon(int forwardCodon) {
+		return (frame < 3) ? forwardCodon :
+			GeneticCode.reverseComplementCodon(forwardCodon);
+	}
+
+
+	/**
+	 * Adds the stop codon ending at the given position, without adding the
+	 * nucleotides since the last stop codon one by one. The codons in between
+	 * must not contain a stop codon and must already be in the sequence. The
+	 * ORF is only searched, if the protein is long enough to be reported.
+	 *
+	 * @param position the 1-based position of the stop codon's last nucleotide
+	 * @throws IOException
+	 */
+	public void addStopCodon(long position) throws IOException {
+		if (codonLength < 0) {
+			// initialise the first protein, as in addNucleotide
+			startProtein(frame % 3);
+			proteinStart = frame % 3 + 1;
+		}
+		this.position = position;
+		codonLength = 0;
+
+		proteinLength = (int)((position - firstCodonPosition + 1) / 3) - 1;
+		if (!firstProteinFinished || (proteinLength >= min_protein_length)) {
+			findORF();
+		}
+
+		finishProtein(position);
+	}
+
+
+	/**
+	 * Sets the ORF of the current protein by searching its codons for the
+	 * first (forward) or last (backward) start codon.
+	 */
+	private void findORF() {
+		byte nucleotides[] = sequence.getNucleotides();
+		int firstIdx = (int)(firstCodonPosition - 1 - sequence.getOffset());
+
+		orfPosition = -1;
+		orfLength = 0;
+		if (allStartSites) {
+			// record all start codons, the ORF starts at the first one
+			nrStartCodons = 0;
+			for (int i=0; i < proteinLength; i++) {
+				if (translationTable.isStartCodon(
+						codonIndex(nucleotides, firstIdx + 3*i))) {
+					addStartCodon(i);
+				}
+			}
+			if (nrStartCodons > 0) {
+				int i = (frame < 3) ?
+						startCodonIndices[0] :
+						startCodonIndices[nrStartCodons - 1];
+				orfPosition = firstCodonPosition + 3*i + ((frame < 3) ? 0 : 2);
+				orfLength = (frame < 3) ? (proteinLength - i) : (i + 1);
+			}
+		} else if (frame < 3) {
+			for (int i=0; i < proteinLength; i++) {
+				if (translationTable.isStartCodon(
+						codonIndex(nucleotides, firstIdx + 3*i))) {
+					orfPosition = firstCodonPosition + 3*i;
+					orfLength = proteinLength - i;
+					return;
+				}
+			}
+		} else {
+			for (int i=proteinLength-1; i >= 0; i--) {
+				if (translationTable.isStartCodon(
+						codonIndex(nucleotides, firstIdx + 3*i))) {
+					orfPosition = firstCodonPosition + 3*i + 2;
+					orfLength = i + 1;
+					return;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Finishes the current protein at the stop codon ending at the given
+	 * position and starts the next one.
+	 *
+	 * @param position
+	 * @throws IOException
+	 */
+	private void finishProtein(long position) throws IOException {
+		GenomeTranslatedProtein finishedProtein;
+		GenomeTranslatedProtein finishedORF;
+
+		if (!firstProteinFinished) {
+			// the first protein is cached for later
+			// processing due to the circular genome
+			finishedProtein = buildProtein();
+			finishedORF = buildORF();
+		} else {
+			statistics.countParsedProtein(proteinLength);
+			if (proteinLength < min_protein_length) {
+				startProtein(position);
+				return;
+			}
+
+			finishedProtein = buildProtein();
+			finishedORF = (orfLength >= min_protein_length) ?
+					buildORF() : null;
+		}
+
+		if (frame < 3) {
+			// the protein ends with the stop codon
+			finishedProtein.setEnd(position);
+
+			if (finishedORF != null) {
+				finishedORF.setEnd(position);
+			}
+		} else {
+			// the protein started before the stop codon
+			finishedProtein.setEnd(position-3);
+		}
+
+		if (firstProteinFinished) {
+			// this is not the first protein / stop codon
+			handleProteins(finishedProtein, finishedORF);
+			if (allStartSites && (finishedORF != null)) {
+				handleStartSites(finishedProtein, position);
+			}
+		} else {
+			firstProtein = finishedProtein;
+			firstORF = finishedORF;
+			firstProteinFinished = true;
+		}
+
+		startProtein(position);
+	}
+
+
+	/**
+	 * Builds the current protein from the sequence.
+	 *
+	 * @return
+	 */
+	private GenomeTranslatedProtein buildProtein() {
+		GenomeTranslatedProtein builtProtein =
+				new GenomeTranslatedProtein(genomeName, proteinStart, frame,
+						proteinLength);
+		appendAminoAcids(builtProtein, firstCodonPosition, proteinLength);
+		return builtProtein;
+	}
+
+
+	/**
+	 * Builds the ORF of the current protein from the sequence or returns
+	 * null, if there is none.
+	 *
+	 * @return
+	 */
+	private GenomeTranslatedProtein buildORF() {
+		if (orfPosition < 0) {
+			return null;
+		}
+
+		GenomeTranslatedProtein orf;
+		if (frame < 3) {
+			orf = new GenomeTranslatedProtein(genomeName, orfPosition, frame,
+					orfLength);
+			orf.appendAminoAcid('M');
+			appendAminoAcids(orf, orfPosition + 3, orfLength - 1);
+		} else {
+			// the backward ORF has the protein's sequence up to the start codon
+			orf = new GenomeTranslatedProtein(genomeName, proteinStart, frame,
+					orfLength);
+			orf.appendAminoAcid('M');
+			appendAminoAcids(orf, firstCodonPosition, orfLength - 1);
+			orf.setEnd(orfPosition);
+		}
+		orf.setIsORFProtein(true);
+		return orf;
+	}
+
+
+	/**
+	 * Translates the given number of codons of the sequence, starting at the
+	 * given position, and appends the amino acids to the protein. For the
+	 * backward frames, the codons are appended from the last to the first.
+	 *
+	 * @param protein
+	 * @param fromPosition the 1-based position of the first codon
+	 * @param nrCodons
+	 */
+	private void appendAminoAcids(GenomeTranslatedProtein protein,
+			long fromPosition, int nrCodons) {
+		byte nucleotides[] = sequence.getNucleotides();
+		int idx = (int)(fromPosition - 1 - sequence.getOffset());
+		int step = 3;
+		if (frame >= 3) {
+			idx += 3 * (nrCodons - 1);
+			step = -3;
+		}
+
+		for (int i=0; i < nrCodons; i++, idx += step) {
+			protein.appendAminoAcid(
+					translationTable.translateCodon(codonIndex(nucleotides, idx)));
+		}
+	}
+
+
+	/**
+	 * Returns the 6-bit index of the codon of this frame, which starts at the
+	 * given array index of the nucleotides.
+	 *
+	 * @param nucleotides
+	 * @param idx the 0-based index of the codon's first nucleotide
+	 * @return
+	 */
+	private int codonIndex(byte[] nucleotides, int idx) {
+		return getStrandCodon((nucleotides[idx] << 4) |
+				(nucleotides[idx + 1] << 2) | nucleotides[idx + 2]);
+	}
+
+
+	/**
+	 * Handles a start codon ending at the given position in the current
+	 * built protein.
+	 *
+	 * @param position
+	 * @param orfFrame the frame set for a newly created ORF
+	 */
+	private void startORF(long position, int orfFrame) {
+		if ((frame < 3) && (foundORF == null)) {
+			// for a forward strand: start new protein here with sequence M
+			foundORF = new GenomeTranslatedProtein(genomeName, position-2,
+					orfFrame);
+			foundORF.setIsORFProtein(true);
+			foundORF.appendAminoAcid('M');
+		} else if (frame >= 3) {
+			// for a backward strand, we need the sequence up to the last
+			// amino acid
+			foundORF = new GenomeTranslatedProtein(genomeName,
+					protein.getStart(), orfFrame);
+			foundORF.setIsORFProtein(true);
+			for (Character aa
+					: protein.getSequence().substring(0, protein.length()-1).toCharArray()) {
+				foundORF.appendAminoAcid(aa);
+			}
+			foundORF.appendAminoAcid('M');
+			foundORF.setEnd(position);
+		}
+	}
+
+
+	/**
+	 * Counts the built current protein and passes it and its ORF to the
+	 * handler, if they are long enough.
+	 *
+	 * @throws IOException
+	 */
+	private void reportProteins() throws IOException {
+		statistics.countParsedProtein(protein.length());
+
+		if (protein.length() >= min_protein_length) {
+			handleProteins(protein,
+					((foundORF != null) &&
+							(foundORF.length() >= min_protein_length)) ?
+									foundORF : null);
+		}
+	}
+
+
+	/**
+	 * Passes the protein, which is long enough, and its ORF (if it is long
+	 * enough, otherwise null) to the handler. The protein is left out, if it
+	 * equals the ORF.
+	 *
+	 * @throws IOException
+	 */
+	private void handleProteins(GenomeTranslatedProtein protein,
+			GenomeTranslatedProtein orf) throws IOException {
+		if ((orf == null) ||
+				!protein.hasSameSequence(orf)) {
+			statistics.countHandledProtein(
+					handler.handleProtein(protein, frame), false);
+		}
+
+		if (orf != null) {
+			statistics.countHandledProtein(
+					handler.handleProtein(orf, frame), true);
+		}
+	}
+
+
+	/**
+	 * Finalizes the last protein of this frame in a linear genome, which ends
+	 * with the last complete codon instead of a stop codon.
+	 *
+	 * @throws IOException
+	 */
+	public void finishLinear() throws IOException {
+		if ((codonLength < 0) || (proteinLength == 0)) {
+			// there is no codon behind the last stop codon
+			return;
+		}
+
+		statistics.countParsedProtein(proteinLength);
+		if (proteinLength < min_protein_length) {
+			return;
+		}
+
+		long lastCodonEnd = position - codonLength;
+		GenomeTranslatedProtein lastProtein = buildProtein();
+		GenomeTranslatedProtein lastORF = (orfLength >= min_protein_length) ?
+				buildORF() : null;
+
+		lastProtein.setEnd(lastCodonEnd);
+		if ((frame < 3) && (lastORF != null)) {
+			lastORF.setEnd(lastCodonEnd);
+		}
+		handleProteins(lastProtein, lastORF);
+		if (allStartSites && (lastORF != null)) {
+			handleStartSites(lastProtein, lastCodonEnd);
+		}
+	}
+
+
+	/**
+	 * Passes the ORFs of the alternative start sites of the finished protein,
+	 * which are long enough, to the handler, longest first. The ORF of the
+	 * first start codon was already handled with the protein.
+	 *
+	 * @param finishedProtein the protein with the current coordinates
+	 * @param stopPosition the position of the protein's (forward) end
+	 * @throws IOException
+	 */
+	private void handleStartSites(GenomeTranslatedProtein finishedProtein,
+			long stopPosition) throws IOException {
+		if (frame < 3) {
+			for (int idx=1; idx < nrStartCodons; idx++) {
+				int codonIdx = startCodonIndices[idx];
+				if (proteinLength - codonIdx < min_protein_length) {
+					break;
+				}
+				GenomeTranslatedProtein isoform =
+						finishedProtein.createStartSiteView(codonIdx,
+								firstCodonPosition + 3*codonIdx, stopPosition);
+				statistics.countHandledProtein(
+						handler.handleProtein(isoform, frame), true);
+			}
+		} else {
+			// the backward sequence is in reading direction
+			for (int idx=nrStartCodons - 2; idx >= 0; idx--) {
+				int codonIdx = startCodonIndices[idx];
+				if (codonIdx + 1 < min_protein_length) {
+					break;
+				}
+				GenomeTranslatedProtein isoform =
+						finishedProtein.createStartSiteView(
+								proteinLength - 1 - codonIdx, proteinStart,
+								firstCodonPosition + 3*codonIdx + 2);
+				statistics.countHandledProtein(
+						handler.handleProtein(isoform, frame), true);
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the frame, whose first protein is combined with the last protein
+	 * of this frame in a circular genome.
+	 *
+	 * @return
+	 */
+	public int getCombineFrame() {
+		int combineFrame  = (3 - codonLength) % 3;
+		if (frame >= 3) {
+			combineFrame += 3;
+		}
+		return combineFrame;
+	}
+
+
+	/**
+	 * Finalizes the last protein of this frame by combining it with the first
+	 * protein of the translator of the combine frame (see
+	 * {@link #getCombineFrame()}), as the genome is circular.
+	 *
+	 * @param firstNucleotides the 2-bit codes of the first three nucleotides
+	 * of the genome
+	 * @param position the length of the genome
+	 * @param combineTranslator the translator of the combine frame
+	 * @throws IOException
+	 */
+	public void finishCircular(int[] firstNucleotides, long position,
+			FrameTranslator combineTranslator)
+			throws IOException {
+		int combineFrame = combineTranslator.frame;
+
+		// build the last protein, as it is combined with the first one
+		protein = buildProtein();
+		foundORF = buildORF();
+		if (frame >= 3) {
+			// the combination works on the sequences in genome direction
+			protein.reverseProtein();
+			if (foundORF != null) {
+				foundORF.reverseProtein();
+			}
+		}
+
+		if (codonLength > 0) {
+			// fill the codon to get the overlap-aminoacid
+			long overlapPosition;
+			for (overlapPosition = 0; codonLength < 3; overlapPosition++) {
+				codon = ((codon << 2) |
+						firstNucleotides[(int)overlapPosition]) & 0x3f;
+				codonLength++;
+			}
+
+			int strandCodon = getStrandCodon(codon);
+			char overlapAminoacid = translationTable.translateCodon(strandCodon);
+
+			if (overlapAminoacid != GeneticCode.STOP) {
+				// the found amino acid is not a stop codon
+				//   -> append the amino acid and the firstProtein
+				protein.appendAminoAcid(overlapAminoacid);
+
+				if ((frame < 3) && (foundORF != null)) {
+					// grow the forward-ORF
+					foundORF.appendAminoAcid(overlapAminoacid);
+				}
+
+				if (translationTable.isStartCodon(strandCodon)) {
+					// a start codon is found
+					startORF(overlapPosition, combineFrame);
+				}
+			} else {
+				// the protein ends in the overlap
+				if (frame < 3) {
+					// the protein ends with the stop codon
+					protein.setEnd(position + overlapPosition);
+
+					if (foundORF != null) {
+						foundORF.setEnd(position + overlapPosition);
+					}
+				} else {
+					// the pseudo protein started before the stop codon
+					protein.setEnd(position + frame - 6 );
+
+					protein.reverseProtein();
+					if (foundORF != null) {
+						foundORF.reverseProtein();
+					}
+				}
+
+				reportProteins();
+
+				// the protein ended, do not concatenate it with the firstProtein
+				protein = null;
+				foundORF = null;
+			}
+		}
+
+		GenomeTranslatedProtein combineProtein = combineTranslator.firstProtein;
+		GenomeTranslatedProtein combineORF = combineTranslator.firstORF;
+
+		if ((protein != null) && (combineProtein == null)) {
+			// there is no stop codon in the combine frame, the protein has no end
+			logger.warn("no stop codon in frame " + combineFrame + " of " +
+					genomeName + ", the last pseudo protein of frame " + frame +
+					" is not reported");
+			return;
+		}
+
+		if (protein != null) {
+			// the protein did not end in the overlap, concatenate it
+			if (frame >= 3) {
+				combineProtein.reverseProtein();
+				if (combineORF != null) {
+					combineORF.reverseProtein();
+				}
+			}
+
+			for (Character aa : combineProtein.getSequence().toCharArray()) {
+				protein.appendAminoAcid(aa);
+
+				if ((foundORF != null) && (frame < 3)) {
+					foundORF.appendAminoAcid(aa);
+				}
+			}
+
+			protein.setEnd(combineProtein.getEnd());
+			protein.recalculateStartForOverlap();
+			if (foundORF != null) {
+				foundORF.setEnd(combineProtein.getEnd());
+				foundORF.recalculateStartForOverlap();
+			} else if (combineORF != null) {
+				foundORF = combineORF;
+			}
+
+			if ((frame >= 3) && (combineORF != null)) {
+				// there is a big reverse strand ORF
+				foundORF = new GenomeTranslatedProtein(genomeName,
+						protein.getStart(), combineFrame);
+				foundORF.setIsORFProtein(true);
+
+				for (Character aa
+						: protein.getSequence().substring(
+								0, protein.length() - combineProtein.length()).
+								toCharArray()) {
+					foundORF.appendAminoAcid(aa);
+				}
+				for (Character aa : combineORF.getSequence().toCharArray()) {
+					foundORF.appendAminoAcid(aa);
+				}
+
+				foundORF.setEnd(combineORF.getEnd());
+				foundORF.recalculateStartForOverlap();
+			}
+
+			if (frame >= 3) {
+				protein.reverseProtein();
+				if (foundORF != null) {
+					foundORF.reverseProtein();
+				}
+			}
+		} else {
+			// the protein was finished in the overlap -> write the combineFrame's protein/ORF now
+			protein = combineProtein;
+			foundORF = combineORF;
+		}
+
+		if ((protein != null) && (protein.length() > 0)) {
+			reportProteins();
+		}
+	}
+}
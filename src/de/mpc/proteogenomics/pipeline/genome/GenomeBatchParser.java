@@ -0,0 +1,360 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.GenomeParser;
+import de.mpc.proteogenomics.pipeline.TranslationTable;
+import de.mpc.proteogenomics.pipeline.io.CompressedFiles;
+
+
+/**
+ * Parses the genomes listed in a manifest (e.g. the strains of a pan-genome)
+ * in one JVM, so the startup and warm-up is paid only once.
+ * <p>
+ * The manifest is a tab separated file, whose first line names the columns:
+ * "genome" (the genome FASTA file), "prefix" (the prefix of the output files,
+ * which are prefix.fasta and prefix_frameN.gff), and optionally "proteins"
+ * (the GFF file of the known proteins), "name" (the genome name) and "code"
+ * (the NCBI translation table of the genome's genetic code, e.g. 4 for
+ * mycoplasma). Empty values or "-" stand for none, lines starting with '#'
+ * are ignored.
+ * <p>
+ * All genomes are parsed with the settings of a template {@link GenomeParser}.
+ * The largest genomes are started first and each idle thread takes the next
+ * largest genome, so the long runs do not end up at the end of the batch. The
+ * number of threads bounds the number of genomes in flight and thus the used
+ * memory.
+ *
+ * @author julian
+ *
+ */
+public class GenomeBatchParser {
+
+	private final static Logger logger = Logger.getLogger(GenomeBatchParser.class);
+
+	/** the default maximal number of genomes parsed at the same time */
+	public static final int default_maxInFlight = 2;
+
+	/** the header of the summary table */
+	private static final String summaryHeader = "genome\tprefix\tstatus\t" +
+			"parsed_proteins\textra_long_proteins\textra_short_proteins\t" +
+			"longest_protein\tproteins_with_orf\tknown_proteins_left_out\t" +
+			"fasta_entries\tmilliseconds";
+
+
+	/** the parser, whose settings are used for all genomes */
+	private GenomeParser settings;
+
+	/** the maximal number of genomes parsed at the same time */
+	private int maxInFlight;
+
+	/** the genomes of the manifest, in the order of the manifest */
+	private List<BatchGenome> genomes;
+
+
+	/**
+	 * Creates a batch parser.
+	 *
+	 * @param settings the parser, whose settings are used for all genomes
+	 * @param maxInFlight the maximal number of genomes parsed at the same time
+	 */
+	public GenomeBatchParser(GenomeParser settings, int maxInFlight) {
+		this.settings = settings;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.genomes = new ArrayList<BatchGenome>();
+	}
+
+
+	/**
+	 * Reads the genomes of the given manifest.
+	 *
+	 * @param manifestFileName
+	 * @throws IOException
+	 */
+	public void readManifest(String manifestFileName) throws IOException {
+		BufferedReader reader = CompressedFiles.openReader(manifestFileName);
+		try {
+			Map<String, Integer> columns = null;
+			String line;
+			int lineNr = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNr++;
+				if (line.trim().isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				String values[] = line.split("\t", -1);
+				if (columns == null) {
+					columns = new HashMap<String, Integer>();
+					for (int i=0; i < values.length; i++) {
+						columns.put(values[i].trim().toLowerCase(), i);
+					}
+					if (!columns.containsKey("genome") ||
+							!columns.containsKey("prefix")) {
+						throw new IOException("the manifest " +
+								manifestFileName + " needs the columns " +
+								"'genome' and 'prefix'");
+					}
+					continue;
+				}
+
+				BatchGenome genome = new BatchGenome(
+						getValue(values, columns, "genome"),
+						getValue(values, columns, "proteins"),
+						getValue(values, columns, "prefix"),
+						getValue(values, columns, "name"));
+				if ((genome.genomeFileName == null) ||
+						(genome.outputPrefix == null)) {
+					throw new IOException("missing genome or prefix in line " +
+							lineNr + " of " + manifestFileName);
+				}
+
+				String code = getValue(values, columns, "code");
+				if (code != null) {
+					genome.translationTable = TranslationTable.getById(code);
+					if (genome.translationTable == null) {
+						throw new IOException("unknown genetic code " + code +
+								" in line " + lineNr + " of " +
+								manifestFileName);
+					}
+				}
+				genomes.add(genome);
+			}
+		} finally {
+			reader.close();
+		}
+
+		logger.info("read " + genomes.size() + " genomes from " +
+				manifestFileName);
+	}
+
+
+	/**
+	 * Returns the value of the given column or null, if it is empty or "-".
+	 */
+	private static String getValue(String[] values,
+			Map<String, Integer> columns, String column) {
+		Integer idx = columns.get(column);
+		if ((idx == null) || (idx >= values.length)) {
+			return null;
+		}
+
+		String value = values[idx].trim();
+		if (value.isEmpty() || value.equals("-")) {
+			return null;
+		}
+		return value;
+	}
+
+
+	/**
+	 * Parses all genomes of the manifest, largest genomes first, and writes
+	 * the summary table.
+	 *
+	 * @param summaryFileName the file for the summary table (or null)
+	 * @return the number of genomes, which could not be parsed
+	 * @throws IOException
+	 */
+	public int parseGenomes(String summaryFileName) throws IOException {
+		List<BatchGenome> schedule = new ArrayList<BatchGenome>(genomes);
+		Collections.sort(schedule, new Comparator<BatchGenome>() {
+			@Override
+			public int compare(BatchGenome one, BatchGenome two) {
+				return (one.size > two.size) ? -1 :
+						((one.size == two.size) ? 0 : 1);
+			}
+		});
+
+		logger.info("parsing " + schedule.size() + " genomes with up to " +
+				maxInFlight + " genomes in flight");
+
+		// the idle threads take the next (largest) genome from the queue
+		ExecutorService executor = Executors.newFixedThreadPool(maxInFlight);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		try {
+			for (BatchGenome genome : schedule) {
+				futures.add(executor.submit(genome));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("the batch was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		int nrFailed = 0;
+		for (BatchGenome genome : genomes) {
+			if (genome.statistics == null) {
+				nrFailed++;
+			}
+		}
+		logger.info("parsed " + (genomes.size() - nrFailed) + " of " +
+				genomes.size() + " genomes");
+
+		if (summaryFileName != null) {
+			writeSummary(summaryFileName);
+		}
+		return nrFailed;
+	}
+
+
+	/**
+	 * Writes the counts of each genome into a tab separated table, in the
+	 * order of the manifest.
+	 *
+	 * @param summaryFileName
+	 * @throws IOException
+	 */
+	public void writeSummary(String summaryFileName) throws IOException {
+		BufferedWriter writer = CompressedFiles.openWriter(summaryFileName);
+		try {
+			writer.append(summaryHeader);
+			writer.newLine();
+
+			for (BatchGenome genome : genomes) {
+				GenomeParserStatistics statistics = genome.statistics;
+				writer.append(genome.genomeFileName);
+				writer.append('\t').append(genome.outputPrefix);
+				writer.append('\t').append(
+						(statistics != null) ? "ok" : "failed");
+				if (statistics != null) {
+					writer.append('\t').append(String.valueOf(
+							statistics.getNrParsedProteins()));
+					writer.append('\t').append(String.valueOf(
+							statistics.getExtraLongProteins()));
+					writer.append('\t').append(String.valueOf(
+							statistics.getExtraShortProteins()));
+					writer.append('\t').append(String.valueOf(
+							statistics.getLengthLongestProtein()));
+					writer.append('\t').append(String.valueOf(
+							statistics.getProteinsWithORF()));
+					writer.append('\t').append(String.valueOf(
+							statistics.getKnownProteins()));
+					writer.append('\t').append(String.valueOf(
+							statistics.getNrEntries()));
+				} else {
+					writer.append("\t\t\t\t\t\t\t");
+				}
+				writer.append('\t').append(String.valueOf(genome.milliseconds));
+				writer.newLine();
+			}
+		} finally {
+			writer.close();
+		}
+
+		logger.info("wrote the summary of the batch to " + summaryFileName);
+	}
+
+
+	/**
+	 * Writes each sequence of the parsed genomes only once, in the order of
+	 * the manifest (see {@link ProteinDeduplicator}).
+	 *
+	 * @param fastaFileName the FASTA file of the unique sequences
+	 * @param lociFileName the table of the loci of the unique sequences
+	 * @throws IOException
+	 */
+	public void deduplicate(String fastaFileName, String lociFileName)
+			throws IOException {
+		ProteinDeduplicator deduplicator =
+				new ProteinDeduplicator(fastaFileName, lociFileName);
+		try {
+			for (BatchGenome genome : genomes) {
+				if (genome.statistics != null) {
+					deduplicator.addFasta(genome.outputPrefix + ".fasta");
+				}
+			}
+		} finally {
+			deduplicator.close();
+		}
+	}
+
+
+	/**
+	 * A genome of the manifest, which is parsed by a thread of the batch.
+	 */
+	private class BatchGenome implements Callable<Void> {
+
+		private String genomeFileName;
+
+		private String proteinsFile;
+
+		private String outputPrefix;
+
+		private String genomeName;
+
+		/** the genetic code of the genome, null for the one of the settings */
+		private TranslationTable translationTable;
+
+		/** the size of the genome file, for the scheduling */
+		private long size;
+
+		/** the statistics of the parsing, null if it failed */
+		private GenomeParserStatistics statistics;
+
+		/** the time used for the parsing */
+		private long milliseconds;
+
+
+		public BatchGenome(String genomeFileName, String proteinsFile,
+				String outputPrefix, String genomeName) {
+			this.genomeFileName = genomeFileName;
+			this.proteinsFile = proteinsFile;
+			this.outputPrefix = outputPrefix;
+			this.genomeName = genomeName;
+			this.translationTable = null;
+			this.size = (genomeFileName != null) ?
+					new File(genomeFileName).length() : 0;
+			this.statistics = null;
+			this.milliseconds = 0;
+		}
+
+
+		@Override
+		public Void call() {
+			long startTime = System.currentTimeMillis();
+			GenomeParser parser =
+					new GenomeParser(settings, genomeFileName, genomeName);
+			if (translationTable != null) {
+				parser.setTranslationTable(translationTable);
+			}
+			try {
+				statistics = parser.parse(outputPrefix + ".fasta",
+						outputPrefix, proteinsFile);
+			} catch (IOException e) {
+				// one failing genome does not stop the batch
+				logger.error("Error while parsing " + genomeFileName + ": " +
+						e.getMessage());
+			} catch (Exception e) {
+				logger.error("Unhandled exception while parsing " +
+						genomeFileName, e);
+			}
+			milliseconds = System.currentTimeMillis() - startTime;
+
+			if (statistics == null) {
+				logger.error("could not parse " + genomeFileName);
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * The counts collected while parsing a genome, which may be summed up over
+ * several frames or records.
+ * 
+ * @author julian
+ *
+ */
+public class GenomeParserStatistics {
+	
+	/** the length, over which a protein is counted as extra long */
+	public static final int extra_long_length = 500;
+	
+	/** the minimal reported protein length */
+	private int min_protein_length;
+	
+	private long nrParsedProteins;
+	private long extra_short_proteins;
+	private long extra_long_proteins;
+	private long length_longest_protein;
+	private long proteins_with_orf;
+	private long known_proteins;
+	private long nr_entries;
+	
+	
+	public GenomeParserStatistics(int minimalProteinLength) {
+		this.min_protein_length = minimalProteinLength;
+		this.nrParsedProteins = 0;
+		this.extra_short_proteins = 0;
+		this.extra_long_proteins = 0;
+		this.length_longest_protein = 0;
+		this.proteins_with_orf = 0;
+		this.known_proteins = 0;
+		this.nr_entries = 0;
+	}
+	
+	
+	/**
+	 * Counts a parsed pseudo protein of the given length.
+	 * 
+	 * @param proteinLength
+	 */
+	public void countParsedProtein(int proteinLength) {
+		if (proteinLength > extra_long_length) {
+			extra_long_proteins++;
+		} else if (proteinLength < min_protein_length) {
+			extra_short_proteins++;
+		}
+		
+		if (proteinLength > length_longest_protein) {
+			length_longest_protein = proteinLength;
+		}
+		
+		nrParsedProteins++;
+	}
+	
+	
+	/**
+	 * Counts a protein, which was handed to the output.
+	 * 
+	 * @param reported whether the protein was reported or left out, because
+	 * it is known
+	 * @param isORF whether the protein is an ORF protein
+	 */
+	public void countHandledProtein(boolean reported, boolean isORF) {
+		if (reported) {
+			nr_entries++;
+			if (isORF) {
+				proteins_with_orf++;
+			}
+		} else {
+			known_proteins++;
+		}
+	}
+	
+	
+	/**
+	 * Counts a protein, which was counted as reported by
+	 * {@link #countHandledProtein(boolean, boolean)}, but was left out later,
+	 * because it is known. This is used by handlers, which check the known
+	 * proteins asynchronously, so the counts may get negative until they are
+	 * added to the counts of the translation.
+	 * 
+	 * @param isORF whether the protein is an ORF protein
+	 */
+	public void countLeftOutProtein(boolean isORF) {
+		nr_entries--;
+		if (isORF) {
+			proteins_with_orf--;
+		}
+		known_proteins++;
+	}
+	
+	
+	/**
+	 * Adds the counts of the other statistics to this one.
+	 * 
+	 * @param other
+	 */
+	public void add(GenomeParserStatistics other) {
+		nrParsedProteins += other.nrParsedProteins;
+		extra_short_proteins += other.extra_short_proteins;
+		extra_long_proteins += other.extra_long_proteins;
+		length_longest_protein =
+				Math.max(length_longest_protein, other.length_longest_protein);
+		proteins_with_orf += other.proteins_with_orf;
+		known_proteins += other.known_proteins;
+		nr_entries += other.nr_entries;
+	}
+	
+	
+	public long getNrParsedProteins() {
+		return nrParsedProteins;
+	}
+	
+	
+	public long getExtraShortProteins() {
+		return extra_short_proteins;
+	}
+	
+	
+	public long getExtraLongProteins() {
+		return extra_long_proteins;
+	}
+	
+	
+	public long getLengthLongestProtein() {
+		return length_longest_protein;
+	}
+	
+	
+	public long getProteinsWithORF() {
+		return proteins_with_orf;
+	}
+	
+	
+	public long getKnownProteins() {
+		return known_proteins;
+	}
+	
+	
+	public long getNrEntries() {
+		return nr_entries;
+	}
+	
+	
+	/**
+	 * Returns the counts as properties, e.g. for storing them in a file.
+	 * 
+	 * @return
+	 */
+	public Properties toProperties() {
+		Properties counts = new Properties();
+		counts.setProperty("nrParsedProteins", Long.toString(nrParsedProteins));
+		counts.setProperty("extra_short_proteins",
+				Long.toString(extra_short_proteins));
+		counts.setProperty("extra_long_proteins",
+				Long.toString(extra_long_proteins));
+		counts.setProperty("length_longest_protein",
+				Long.toString(length_longest_protein));
+		counts.setProperty("proteins_with_orf",
+				Long.toString(proteins_with_orf));
+		counts.setProperty("known_proteins", Long.toString(known_proteins));
+		counts.setProperty("nr_entries", Long.toString(nr_entries));
+		return counts;
+	}
+	
+	
+	/**
+	 * Creates the statistics with the counts given as properties (see
+	 * {@link #toProperties()}).
+	 * 
+	 * @param minimalProteinLength
+	 * @param counts
+	 * @return
+	 */
+	public static GenomeParserStatistics fromProperties(
+			int minimalProteinLength, Properties counts) {
+		GenomeParserStatistics statistics =
+				new GenomeParserStatistics(minimalProteinLength);
+		statistics.nrParsedProteins = getCount(counts, "nrParsedProteins");
+		statistics.extra_short_proteins =
+				getCount(counts, "extra_short_proteins");
+		statistics.extra_long_proteins =
+				getCount(counts, "extra_long_proteins");
+		statistics.length_longest_protein =
+				getCount(counts, "length_longest_protein");
+		statistics.proteins_with_orf = getCount(counts, "proteins_with_orf");
+		statistics.known_proteins = getCount(counts, "known_proteins");
+		statistics.nr_entries = getCount(counts, "nr_entries");
+		return statistics;
+	}
+	
+	
+	/**
+	 * Returns the count with the given name, 0 if it is missing.
+	 */
+	private static long getCount(Properties counts, String name) {
+		return Long.parseLong(counts.getProperty(name, "0"));
+	}
+	
+	
+	/**
+	 * Writes the statistics to the given logger.
+	 * 
+	 * @param logger
+	 */
+	public void logStatistics(Logger logger) {
+		logger.info("#parsed pseudo-proteins: " + nrParsedProteins);
+		logger.info("#proteins longer " + extra_long_length + " aa: " +
+				extra_long_proteins);
+		logger.info("#proteins shorter " + min_protein_length + " aa (NOT written to files): " +
+				extra_short_proteins);
+		logger.info("longest protein: " + length_longest_protein);
+		logger.info("#proteins with ORF: " + proteins_with_orf);
+		logger.info("#proteins left out, because they are known: " + known_proteins);
+		logger.info("#processed FASTA entries: " + nr_entries);
+	}
+}
@@ -0,0 +1,175 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.util.Arrays;
+
+import de.mpc.proteogenomics.pipeline.TranslationTable;
+
+
+/**
+ * A record of a genome FASTA file (e.g. a chromosome, plasmid or contig),
+ * holding its nucleotides as 2-bit codes.
+ * <p>
+ * When a linear record is streamed, the nucleotides no longer needed can be
+ * discarded (see {@link #discardBefore(long)}), then the held nucleotides
+ * start at the offset.
+ *
+ * @author julian
+ *
+ */
+public class GenomeRecord implements NucleotideSpanHandler {
+
+	/** the name of the record, i.e. the header up to the first space */
+	private String name;
+
+	/** the 2-bit codes of the nucleotides */
+	private byte nucleotides[];
+
+	/** the number of held nucleotides */
+	private int length;
+
+	/** the number of discarded nucleotides before the held ones */
+	private long offset;
+
+	/** whether the record is circular */
+	private boolean isCircular;
+
+	/** the genetic code of the record */
+	private TranslationTable translationTable;
+
+
+	public GenomeRecord(String name) {
+		this(name, 1024);
+	}
+
+
+	/**
+	 * Creates a record with room for the given number of nucleotides.
+	 *
+	 * @param name
+	 * @param capacity
+	 */
+	public GenomeRecord(String name, int capacity) {
+		this.name = name;
+		this.nucleotides = new byte[Math.max(1, capacity)];
+		this.length = 0;
+		this.offset = 0;
+		this.isCircular = true;
+		this.translationTable = TranslationTable.getDefault();
+	}
+
+
+	/**
+	 * Returns the name of the record
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+
+	/**
+	 * Returns whether the record is circular (the default)
+	 * @return
+	 */
+	public boolean isCircular() {
+		return isCircular;
+	}
+
+
+	/**
+	 * Sets whether the record is circular or linear
+	 * @param isCircular
+	 */
+	public void setCircular(boolean isCircular) {
+		this.isCircular = isCircular;
+	}
+
+
+	/**
+	 * Returns the genetic code of the record (defaults to the bacterial code)
+	 * @return
+	 */
+	public TranslationTable getTranslationTable() {
+		return translationTable;
+	}
+
+
+	/**
+	 * Sets the genetic code of the record
+	 * @param translationTable
+	 */
+	public void setTranslationTable(TranslationTable translationTable) {
+		this.translationTable = translationTable;
+	}
+
+
+	/**
+	 * Appends the nucleotide given by its 2-bit code.
+	 *
+	 * @param nucleotide
+	 */
+	public void addNucleotide(int nucleotide) {
+		if (length == nucleotides.length) {
+			nucleotides = Arrays.copyOf(nucleotides, 2 * length);
+		}
+		nucleotides[length++] = (byte)nucleotide;
+	}
+
+
+	@Override
+	public void addNucleotides(byte[] codes, int offset, int count) {
+		if (length + count > nucleotides.length) {
+			nucleotides = Arrays.copyOf(nucleotides,
+					Math.max(2 * nucleotides.length, length + count));
+		}
+		System.arraycopy(codes, offset, nucleotides, length, count);
+		length += count;
+	}
+
+
+	/**
+	 * Returns the 2-bit codes of the held nucleotides, the first entry is the
+	 * nucleotide at the 1-based position {@link #getOffset()} + 1. Only the
+	 * first {@link #getLength()} entries are valid.
+	 *
+	 * @return
+	 */
+	public byte[] getNucleotides() {
+		return nucleotides;
+	}
+
+
+	/**
+	 * Returns the number of held nucleotides, which is the length of the
+	 * record, if none were discarded
+	 * @return
+	 */
+	public int getLength() {
+		return length;
+	}
+
+
+	/**
+	 * Returns the number of discarded nucleotides before the held ones
+	 * @return
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+
+	/**
+	 * Discards the held nucleotides before the given 1-based position.
+	 *
+	 * @param position
+	 */
+	public void discardBefore(long position) {
+		int count = (int)Math.min(length, position - 1 - offset);
+		if (count <= 0) {
+			return;
+		}
+		System.arraycopy(nucleotides, count, nucleotides, 0, length - count);
+		length -= count;
+		offset += count;
+	}
+}
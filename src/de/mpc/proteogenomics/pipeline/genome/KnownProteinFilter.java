@@ -0,0 +1,56 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.IOException;
+
+import de.mpc.proteogenomics.pipeline.protein.GenomeTranslatedProtein;
+import de.mpc.proteogenomics.pipeline.protein.ProteinIntervalIndex;
+import de.mpc.proteogenomics.pipeline.protein.ProteinOverlapSearch;
+
+
+/**
+ * Checks the finished pseudo proteins against the known proteins and passes
+ * the not known ones (frozen) to another handler, like the
+ * {@link ProteinWriter} writes them.
+ * <p>
+ * A filter must only be used by one thread, as the search of the known
+ * proteins may be a sweep.
+ *
+ * @author julian
+ *
+ */
+public class KnownProteinFilter implements TranslatedProteinHandler {
+
+	/** the search for the known proteins */
+	private ProteinOverlapSearch knownProteins;
+
+	/** the handler of the not known proteins */
+	private TranslatedProteinHandler handler;
+
+
+	public KnownProteinFilter(ProteinIntervalIndex knownProteins,
+			TranslatedProteinHandler handler) {
+		this.knownProteins = knownProteins.createSearch();
+		this.handler = handler;
+	}
+
+
+	/**
+	 * Checks whether the protein is a known database protein. If it is not,
+	 * it is passed to the handler.
+	 *
+	 * @return true, if the protein was not known and passed on
+	 */
+	@Override
+	public boolean handleProtein(GenomeTranslatedProtein protein, int frame)
+			throws IOException {
+		protein.checkProteinRelations(knownProteins);
+
+		if (!protein.isInKnownProtein()) {
+			protein.freeze();
+			handler.handleProtein(protein, frame);
+			return true;
+		} else {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,350 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.GeneticCode;
+import de.mpc.proteogenomics.pipeline.io.CompressedFiles;
+
+
+/**
+ * Reads a genome FASTA file by mapping it into memory. A compressed file is
+ * instead decompressed into the heap once (see {@link CompressedFiles}). The
+ * bytes are scanned
+ * directly, line breaks and headers are skipped in place and the nucleotides
+ * are passed as contiguous spans of 2-bit codes to a
+ * {@link NucleotideSpanHandler}, without creating a String per line.
+ * <p>
+ * The records of the file are indexed by their byte offsets (see
+ * {@link #indexRecords()}), so they can be read independently and also
+ * concurrently.
+ *
+ * @author julian
+ *
+ */
+public class MappedGenomeReader implements Closeable {
+
+	private final static Logger logger = Logger.getLogger(MappedGenomeReader.class);
+
+	/** the maximal size of one mapped segment of the file */
+	private static final long segmentSize = 1L << 30;
+
+	/** the size of the buffer used for scanning the bytes */
+	private static final int bufferSize = 1 << 16;
+
+	/** the name of the FASTA file */
+	private String fileName;
+
+	/** the opened file */
+	private RandomAccessFile file;
+
+	/** the size of the file in bytes */
+	private long fileSize;
+
+	/** the mapped (or, for compressed files, decompressed) segments */
+	private ByteBuffer segments[];
+
+
+	public MappedGenomeReader(String fileName) throws IOException {
+		this.fileName = fileName;
+
+		if (CompressedFiles.isCompressedFile(fileName)) {
+			this.file = null;
+			readCompressed();
+			return;
+		}
+
+		this.file = new RandomAccessFile(fileName, "r");
+
+		FileChannel channel = file.getChannel();
+		this.fileSize = channel.size();
+
+		int nrSegments = (int)((fileSize + segmentSize - 1) / segmentSize);
+		this.segments = new ByteBuffer[nrSegments];
+		for (int segment=0; segment < nrSegments; segment++) {
+			long start = segment * segmentSize;
+			segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY,
+					start, Math.min(segmentSize, fileSize - start));
+		}
+	}
+
+
+	/**
+	 * Decompresses the whole file into segments in the heap. The file size is
+	 * then the size of the decompressed file.
+	 */
+	private void readCompressed() throws IOException {
+		logger.info("decompressing " + fileName + " into memory");
+
+		List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		InputStream in = CompressedFiles.openInputStream(fileName);
+		try {
+			byte segment[] = new byte[bufferSize];
+			int length = 0;
+			int read;
+			while ((read = in.read(segment, length, segment.length - length)) >= 0) {
+				length += read;
+				if (length == segment.length) {
+					if (length == segmentSize) {
+						buffers.add(ByteBuffer.wrap(segment));
+						segment = new byte[bufferSize];
+						length = 0;
+					} else {
+						segment = Arrays.copyOf(segment, (int)Math.min(
+								segmentSize, 2L * segment.length));
+					}
+				}
+			}
+			if (length > 0) {
+				buffers.add(ByteBuffer.wrap(segment, 0, length).slice());
+			}
+		} finally {
+			in.close();
+		}
+
+		this.segments = buffers.toArray(new ByteBuffer[buffers.size()]);
+		this.fileSize = 0;
+		for (ByteBuffer buffer : segments) {
+			fileSize += buffer.remaining();
+		}
+	}
+
+
+	/**
+	 * Returns the name of the read file
+	 * @return
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+
+	/**
+	 * Returns the size of the (decompressed) file in bytes
+	 * @return
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+
+	/**
+	 * Scans the file for its records and returns their boundaries in the
+	 * order of the file. A sequence before the first header is returned as
+	 * record without header.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public List<FastaRecordBounds> indexRecords() throws IOException {
+		List<FastaRecordBounds> records = new ArrayList<FastaRecordBounds>();
+		byte buffer[] = new byte[bufferSize];
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+
+		boolean lineStart = true;
+		boolean inHeader = false;
+
+		long recordStart = -1;
+		String recordHeader = null;
+		long sequenceOffset = -1;
+		long sequenceLength = 0;
+
+		long offset = 0;
+		while (offset < fileSize) {
+			int read = readBytes(offset, buffer, bufferSize);
+
+			for (int idx=0; idx < read; idx++) {
+				byte b = buffer[idx];
+
+				if (inHeader) {
+					if ((b == '\n') || (b == '\r')) {
+						inHeader = false;
+						lineStart = true;
+						recordHeader = header.toString("US-ASCII");
+						sequenceOffset = offset + idx + 1;
+					} else {
+						header.write(b);
+					}
+				} else if ((b == '\n') || (b == '\r')) {
+					lineStart = true;
+				} else if (lineStart && (b == '>')) {
+					if (recordStart > -1) {
+						records.add(new FastaRecordBounds(recordHeader,
+								recordStart, sequenceOffset, offset + idx,
+								sequenceLength));
+					}
+
+					recordStart = offset + idx;
+					inHeader = true;
+					header.reset();
+					header.write(b);
+					sequenceLength = 0;
+				} else {
+					if (recordStart < 0) {
+						// sequence without header
+						recordStart = offset + idx;
+						recordHeader = null;
+						sequenceOffset = recordStart;
+					}
+
+					lineStart = false;
+					sequenceLength++;
+				}
+			}
+
+			offset += read;
+		}
+
+		if (inHeader) {
+			// header in the last line without line break
+			recordHeader = header.toString("US-ASCII");
+			sequenceOffset = fileSize;
+		}
+
+		if (recordStart > -1) {
+			records.add(new FastaRecordBounds(recordHeader, recordStart,
+					sequenceOffset, fileSize, sequenceLength));
+		}
+
+		return records;
+	}
+
+
+	/**
+	 * Reads the sequence of the given record and passes its nucleotides in
+	 * spans of 2-bit codes to the handler. If an invalid nucleotide is found,
+	 * an error is logged and false returned.
+	 *
+	 * @param record the record's bounds, as given by {@link #indexRecords()}
+	 * @param recordName the name of the record used for error messages
+	 * @param handler
+	 * @return true, if all nucleotides are valid, otherwise false
+	 * @throws IOException
+	 */
+	public boolean readSequence(FastaRecordBounds record, String recordName,
+			NucleotideSpanHandler handler) throws IOException {
+		byte buffer[] = new byte[bufferSize];
+
+		long offset = record.getSequenceOffset();
+		long end = record.getEndOffset();
+		long position = 0;
+
+		while (offset < end) {
+			int read = readBytes(offset, buffer,
+					(int)Math.min(bufferSize, end - offset));
+
+			// the codes are written into the already scanned part of the buffer
+			int nrCodes = 0;
+			for (int idx=0; idx < read; idx++) {
+				byte b = buffer[idx];
+				if ((b == '\n') || (b == '\r')) {
+					continue;
+				}
+
+				int nucleotide = GeneticCode.nucleotideCode(b & 0xff);
+				if (nucleotide == GeneticCode.INVALID_NUCLEOTIDE) {
+					logger.error("could not generate amino acid for invalid " +
+							"nucleotide '" + (char)(b & 0xff) + "' at position " +
+							(position + nrCodes + 1) + " of " + recordName);
+					return false;
+				}
+
+				buffer[nrCodes++] = (byte)nucleotide;
+			}
+
+			if (nrCodes > 0) {
+				handler.addNucleotides(buffer, 0, nrCodes);
+			}
+
+			position += nrCodes;
+			offset += read;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Reads the sequence of the given record unchecked, i.e. also with other
+	 * characters than nucleotides (like N or IUPAC codes), into the builder of
+	 * a packed sequence.
+	 *
+	 * @param record the record's bounds, as given by {@link #indexRecords()}
+	 * @param builder
+	 * @throws IOException
+	 */
+	public void readSequenceBytes(FastaRecordBounds record,
+			PackedSequence.Builder builder) throws IOException {
+		byte buffer[] = new byte[bufferSize];
+
+		long offset = record.getSequenceOffset();
+		long end = record.getEndOffset();
+		while (offset < end) {
+			int read = readBytes(offset, buffer,
+					(int)Math.min(bufferSize, end - offset));
+			builder.append(buffer, 0, read);
+			offset += read;
+		}
+	}
+
+
+	/**
+	 * Reads the sequence of the given record into a new {@link GenomeRecord}
+	 * with the given name.
+	 *
+	 * @param record the record's bounds, as given by {@link #indexRecords()}
+	 * @param recordName the name of the new record
+	 * @return the record or null, if an invalid nucleotide was found
+	 * @throws IOException
+	 */
+	public GenomeRecord readRecord(FastaRecordBounds record, String recordName)
+			throws IOException {
+		if (record.getSequenceLength() > Integer.MAX_VALUE) {
+			throw new IOException("the record " + recordName + " is too large");
+		}
+
+		GenomeRecord genomeRecord = new GenomeRecord(recordName,
+				(int)record.getSequenceLength());
+		if (!readSequence(record, recordName, genomeRecord)) {
+			return null;
+		}
+		return genomeRecord;
+	}
+
+
+	/**
+	 * Copies bytes of the mapped file, starting at the given offset, into the
+	 * buffer. At most the given length is copied, but never across a segment
+	 * border.
+	 *
+	 * @return the number of copied bytes
+	 */
+	private int readBytes(long offset, byte[] buffer, int length) {
+		// duplicate the segment, so that concurrent reads do not interfere
+		ByteBuffer segment = segments[(int)(offset / segmentSize)].duplicate();
+		segment.position((int)(offset % segmentSize));
+
+		int read = Math.min(length, segment.remaining());
+		segment.get(buffer, 0, read);
+		return read;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		segments = null;
+		if (file != null) {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.IOException;
+
+
+/**
+ * Receives contiguous spans of nucleotides, given as 2-bit codes, e.g. from
+ * the {@link MappedGenomeReader}.
+ * 
+ * @author julian
+ *
+ */
+public interface NucleotideSpanHandler {
+	
+	/**
+	 * Adds the nucleotides given as 2-bit codes. The array is reused by the
+	 * caller, so the codes must be copied, if they are needed later.
+	 * 
+	 * @param nucleotides
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void addNucleotides(byte[] nucleotides, int offset, int length)
+			throws IOException;
+}
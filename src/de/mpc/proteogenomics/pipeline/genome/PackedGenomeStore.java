@@ -0,0 +1,317 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.GenomeParser;
+
+
+/**
+ * Holds the sequences of a genome 2-bit packed in memory (see
+ * {@link PackedSequence}), so that several stages can access regions of the
+ * genome without holding the chromosomes as Strings.
+ * <p>
+ * The store is either read from a genome FASTA file or from its own binary
+ * file (see {@link #write(String)}), whose packed sequences are mapped into
+ * memory instead of being read. The file consists of a magic number, the
+ * packed words of all sequences, the directory with the names, lengths,
+ * offsets and exceptions of the sequences and the offset of the directory.
+ *
+ * @author julian
+ *
+ */
+public class PackedGenomeStore {
+
+	private final static Logger logger = Logger.getLogger(PackedGenomeStore.class);
+
+	/** the magic number at the start of a store file ("PGS" and version 1) */
+	private static final int magicNumber = 0x50475301;
+
+
+	/** the sequences in the order of the genome */
+	private List<PackedSequence> sequences;
+
+	/** the sequences by their names */
+	private Map<String, PackedSequence> sequencesByName;
+
+
+	/**
+	 * Creates a store of the given sequences.
+	 *
+	 * @param sequences
+	 */
+	public PackedGenomeStore(List<PackedSequence> sequences) {
+		this.sequences = new ArrayList<PackedSequence>(sequences);
+		this.sequencesByName = new HashMap<String, PackedSequence>();
+		for (PackedSequence sequence : sequences) {
+			if (sequencesByName.put(sequence.getName(), sequence) != null) {
+				logger.warn("the sequence name " + sequence.getName() +
+						" is not unique");
+			}
+		}
+	}
+
+
+	/**
+	 * Reads the records of a (possibly compressed) genome FASTA file into a
+	 * store. The sequences are named by the headers up to the first space.
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static PackedGenomeStore readFasta(String fileName)
+			throws IOException {
+		List<PackedSequence> sequences = new ArrayList<PackedSequence>();
+		MappedGenomeReader reader = new MappedGenomeReader(fileName);
+		try {
+			for (FastaRecordBounds record : reader.indexRecords()) {
+				String name = GenomeParser.parseRecordName(record.getHeader());
+				if (name == null) {
+					name = "record" + sequences.size();
+				}
+
+				PackedSequence.Builder builder =
+						new PackedSequence.Builder(name);
+				reader.readSequenceBytes(record, builder);
+				sequences.add(builder.build());
+			}
+		} finally {
+			reader.close();
+		}
+
+		logger.info("read " + sequences.size() + " sequences from " +
+				fileName);
+		return new PackedGenomeStore(sequences);
+	}
+
+
+	/**
+	 * Returns the sequences in the order of the genome.
+	 *
+	 * @return
+	 */
+	public List<PackedSequence> getSequences() {
+		return Collections.unmodifiableList(sequences);
+	}
+
+
+	/**
+	 * Returns the sequence with the given name or null, if there is none.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public PackedSequence getSequence(String name) {
+		return sequencesByName.get(name);
+	}
+
+
+	/**
+	 * Returns a view on the given region of the sequence with the given name.
+	 *
+	 * @param name the name of the sequence
+	 * @param start the 1-based start of the region
+	 * @param end the 1-based, inclusive end of the region
+	 * @param isComplement whether the region is read on the complementary
+	 * strand, i.e. as reverse complement
+	 * @return the view or null, if there is no sequence with the name
+	 */
+	public SequenceView getSubsequence(String name, long start, long end,
+			boolean isComplement) {
+		PackedSequence sequence = sequencesByName.get(name);
+		if (sequence == null) {
+			return null;
+		}
+		return sequence.getSubsequence(start, end, isComplement);
+	}
+
+
+	/**
+	 * Writes the store into a binary file, which can be mapped by
+	 * {@link #open(String)}.
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void write(String fileName) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fileName), 1 << 16));
+		try {
+			out.writeInt(magicNumber);
+			out.writeInt(0);
+			long offset = 8;
+
+			// the words of the sequences, 8-byte aligned
+			long wordOffsets[] = new long[sequences.size()];
+			for (int i=0; i < sequences.size(); i++) {
+				LongBuffer words = sequences.get(i).getWords();
+				words.rewind();
+				wordOffsets[i] = offset;
+				while (words.hasRemaining()) {
+					out.writeLong(words.get());
+				}
+				offset += 8L * words.capacity();
+			}
+
+			// the directory
+			out.writeInt(sequences.size());
+			for (int i=0; i < sequences.size(); i++) {
+				PackedSequence sequence = sequences.get(i);
+				out.writeUTF(sequence.getName());
+				out.writeInt(sequence.getLength());
+				out.writeLong(wordOffsets[i]);
+				out.writeInt(sequence.getNrExceptions());
+				for (int idx=0; idx < sequence.getNrExceptions(); idx++) {
+					out.writeInt(sequence.getExceptionStart(idx));
+					out.writeInt(sequence.getExceptionEnd(idx));
+					out.writeByte(sequence.getExceptionChar(idx));
+				}
+			}
+			out.writeLong(offset);
+		} finally {
+			out.close();
+		}
+
+		logger.info("wrote the packed genome to " + fileName);
+	}
+
+
+	/**
+	 * Opens a store written by {@link #write(String)}. The packed sequences
+	 * are mapped into memory, only the directory is read.
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static PackedGenomeStore open(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			if ((file.length() < 16) || (file.readInt() != magicNumber)) {
+				throw new IOException(fileName + " is no packed genome file");
+			}
+			file.seek(file.length() - 8);
+			long directoryOffset = file.readLong();
+
+			FileChannel channel = file.getChannel();
+			channel.position(directoryOffset);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					Channels.newInputStream(channel), 1 << 16));
+
+			int nrSequences = in.readInt();
+			List<PackedSequence> sequences =
+					new ArrayList<PackedSequence>(nrSequences);
+			for (int i=0; i < nrSequences; i++) {
+				String name = in.readUTF();
+				int length = in.readInt();
+				long wordOffset = in.readLong();
+
+				int nrExceptions = in.readInt();
+				int exceptionStarts[] = new int[nrExceptions];
+				int exceptionEnds[] = new int[nrExceptions];
+				byte exceptionChars[] = new byte[nrExceptions];
+				for (int idx=0; idx < nrExceptions; idx++) {
+					exceptionStarts[idx] = in.readInt();
+					exceptionEnds[idx] = in.readInt();
+					exceptionChars[idx] = in.readByte();
+				}
+
+				LongBuffer words = channel.map(FileChannel.MapMode.READ_ONLY,
+						wordOffset, 8L * PackedSequence.getNrWords(length))
+						.asLongBuffer();
+				sequences.add(new PackedSequence(name, length, words,
+						exceptionStarts, exceptionEnds, exceptionChars));
+			}
+
+			logger.info("mapped " + nrSequences + " sequences from " +
+					fileName);
+			return new PackedGenomeStore(sequences);
+		} finally {
+			// the mappings stay valid after closing the file
+			file.close();
+		}
+	}
+
+
+	@SuppressWarnings("static-access")
+	public static void main(String[] args) {
+		boolean showHelp = false;
+		CommandLineParser cliParser = new GnuParser();
+
+		Options options = new Options();
+		options.addOption(OptionBuilder
+				.withDescription("show help")
+				.create("help"));
+
+		options.addOption(OptionBuilder
+				.withArgName("filename")
+				.hasArg()
+				.withDescription("the genome in FASTA format")
+				.create("infile"));
+
+		options.addOption(OptionBuilder
+				.withArgName("filename")
+				.hasArg()
+				.withDescription("the packed genome file, which can be " +
+						"mapped into memory")
+				.create("outfile"));
+
+		try {
+			CommandLine line = cliParser.parse(options, args);
+
+			if ((line.getOptions().length == 0) || line.hasOption("help") ||
+					!line.hasOption("infile") || !line.hasOption("outfile")) {
+				showHelp = true;
+			} else {
+				PackedGenomeStore store =
+						readFasta(line.getOptionValue("infile"));
+				store.write(line.getOptionValue("outfile"));
+			}
+		} catch (ParseException e) {
+			logger.error("Error while parsing the command line: " +
+					e.getMessage());
+			showHelp = true;
+		} catch (IOException e) {
+			logger.error("Error while packing the genome: " + e.getMessage());
+		}
+
+		if (showHelp) {
+			HelpFormatter formatter = new HelpFormatter();
+
+			formatter.printHelp(PackedGenomeStore.class.getSimpleName(),
+					"This tool packs a genome FASTA file into a file with 2 " +
+					"bits per nucleotide, which is mapped into memory by " +
+					"the stages needing random access to the genome." +
+					"\nOptions:",
+					options,
+					"\nCopyright (C) 2013-2014 Medizinisches Proteom-Center, " +
+					"julian.uszkoreit@rub.de" +
+					"\nThis is free software; see the source for copying " +
+					"conditions. There is ABSOLUTELY NO warranty!",
+					true);
+		}
+	}
+}
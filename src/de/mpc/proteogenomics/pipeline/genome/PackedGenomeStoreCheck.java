@@ -0,0 +1,622 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.GeneticCode;
+import de.mpc.proteogenomics.pipeline.GenomeParser;
+import de.mpc.proteogenomics.pipeline.io.CompressedFiles;
+
+
+/**
+ * Round-trip test harness for the {@link PackedGenomeStore}: reads genome
+ * FASTA files into a store and into plain Strings and checks, that the store
+ * returns the same sequences. This is checked for the store read from the
+ * FASTA file and for the store mapped from its written file.
+ * <p>
+ * For each sequence, the packed words, the exception runs (N and IUPAC
+ * codes) and the characters and codes are compared. Random regions are
+ * compared on both strands, together with their sub-sequences and reverse
+ * complements.
+ * <p>
+ * Either given genomes are checked or random genomes are generated, which
+ * contain lower case stretches, runs of N, IUPAC codes and U, have lengths
+ * around the word borders and lines ending with CR LF.
+ *
+ * @author julian
+ *
+ */
+public class PackedGenomeStoreCheck {
+
+	private final static Logger logger = Logger.getLogger(PackedGenomeStoreCheck.class);
+
+	/** the lengths of the records of the random genomes */
+	private static final int recordLengths[] =
+		{0, 1, 31, 32, 33, 63, 64, 65, 1000, 100001};
+
+	/** the IUPAC codes used in the random genomes */
+	private static final String iupacCodes = "RYKMSWBDHVN";
+
+	/** the nucleotide and IUPAC codes and their complements */
+	private static final String complementPairs =
+			"ACGTRYKMBVDHSWN" +
+			"TGCAYRMKVBHDSWN";
+
+	/** the number of random regions checked for each sequence */
+	private static final int nrRegions = 200;
+
+
+	/** the random generator of the regions */
+	private Random random;
+
+	/** the directory for the temporary files */
+	private File workDirectory;
+
+
+	public PackedGenomeStoreCheck(Random random, File workDirectory) {
+		this.random = random;
+		this.workDirectory = workDirectory;
+	}
+
+
+	/**
+	 * Checks the store read from the given genome file and the store mapped
+	 * from its written file against the sequences of the genome file.
+	 *
+	 * @param genomeFile
+	 * @return the number of failed checks
+	 * @throws IOException
+	 */
+	public int checkGenome(String genomeFile) throws IOException {
+		List<String> names = new ArrayList<String>();
+		List<String> sequences = new ArrayList<String>();
+		readReferenceSequences(genomeFile, names, sequences);
+
+		PackedGenomeStore fastaStore = PackedGenomeStore.readFasta(genomeFile);
+		int nrFailures = checkStore(genomeFile + " (FASTA)", fastaStore,
+				names, sequences);
+
+		File storeFile = new File(workDirectory, "genome.pgs");
+		fastaStore.write(storeFile.getPath());
+		PackedGenomeStore mappedStore =
+				PackedGenomeStore.open(storeFile.getPath());
+		nrFailures += checkStore(genomeFile + " (mapped)", mappedStore,
+				names, sequences);
+
+		if (nrFailures == 0) {
+			logger.info(genomeFile + ": all " + sequences.size() +
+					" sequences are identical");
+		}
+		return nrFailures;
+	}
+
+
+	/**
+	 * Checks random genomes with the given seed.
+	 *
+	 * @param seed
+	 * @return the number of failed checks
+	 * @throws IOException
+	 */
+	public int checkRandomGenomes(long seed) throws IOException {
+		Random genomeRandom = new Random(seed);
+		int nrFailures = 0;
+
+		for (double exceptionRate : new double[] {0.0, 0.001, 0.05}) {
+			File genomeFile = new File(workDirectory,
+					"random_" + exceptionRate + ".fasta");
+			writeRandomGenome(genomeFile, genomeRandom, exceptionRate);
+			nrFailures += checkGenome(genomeFile.getPath());
+		}
+
+		return nrFailures;
+	}
+
+
+	/**
+	 * Checks all sequences of the store.
+	 *
+	 * @return the number of failed checks
+	 */
+	private int checkStore(String storeName, PackedGenomeStore store,
+			List<String> names, List<String> sequences) {
+		if (store.getSequences().size() != sequences.size()) {
+			logger.error(storeName + ": " + store.getSequences().size() +
+					" sequences instead of " + sequences.size());
+			return 1;
+		}
+
+		int nrFailures = 0;
+		for (int i=0; i < sequences.size(); i++) {
+			PackedSequence sequence = store.getSequences().get(i);
+			String name = storeName + " " + names.get(i);
+			if (!sequence.getName().equals(names.get(i)) ||
+					(store.getSequence(names.get(i)) == null)) {
+				logger.error(name + ": the sequence is named " +
+						sequence.getName());
+				nrFailures++;
+			} else if (sequence.getLength() != sequences.get(i).length()) {
+				logger.error(name + ": the length is " + sequence.getLength() +
+						" instead of " + sequences.get(i).length());
+				nrFailures++;
+			} else {
+				nrFailures += checkSequence(name, sequence, sequences.get(i));
+			}
+		}
+		return nrFailures;
+	}
+
+
+	/**
+	 * Checks the words, exceptions, characters and regions of the sequence.
+	 *
+	 * @return the number of failed checks
+	 */
+	private int checkSequence(String name, PackedSequence sequence,
+			String reference) {
+		int nrFailures = 0;
+		if (!checkWords(name, sequence, reference)) {
+			nrFailures++;
+		}
+		if (!checkExceptions(name, sequence, reference)) {
+			nrFailures++;
+		}
+		if (!checkCharacters(name, sequence, reference)) {
+			nrFailures++;
+		}
+		if (!checkRegions(name, sequence, reference)) {
+			nrFailures++;
+		}
+		return nrFailures;
+	}
+
+
+	/**
+	 * Checks the packed words, in which the exceptions are stored as A and
+	 * the bits after the last nucleotide are not set.
+	 */
+	private static boolean checkWords(String name, PackedSequence sequence,
+			String reference) {
+		LongBuffer words = sequence.getWords();
+		if (words.capacity() !=
+				PackedSequence.getNrWords(reference.length())) {
+			logger.error(name + ": " + words.capacity() + " packed words");
+			return false;
+		}
+
+		for (int wordIdx=0; wordIdx < words.capacity(); wordIdx++) {
+			long expected = 0;
+			for (int i=0; i < 32; i++) {
+				int pos = (wordIdx << 5) + i;
+				if (pos < reference.length()) {
+					expected |= ((long)getExpectedCode(reference.charAt(pos)))
+							<< (i << 1);
+				}
+			}
+
+			if (words.get(wordIdx) != expected) {
+				logger.error(name + ": the packed word " + wordIdx + " is " +
+						Long.toHexString(words.get(wordIdx)) + " instead of " +
+						Long.toHexString(expected));
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Checks the exception runs, which are the maximal runs of equal
+	 * characters other than A, C, G and T.
+	 */
+	private static boolean checkExceptions(String name,
+			PackedSequence sequence, String reference) {
+		int idx = 0;
+		int pos = 0;
+		while (pos < reference.length()) {
+			char c = reference.charAt(pos);
+			if (isNucleotide(c)) {
+				pos++;
+				continue;
+			}
+
+			int end = pos + 1;
+			while ((end < reference.length()) && (reference.charAt(end) == c)) {
+				end++;
+			}
+
+			if ((idx >= sequence.getNrExceptions()) ||
+					(sequence.getExceptionStart(idx) != pos) ||
+					(sequence.getExceptionEnd(idx) != end) ||
+					(sequence.getExceptionChar(idx) != c)) {
+				logger.error(name + ": the exception run " + idx +
+						" is not " + c + " at " + pos + "-" + end);
+				return false;
+			}
+			idx++;
+			pos = end;
+		}
+
+		if (idx != sequence.getNrExceptions()) {
+			logger.error(name + ": " + sequence.getNrExceptions() +
+					" exception runs instead of " + idx);
+			return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Checks the characters and codes of all positions and the whole
+	 * sequence.
+	 */
+	private static boolean checkCharacters(String name,
+			PackedSequence sequence, String reference) {
+		for (int pos=0; pos < reference.length(); pos++) {
+			if ((sequence.charAt(pos) != reference.charAt(pos)) ||
+					(sequence.getCode(pos) !=
+							getExpectedCode(reference.charAt(pos)))) {
+				logger.error(name + ": the position " + pos + " is " +
+						sequence.charAt(pos) + " instead of " +
+						reference.charAt(pos));
+				return false;
+			}
+		}
+
+		if (!sequence.getView().toString().equals(reference)) {
+			logger.error(name + ": the view of the whole sequence differs");
+			return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Checks random regions (including empty ones and the sequence borders)
+	 * on both strands.
+	 */
+	private boolean checkRegions(String name, PackedSequence sequence,
+			String reference) {
+		int length = reference.length();
+
+		try {
+			sequence.getSubsequence(0, length, false);
+			logger.error(name + ": the region starting at 0 is accepted");
+			return false;
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+
+		for (int region=0; region < nrRegions; region++) {
+			int start;
+			int end;
+			if (region == 0) {
+				start = 1;
+				end = length;
+			} else {
+				start = 1 + random.nextInt(length + 1);
+				end = start - 1 + random.nextInt(
+						Math.min(length - start + 2, 2000));
+			}
+			String forward = reference.substring(start - 1, end);
+			if (!checkCopiedCodes(name, sequence, start - 1, end - start + 1)) {
+				return false;
+			}
+
+			for (boolean isComplement : new boolean[] {false, true}) {
+				String expected =
+						isComplement ? reverseComplement(forward) : forward;
+				String regionName = name + " " + start + "-" + end +
+						(isComplement ? " (complement)" : "");
+
+				SequenceView view =
+						sequence.getSubsequence(start, end, isComplement);
+				if (!checkView(regionName, view, expected)) {
+					return false;
+				}
+				if ((view.getStart() != start) || (view.getEnd() != end) ||
+						(view.getIsComplement() != isComplement)) {
+					logger.error(regionName + ": the view is at " +
+							view.getStart() + "-" + view.getEnd());
+					return false;
+				}
+
+				if (!checkView(regionName + " reversed",
+						view.reverseComplement(), reverseComplement(expected))) {
+					return false;
+				}
+
+				if (expected.length() > 0) {
+					int subStart = random.nextInt(expected.length() + 1);
+					int subEnd = subStart +
+							random.nextInt(expected.length() - subStart + 1);
+					SequenceView subView = view.subSequence(subStart, subEnd);
+					if (!checkView(regionName + " sub-sequence " + subStart +
+							"-" + subEnd, subView,
+							expected.substring(subStart, subEnd)) ||
+							!checkView(regionName + " reversed sub-sequence",
+									subView.reverseComplement(),
+									reverseComplement(
+											expected.substring(subStart, subEnd)))) {
+						return false;
+					}
+				}
+			}
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Checks the given view against the expected sequence, as String, by
+	 * characters and by codes.
+	 */
+	private static boolean checkView(String name, SequenceView view,
+			String expected) {
+		if ((view.length() != expected.length()) ||
+				!view.toString().equals(expected)) {
+			logger.error(name + ": the view is " + view + " instead of " +
+					expected);
+			return false;
+		}
+
+		for (int idx=0; idx < expected.length(); idx++) {
+			char c = expected.charAt(idx);
+			if (view.charAt(idx) != c) {
+				logger.error(name + ": the index " + idx + " of the view is " +
+						view.charAt(idx) + " instead of " + c);
+				return false;
+			}
+			if (isNucleotide(c) && (view.getCode(idx) != getExpectedCode(c))) {
+				logger.error(name + ": the code at index " + idx + " of the " +
+						"view is " + view.getCode(idx) + " instead of " +
+						getExpectedCode(c));
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Checks the codes of the region copied in the format of the
+	 * {@link GenomeRecord}, starting at an offset in the array.
+	 */
+	private static boolean checkCopiedCodes(String name,
+			PackedSequence sequence, int position, int count) {
+		byte codes[] = new byte[count + 1];
+		sequence.copyCodes(position, count, codes, 1);
+		for (int i=0; i < count; i++) {
+			if (codes[i + 1] != sequence.getCode(position + i)) {
+				logger.error(name + ": the copied code at " + (position + i) +
+						" differs");
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Returns whether the character is an upper case A, C, G or T.
+	 */
+	private static boolean isNucleotide(char c) {
+		return (c == 'A') || (c == 'C') || (c == 'G') || (c == 'T');
+	}
+
+
+	/**
+	 * Returns the expected 2-bit code of the character, 0 for the exceptions.
+	 */
+	private static int getExpectedCode(char c) {
+		return isNucleotide(c) ? GeneticCode.nucleotideCode(c) : 0;
+	}
+
+
+	/**
+	 * Returns the reverse complement of the sequence.
+	 */
+	private static String reverseComplement(String sequence) {
+		int half = complementPairs.length() / 2;
+		StringBuilder complement = new StringBuilder(sequence.length());
+		for (int idx=sequence.length() - 1; idx >= 0; idx--) {
+			char c = sequence.charAt(idx);
+			int pairIdx = complementPairs.indexOf(c);
+			complement.append(((pairIdx >= 0) && (pairIdx < half)) ?
+					complementPairs.charAt(pairIdx + half) : c);
+		}
+		return complement.toString();
+	}
+
+
+	/**
+	 * Reads the names and (upper case, U as T) sequences of the genome FASTA
+	 * file line by line, independently of the store.
+	 *
+	 * @throws IOException
+	 */
+	private static void readReferenceSequences(String genomeFile,
+			List<String> names, List<String> sequences) throws IOException {
+		BufferedReader reader = CompressedFiles.openReader(genomeFile);
+		StringBuilder sequence = null;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith(">")) {
+				if (sequence != null) {
+					sequences.add(sequence.toString());
+				}
+				String name = GenomeParser.parseRecordName(line);
+				names.add((name != null) ? name : ("record" + names.size()));
+				sequence = new StringBuilder();
+			} else if (sequence != null) {
+				for (int idx=0; idx < line.length(); idx++) {
+					char c = Character.toUpperCase(line.charAt(idx));
+					if (c > ' ') {
+						sequence.append((c == 'U') ? 'T' : c);
+					}
+				}
+			}
+		}
+		if (sequence != null) {
+			sequences.add(sequence.toString());
+		}
+		reader.close();
+	}
+
+
+	/**
+	 * Writes a random genome with records of all {@link #recordLengths}. The
+	 * given rate is the probability of a run of N or an IUPAC code at each
+	 * position.
+	 *
+	 * @throws IOException
+	 */
+	private static void writeRandomGenome(File genomeFile, Random random,
+			double exceptionRate) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(genomeFile));
+
+		for (int record=0; record < recordLengths.length; record++) {
+			writer.append(">packed_" + record + " random genome");
+			writer.newLine();
+
+			int lineWidth = random.nextBoolean() ? 60 : 80;
+			boolean crLf = random.nextBoolean();
+			boolean lowerCase = false;
+			int runLength = 0;
+			char runChar = 'N';
+
+			for (int pos=0; pos < recordLengths[record]; pos++) {
+				if (random.nextDouble() < 0.002) {
+					lowerCase = !lowerCase;
+				}
+
+				char c;
+				if (runLength > 0) {
+					c = runChar;
+					runLength--;
+				} else if (random.nextDouble() < exceptionRate) {
+					runChar = iupacCodes.charAt(
+							random.nextInt(iupacCodes.length()));
+					runLength = (runChar == 'N') ? random.nextInt(100) : 0;
+					c = runChar;
+				} else if (random.nextDouble() < exceptionRate) {
+					c = 'U';
+				} else {
+					c = "ACGT".charAt(random.nextInt(4));
+				}
+				writer.append(lowerCase ? Character.toLowerCase(c) : c);
+
+				if ((pos % lineWidth == lineWidth - 1) ||
+						(pos == recordLengths[record] - 1)) {
+					writer.append(crLf ? "\r\n" : "\n");
+				}
+			}
+		}
+
+		writer.close();
+	}
+
+
+	@SuppressWarnings("static-access")
+	public static void main(String[] args) {
+		boolean showHelp = false;
+		CommandLineParser cliParser = new GnuParser();
+
+		Options options = new Options();
+		options.addOption(OptionBuilder
+				.withDescription("show help")
+				.create("help"));
+
+		options.addOption(OptionBuilder
+				.withArgName("filename")
+				.hasArgs()
+				.withDescription("genome FASTA files to check, if none is " +
+						"given, random genomes are checked")
+				.create("infile"));
+
+		options.addOption(OptionBuilder
+				.withArgName("number")
+				.hasArg()
+				.withDescription("seed for the random genomes and regions")
+				.create("seed"));
+
+		try {
+			CommandLine line = cliParser.parse(options, args);
+
+			if (line.hasOption("help")) {
+				showHelp = true;
+			} else {
+				long seed = Long.parseLong(line.getOptionValue("seed", "42"));
+
+				File workDirectory =
+						File.createTempFile("packedgenomecheck", "");
+				if (!workDirectory.delete() || !workDirectory.mkdir()) {
+					throw new IOException("could not create " + workDirectory);
+				}
+
+				PackedGenomeStoreCheck check = new PackedGenomeStoreCheck(
+						new Random(seed), workDirectory);
+
+				int nrFailures = 0;
+				if (line.hasOption("infile")) {
+					for (String genomeFile : line.getOptionValues("infile")) {
+						nrFailures += check.checkGenome(genomeFile);
+					}
+				} else {
+					nrFailures += check.checkRandomGenomes(seed);
+				}
+
+				for (File file : workDirectory.listFiles()) {
+					file.delete();
+				}
+				workDirectory.delete();
+
+				if (nrFailures > 0) {
+					logger.error(nrFailures + " checks failed");
+					System.exit(1);
+				}
+				logger.info("all checks passed");
+			}
+		} catch (ParseException e) {
+			logger.error("Error while parsing the command line: " +
+					e.getMessage());
+			showHelp = true;
+		} catch (IOException e) {
+			logger.error("Error while checking: " + e.getMessage());
+			System.exit(1);
+		}
+
+		if (showHelp) {
+			HelpFormatter formatter = new HelpFormatter();
+
+			formatter.printHelp(PackedGenomeStoreCheck.class.getSimpleName(),
+					"This tool checks, that the packed genome store (read " +
+					"from FASTA and mapped from its file) returns the " +
+					"sequences of the genome FASTA files." +
+					"\nOptions:",
+					options,
+					"\nCopyright (C) 2013-2014 Medizinisches Proteom-Center, " +
+					"julian.uszkoreit@rub.de" +
+					"\nThis is free software; see the source for copying " +
+					"conditions. There is ABSOLUTELY NO warranty!",
+					true);
+		}
+	}
+}
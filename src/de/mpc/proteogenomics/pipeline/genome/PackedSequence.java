@@ -0,0 +1,398 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+import de.mpc.proteogenomics.pipeline.GeneticCode;
+
+
+/**
+ * A nucleotide sequence (e.g. a chromosome or contig), packed into 2 bits per
+ * nucleotide: 32 nucleotides are stored in each long, the first one in the
+ * lowest bits. The words are either held on the heap or mapped from a file of
+ * the {@link PackedGenomeStore}.
+ * <p>
+ * Other characters than A, C, G and T (e.g. N or IUPAC codes) are kept in a
+ * sparse list of exception runs, the packed array holds an A at their
+ * positions. Lower case characters are stored upper case, U as T.
+ * <p>
+ * The positions of the sequence are 0-based, while
+ * {@link #getSubsequence(long, long, boolean)} uses the 1-based, inclusive
+ * positions of the proteins and GFF files.
+ *
+ * @author julian
+ *
+ */
+public class PackedSequence {
+
+	/** the characters of the 2-bit codes */
+	private static final char codeChars[] = {'A', 'C', 'G', 'T'};
+
+	/** the complements of the (upper case) nucleotide and IUPAC characters */
+	private static final char complementChars[] = new char[128];
+
+	static {
+		for (int i=0; i < complementChars.length; i++) {
+			complementChars[i] = (char)i;
+		}
+		String pairs = "ATCGRYKMBVDH";
+		for (int i=0; i < pairs.length(); i += 2) {
+			complementChars[pairs.charAt(i)] = pairs.charAt(i + 1);
+			complementChars[pairs.charAt(i + 1)] = pairs.charAt(i);
+		}
+	}
+
+
+	/** the name of the sequence */
+	private String name;
+
+	/** the number of nucleotides */
+	private int length;
+
+	/** the packed 2-bit codes */
+	private LongBuffer words;
+
+	/** the sorted start positions of the exception runs */
+	private int exceptionStarts[];
+
+	/** the end positions (exclusive) of the exception runs */
+	private int exceptionEnds[];
+
+	/** the characters of the exception runs */
+	private byte exceptionChars[];
+
+
+	/**
+	 * Creates a sequence from its packed parts.
+	 *
+	 * @param name
+	 * @param length the number of nucleotides
+	 * @param words the packed 2-bit codes
+	 * @param exceptionStarts the sorted start positions of the exception runs
+	 * @param exceptionEnds the end positions (exclusive) of the exception runs
+	 * @param exceptionChars the characters of the exception runs
+	 */
+	public PackedSequence(String name, int length, LongBuffer words,
+			int[] exceptionStarts, int[] exceptionEnds, byte[] exceptionChars) {
+		this.name = name;
+		this.length = length;
+		this.words = words;
+		this.exceptionStarts = exceptionStarts;
+		this.exceptionEnds = exceptionEnds;
+		this.exceptionChars = exceptionChars;
+	}
+
+
+	/**
+	 * Returns the number of longs needed for the given number of nucleotides.
+	 *
+	 * @param length
+	 * @return
+	 */
+	public static int getNrWords(int length) {
+		return (int)((length + 31L) >>> 5);
+	}
+
+
+	/**
+	 * Returns the complement of the given nucleotide or IUPAC character.
+	 *
+	 * @param c
+	 * @return
+	 */
+	public static char complement(char c) {
+		return (c < complementChars.length) ? complementChars[c] : c;
+	}
+
+
+	public String getName() {
+		return name;
+	}
+
+
+	/**
+	 * Returns the number of nucleotides.
+	 *
+	 * @return
+	 */
+	public int getLength() {
+		return length;
+	}
+
+
+	/**
+	 * Returns the packed 2-bit codes (as a read-only view).
+	 *
+	 * @return
+	 */
+	public LongBuffer getWords() {
+		return words.asReadOnlyBuffer();
+	}
+
+
+	/**
+	 * Returns the number of exception runs.
+	 *
+	 * @return
+	 */
+	public int getNrExceptions() {
+		return exceptionStarts.length;
+	}
+
+
+	public int getExceptionStart(int idx) {
+		return exceptionStarts[idx];
+	}
+
+
+	public int getExceptionEnd(int idx) {
+		return exceptionEnds[idx];
+	}
+
+
+	public char getExceptionChar(int idx) {
+		return (char)exceptionChars[idx];
+	}
+
+
+	/**
+	 * Returns the 2-bit code at the given 0-based position (0 for the
+	 * characters of the exceptions).
+	 *
+	 * @param position
+	 * @return
+	 */
+	public int getCode(int position) {
+		return (int)(words.get(position >>> 5) >>> ((position & 31) << 1)) & 3;
+	}
+
+
+	/**
+	 * Copies the 2-bit codes of the given region into the array, in the
+	 * format of the {@link GenomeRecord}.
+	 *
+	 * @param position the 0-based start of the region
+	 * @param count the number of nucleotides
+	 * @param codes
+	 * @param offset the offset in the array
+	 */
+	public void copyCodes(int position, int count, byte[] codes, int offset) {
+		int end = position + count;
+		int pos = position;
+		while (pos < end) {
+			long word = words.get(pos >>> 5) >>> ((pos & 31) << 1);
+			int wordEnd = (int)Math.min(end, (pos | 31) + 1L);
+			for (; pos < wordEnd; pos++) {
+				codes[offset++] = (byte)(word & 3);
+				word >>>= 2;
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the character at the given 0-based position.
+	 *
+	 * @param position
+	 * @return
+	 */
+	public char charAt(int position) {
+		if (exceptionStarts.length > 0) {
+			int idx = findException(position);
+			if ((idx >= 0) && (position < exceptionEnds[idx])) {
+				return (char)exceptionChars[idx];
+			}
+		}
+		return codeChars[getCode(position)];
+	}
+
+
+	/**
+	 * Returns the index of the last exception run starting at or before the
+	 * given position, or -1 if there is none.
+	 */
+	private int findException(int position) {
+		int idx = Arrays.binarySearch(exceptionStarts, position);
+		return (idx >= 0) ? idx : (-idx - 2);
+	}
+
+
+	/**
+	 * Copies the characters of the given region into the array, on the
+	 * forward strand.
+	 *
+	 * @param position the 0-based start of the region
+	 * @param count the number of characters
+	 * @param chars
+	 * @param offset the offset in the array
+	 */
+	public void getChars(int position, int count, char[] chars, int offset) {
+		int end = position + count;
+		int pos = position;
+		while (pos < end) {
+			long word = words.get(pos >>> 5) >>> ((pos & 31) << 1);
+			int wordEnd = (int)Math.min(end, (pos | 31) + 1L);
+			for (; pos < wordEnd; pos++) {
+				chars[offset + pos - position] = codeChars[(int)word & 3];
+				word >>>= 2;
+			}
+		}
+
+		// overwrite the exceptions in the region
+		if (exceptionStarts.length > 0) {
+			int idx = Math.max(0, findException(position));
+			for (; (idx < exceptionStarts.length) &&
+					(exceptionStarts[idx] < end); idx++) {
+				int from = Math.max(position, exceptionStarts[idx]);
+				int to = Math.min(end, exceptionEnds[idx]);
+				for (int p=from; p < to; p++) {
+					chars[offset + p - position] = (char)exceptionChars[idx];
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Returns a view on the given region, without copying the nucleotides.
+	 * For the complementary strand, the view is the reverse complement of the
+	 * region.
+	 *
+	 * @param start the 1-based start of the region
+	 * @param end the 1-based, inclusive end of the region
+	 * @param isComplement whether the region is read on the complementary
+	 * strand
+	 * @return
+	 */
+	public SequenceView getSubsequence(long start, long end,
+			boolean isComplement) {
+		if ((start < 1) || (end > length) || (start > end + 1)) {
+			throw new IndexOutOfBoundsException("region " + start + "-" + end +
+					" is not in the sequence " + name + " of length " + length);
+		}
+		return new SequenceView(this, (int)(start - 1), (int)(end - start + 1),
+				isComplement);
+	}
+
+
+	/**
+	 * Returns a view on the whole sequence on the forward strand.
+	 *
+	 * @return
+	 */
+	public SequenceView getView() {
+		return new SequenceView(this, 0, length, false);
+	}
+
+
+	/**
+	 * Builds a packed sequence from characters.
+	 */
+	public static class Builder {
+
+		/** the name of the sequence */
+		private String name;
+
+		/** the packed codes */
+		private long words[];
+
+		/** the number of added nucleotides */
+		private int length;
+
+		private int exceptionStarts[];
+		private int exceptionEnds[];
+		private byte exceptionChars[];
+
+		/** the number of exception runs */
+		private int nrExceptions;
+
+
+		public Builder(String name) {
+			this.name = name;
+			this.words = new long[16];
+			this.length = 0;
+			this.exceptionStarts = new int[16];
+			this.exceptionEnds = new int[16];
+			this.exceptionChars = new byte[16];
+			this.nrExceptions = 0;
+		}
+
+
+		/**
+		 * Appends the given characters, line breaks and other whitespace are
+		 * skipped.
+		 *
+		 * @param chars
+		 * @param offset
+		 * @param count
+		 */
+		public void append(byte[] chars, int offset, int count) {
+			int end = offset + count;
+			for (int idx=offset; idx < end; idx++) {
+				int c = chars[idx] & 0xff;
+				if (c <= ' ') {
+					continue;
+				}
+				if ((c >= 'a') && (c <= 'z')) {
+					c -= 'a' - 'A';
+				}
+
+				if (length == Integer.MAX_VALUE) {
+					throw new IllegalStateException("the sequence " + name +
+							" is too long");
+				}
+				int wordIdx = length >>> 5;
+				if (wordIdx == words.length) {
+					words = Arrays.copyOf(words, 2 * words.length);
+				}
+
+				int code = GeneticCode.nucleotideCode(c);
+				if (code == GeneticCode.INVALID_NUCLEOTIDE) {
+					addException((byte)c);
+					code = 0;
+				}
+				words[wordIdx] |= ((long)code) << ((length & 31) << 1);
+				length++;
+			}
+		}
+
+
+		/**
+		 * Adds the character at the current position to the exceptions.
+		 */
+		private void addException(byte c) {
+			if ((nrExceptions > 0) &&
+					(exceptionEnds[nrExceptions - 1] == length) &&
+					(exceptionChars[nrExceptions - 1] == c)) {
+				// extend the run
+				exceptionEnds[nrExceptions - 1]++;
+				return;
+			}
+
+			if (nrExceptions == exceptionStarts.length) {
+				int capacity = 2 * nrExceptions;
+				exceptionStarts = Arrays.copyOf(exceptionStarts, capacity);
+				exceptionEnds = Arrays.copyOf(exceptionEnds, capacity);
+				exceptionChars = Arrays.copyOf(exceptionChars, capacity);
+			}
+			exceptionStarts[nrExceptions] = length;
+			exceptionEnds[nrExceptions] = length + 1;
+			exceptionChars[nrExceptions] = c;
+			nrExceptions++;
+		}
+
+
+		/**
+		 * Returns the packed sequence of the added characters.
+		 *
+		 * @return
+		 */
+		public PackedSequence build() {
+			return new PackedSequence(name, length,
+					LongBuffer.wrap(Arrays.copyOf(words, getNrWords(length))),
+					Arrays.copyOf(exceptionStarts, nrExceptions),
+					Arrays.copyOf(exceptionEnds, nrExceptions),
+					Arrays.copyOf(exceptionChars, nrExceptions));
+		}
+	}
+}
@@ -0,0 +1,529 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.protein.GenomeTranslatedProtein;
+import de.mpc.proteogenomics.pipeline.protein.ProteinIntervalIndex;
+import de.mpc.proteogenomics.pipeline.protein.ProteinOverlapSearch;
+
+
+/**
+ * Writes the pseudo proteins in a pipeline of threads, decoupled from the
+ * translation: the translating thread only collects the finished proteins in
+ * batches and puts them into a bounded queue. A classifier thread checks the
+ * relations to the known proteins and leaves out the known ones, then one
+ * serializer thread writes the FASTA and another one the GFF output.
+ * <p>
+ * All queues are bounded, so a slower stage blocks the previous one and the
+ * memory stays bounded. Each stage counts its proteins, the time it was busy
+ * and the time it waited for the next stage, which are logged by
+ * {@link #logCounters()}.
+ * <p>
+ * As the classification is done later, {@link #handleProtein(
+ * GenomeTranslatedProtein, int)} always returns true. The known proteins are
+ * counted in the statistics returned by {@link #finish()}, which correct the
+ * counts of the translation.
+ *
+ * @author julian
+ *
+ */
+public class PipelinedProteinWriter implements TranslatedProteinHandler {
+
+	private final static Logger logger = Logger.getLogger(PipelinedProteinWriter.class);
+
+	/** the number of proteins in one batch */
+	public static final int batchSize = 256;
+
+	/** the default number of batches in each queue */
+	public static final int default_queueSize = 64;
+
+	/** marks the end of the proteins in a queue */
+	private static final ProteinBatch END = new ProteinBatch(0);
+
+	/** the search for the known proteins */
+	private final ProteinOverlapSearch knownProteins;
+
+	/** the FASTA output (may be null) */
+	private final Appendable fastaWriter;
+
+	/** the GFF outputs of the frames (entries may be null) */
+	private final Appendable gffFrameWriters[];
+
+	/** the queue from the translation to the classifier */
+	private final BlockingQueue<ProteinBatch> classifierQueue;
+
+	/** the queue from the classifier to the FASTA serializer */
+	private final BlockingQueue<ProteinBatch> fastaQueue;
+
+	/** the queue from the classifier to the GFF serializer */
+	private final BlockingQueue<ProteinBatch> gffQueue;
+
+	/** the stages running in own threads */
+	private final ExecutorService executor;
+
+	/** the results of the stages */
+	private final List<Future<Void>> stageResults;
+
+	/** the counters of the stages */
+	private final StageCounter translationCounter;
+	private final StageCounter classifierCounter;
+	private final StageCounter fastaCounter;
+	private final StageCounter gffCounter;
+
+	/** the corrections of the statistics for the known proteins */
+	private final GenomeParserStatistics statistics;
+
+	/** the batch, which is currently filled by the translation */
+	private ProteinBatch batch;
+
+	/** the first error of a stage, which stops the pipeline */
+	private volatile Throwable failure;
+
+
+	public PipelinedProteinWriter(ProteinIntervalIndex knownProteins,
+			Appendable fastaWriter, Appendable[] gffFrameWriters) {
+		this(knownProteins, fastaWriter, gffFrameWriters, default_queueSize);
+	}
+
+
+	/**
+	 * Creates the pipeline and starts its threads.
+	 *
+	 * @param knownProteins
+	 * @param fastaWriter the FASTA output (may be null)
+	 * @param gffFrameWriters the GFF outputs of the frames (entries may be
+	 * null)
+	 * @param queueSize the maximal number of batches in each queue
+	 */
+	public PipelinedProteinWriter(ProteinIntervalIndex knownProteins,
+			Appendable fastaWriter, Appendable[] gffFrameWriters,
+			int queueSize) {
+		this.knownProteins = knownProteins.createSearch();
+		this.fastaWriter = fastaWriter;
+		this.gffFrameWriters = gffFrameWriters;
+
+		this.classifierQueue = new ArrayBlockingQueue<ProteinBatch>(queueSize);
+		this.fastaQueue = new ArrayBlockingQueue<ProteinBatch>(queueSize);
+		this.gffQueue = new ArrayBlockingQueue<ProteinBatch>(queueSize);
+
+		this.translationCounter = new StageCounter("translation");
+		this.classifierCounter = new StageCounter("classifier");
+		this.fastaCounter = new StageCounter("FASTA serializer");
+		this.gffCounter = new StageCounter("GFF serializer");
+
+		this.statistics = new GenomeParserStatistics(0);
+		this.batch = new ProteinBatch(batchSize);
+		this.failure = null;
+
+		this.executor = Executors.newFixedThreadPool(3);
+		this.stageResults = new ArrayList<Future<Void>>(3);
+		stageResults.add(executor.submit(new ClassifierStage()));
+		stageResults.add(executor.submit(new FastaStage()));
+		stageResults.add(executor.submit(new GFFStage()));
+	}
+
+
+	@Override
+	public boolean handleProtein(GenomeTranslatedProtein protein, int frame)
+			throws IOException {
+		batch.add(protein, frame);
+		if (batch.size == batchSize) {
+			passBatch();
+		}
+		return true;
+	}
+
+
+	/**
+	 * Passes the current batch to the classifier, waiting while its queue is
+	 * full.
+	 *
+	 * @throws IOException
+	 */
+	private void passBatch() throws IOException {
+		if (failure != null) {
+			throw new IOException("error in the output pipeline", failure);
+		}
+
+		long startTime = System.nanoTime();
+		put(classifierQueue, batch);
+		translationCounter.count(batch.size, 0, 0,
+				System.nanoTime() - startTime);
+
+		batch = new ProteinBatch(batchSize);
+	}
+
+
+	/**
+	 * Passes the remaining proteins through the pipeline and waits for all
+	 * stages to finish. The threads are stopped afterwards.
+	 *
+	 * @return the corrections of the statistics for the left out known
+	 * proteins, which must be added to the translation's statistics
+	 * @throws IOException
+	 */
+	public GenomeParserStatistics finish() throws IOException {
+		try {
+			if (batch.size > 0) {
+				passBatch();
+			}
+			put(classifierQueue, END);
+
+			for (Future<Void> stageResult : stageResults) {
+				try {
+					stageResult.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while writing", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException)e.getCause();
+					}
+					throw new IOException("error in the output pipeline",
+							e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return statistics;
+	}
+
+
+	/**
+	 * Stops the threads of the pipeline without waiting for the remaining
+	 * proteins, e.g. after an error in the translation.
+	 */
+	public void stop() {
+		executor.shutdownNow();
+	}
+
+
+	/**
+	 * Logs the counters of all stages.
+	 */
+	public void logCounters() {
+		logger.info(translationCounter.toString("handed over", true));
+		logger.info(classifierCounter.toString("classified", true));
+		logger.info(fastaCounter.toString("written", false));
+		logger.info(gffCounter.toString("written", false));
+	}
+
+
+	/**
+	 * Puts the batch into the queue, waiting while it is full.
+	 *
+	 * @throws IOException
+	 */
+	private static void put(BlockingQueue<ProteinBatch> queue,
+			ProteinBatch batch) throws IOException {
+		try {
+			queue.put(batch);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while writing", e);
+		}
+	}
+
+
+	/**
+	 * A batch of proteins together with their frames.
+	 */
+	private static class ProteinBatch {
+
+		private GenomeTranslatedProtein proteins[];
+
+		private int frames[];
+
+		private int size;
+
+
+		public ProteinBatch(int capacity) {
+			this.proteins = new GenomeTranslatedProtein[capacity];
+			this.frames = new int[capacity];
+			this.size = 0;
+		}
+
+
+		private void add(GenomeTranslatedProtein protein, int frame) {
+			proteins[size] = protein;
+			frames[size] = frame;
+			size++;
+		}
+	}
+
+
+	/**
+	 * The number of proteins of a stage and the times it was busy and waited
+	 * for the following stage.
+	 */
+	private static class StageCounter {
+
+		private String stageName;
+
+		private volatile long nrProteins;
+
+		private volatile long nrLeftOut;
+
+		private volatile long busyNanos;
+
+		private volatile long waitNanos;
+
+
+		public StageCounter(String stageName) {
+			this.stageName = stageName;
+			this.nrProteins = 0;
+			this.nrLeftOut = 0;
+			this.busyNanos = 0;
+			this.waitNanos = 0;
+		}
+
+
+		/**
+		 * Counts the proteins and times of one batch. Only called by the
+		 * stage's thread.
+		 */
+		private void count(int proteins, int leftOut, long busyTime,
+				long waitTime) {
+			nrProteins += proteins;
+			nrLeftOut += leftOut;
+			busyNanos += busyTime;
+			waitNanos += waitTime;
+		}
+
+
+		private String toString(String proteinsText, boolean hasNextStage) {
+			long busyMillis = busyNanos / 1000000;
+			StringBuilder text = new StringBuilder(stageName);
+			text.append(": ");
+			text.append(nrProteins);
+			text.append(" proteins ");
+			text.append(proteinsText);
+			if (nrLeftOut > 0) {
+				text.append(", ");
+				text.append(nrLeftOut);
+				text.append(" known left out");
+			}
+			if (busyNanos > 0) {
+				text.append(", busy ");
+				text.append(busyMillis);
+				text.append(" ms");
+				if (busyMillis > 0) {
+					text.append(" (");
+					text.append(nrProteins * 1000 / busyMillis);
+					text.append(" proteins/s)");
+				}
+			}
+			if (hasNextStage) {
+				text.append(", waited ");
+				text.append(waitNanos / 1000000);
+				text.append(" ms for the next stage");
+			}
+			return text.toString();
+		}
+	}
+
+
+	/**
+	 * The base of the stages: takes the batches from the input queue until
+	 * the end. After an error, the following batches are discarded, so the
+	 * previous stage is not blocked.
+	 */
+	private abstract class PipelineStage implements Callable<Void> {
+
+		private BlockingQueue<ProteinBatch> inputQueue;
+
+		private StageCounter counter;
+
+
+		public PipelineStage(BlockingQueue<ProteinBatch> inputQueue,
+				StageCounter counter) {
+			this.inputQueue = inputQueue;
+			this.counter = counter;
+		}
+
+
+		@Override
+		public Void call() throws IOException, InterruptedException {
+			Exception error = null;
+
+			ProteinBatch input;
+			while ((input = inputQueue.take()) != END) {
+				if (error == null) {
+					try {
+						long startTime = System.nanoTime();
+						int nrProteins = input.size;
+						int leftOut = processBatch(input);
+
+						long passTime = System.nanoTime();
+						passBatch(input);
+						counter.count(nrProteins, leftOut, passTime - startTime,
+								System.nanoTime() - passTime);
+					} catch (Exception e) {
+						error = e;
+						failure = e;
+					}
+				}
+			}
+			passEnd();
+
+			if (error instanceof IOException) {
+				throw (IOException)error;
+			} else if (error != null) {
+				throw new IOException("error in the " + counter.stageName,
+						error);
+			}
+			return null;
+		}
+
+
+		/**
+		 * Processes the batch.
+		 *
+		 * @return the number of proteins removed from the batch
+		 * @throws IOException
+		 */
+		protected abstract int processBatch(ProteinBatch input)
+				throws IOException;
+
+
+		/**
+		 * Passes the processed batch to the following stages.
+		 *
+		 * @throws IOException
+		 */
+		protected void passBatch(ProteinBatch output) throws IOException {
+			// the last stages have no following ones
+		}
+
+
+		/**
+		 * Passes the end to the following stages.
+		 *
+		 * @throws IOException
+		 */
+		protected void passEnd() throws IOException {
+			// the last stages have no following ones
+		}
+	}
+
+
+	/**
+	 * Checks the relations to the known proteins, leaves out the known ones
+	 * and passes the others frozen to the serializers.
+	 */
+	private class ClassifierStage extends PipelineStage {
+
+		public ClassifierStage() {
+			super(classifierQueue, classifierCounter);
+		}
+
+
+		@Override
+		protected int processBatch(ProteinBatch input) throws IOException {
+			int nrKept = 0;
+			for (int i=0; i < input.size; i++) {
+				GenomeTranslatedProtein protein = input.proteins[i];
+				protein.checkProteinRelations(knownProteins);
+
+				if (protein.isInKnownProtein()) {
+					statistics.countLeftOutProtein(protein.getIsORFProtein());
+				} else {
+					protein.freeze();
+					input.proteins[nrKept] = protein;
+					input.frames[nrKept] = input.frames[i];
+					nrKept++;
+				}
+			}
+
+			int leftOut = input.size - nrKept;
+			input.size = nrKept;
+			return leftOut;
+		}
+
+
+		@Override
+		protected void passBatch(ProteinBatch output) throws IOException {
+			if (fastaWriter != null) {
+				put(fastaQueue, output);
+			}
+			put(gffQueue, output);
+		}
+
+
+		@Override
+		protected void passEnd() throws IOException {
+			if (fastaWriter != null) {
+				put(fastaQueue, END);
+			}
+			put(gffQueue, END);
+		}
+	}
+
+
+	/**
+	 * Writes the proteins into the FASTA output.
+	 */
+	private class FastaStage extends PipelineStage {
+
+		public FastaStage() {
+			super(fastaQueue, fastaCounter);
+		}
+
+
+		@Override
+		public Void call() throws IOException, InterruptedException {
+			if (fastaWriter == null) {
+				// there is no FASTA output
+				return null;
+			}
+			return super.call();
+		}
+
+
+		@Override
+		protected int processBatch(ProteinBatch input) throws IOException {
+			for (int i=0; i < input.size; i++) {
+				input.proteins[i].writeFasta(fastaWriter);
+				fastaWriter.append(ProteinWriter.lineSeparator);
+			}
+			return 0;
+		}
+	}
+
+
+	/**
+	 * Writes the proteins into the GFF outputs of their frames.
+	 */
+	private class GFFStage extends PipelineStage {
+
+		public GFFStage() {
+			super(gffQueue, gffCounter);
+		}
+
+
+		@Override
+		protected int processBatch(ProteinBatch input) throws IOException {
+			for (int i=0; i < input.size; i++) {
+				Appendable gffWriter = gffFrameWriters[input.frames[i]];
+				if (gffWriter != null) {
+					input.proteins[i].writeGFFLine(gffWriter);
+					gffWriter.append(ProteinWriter.lineSeparator);
+				}
+			}
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,420 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.io.CompressedFiles;
+import de.mpc.proteogenomics.pipeline.protein.AbstractProtein;
+
+
+/**
+ * Removes the duplicate sequences from pseudo protein FASTA files, e.g. the
+ * same sequence translated in several frames or in several strains of a
+ * pan-genome. Each unique sequence is written once with a compact header
+ * (uniquetranslation_ and a number), while the loci table lists the
+ * accessions and descriptions of all entries sharing the sequence. The GFF
+ * files are not touched and keep every locus.
+ * <p>
+ * The sequences are identified by their 128-bit MurmurHash3, which is kept in
+ * an off-heap {@link SequenceHashTable}, so the memory does not grow with the
+ * length of the sequences. The probability of two different sequences
+ * sharing a hash is negligible even for billions of sequences.
+ *
+ * @author julian
+ *
+ */
+public class ProteinDeduplicator {
+
+	private final static Logger logger = Logger.getLogger(ProteinDeduplicator.class);
+
+	/** the prefix of the accessions of the unique sequences */
+	public static final String unique_accession_prefix = "uniquetranslation_";
+
+	/** the header of the loci table */
+	private static final String lociHeader = "accession\tlocus\tdescription";
+
+	/** the number of amino acids in one line of the FASTA file */
+	private static final int lineLength = 60;
+
+
+	/** the hashes of the written sequences */
+	private SequenceHashTable hashTable;
+
+	/** the output of the unique sequences */
+	private BufferedWriter fastaWriter;
+
+	/** the output of the loci */
+	private BufferedWriter lociWriter;
+
+	/** the description of the unique sequences, pointing to the loci table */
+	private String uniqueDescription;
+
+	/** the number of read entries */
+	private long nrEntries;
+
+	/** the sequence of the current entry */
+	private byte sequence[];
+
+	/** the length of the sequence of the current entry */
+	private int sequenceLength;
+
+	/** the hash of the current sequence */
+	private long hash[];
+
+
+	/**
+	 * Creates a deduplicator writing into the given files.
+	 *
+	 * @param fastaFileName the FASTA file of the unique sequences
+	 * @param lociFileName the table of the loci of the unique sequences
+	 * @throws IOException
+	 */
+	public ProteinDeduplicator(String fastaFileName, String lociFileName)
+			throws IOException {
+		this.hashTable = new SequenceHashTable();
+		this.fastaWriter = CompressedFiles.openWriter(fastaFileName);
+		this.lociWriter = CompressedFiles.openWriter(lociFileName);
+		this.uniqueDescription = "loci in " + new File(lociFileName).getName();
+		this.nrEntries = 0;
+		this.sequence = new byte[1024];
+		this.sequenceLength = 0;
+		this.hash = new long[2];
+
+		lociWriter.append(lociHeader);
+		lociWriter.newLine();
+	}
+
+
+	/**
+	 * Reads the entries of the given FASTA file and writes the sequences,
+	 * which were not yet written.
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void addFasta(String fileName) throws IOException {
+		long entriesBefore = nrEntries;
+		int uniqueBefore = hashTable.size();
+
+		BufferedReader reader = CompressedFiles.openReader(fileName);
+		try {
+			String header = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(">")) {
+					if (header != null) {
+						addEntry(header);
+					}
+					header = line.substring(1);
+					sequenceLength = 0;
+				} else if (header != null) {
+					appendSequence(line);
+				}
+			}
+			if (header != null) {
+				addEntry(header);
+			}
+		} finally {
+			reader.close();
+		}
+
+		logger.info("read " + (nrEntries - entriesBefore) + " entries with " +
+				(hashTable.size() - uniqueBefore) + " new sequences from " +
+				fileName);
+	}
+
+
+	/**
+	 * Appends the amino acids of the line to the current sequence.
+	 */
+	private void appendSequence(String line) {
+		int length = line.length();
+		if (sequenceLength + length > sequence.length) {
+			sequence = Arrays.copyOf(sequence,
+					Math.max(2 * sequence.length, sequenceLength + length));
+		}
+		for (int i=0; i < length; i++) {
+			char c = line.charAt(i);
+			if (c > ' ') {
+				sequence[sequenceLength++] = (byte)c;
+			}
+		}
+	}
+
+
+	/**
+	 * Adds the current sequence with the given header.
+	 */
+	private void addEntry(String header) throws IOException {
+		nrEntries++;
+		hash128(sequence, sequenceLength, hash);
+
+		int id = hashTable.size() + 1;
+		int storedId = hashTable.putIfAbsent(hash[0], hash[1], id);
+		if (storedId != 0) {
+			id = storedId;
+		} else {
+			writeUniqueSequence(id);
+		}
+
+		int separatorIdx = header.indexOf(AbstractProtein.headerSeparator);
+		lociWriter.append(unique_accession_prefix).append(String.valueOf(id));
+		lociWriter.append('\t');
+		if (separatorIdx < 0) {
+			lociWriter.append(header);
+			lociWriter.append('\t');
+		} else {
+			lociWriter.append(header, 0, separatorIdx);
+			lociWriter.append('\t');
+			lociWriter.append(header, separatorIdx +
+					AbstractProtein.headerSeparator.length(), header.length());
+		}
+		lociWriter.newLine();
+	}
+
+
+	/**
+	 * Writes the current sequence with the given id into the FASTA file.
+	 */
+	private void writeUniqueSequence(int id) throws IOException {
+		fastaWriter.append('>').append(unique_accession_prefix);
+		fastaWriter.append(String.valueOf(id));
+		fastaWriter.append(AbstractProtein.headerSeparator);
+		fastaWriter.append(uniqueDescription);
+
+		int pos = 0;
+		do {
+			int end = Math.min(sequenceLength, pos + lineLength);
+			fastaWriter.append('\n');
+			for (; pos < end; pos++) {
+				fastaWriter.append((char)sequence[pos]);
+			}
+		} while (pos < sequenceLength);
+		fastaWriter.append(ProteinWriter.lineSeparator);
+	}
+
+
+	/**
+	 * Returns the number of read entries.
+	 *
+	 * @return
+	 */
+	public long getNrEntries() {
+		return nrEntries;
+	}
+
+
+	/**
+	 * Returns the number of unique sequences.
+	 *
+	 * @return
+	 */
+	public int getNrUniqueSequences() {
+		return hashTable.size();
+	}
+
+
+	/**
+	 * Closes the output files.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			fastaWriter.close();
+		} finally {
+			lociWriter.close();
+		}
+
+		logger.info("wrote " + hashTable.size() + " unique sequences of " +
+				nrEntries + " entries (hash table with " +
+				(hashTable.getAllocatedBytes() >> 20) + " MB off-heap)");
+	}
+
+
+	/**
+	 * Calculates the 128-bit MurmurHash3 (x64 variant, seed 0) of the given
+	 * bytes.
+	 *
+	 * @param data
+	 * @param length the number of bytes
+	 * @param result the array for the two longs of the hash
+	 */
+	public static void hash128(byte[] data, int length, long[] result) {
+		final long c1 = 0x87c37b91114253d5L;
+		final long c2 = 0x4cf5ad432745937fL;
+		long h1 = 0;
+		long h2 = 0;
+
+		int nrBlocks = length >>> 4;
+		for (int i=0; i < nrBlocks; i++) {
+			long k1 = getLittleEndianLong(data, i << 4);
+			long k2 = getLittleEndianLong(data, (i << 4) + 8);
+
+			k1 *= c1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= c2;
+			h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+
+			k2 *= c2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= c1;
+			h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		// the remaining bytes
+		int tail = nrBlocks << 4;
+		int remaining = length - tail;
+		if (remaining > 8) {
+			long k2 = 0;
+			for (int i=remaining - 1; i >= 8; i--) {
+				k2 ^= ((long)(data[tail + i] & 0xff)) << ((i - 8) << 3);
+			}
+			k2 *= c2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= c1;
+			h2 ^= k2;
+		}
+		if (remaining > 0) {
+			long k1 = 0;
+			for (int i=Math.min(remaining, 8) - 1; i >= 0; i--) {
+				k1 ^= ((long)(data[tail + i] & 0xff)) << (i << 3);
+			}
+			k1 *= c1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= c2;
+			h1 ^= k1;
+		}
+
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = mixFinal(h1);
+		h2 = mixFinal(h2);
+		h1 += h2;
+		h2 += h1;
+
+		result[0] = h1;
+		result[1] = h2;
+	}
+
+
+	/**
+	 * Returns the long of the 8 bytes at the given offset, least significant
+	 * byte first.
+	 */
+	private static long getLittleEndianLong(byte[] data, int offset) {
+		long value = 0;
+		for (int i=7; i >= 0; i--) {
+			value = (value << 8) | (data[offset + i] & 0xff);
+		}
+		return value;
+	}
+
+
+	/**
+	 * The final mixing of a half of the hash.
+	 */
+	private static long mixFinal(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+
+	@SuppressWarnings("static-access")
+	public static void main(String[] args) {
+		boolean showHelp = false;
+		CommandLineParser cliParser = new GnuParser();
+
+		Options options = new Options();
+		options.addOption(OptionBuilder
+				.withDescription("show help")
+				.create("help"));
+
+		options.addOption(OptionBuilder
+				.withArgName("filenames")
+				.hasArgs()
+				.withDescription("the pseudo protein FASTA files")
+				.create("infile"));
+
+		options.addOption(OptionBuilder
+				.withArgName("filename")
+				.hasArg()
+				.withDescription("the FASTA file of the unique sequences")
+				.create("outfasta"));
+
+		options.addOption(OptionBuilder
+				.withArgName("filename")
+				.hasArg()
+				.withDescription("the table of the loci of the unique " +
+						"sequences")
+				.create("outloci"));
+
+		try {
+			CommandLine line = cliParser.parse(options, args);
+
+			if ((line.getOptions().length == 0) || line.hasOption("help") ||
+					!line.hasOption("infile") || !line.hasOption("outfasta") ||
+					!line.hasOption("outloci")) {
+				showHelp = true;
+			} else {
+				ProteinDeduplicator deduplicator = new ProteinDeduplicator(
+						line.getOptionValue("outfasta"),
+						line.getOptionValue("outloci"));
+				try {
+					for (String fileName : line.getOptionValues("infile")) {
+						deduplicator.addFasta(fileName);
+					}
+				} finally {
+					deduplicator.close();
+				}
+			}
+		} catch (ParseException e) {
+			logger.error("Error while parsing the command line: " +
+					e.getMessage());
+			showHelp = true;
+		} catch (IOException e) {
+			logger.error("Error while deduplicating the proteins: " +
+					e.getMessage());
+		}
+
+		if (showHelp) {
+			HelpFormatter formatter = new HelpFormatter();
+
+			formatter.printHelp(ProteinDeduplicator.class.getSimpleName(),
+					"This tool writes each sequence of pseudo protein FASTA " +
+					"files (e.g. of the strains of a pan-genome) only once " +
+					"and lists all loci sharing the sequence in a table." +
+					"\nOptions:",
+					options,
+					"\nCopyright (C) 2013-2014 Medizinisches Proteom-Center, " +
+					"julian.uszkoreit@rub.de" +
+					"\nThis is free software; see the source for copying " +
+					"conditions. There is ABSOLUTELY NO warranty!",
+					true);
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.protein.GenomeTranslatedProtein;
+
+
+/**
+ * Yields the pseudo proteins of a genome lazily, so that other stages can
+ * consume them directly from memory instead of reading the written FASTA
+ * file. The proteins are returned in the order, in which they are written to
+ * the files. The source of the stream leaves out the known proteins (see
+ * {@link KnownProteinFilter}), so the returned proteins are frozen.
+ * <p>
+ * The translation runs in its own thread and passes the proteins in batches
+ * through a bounded queue, so it runs at most a few batches ahead of the
+ * consumer and the memory stays bounded. The stream must be closed, if it is
+ * not read to the end.
+ * <p>
+ * Writing the FASTA and GFF files is one consumer of the stream (see
+ * {@link #writeProteins(Appendable, Appendable[])}), which is used by the
+ * {@link de.mpc.proteogenomics.pipeline.GenomeParser} for the serial and
+ * stops engines.
+ *
+ * @author julian
+ *
+ */
+public class ProteinStream implements Iterator<GenomeTranslatedProtein>,
+		Closeable {
+
+	private final static Logger logger = Logger.getLogger(ProteinStream.class);
+
+	/** the number of proteins in one batch */
+	public static final int batchSize = 256;
+
+	/** the default number of batches in the queue */
+	public static final int default_queueSize = 16;
+
+	/** marks the end of the proteins in the queue */
+	private static final ProteinBatch END = new ProteinBatch(0);
+
+
+	/**
+	 * The translation of a genome, which passes the finished proteins to a
+	 * handler.
+	 */
+	public interface ProteinSource {
+
+		/**
+		 * Translates the genome and passes the finished proteins, which are
+		 * not known, to the handler.
+		 *
+		 * @param handler
+		 * @return the statistics of the translation or null, if an error
+		 * occurred
+		 * @throws IOException
+		 */
+		public GenomeParserStatistics translate(
+				TranslatedProteinHandler handler) throws IOException;
+	}
+
+
+	/** the batches of the translated proteins */
+	private final BlockingQueue<ProteinBatch> queue;
+
+	/** the thread of the translation */
+	private final ExecutorService executor;
+
+	/** the batch currently read by the consumer */
+	private ProteinBatch currentBatch;
+
+	/** the index of the next protein in the current batch */
+	private int currentIdx;
+
+	/** the frame of the last returned protein */
+	private int currentFrame;
+
+	/** the statistics of the translation, set at its end */
+	private volatile GenomeParserStatistics statistics;
+
+	/** the error of the translation, if any */
+	private volatile Throwable failure;
+
+
+	/**
+	 * Creates the stream and starts the translation of the source.
+	 *
+	 * @param source the translation of the genome
+	 * @param queueSize the maximal number of batches in the queue
+	 */
+	public ProteinStream(final ProteinSource source, int queueSize) {
+		this.queue = new ArrayBlockingQueue<ProteinBatch>(queueSize);
+		this.currentBatch = null;
+		this.currentIdx = 0;
+		this.currentFrame = -1;
+		this.statistics = null;
+		this.failure = null;
+
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "protein-stream");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				translate(source);
+				return null;
+			}
+		});
+	}
+
+
+	/**
+	 * Translates the genome in the thread of the stream and puts the batches
+	 * into the queue. If the source returns no statistics (as it logged an
+	 * error), the statistics stay null.
+	 */
+	private void translate(ProteinSource source) {
+		BatchingHandler handler = new BatchingHandler();
+		try {
+			GenomeParserStatistics result = source.translate(handler);
+			handler.passBatch();
+			statistics = result;
+		} catch (Throwable e) {
+			failure = e;
+		}
+
+		try {
+			queue.put(END);
+		} catch (InterruptedException e) {
+			// the stream was closed
+		}
+	}
+
+
+	@Override
+	public boolean hasNext() {
+		if (takeBatch()) {
+			return true;
+		}
+
+		if (failure != null) {
+			throw new IllegalStateException(
+					"error while streaming the proteins", failure);
+		} else if (statistics == null) {
+			throw new IllegalStateException(
+					"error while translating the genome");
+		}
+		return false;
+	}
+
+
+	/**
+	 * Takes the next batch from the queue, if the current one is read.
+	 *
+	 * @return false, if the end of the proteins is reached
+	 */
+	private boolean takeBatch() {
+		while ((currentBatch == null) || (currentIdx == currentBatch.size)) {
+			if (currentBatch == END) {
+				return false;
+			}
+
+			try {
+				currentBatch = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(
+						"interrupted while streaming the proteins", e);
+			}
+			currentIdx = 0;
+		}
+		return true;
+	}
+
+
+	@Override
+	public GenomeTranslatedProtein next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		currentFrame = currentBatch.frames[currentIdx];
+		GenomeTranslatedProtein protein = currentBatch.proteins[currentIdx];
+		currentBatch.proteins[currentIdx] = null;
+		currentIdx++;
+		return protein;
+	}
+
+
+	/**
+	 * Returns the frame of the translator of the last returned protein, which
+	 * selects its GFF output. For proteins wrapping around the start of a
+	 * circular genome, it may differ from the protein's own frame.
+	 *
+	 * @return
+	 */
+	public int getFrame() {
+		return currentFrame;
+	}
+
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException(
+				"proteins can not be removed from the stream");
+	}
+
+
+	/**
+	 * Returns the statistics of the translation, which are available after
+	 * all proteins were read.
+	 *
+	 * @return the statistics or null, if the translation did not finish
+	 * (yet)
+	 */
+	public GenomeParserStatistics getStatistics() {
+		return statistics;
+	}
+
+
+	/**
+	 * Reads all (remaining) proteins of the stream and writes them into the
+	 * FASTA and GFF outputs, like the {@link ProteinWriter}. The headers of
+	 * the GFF files are not written. Afterwards, the stream is closed.
+	 *
+	 * @param fastaWriter the FASTA output (may be null)
+	 * @param gffFrameWriters the GFF outputs of the frames (entries may be
+	 * null)
+	 * @return the statistics of the translation or null, if an error
+	 * occurred in the source (which it logged)
+	 * @throws IOException
+	 */
+	public GenomeParserStatistics writeProteins(Appendable fastaWriter,
+			Appendable[] gffFrameWriters) throws IOException {
+		try {
+			while (takeBatch()) {
+				GenomeTranslatedProtein protein = next();
+				ProteinWriter.writeProtein(protein, getFrame(), fastaWriter,
+						gffFrameWriters);
+			}
+		} catch (IllegalStateException e) {
+			// interrupted while waiting for the next batch
+			throw new IOException(e.getMessage(), e.getCause());
+		} finally {
+			close();
+		}
+
+		if (failure instanceof IOException) {
+			throw (IOException)failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException)failure;
+		} else if (failure instanceof Error) {
+			throw (Error)failure;
+		} else if (failure != null) {
+			throw new IOException("error while streaming the proteins",
+					failure);
+		}
+		return statistics;
+	}
+
+
+	/**
+	 * Stops the translation, if it is still running.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		if (statistics == null) {
+			logger.debug("the protein stream was closed before its end");
+		}
+	}
+
+
+	/**
+	 * Collects the proteins of the source into batches, which are put into
+	 * the queue.
+	 */
+	private class BatchingHandler implements TranslatedProteinHandler {
+
+		/** the batch of the current proteins */
+		private ProteinBatch batch;
+
+
+		public BatchingHandler() {
+			this.batch = new ProteinBatch(batchSize);
+		}
+
+
+		@Override
+		public boolean handleProtein(GenomeTranslatedProtein protein,
+				int frame) throws IOException {
+			batch.add(protein, frame);
+			if (batch.size == batchSize) {
+				passBatch();
+			}
+			return true;
+		}
+
+
+		/**
+		 * Puts the current batch into the queue, waiting while it is full.
+		 */
+		private void passBatch() throws IOException {
+			if (batch.size == 0) {
+				return;
+			}
+
+			try {
+				queue.put(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("the protein stream was closed", e);
+			}
+			batch = new ProteinBatch(batchSize);
+		}
+	}
+
+
+	/**
+	 * A batch of proteins together with their frames.
+	 */
+	private static class ProteinBatch {
+
+		private GenomeTranslatedProtein proteins[];
+
+		private int frames[];
+
+		private int size;
+
+
+		public ProteinBatch(int capacity) {
+			this.proteins = new GenomeTranslatedProtein[capacity];
+			this.frames = new int[capacity];
+			this.size = 0;
+		}
+
+
+		private void add(GenomeTranslatedProtein protein, int frame) {
+			proteins[size] = protein;
+			frames[size] = frame;
+			size++;
+		}
+	}
+}
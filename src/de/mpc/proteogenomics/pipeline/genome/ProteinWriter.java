@@ -0,0 +1,87 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.IOException;
+
+import de.mpc.proteogenomics.pipeline.protein.GenomeTranslatedProtein;
+import de.mpc.proteogenomics.pipeline.protein.ProteinIntervalIndex;
+import de.mpc.proteogenomics.pipeline.protein.ProteinOverlapSearch;
+
+
+/**
+ * Checks the finished pseudo proteins against the known proteins and writes
+ * the not known ones to the FASTA and GFF outputs.
+ * 
+ * @author julian
+ *
+ */
+public class ProteinWriter implements TranslatedProteinHandler {
+	
+	/** the line separator used for the output files */
+	public static final String lineSeparator =
+			System.getProperty("line.separator");
+	
+	/** the search for the known proteins */
+	private ProteinOverlapSearch knownProteins;
+	
+	/** the FASTA output (may be null) */
+	private Appendable fastaWriter;
+	
+	/** the GFF outputs of the frames (entries may be null) */
+	private Appendable gffFrameWriters[];
+	
+	
+	public ProteinWriter(ProteinIntervalIndex knownProteins,
+			Appendable fastaWriter, Appendable[] gffFrameWriters) {
+		this.knownProteins = knownProteins.createSearch();
+		this.fastaWriter = fastaWriter;
+		this.gffFrameWriters = gffFrameWriters;
+	}
+	
+	
+	/**
+	 * Checks whether the protein is a known database protein in the
+	 * knownProteins index. If it is not, write the protein to the FASTA and 
+	 * GFF file.
+	 * 
+	 * @return true, if the protein was valid to be written to the files
+	 */
+	@Override
+	public boolean handleProtein(GenomeTranslatedProtein protein, int frame)
+			throws IOException {
+		protein.checkProteinRelations(knownProteins);
+		
+		if (!protein.isInKnownProtein()) {
+			protein.freeze();
+			writeProtein(protein, frame, fastaWriter, gffFrameWriters);
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	
+	/**
+	 * Writes the protein to the FASTA output and the GFF output of the given
+	 * frame.
+	 * 
+	 * @param protein
+	 * @param frame the frame of the translator, selecting the GFF output
+	 * @param fastaWriter the FASTA output (may be null)
+	 * @param gffFrameWriters the GFF outputs of the frames (entries may be
+	 * null)
+	 * @throws IOException
+	 */
+	public static void writeProtein(GenomeTranslatedProtein protein, int frame,
+			Appendable fastaWriter, Appendable[] gffFrameWriters)
+			throws IOException {
+		if (fastaWriter != null) {
+			protein.writeFasta(fastaWriter);
+			fastaWriter.append(lineSeparator);
+		}
+		
+		if (gffFrameWriters[frame] != null) {
+			protein.writeGFFLine(gffFrameWriters[frame]);
+			gffFrameWriters[frame].append(lineSeparator);
+		}
+	}
+}
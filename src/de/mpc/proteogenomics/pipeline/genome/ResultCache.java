@@ -0,0 +1,385 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * A local on-disk cache of the results of the genome parsing. Each entry is a
+ * directory named by the key of the parsing, i.e. a digest over the contents
+ * of the genome and known proteins files, the settings and the version of the
+ * results. It contains the written output files (named by their roles, like
+ * "fasta" or "frame0.gff.gz") and the statistics of the parsing.
+ * <p>
+ * On a hit, the output files are copied to the requested names instead of
+ * parsing the genome again. The total size of the entries is bounded, the
+ * least recently used entries are evicted first.
+ * <p>
+ * The methods are synchronized, so one cache can be used by several parsings
+ * of one JVM. Entries are moved into the directory only when complete, so
+ * separate processes at most store an entry twice.
+ *
+ * @author julian
+ *
+ */
+public class ResultCache {
+
+	private final static Logger logger = Logger.getLogger(ResultCache.class);
+
+	/** the default maximal size of the cache in bytes */
+	public static final long default_maxSize = 4L << 30;
+
+	/** the name of the statistics file in an entry */
+	private static final String statisticsFileName = "statistics.properties";
+
+	/** the size of the buffer for digesting files */
+	private static final int digestBufferSize = 1 << 16;
+
+
+	/** the directory of the cache */
+	private File directory;
+
+	/** the maximal size of all entries in bytes */
+	private long maxSize;
+
+	private long nrHits;
+	private long nrMisses;
+	private long nrStored;
+	private long nrEvicted;
+	private long restoredBytes;
+
+
+	/**
+	 * Creates a cache in the given directory, which is created if necessary.
+	 *
+	 * @param directory
+	 * @param maxSize the maximal size of all entries in bytes
+	 * @throws IOException
+	 */
+	public ResultCache(File directory, long maxSize) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("could not create the cache directory " +
+					directory.getAbsolutePath());
+		}
+
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.nrHits = 0;
+		this.nrMisses = 0;
+		this.nrStored = 0;
+		this.nrEvicted = 0;
+		this.restoredBytes = 0;
+	}
+
+
+	/**
+	 * Computes the key of a parsing, which is the SHA-256 digest (as hex
+	 * string) of the given settings and the contents of the given files.
+	 *
+	 * @param settings the settings and versions, which change the results
+	 * @param fileNames the input files (entries may be null)
+	 * @return
+	 * @throws IOException
+	 */
+	public static String computeKey(List<String> settings, String... fileNames)
+			throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		for (String setting : settings) {
+			digest.update(String.valueOf(setting).getBytes("UTF-8"));
+			digest.update((byte)0);
+		}
+
+		byte buffer[] = new byte[digestBufferSize];
+		for (String fileName : fileNames) {
+			if (fileName == null) {
+				digest.update((byte)0);
+				continue;
+			}
+
+			File file = new File(fileName);
+			digest.update((byte)1);
+			digest.update(String.valueOf(file.length()).getBytes("UTF-8"));
+			digest.update((byte)0);
+
+			InputStream in = new FileInputStream(file);
+			try {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest()) {
+			key.append(Character.forDigit((b >> 4) & 0xf, 16));
+			key.append(Character.forDigit(b & 0xf, 16));
+		}
+		return key.toString();
+	}
+
+
+	/**
+	 * Copies the output files of the entry with the given key to the given
+	 * file names.
+	 *
+	 * @param key
+	 * @param outputs the file names by their roles
+	 * @param minimalProteinLength the minimal protein length of the parsing
+	 * @return the statistics of the cached parsing or null, if there is no
+	 * complete entry with the key
+	 * @throws IOException
+	 */
+	public synchronized GenomeParserStatistics restore(String key,
+			Map<String, String> outputs, int minimalProteinLength)
+			throws IOException {
+		File entry = new File(directory, key);
+		File statisticsFile = new File(entry, statisticsFileName);
+
+		boolean complete = statisticsFile.isFile();
+		for (String role : outputs.keySet()) {
+			complete &= new File(entry, role).isFile();
+		}
+		if (!complete) {
+			nrMisses++;
+			logger.info("no cached results for key " + key);
+			return null;
+		}
+
+		Properties counts = new Properties();
+		InputStream in = new FileInputStream(statisticsFile);
+		try {
+			counts.load(in);
+		} finally {
+			in.close();
+		}
+
+		for (Map.Entry<String, String> output : outputs.entrySet()) {
+			File cachedFile = new File(entry, output.getKey());
+			copyFile(cachedFile, new File(output.getValue()));
+			restoredBytes += cachedFile.length();
+		}
+
+		// mark the entry as recently used
+		entry.setLastModified(System.currentTimeMillis());
+
+		nrHits++;
+		logger.info("restored the cached results for key " + key);
+		return GenomeParserStatistics.fromProperties(minimalProteinLength,
+				counts);
+	}
+
+
+	/**
+	 * Stores the written output files and the statistics of a parsing under
+	 * the given key and evicts the least recently used entries, if the cache
+	 * gets too large.
+	 *
+	 * @param key
+	 * @param outputs the file names by their roles
+	 * @param statistics
+	 * @throws IOException
+	 */
+	public synchronized void store(String key, Map<String, String> outputs,
+			GenomeParserStatistics statistics) throws IOException {
+		File entry = new File(directory, key);
+		File partialEntry = new File(directory,
+				key + ".part" + System.nanoTime());
+		if (!partialEntry.mkdir()) {
+			throw new IOException("could not create the cache entry " +
+					partialEntry.getAbsolutePath());
+		}
+
+		try {
+			for (Map.Entry<String, String> output : outputs.entrySet()) {
+				copyFile(new File(output.getValue()),
+						new File(partialEntry, output.getKey()));
+			}
+
+			OutputStream out = new FileOutputStream(
+					new File(partialEntry, statisticsFileName));
+			try {
+				statistics.toProperties().store(out,
+						"statistics of the cached parsing");
+			} finally {
+				out.close();
+			}
+
+			if (entry.exists()) {
+				deleteEntry(entry);
+			}
+			if (!partialEntry.renameTo(entry)) {
+				throw new IOException("could not move the cache entry to " +
+						entry.getAbsolutePath());
+			}
+		} finally {
+			if (partialEntry.exists()) {
+				deleteEntry(partialEntry);
+			}
+		}
+
+		nrStored++;
+		logger.info("stored the results for key " + key + " in the cache");
+		evictEntries();
+	}
+
+
+	/**
+	 * Deletes the least recently used entries, until the cache is not larger
+	 * than the maximal size.
+	 */
+	private void evictEntries() {
+		File entries[] = directory.listFiles();
+		if (entries == null) {
+			return;
+		}
+
+		List<File> entryList = new ArrayList<File>();
+		long totalSize = 0;
+		for (File entry : entries) {
+			if (entry.isDirectory() && !entry.getName().contains(".")) {
+				entryList.add(entry);
+				totalSize += getEntrySize(entry);
+			}
+		}
+
+		// the least recently used first
+		Collections.sort(entryList, new Comparator<File>() {
+			@Override
+			public int compare(File one, File two) {
+				long modifiedOne = one.lastModified();
+				long modifiedTwo = two.lastModified();
+				return (modifiedOne < modifiedTwo) ? -1 :
+						((modifiedOne == modifiedTwo) ? 0 : 1);
+			}
+		});
+
+		for (File entry : entryList) {
+			if (totalSize <= maxSize) {
+				break;
+			}
+			totalSize -= getEntrySize(entry);
+			deleteEntry(entry);
+			nrEvicted++;
+			logger.info("evicted the cache entry " + entry.getName());
+		}
+	}
+
+
+	/**
+	 * Returns the size of the files in the entry.
+	 */
+	private static long getEntrySize(File entry) {
+		long size = 0;
+		File files[] = entry.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				size += file.length();
+			}
+		}
+		return size;
+	}
+
+
+	/**
+	 * Deletes the entry and its files.
+	 */
+	private static void deleteEntry(File entry) {
+		File files[] = entry.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (!file.delete()) {
+					logger.warn("could not delete " + file.getAbsolutePath());
+				}
+			}
+		}
+		if (!entry.delete()) {
+			logger.warn("could not delete " + entry.getAbsolutePath());
+		}
+	}
+
+
+	/**
+	 * Copies the file.
+	 */
+	private static void copyFile(File source, File target) throws IOException {
+		FileInputStream in = new FileInputStream(source);
+		try {
+			FileOutputStream out = new FileOutputStream(target);
+			try {
+				FileChannel inChannel = in.getChannel();
+				FileChannel outChannel = out.getChannel();
+				long size = inChannel.size();
+				long position = 0;
+				while (position < size) {
+					position += inChannel.transferTo(position,
+							size - position, outChannel);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Writes the statistics of the cache to the given logger.
+	 *
+	 * @param logger
+	 */
+	public synchronized void logStatistics(Logger logger) {
+		int nrEntries = 0;
+		long totalSize = 0;
+		File entries[] = directory.listFiles();
+		if (entries != null) {
+			for (File entry : entries) {
+				if (entry.isDirectory() && !entry.getName().contains(".")) {
+					nrEntries++;
+					totalSize += getEntrySize(entry);
+				}
+			}
+		}
+
+		logger.info("result cache " + directory.getAbsolutePath() + ": " +
+				nrHits + " hits, " + nrMisses + " misses, " +
+				nrStored + " stored, " + nrEvicted + " evicted, " +
+				restoredBytes + " bytes restored, " + nrEntries +
+				" entries with " + totalSize + " of max. " + maxSize +
+				" bytes");
+	}
+
+
+	public synchronized long getNrHits() {
+		return nrHits;
+	}
+
+
+	public synchronized long getNrMisses() {
+		return nrMisses;
+	}
+}
@@ -0,0 +1,183 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * An open-addressing hash table from 128-bit sequence hashes to ids, held
+ * off-heap in direct buffers, so that millions of sequences do not burden the
+ * garbage collector. Collisions are resolved by linear probing and the table
+ * doubles its capacity, when it is half full.
+ * <p>
+ * Each slot holds the two longs of the hash and the id, an id of 0 marks an
+ * empty slot. The slots are spread over segments of fixed size, as one
+ * buffer can hold at most 2 GB.
+ *
+ * @author julian
+ *
+ */
+public class SequenceHashTable {
+
+	/** the bytes of one slot: two longs of the hash, the id and padding */
+	private static final int slotSize = 24;
+
+	/** the binary logarithm of the number of slots in one segment */
+	private static final int segmentBits = 22;
+
+	/** the mask of the slot in its segment */
+	private static final long segmentMask = (1L << segmentBits) - 1;
+
+	/** the initial number of slots */
+	private static final long initialCapacity = 1L << 16;
+
+
+	/** the segments of the slots */
+	private ByteBuffer segments[];
+
+	/** the number of slots, a power of two */
+	private long capacity;
+
+	/** the number of stored hashes */
+	private int size;
+
+
+	/**
+	 * Creates an empty table.
+	 */
+	public SequenceHashTable() {
+		allocate(initialCapacity);
+		this.size = 0;
+	}
+
+
+	/**
+	 * Allocates the empty (zeroed) segments for the given number of slots.
+	 */
+	private void allocate(long slots) {
+		capacity = slots;
+		int nrSegments = (int)((slots + segmentMask) >>> segmentBits);
+		int segmentSlots = (int)Math.min(slots, 1L << segmentBits);
+
+		segments = new ByteBuffer[nrSegments];
+		for (int i=0; i < nrSegments; i++) {
+			segments[i] = ByteBuffer.allocateDirect(segmentSlots * slotSize);
+		}
+	}
+
+
+	/**
+	 * Returns the number of stored hashes.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * Returns the number of bytes allocated off-heap by the table.
+	 *
+	 * @return
+	 */
+	public long getAllocatedBytes() {
+		return capacity * slotSize;
+	}
+
+
+	/**
+	 * Stores the id for the given hash, if the hash is not yet in the table.
+	 *
+	 * @param hashHigh the high long of the hash
+	 * @param hashLow the low long of the hash
+	 * @param id the id for the hash, must be greater than 0
+	 * @return the id already stored for the hash or 0, if the given id was
+	 * stored
+	 */
+	public int putIfAbsent(long hashHigh, long hashLow, int id) {
+		if (id <= 0) {
+			throw new IllegalArgumentException("the id must be positive");
+		}
+
+		long slot = findSlot(hashHigh, hashLow);
+		ByteBuffer segment = segments[(int)(slot >>> segmentBits)];
+		int offset = (int)(slot & segmentMask) * slotSize;
+
+		int storedId = segment.getInt(offset + 16);
+		if (storedId != 0) {
+			return storedId;
+		}
+
+		segment.putLong(offset, hashHigh);
+		segment.putLong(offset + 8, hashLow);
+		segment.putInt(offset + 16, id);
+		size++;
+
+		if (2L * size > capacity) {
+			resize();
+		}
+		return 0;
+	}
+
+
+	/**
+	 * Returns the id stored for the given hash or 0, if there is none.
+	 *
+	 * @param hashHigh
+	 * @param hashLow
+	 * @return
+	 */
+	public int get(long hashHigh, long hashLow) {
+		long slot = findSlot(hashHigh, hashLow);
+		return segments[(int)(slot >>> segmentBits)].getInt(
+				(int)(slot & segmentMask) * slotSize + 16);
+	}
+
+
+	/**
+	 * Returns the slot holding the given hash or the empty slot, where it
+	 * would be stored.
+	 */
+	private long findSlot(long hashHigh, long hashLow) {
+		long mask = capacity - 1;
+		long slot = hashLow & mask;
+		while (true) {
+			ByteBuffer segment = segments[(int)(slot >>> segmentBits)];
+			int offset = (int)(slot & segmentMask) * slotSize;
+
+			if ((segment.getInt(offset + 16) == 0) ||
+					((segment.getLong(offset) == hashHigh) &&
+							(segment.getLong(offset + 8) == hashLow))) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+
+	/**
+	 * Doubles the capacity and re-inserts the stored hashes.
+	 */
+	private void resize() {
+		ByteBuffer oldSegments[] = segments;
+		long oldCapacity = capacity;
+		allocate(2 * oldCapacity);
+
+		for (long slot=0; slot < oldCapacity; slot++) {
+			ByteBuffer segment = oldSegments[(int)(slot >>> segmentBits)];
+			int offset = (int)(slot & segmentMask) * slotSize;
+			int id = segment.getInt(offset + 16);
+			if (id != 0) {
+				long hashHigh = segment.getLong(offset);
+				long hashLow = segment.getLong(offset + 8);
+
+				long newSlot = findSlot(hashHigh, hashLow);
+				ByteBuffer newSegment = segments[(int)(newSlot >>> segmentBits)];
+				int newOffset = (int)(newSlot & segmentMask) * slotSize;
+				newSegment.putLong(newOffset, hashHigh);
+				newSegment.putLong(newOffset + 8, hashLow);
+				newSegment.putInt(newOffset + 16, id);
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+
+/**
+ * A view on a region of a {@link PackedSequence}, either on the forward strand
+ * or as reverse complement. The nucleotides are not copied, sub-sequences and
+ * reverse complements are views on the same packed sequence.
+ *
+ * @author julian
+ *
+ */
+public class SequenceView implements CharSequence {
+
+	/** the viewed sequence */
+	private PackedSequence sequence;
+
+	/** the 0-based start of the region in the sequence */
+	private int offset;
+
+	/** the length of the region */
+	private int length;
+
+	/** whether the view is the reverse complement of the region */
+	private boolean isComplement;
+
+
+	public SequenceView(PackedSequence sequence, int offset, int length,
+			boolean isComplement) {
+		this.sequence = sequence;
+		this.offset = offset;
+		this.length = length;
+		this.isComplement = isComplement;
+	}
+
+
+	public PackedSequence getSequence() {
+		return sequence;
+	}
+
+
+	/**
+	 * Returns the 1-based start of the region in the sequence.
+	 *
+	 * @return
+	 */
+	public long getStart() {
+		return offset + 1L;
+	}
+
+
+	/**
+	 * Returns the 1-based, inclusive end of the region in the sequence.
+	 *
+	 * @return
+	 */
+	public long getEnd() {
+		return (long)offset + length;
+	}
+
+
+	/**
+	 * Returns whether the view is the reverse complement of the region.
+	 *
+	 * @return
+	 */
+	public boolean getIsComplement() {
+		return isComplement;
+	}
+
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+
+	@Override
+	public char charAt(int index) {
+		if ((index < 0) || (index >= length)) {
+			throw new IndexOutOfBoundsException("index " + index +
+					" of a view with length " + length);
+		}
+		if (isComplement) {
+			return PackedSequence.complement(
+					sequence.charAt(offset + length - 1 - index));
+		}
+		return sequence.charAt(offset + index);
+	}
+
+
+	/**
+	 * Returns the 2-bit code at the given index of the view (the complement
+	 * for a reverse complement view).
+	 *
+	 * @param index
+	 * @return
+	 */
+	public int getCode(int index) {
+		if (isComplement) {
+			return 3 - sequence.getCode(offset + length - 1 - index);
+		}
+		return sequence.getCode(offset + index);
+	}
+
+
+	@Override
+	public SequenceView subSequence(int start, int end) {
+		if ((start < 0) || (end > length) || (start > end)) {
+			throw new IndexOutOfBoundsException("sub-sequence " + start + "-" +
+					end + " of a view with length " + length);
+		}
+		if (isComplement) {
+			return new SequenceView(sequence, offset + length - end,
+					end - start, true);
+		}
+		return new SequenceView(sequence, offset + start, end - start, false);
+	}
+
+
+	/**
+	 * Returns the reverse complement of this view.
+	 *
+	 * @return
+	 */
+	public SequenceView reverseComplement() {
+		return new SequenceView(sequence, offset, length, !isComplement);
+	}
+
+
+	@Override
+	public String toString() {
+		char chars[] = new char[length];
+		sequence.getChars(offset, length, chars, 0);
+
+		if (isComplement) {
+			for (int i=0, j=length - 1; i <= j; i++, j--) {
+				char c = chars[i];
+				chars[i] = PackedSequence.complement(chars[j]);
+				chars[j] = PackedSequence.complement(c);
+			}
+		}
+		return new String(chars);
+	}
+}
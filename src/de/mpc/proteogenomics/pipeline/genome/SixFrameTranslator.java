@@ -0,0 +1,285 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.TranslationTable;
+
+
+/**
+ * Translates a circular or linear genome in all six reading frames. The
+ * nucleotides are passed to one {@link FrameTranslator} per frame, the frames
+ * are processed in the order 0 to 5 for each nucleotide.
+ * <p>
+ * The frame translators build the proteins from the genome's sequence, so
+ * the added nucleotides are kept, unless the whole sequence is given. For a
+ * linear genome, the proteins are reported as soon as they are finished and
+ * the nucleotides before the current proteins are discarded, so the memory
+ * only depends on the longest open stretch.
+ *
+ * @author julian
+ *
+ */
+public class SixFrameTranslator implements NucleotideSpanHandler {
+
+	private final static Logger logger = Logger.getLogger(SixFrameTranslator.class);
+
+	/** the minimal number of held nucleotides, before they are discarded */
+	private static final int minDiscardLength = 1 << 16;
+
+	/** the name of the translated genome */
+	private final String genomeName;
+
+	/** the minimal reported protein length */
+	private final int min_protein_length;
+
+	/** the translators of the frames */
+	private final FrameTranslator frameTranslators[];
+	
+	/** the sequence of the genome */
+	private final GenomeRecord sequence;
+	
+	/** whether the added nucleotides are appended to the sequence */
+	private final boolean appendToSequence;
+
+	/** the number of nucleotides added so far */
+	private long position;
+
+	/** the 2-bit codes of the first nucleotides */
+	private final int firstNucleotides[];
+
+	/** the number of held nucleotides, at which the needless ones are discarded */
+	private int discardLength;
+
+
+	/**
+	 * Creates a translator for a genome, whose nucleotides are added one by
+	 * one.
+	 * 
+	 * @param genomeName
+	 * @param minimalProteinLength
+	 * @param handler
+	 */
+	public SixFrameTranslator(String genomeName, int minimalProteinLength,
+			TranslatedProteinHandler handler) {
+		this(genomeName, true, minimalProteinLength, handler);
+	}
+	
+	
+	/**
+	 * Creates a translator for a circular or linear genome, whose nucleotides
+	 * are added one by one.
+	 * 
+	 * @param genomeName
+	 * @param isCircular
+	 * @param minimalProteinLength
+	 * @param handler
+	 */
+	public SixFrameTranslator(String genomeName, boolean isCircular,
+			int minimalProteinLength, TranslatedProteinHandler handler) {
+		this(genomeName, isCircular, TranslationTable.getDefault(),
+				minimalProteinLength, handler);
+	}
+	
+	
+	/**
+	 * Creates a translator for a circular or linear genome with the given
+	 * genetic code, whose nucleotides are added one by one.
+	 * 
+	 * @param genomeName
+	 * @param isCircular
+	 * @param translationTable
+	 * @param minimalProteinLength
+	 * @param handler
+	 */
+	public SixFrameTranslator(String genomeName, boolean isCircular,
+			TranslationTable translationTable, int minimalProteinLength,
+			TranslatedProteinHandler handler) {
+		this(createSequence(genomeName, isCircular, translationTable), true,
+				minimalProteinLength, handler);
+	}
+	
+	
+	/**
+	 * Creates a translator for the given record, which already contains all
+	 * nucleotides. These still need to be added to the translator, e.g. by
+	 * {@link #addNucleotides(byte[], int, int)} on the record's nucleotides.
+	 * 
+	 * @param record
+	 * @param minimalProteinLength
+	 * @param handler
+	 */
+	public SixFrameTranslator(GenomeRecord record, int minimalProteinLength,
+			TranslatedProteinHandler handler) {
+		this(record, false, minimalProteinLength, handler);
+	}
+	
+	
+	private SixFrameTranslator(GenomeRecord sequence, boolean appendToSequence,
+			int minimalProteinLength, TranslatedProteinHandler handler) {
+		this.genomeName = sequence.getName();
+		this.min_protein_length = minimalProteinLength;
+		this.sequence = sequence;
+		this.appendToSequence = appendToSequence;
+		this.frameTranslators = new FrameTranslator[6];
+		for (int frame=0; frame < 6; frame++) {
+			frameTranslators[frame] = new FrameTranslator(frame, sequence,
+					minimalProteinLength, handler);
+		}
+		this.position = 0;
+		this.firstNucleotides = new int[3];
+		this.discardLength = minDiscardLength;
+	}
+	
+	
+	/**
+	 * Sets whether the ORFs of all start codons in a protein are reported,
+	 * instead of only the ORF of the first start codon.
+	 *
+	 * @param allStartSites
+	 */
+	public void setAllStartSites(boolean allStartSites) {
+		for (FrameTranslator translator : frameTranslators) {
+			translator.setAllStartSites(allStartSites);
+		}
+	}
+
+
+	private static GenomeRecord createSequence(String genomeName,
+			boolean isCircular, TranslationTable translationTable) {
+		GenomeRecord sequence = new GenomeRecord(genomeName);
+		sequence.setCircular(isCircular);
+		sequence.setTranslationTable(translationTable);
+		return sequence;
+	}
+
+
+	/**
+	 * Adds the next nucleotide of the genome to all frames.
+	 *
+	 * @param nucleotide the 2-bit code of the nucleotide
+	 * @throws IOException
+	 */
+	public void addNucleotide(int nucleotide) throws IOException {
+		if (position < 3) {
+			firstNucleotides[(int)position] = nucleotide;
+		}
+		if (appendToSequence) {
+			if (!sequence.isCircular() &&
+					(sequence.getLength() >= discardLength)) {
+				discardNeedlessNucleotides();
+			}
+			sequence.addNucleotide(nucleotide);
+		}
+		position++;
+
+		for (int frame=0; frame < 6; frame++) {
+			frameTranslators[frame].addNucleotide(nucleotide, position);
+		}
+	}
+
+
+	/**
+	 * Discards the nucleotides of the linear genome before the current
+	 * proteins of all frames.
+	 */
+	private void discardNeedlessNucleotides() {
+		long firstNeeded = position + 1;
+		for (FrameTranslator translator : frameTranslators) {
+			firstNeeded = Math.min(firstNeeded,
+					translator.getFirstNeededPosition());
+		}
+		sequence.discardBefore(firstNeeded);
+
+		// a long open stretch is kept, until the held nucleotides doubled
+		discardLength = Math.max(minDiscardLength, 2 * sequence.getLength());
+	}
+
+
+	@Override
+	public void addNucleotides(byte[] nucleotides, int offset, int length)
+			throws IOException {
+		for (int idx=offset; idx < offset + length; idx++) {
+			addNucleotide(nucleotides[idx]);
+		}
+	}
+
+
+	/**
+	 * Finalizes the last proteins of all frames, depending on whether the
+	 * genome is circular or linear.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (sequence.isCircular()) {
+			finishCircular();
+		} else {
+			finishLinear();
+		}
+	}
+
+
+	/**
+	 * Finalizes the last proteins of all frames of a linear genome, which end
+	 * with the last complete codon.
+	 *
+	 * @throws IOException
+	 */
+	public void finishLinear() throws IOException {
+		if (position < 3) {
+			logger.warn(genomeName + " is shorter than one codon, no proteins " +
+					"are reported");
+			return;
+		}
+
+		for (FrameTranslator translator : frameTranslators) {
+			translator.finishLinear();
+		}
+	}
+
+
+	/**
+	 * Finalizes the last and first proteins of all frames, as the genome is
+	 * circular.
+	 *
+	 * @throws IOException
+	 */
+	public void finishCircular() throws IOException {
+		if (position < 3) {
+			logger.warn(genomeName + " is shorter than one codon, no proteins " +
+					"are reported");
+			return;
+		}
+
+		for (int frame=0; frame < 6; frame++) {
+			FrameTranslator translator = frameTranslators[frame];
+			translator.finishCircular(firstNucleotides, position,
+					frameTranslators[translator.getCombineFrame()]);
+		}
+	}
+
+
+	/**
+	 * Returns the number of nucleotides added so far
+	 * @return
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+
+	/**
+	 * Returns the summed up counts of all frames.
+	 * @return
+	 */
+	public GenomeParserStatistics getStatistics() {
+		GenomeParserStatistics statistics =
+				new GenomeParserStatistics(min_protein_length);
+		for (FrameTranslator translator : frameTranslators) {
+			statistics.add(translator.getStatistics());
+		}
+		return statistics;
+	}
+}
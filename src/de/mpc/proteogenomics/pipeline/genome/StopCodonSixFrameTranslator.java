@@ -0,0 +1,183 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.proteogenomics.pipeline.GeneticCode;
+import de.mpc.proteogenomics.pipeline.TranslationTable;
+import de.mpc.proteogenomics.pipeline.protein.ProteinIntervalIndex;
+
+
+/**
+ * Translates a genome in all six frames by locating the stop codons
+ * first. One scan over the nucleotides computes the codon of every position
+ * and only looks up, whether it is a stop codon on the forward or backward
+ * strand.
+ * <p>
+ * The open stretches between two stop codons of a frame are passed to the
+ * frame's {@link FrameTranslator} by
+ * {@link FrameTranslator#addStopCodon(long)}, which only translates and
+ * searches for the start codon in stretches long enough to be reported. As
+ * the codon ending at a position belongs to the frame (position modulo 3) and
+ * the positions are scanned in ascending order, the proteins are written in
+ * the same order as by the {@link SixFrameTranslator}.
+ *
+ * @author julian
+ *
+ */
+public class StopCodonSixFrameTranslator {
+
+	private final static Logger logger = Logger.getLogger(StopCodonSixFrameTranslator.class);
+
+	/** the minimal reported protein length */
+	private final int min_protein_length;
+
+	/** the known proteins, indexed by their position */
+	private final ProteinIntervalIndex knownProteins;
+
+	/** whether the ORFs of all start codons are reported */
+	private boolean allStartSites;
+
+
+	public StopCodonSixFrameTranslator(int minimalProteinLength,
+			ProteinIntervalIndex knownProteins) {
+		this.min_protein_length = minimalProteinLength;
+		this.knownProteins = knownProteins;
+		this.allStartSites = false;
+	}
+
+
+	/**
+	 * Sets whether the ORFs of all start codons in a protein are reported,
+	 * instead of only the ORF of the first start codon.
+	 *
+	 * @param allStartSites
+	 */
+	public void setAllStartSites(boolean allStartSites) {
+		this.allStartSites = allStartSites;
+	}
+
+
+	/**
+	 * Returns the flags for the 6-bit codon indices, which are stop codons in
+	 * the given genetic code, either on the forward strand or (as reverse
+	 * complement) on the backward strand.
+	 */
+	private static boolean[] getStopCodonFlags(
+			TranslationTable translationTable, boolean reverse) {
+		boolean stopCodons[] = new boolean[64];
+		for (int codonIdx=0; codonIdx < 64; codonIdx++) {
+			int strandCodon = reverse ?
+					GeneticCode.reverseComplementCodon(codonIdx) : codonIdx;
+			stopCodons[codonIdx] = (translationTable.translateCodon(
+					strandCodon) == GeneticCode.STOP);
+		}
+		return stopCodons;
+	}
+
+
+	/**
+	 * Translates the given circular genome and writes the not known proteins
+	 * into the given outputs.
+	 *
+	 * @param genome the whole genome
+	 * @param fastaWriter the FASTA output (may be null)
+	 * @param gffFrameWriters the GFF outputs of the frames (entries may be
+	 * null)
+	 * @return the statistics of the translation
+	 * @throws IOException
+	 */
+	public GenomeParserStatistics translate(GenomeRecord genome,
+			Appendable fastaWriter, Appendable[] gffFrameWriters)
+			throws IOException {
+		return translate(genome, new ProteinWriter(knownProteins, fastaWriter,
+				gffFrameWriters));
+	}
+
+
+	/**
+	 * Translates the given circular genome and passes the proteins to the
+	 * given handler.
+	 *
+	 * @param genome the whole genome
+	 * @param handler
+	 * @return the statistics of the translation
+	 * @throws IOException
+	 */
+	public GenomeParserStatistics translate(GenomeRecord genome,
+			TranslatedProteinHandler handler) throws IOException {
+		FrameTranslator translators[] = new FrameTranslator[6];
+		for (int frame=0; frame < 6; frame++) {
+			translators[frame] = new FrameTranslator(frame, genome,
+					min_protein_length, handler);
+			translators[frame].setAllStartSites(allStartSites);
+		}
+
+		byte nucleotides[] = genome.getNucleotides();
+		int length = genome.getLength();
+
+		// flags for the 6-bit codon indices, which are stop codons on either strand
+		boolean stopCodons[] =
+				getStopCodonFlags(genome.getTranslationTable(), false);
+		boolean reverseStopCodons[] =
+				getStopCodonFlags(genome.getTranslationTable(), true);
+
+		// the position of the last stop codon in each frame, 0 if none
+		int lastStops[] = new int[6];
+
+		int codon = 0;
+		int frame = 0;
+		for (int idx=0; idx < length; idx++) {
+			codon = ((codon << 2) | nucleotides[idx]) & 0x3f;
+
+			// the frame of the codon ending at position idx+1
+			frame = (frame == 2) ? 0 : frame + 1;
+
+			if (idx >= 2) {
+				if (stopCodons[codon]) {
+					translators[frame].addStopCodon(idx + 1);
+					lastStops[frame] = idx + 1;
+				}
+				if (reverseStopCodons[codon]) {
+					translators[frame + 3].addStopCodon(idx + 1);
+					lastStops[frame + 3] = idx + 1;
+				}
+			}
+		}
+
+		// add the nucleotides behind the last stop codons
+		for (frame=0; frame < 6; frame++) {
+			for (int idx=lastStops[frame]; idx < length; idx++) {
+				translators[frame].addNucleotide(nucleotides[idx], idx + 1);
+			}
+		}
+
+		if (length < 3) {
+			logger.warn(genome.getName() + " is shorter than one codon, no " +
+					"proteins are reported");
+		} else if (!genome.isCircular()) {
+			for (frame=0; frame < 6; frame++) {
+				translators[frame].finishLinear();
+			}
+		} else {
+			// combine the last with the first proteins of the circular genome
+			int firstNucleotides[] = new int[3];
+			for (int i=0; i < 3; i++) {
+				firstNucleotides[i] = nucleotides[i];
+			}
+
+			for (frame=0; frame < 6; frame++) {
+				translators[frame].finishCircular(firstNucleotides, length,
+						translators[translators[frame].getCombineFrame()]);
+			}
+		}
+
+		GenomeParserStatistics statistics =
+				new GenomeParserStatistics(min_protein_length);
+		for (FrameTranslator translator : translators) {
+			statistics.add(translator.getStatistics());
+		}
+		return statistics;
+	}
+}
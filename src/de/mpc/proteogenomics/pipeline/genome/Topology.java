@@ -0,0 +1,82 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.util.regex.Pattern;
+
+
+/**
+ * The topologies of the translated records (or the whole genome).
+ *
+ * @author julian
+ *
+ */
+public enum Topology {
+
+	/** the end of the record is joined with its start, e.g. a complete chromosome or plasmid */
+	CIRCULAR,
+
+	/** the record has two ends, e.g. a contig or scaffold of a draft assembly */
+	LINEAR,
+
+	/** the topology is taken from the FASTA header of the record */
+	AUTO,
+	;
+
+
+	/** the pattern of a header of a circular record */
+	private static final Pattern circularPattern =
+			Pattern.compile("\\bcircular\\b", Pattern.CASE_INSENSITIVE);
+
+	/** the pattern of a header of a linear record */
+	private static final Pattern linearPattern =
+			Pattern.compile("\\b(?:linear|contig|scaffold)",
+					Pattern.CASE_INSENSITIVE);
+
+
+	/**
+	 * Returns the name of the topology, as used on the command line
+	 * @return
+	 */
+	public String getName() {
+		return name().toLowerCase();
+	}
+
+
+	/**
+	 * Returns whether the record with the given FASTA header is circular. For
+	 * {@link #AUTO}, a header mentioning "circular" is circular and one
+	 * mentioning "linear", "contig" or "scaffold" is linear, all others are
+	 * circular.
+	 *
+	 * @param header the FASTA header (may be null)
+	 * @return
+	 */
+	public boolean isCircular(String header) {
+		switch (this) {
+		case LINEAR:
+			return false;
+		case AUTO:
+			if ((header == null) || circularPattern.matcher(header).find()) {
+				return true;
+			}
+			return !linearPattern.matcher(header).find();
+		default:
+			return true;
+		}
+	}
+
+
+	/**
+	 * Returns the topology with the given name or null, if there is none.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static Topology getByName(String name) {
+		for (Topology topology : values()) {
+			if (topology.getName().equalsIgnoreCase(name)) {
+				return topology;
+			}
+		}
+		return null;
+	}
+}
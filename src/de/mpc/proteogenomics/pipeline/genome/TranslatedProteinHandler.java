@@ -0,0 +1,29 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+import java.io.IOException;
+
+import de.mpc.proteogenomics.pipeline.protein.GenomeTranslatedProtein;
+
+
+/**
+ * Handles the pseudo proteins, which are finished by a
+ * {@link FrameTranslator} and passed the minimal length filter.
+ * 
+ * @author julian
+ *
+ */
+public interface TranslatedProteinHandler {
+	
+	/**
+	 * Handles the finished protein, which was translated in the given frame.
+	 * 
+	 * @param protein the finished pseudo protein
+	 * @param frame the frame (0-5) of the translator, which is used for the
+	 * GFF output
+	 * @return true, if the protein was reported, false if it was left out
+	 * (because it is a known protein)
+	 * @throws IOException
+	 */
+	public boolean handleProtein(GenomeTranslatedProtein protein, int frame)
+			throws IOException;
+}
@@ -0,0 +1,49 @@
+package de.mpc.proteogenomics.pipeline.genome;
+
+
+/**
+ * The available engines for the six-frame translation of a genome.
+ * 
+ * @author julian
+ *
+ */
+public enum TranslationEngine {
+	
+	/** translates the genome nucleotide by nucleotide in one thread */
+	SERIAL,
+	
+	/** splits the genome into chunks, which are translated concurrently */
+	CHUNKED,
+	
+	/** translates the six frames concurrently */
+	FRAMES,
+	
+	/** locates the stop codons first and translates only the long stretches between them */
+	STOPS,
+	;
+	
+	
+	/**
+	 * Returns the name of the engine, as used on the command line
+	 * @return
+	 */
+	public String getName() {
+		return name().toLowerCase();
+	}
+	
+	
+	/**
+	 * Returns the engine with the given name or null, if there is none.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public static TranslationEngine getByName(String name) {
+		for (TranslationEngine engine : values()) {
+			if (engine.getName().equalsIgnoreCase(name)) {
+				return engine;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,291 @@
+package de.mpc.proteogenomics.pipeline.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Compression and decompression of single BGZF blocks. BGZF (blocked GNU zip
+ * format, as used by samtools and tabix) is a series of gzip members, each
+ * holding at most 64 KB of data and giving its compressed size in the extra
+ * field "BC". Thus every block can be compressed and decompressed on its own
+ * and any gzip reader can read the whole file.
+ *
+ * @author julian
+ *
+ */
+public final class BGZFBlocks {
+
+	/** the maximal number of uncompressed bytes in one block */
+	public static final int maxBlockInput = 0xff00;
+
+	/** the maximal size of a compressed block */
+	public static final int maxBlockSize = 0x10000;
+
+	/** the size of the header of a BGZF block */
+	public static final int headerSize = 18;
+
+	/** the size of the CRC32 and input size after the compressed data */
+	public static final int footerSize = 8;
+
+	/** the empty block, which marks the end of a BGZF file */
+	public static final byte eofBlock[] = new byte[] {
+		0x1f, (byte)0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte)0xff,
+		0x06, 0x00, 0x42, 0x43, 0x02, 0x00, 0x1b, 0x00, 0x03, 0x00, 0x00, 0x00,
+		0x00, 0x00, 0x00, 0x00, 0x00, 0x00 };
+
+
+	/**
+	 * This class only holds static methods.
+	 */
+	private BGZFBlocks() {
+	}
+
+
+	/**
+	 * Returns whether the given first bytes of a file are the header of a
+	 * BGZF block (and not only of a gzip member).
+	 *
+	 * @param header
+	 * @param length the number of valid bytes in the header
+	 * @return
+	 */
+	public static boolean isBGZFHeader(byte[] header, int length) {
+		return (length >= 16) &&
+				(header[0] == 0x1f) && (header[1] == (byte)0x8b) &&
+				(header[2] == 0x08) && ((header[3] & 0x04) != 0) &&
+				(header[12] == 'B') && (header[13] == 'C') &&
+				(header[14] == 2) && (header[15] == 0);
+	}
+
+
+	/**
+	 * Compresses the given data into a complete BGZF block.
+	 *
+	 * @param data
+	 * @param length the number of bytes to compress, at most
+	 * {@link #maxBlockInput}
+	 * @param level the deflate compression level
+	 * @return the block
+	 */
+	public static byte[] compressBlock(byte[] data, int length, int level) {
+		byte compressed[] = new byte[maxBlockSize];
+		int compressedSize = deflate(data, length, level, compressed);
+		if (compressedSize < 0) {
+			// incompressible data, store it
+			compressedSize = deflate(data, length, Deflater.NO_COMPRESSION,
+					compressed);
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+
+		int blockSize = headerSize + compressedSize + footerSize;
+		byte block[] = new byte[blockSize];
+
+		block[0] = 0x1f;
+		block[1] = (byte)0x8b;
+		block[2] = 0x08;			// deflate
+		block[3] = 0x04;			// FEXTRA
+		block[9] = (byte)0xff;		// unknown OS
+		block[10] = 6;				// XLEN
+		block[12] = 'B';
+		block[13] = 'C';
+		block[14] = 2;				// SLEN
+		writeShort(block, 16, blockSize - 1);
+
+		System.arraycopy(compressed, 0, block, headerSize, compressedSize);
+
+		writeInt(block, headerSize + compressedSize, (int)crc.getValue());
+		writeInt(block, headerSize + compressedSize + 4, length);
+		return block;
+	}
+
+
+	/**
+	 * Deflates the data into the given output.
+	 *
+	 * @return the number of compressed bytes or -1, if they do not fit into a
+	 * block
+	 */
+	private static int deflate(byte[] data, int length, int level,
+			byte[] compressed) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+
+			int maxSize = maxBlockSize - headerSize - footerSize;
+			int size = deflater.deflate(compressed, 0, maxSize);
+			if (!deflater.finished()) {
+				return -1;
+			}
+			return size;
+		} finally {
+			deflater.end();
+		}
+	}
+
+
+	/**
+	 * Reads the next complete block from the input.
+	 *
+	 * @param in
+	 * @return the block or null, if the input ended before it
+	 * @throws IOException if the input is no BGZF or ends within a block
+	 */
+	public static byte[] readBlock(InputStream in) throws IOException {
+		byte header[] = new byte[12];
+		int read = readFully(in, header, 0, header.length);
+		if (read == 0) {
+			return null;
+		} else if (read < header.length) {
+			throw new EOFException("the BGZF input ended within a block");
+		}
+
+		if ((header[0] != 0x1f) || (header[1] != (byte)0x8b) ||
+				((header[3] & 0x04) == 0)) {
+			throw new IOException("the input is no BGZF, a block has no " +
+					"gzip header with extra field");
+		}
+
+		int extraLength = readShort(header, 10);
+		byte extra[] = new byte[extraLength];
+		if (readFully(in, extra, 0, extraLength) < extraLength) {
+			throw new EOFException("the BGZF input ended within a block");
+		}
+
+		// search the BC subfield
+		int blockSize = -1;
+		int pos = 0;
+		while (pos + 4 <= extraLength) {
+			int subfieldLength = readShort(extra, pos + 2);
+			if ((extra[pos] == 'B') && (extra[pos + 1] == 'C') &&
+					(subfieldLength == 2)) {
+				blockSize = readShort(extra, pos + 4) + 1;
+				break;
+			}
+			pos += 4 + subfieldLength;
+		}
+		if (blockSize < header.length + extraLength + footerSize) {
+			throw new IOException("the input is no BGZF, a block has no " +
+					"valid BC field");
+		}
+
+		byte block[] = new byte[blockSize];
+		System.arraycopy(header, 0, block, 0, header.length);
+		System.arraycopy(extra, 0, block, header.length, extraLength);
+		int offset = header.length + extraLength;
+		if (readFully(in, block, offset, blockSize - offset) <
+				blockSize - offset) {
+			throw new EOFException("the BGZF input ended within a block");
+		}
+		return block;
+	}
+
+
+	/**
+	 * Decompresses a complete block, as read by {@link #readBlock(InputStream)}.
+	 *
+	 * @param block
+	 * @return the uncompressed data
+	 * @throws IOException if the block is corrupt
+	 */
+	public static byte[] decompressBlock(byte[] block) throws IOException {
+		int dataOffset = 12 + readShort(block, 10);
+		int dataLength = block.length - dataOffset - footerSize;
+		int expectedCRC = readInt(block, block.length - 8);
+		int size = readInt(block, block.length - 4);
+		if ((size < 0) || (size > maxBlockSize)) {
+			throw new IOException("invalid size of BGZF block: " + size);
+		}
+
+		byte data[] = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(block, dataOffset, dataLength);
+			int inflated = 0;
+			while (inflated < size) {
+				int n = inflater.inflate(data, inflated, size - inflated);
+				if ((n == 0) &&
+						(inflater.finished() || inflater.needsInput())) {
+					break;
+				}
+				inflated += n;
+			}
+			if (inflated != size) {
+				throw new IOException("corrupt BGZF block, expected " + size +
+						" bytes but got " + inflated);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("corrupt BGZF block: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, size);
+		if ((int)crc.getValue() != expectedCRC) {
+			throw new IOException("corrupt BGZF block, CRC mismatch");
+		}
+		return data;
+	}
+
+
+	/**
+	 * Reads until the given length is read or the input ends.
+	 *
+	 * @return the number of read bytes
+	 */
+	private static int readFully(InputStream in, byte[] buffer, int offset,
+			int length) throws IOException {
+		int read = 0;
+		while (read < length) {
+			int n = in.read(buffer, offset + read, length - read);
+			if (n < 0) {
+				break;
+			}
+			read += n;
+		}
+		return read;
+	}
+
+
+	/**
+	 * Reads an unsigned little endian short.
+	 */
+	private static int readShort(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8);
+	}
+
+
+	/**
+	 * Reads a little endian int.
+	 */
+	private static int readInt(byte[] buffer, int offset) {
+		return readShort(buffer, offset) | (readShort(buffer, offset + 2) << 16);
+	}
+
+
+	/**
+	 * Writes a little endian short.
+	 */
+	private static void writeShort(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte)value;
+		buffer[offset + 1] = (byte)(value >> 8);
+	}
+
+
+	/**
+	 * Writes a little endian int.
+	 */
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		writeShort(buffer, offset, value);
+		writeShort(buffer, offset + 2, value >> 16);
+	}
+}
@@ -0,0 +1,158 @@
+package de.mpc.proteogenomics.pipeline.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * An input stream reading BGZF, which decompresses its blocks in parallel.
+ * <p>
+ * The compressed blocks are read ahead from the underlying input and
+ * decompressed by tasks of the given executor, while the data of the already
+ * decompressed blocks is read in order.
+ *
+ * @author julian
+ *
+ */
+public class BGZFInputStream extends InputStream {
+
+	/** the underlying input */
+	private InputStream in;
+
+	/** the executor decompressing the blocks */
+	private ExecutorService executor;
+
+	/** the maximal number of blocks in decompression */
+	private int maxPendingBlocks;
+
+	/** the blocks in decompression, in their order */
+	private LinkedList<Future<byte[]>> pendingBlocks;
+
+	/** whether the underlying input is read completely */
+	private boolean inputEnded;
+
+	/** the data of the current block */
+	private byte data[];
+
+	/** the read position in the current block */
+	private int position;
+
+
+	/**
+	 * Creates a BGZF stream.
+	 *
+	 * @param in the underlying input
+	 * @param executor the executor decompressing the blocks
+	 * @param maxPendingBlocks the maximal number of blocks read ahead
+	 */
+	public BGZFInputStream(InputStream in, ExecutorService executor,
+			int maxPendingBlocks) {
+		this.in = in;
+		this.executor = executor;
+		this.maxPendingBlocks = Math.max(1, maxPendingBlocks);
+		this.pendingBlocks = new LinkedList<Future<byte[]>>();
+		this.inputEnded = false;
+		this.data = new byte[0];
+		this.position = 0;
+	}
+
+
+	@Override
+	public int read() throws IOException {
+		if ((position == data.length) && !nextBlock()) {
+			return -1;
+		}
+		return data[position++] & 0xff;
+	}
+
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		if ((position == data.length) && !nextBlock()) {
+			return -1;
+		}
+
+		int read = Math.min(length, data.length - position);
+		System.arraycopy(data, position, buffer, offset, read);
+		position += read;
+		return read;
+	}
+
+
+	@Override
+	public int available() {
+		return data.length - position;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		for (Future<byte[]> pending : pendingBlocks) {
+			pending.cancel(false);
+		}
+		pendingBlocks.clear();
+		in.close();
+	}
+
+
+	/**
+	 * Switches to the next block with data.
+	 *
+	 * @return false, if there is no more data
+	 */
+	private boolean nextBlock() throws IOException {
+		do {
+			readAhead();
+			if (pendingBlocks.isEmpty()) {
+				return false;
+			}
+
+			try {
+				data = pendingBlocks.removeFirst().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"interrupted while decompressing");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException)e.getCause();
+				}
+				throw new IOException("error while decompressing: " +
+						e.getCause().getMessage());
+			}
+			position = 0;
+		} while (data.length == 0);
+
+		return true;
+	}
+
+
+	/**
+	 * Reads blocks from the input and passes them to the decompression, until
+	 * enough blocks are pending.
+	 */
+	private void readAhead() throws IOException {
+		while (!inputEnded && (pendingBlocks.size() < maxPendingBlocks)) {
+			final byte block[] = BGZFBlocks.readBlock(in);
+			if (block == null) {
+				inputEnded = true;
+			} else {
+				pendingBlocks.add(executor.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						return BGZFBlocks.decompressBlock(block);
+					}
+				}));
+			}
+		}
+	}
+}
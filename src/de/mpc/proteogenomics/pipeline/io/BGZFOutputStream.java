@@ -0,0 +1,264 @@
+package de.mpc.proteogenomics.pipeline.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+
+/**
+ * An output stream writing BGZF, which compresses its blocks in parallel.
+ * <p>
+ * The written bytes are collected into blocks of
+ * {@link BGZFBlocks#maxBlockInput} bytes, each full block is compressed by a
+ * task of the given executor and the compressed blocks are written in their
+ * order. At most the given number of blocks are compressed at the same time,
+ * so writing blocks only when the compression cannot keep up.
+ * <p>
+ * Closing the stream writes the remaining blocks and the BGZF end of file
+ * marker.
+ * <p>
+ * As the compressed offsets are only known, when a block is written, the
+ * position in the stream is given by a block address (see
+ * {@link #getBlockAddress()}), which is translated into the BGZF virtual file
+ * offset after the block is written.
+ *
+ * @author julian
+ *
+ */
+public class BGZFOutputStream extends OutputStream {
+
+	/** the underlying output */
+	private OutputStream out;
+
+	/** the executor compressing the blocks */
+	private ExecutorService executor;
+
+	/** the maximal number of blocks in compression */
+	private int maxPendingBlocks;
+
+	/** the deflate compression level */
+	private int level;
+
+	/** the currently filled block */
+	private byte block[];
+
+	/** the number of bytes in the current block */
+	private int blockLength;
+
+	/** the blocks in compression, in their order */
+	private LinkedList<Future<byte[]>> pendingBlocks;
+
+	/** whether the stream is closed */
+	private boolean closed;
+
+	/** the number of blocks passed to the compression */
+	private int nrSubmittedBlocks;
+
+	/** the compressed offsets of the written blocks */
+	private long blockOffsets[];
+
+	/** the number of written blocks */
+	private int nrWrittenBlocks;
+
+	/** the number of written compressed bytes (without end of file marker) */
+	private long compressedOffset;
+
+
+	/**
+	 * Creates a BGZF stream with the default compression level.
+	 *
+	 * @param out the underlying output
+	 * @param executor the executor compressing the blocks
+	 * @param maxPendingBlocks the maximal number of blocks in compression
+	 */
+	public BGZFOutputStream(OutputStream out, ExecutorService executor,
+			int maxPendingBlocks) {
+		this(out, executor, maxPendingBlocks, Deflater.DEFAULT_COMPRESSION);
+	}
+
+
+	/**
+	 * Creates a BGZF stream.
+	 *
+	 * @param out the underlying output
+	 * @param executor the executor compressing the blocks
+	 * @param maxPendingBlocks the maximal number of blocks in compression
+	 * @param level the deflate compression level
+	 */
+	public BGZFOutputStream(OutputStream out, ExecutorService executor,
+			int maxPendingBlocks, int level) {
+		this.out = out;
+		this.executor = executor;
+		this.maxPendingBlocks = Math.max(1, maxPendingBlocks);
+		this.level = level;
+		this.block = new byte[BGZFBlocks.maxBlockInput];
+		this.blockLength = 0;
+		this.pendingBlocks = new LinkedList<Future<byte[]>>();
+		this.closed = false;
+		this.nrSubmittedBlocks = 0;
+		this.blockOffsets = new long[64];
+		this.nrWrittenBlocks = 0;
+		this.compressedOffset = 0;
+	}
+
+
+	@Override
+	public void write(int b) throws IOException {
+		if (blockLength == block.length) {
+			submitBlock();
+		}
+		block[blockLength++] = (byte)b;
+	}
+
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (blockLength == block.length) {
+				submitBlock();
+			}
+
+			int copied = Math.min(length, block.length - blockLength);
+			System.arraycopy(bytes, offset, block, blockLength, copied);
+			blockLength += copied;
+			offset += copied;
+			length -= copied;
+		}
+	}
+
+
+	/**
+	 * Returns the address of the current position, i.e. the number of the
+	 * block in the upper and the offset in the block in the lower 16 bits.
+	 *
+	 * @return
+	 */
+	public long getBlockAddress() {
+		if (blockLength == block.length) {
+			// the next byte starts the next block
+			return (long)(nrSubmittedBlocks + 1) << 16;
+		}
+		return ((long)nrSubmittedBlocks << 16) | blockLength;
+	}
+
+
+	/**
+	 * Translates a block address into the virtual file offset (the compressed
+	 * offset of the block in the upper 48 and the offset in the uncompressed
+	 * block in the lower 16 bits). The block must already be written, e.g. by
+	 * {@link #flush()} or {@link #close()}.
+	 *
+	 * @param blockAddress
+	 * @return
+	 */
+	public long getVirtualOffset(long blockAddress) {
+		int blockNr = (int)(blockAddress >>> 16);
+		int offset = (int)(blockAddress & 0xffff);
+
+		long blockOffset;
+		if (blockNr < nrWrittenBlocks) {
+			blockOffset = blockOffsets[blockNr];
+		} else if ((blockNr == nrWrittenBlocks) && (offset == 0)) {
+			// the end of the written data
+			blockOffset = compressedOffset;
+		} else {
+			throw new IllegalStateException("the block " + blockNr +
+					" is not written yet");
+		}
+		return (blockOffset << 16) | offset;
+	}
+
+
+	/**
+	 * Writes all data into complete blocks, so a following write starts a new
+	 * block, and flushes the underlying output.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (blockLength > 0) {
+			submitBlock();
+		}
+		while (!pendingBlocks.isEmpty()) {
+			writeFirstBlock();
+		}
+		out.flush();
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		try {
+			flush();
+			out.write(BGZFBlocks.eofBlock);
+		} finally {
+			closed = true;
+			for (Future<byte[]> pending : pendingBlocks) {
+				pending.cancel(false);
+			}
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Passes the current block to the compression and starts a new one.
+	 * If too many blocks are in compression, the first one is written.
+	 */
+	private void submitBlock() throws IOException {
+		if (closed) {
+			throw new IOException("the BGZF stream is closed");
+		}
+
+		final byte data[] = block;
+		final int length = blockLength;
+		pendingBlocks.add(executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return BGZFBlocks.compressBlock(data, length, level);
+			}
+		}));
+
+		block = new byte[BGZFBlocks.maxBlockInput];
+		blockLength = 0;
+		nrSubmittedBlocks++;
+
+		while (pendingBlocks.size() > maxPendingBlocks) {
+			writeFirstBlock();
+		}
+	}
+
+
+	/**
+	 * Waits for the compression of the first pending block and writes it.
+	 */
+	private void writeFirstBlock() throws IOException {
+		Future<byte[]> pending = pendingBlocks.removeFirst();
+		try {
+			byte compressed[] = pending.get();
+			out.write(compressed);
+
+			if (nrWrittenBlocks == blockOffsets.length) {
+				blockOffsets = Arrays.copyOf(blockOffsets, 2 * nrWrittenBlocks);
+			}
+			blockOffsets[nrWrittenBlocks++] = compressedOffset;
+			compressedOffset += compressed.length;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while compressing");
+		} catch (ExecutionException e) {
+			throw new IOException("error while compressing: " +
+					e.getCause().getMessage());
+		}
+	}
+}
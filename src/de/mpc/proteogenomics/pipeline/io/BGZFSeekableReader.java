@@ -0,0 +1,160 @@
+package de.mpc.proteogenomics.pipeline.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Reads lines of a BGZF file from given virtual file offsets, only the blocks
+ * behind the offset are read and decompressed.
+ *
+ * @author julian
+ *
+ */
+public class BGZFSeekableReader implements Closeable {
+
+	/** the opened file */
+	private RandomAccessFile file;
+
+	/** the channel of the file */
+	private FileChannel channel;
+
+	/** the compressed offset of the current block */
+	private long blockOffset;
+
+	/** the compressed offset of the next block */
+	private long nextBlockOffset;
+
+	/** the uncompressed data of the current block */
+	private byte data[];
+
+	/** the read position in the current block */
+	private int position;
+
+	/** the bytes of the current line */
+	private ByteArrayOutputStream line;
+
+
+	public BGZFSeekableReader(String fileName) throws IOException {
+		this.file = new RandomAccessFile(fileName, "r");
+		this.channel = file.getChannel();
+		this.blockOffset = -1;
+		this.nextBlockOffset = 0;
+		this.data = new byte[0];
+		this.position = 0;
+		this.line = new ByteArrayOutputStream(256);
+	}
+
+
+	/**
+	 * Moves to the given virtual file offset.
+	 *
+	 * @param virtualOffset
+	 * @throws IOException
+	 */
+	public void seek(long virtualOffset) throws IOException {
+		long offset = virtualOffset >>> 16;
+		if ((offset != blockOffset) && !loadBlock(offset)) {
+			// behind the last block
+			blockOffset = offset;
+			nextBlockOffset = offset;
+			data = new byte[0];
+		}
+
+		int offsetInBlock = (int)(virtualOffset & 0xffff);
+		if (offsetInBlock > data.length) {
+			throw new IOException("invalid virtual offset " + virtualOffset);
+		}
+		position = offsetInBlock;
+	}
+
+
+	/**
+	 * Returns the virtual file offset of the current position. At the end of a
+	 * block, this is the start of the next block.
+	 *
+	 * @return
+	 */
+	public long getVirtualOffset() {
+		if (position == data.length) {
+			return nextBlockOffset << 16;
+		}
+		return (blockOffset << 16) | position;
+	}
+
+
+	/**
+	 * Reads the next line (without line break).
+	 *
+	 * @return the line or null at the end of the file
+	 * @throws IOException
+	 */
+	public String readLine() throws IOException {
+		line.reset();
+		boolean readAny = false;
+
+		while (true) {
+			if (position == data.length) {
+				if (!loadBlock(nextBlockOffset)) {
+					break;
+				}
+				continue;
+			}
+
+			readAny = true;
+			int start = position;
+			while ((position < data.length) && (data[position] != '\n')) {
+				position++;
+			}
+			line.write(data, start, position - start);
+
+			if (position < data.length) {
+				// skip the line break
+				position++;
+				break;
+			}
+		}
+
+		if (!readAny) {
+			return null;
+		}
+
+		String text = line.toString();
+		if (text.endsWith("\r")) {
+			text = text.substring(0, text.length() - 1);
+		}
+		return text;
+	}
+
+
+	/**
+	 * Loads the block at the given compressed offset.
+	 *
+	 * @return false, if there is no block at the offset
+	 */
+	private boolean loadBlock(long offset) throws IOException {
+		channel.position(offset);
+		InputStream in = Channels.newInputStream(channel);
+		byte block[] = BGZFBlocks.readBlock(in);
+		if (block == null) {
+			return false;
+		}
+
+		blockOffset = offset;
+		nextBlockOffset = offset + block.length;
+		data = BGZFBlocks.decompressBlock(block);
+		position = 0;
+		return true;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
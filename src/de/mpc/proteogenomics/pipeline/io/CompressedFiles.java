@@ -0,0 +1,236 @@
+package de.mpc.proteogenomics.pipeline.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * Opens the input and output files of the pipeline with transparent
+ * compression.
+ * <p>
+ * Inputs are recognized by their first bytes: BGZF is decompressed block
+ * parallel, other gzip files sequentially and all other files are read as
+ * they are. Outputs with a file name ending in ".gz" are written as BGZF,
+ * which is compressed block parallel and can be read by any gzip tool.
+ * <p>
+ * The blocks of all files are (de)compressed by one shared pool of daemon
+ * threads.
+ *
+ * @author julian
+ *
+ */
+public final class CompressedFiles {
+
+	/** the file name extension of compressed files */
+	public static final String gzipExtension = ".gz";
+
+	/** the size of the buffers of the uncompressed streams */
+	private static final int bufferSize = 1 << 16;
+
+	/** the number of threads for the block (de)compression */
+	private static int nrThreads = Runtime.getRuntime().availableProcessors();
+
+	/** the pool (de)compressing the blocks, created when needed */
+	private static ExecutorService blockExecutor = null;
+
+
+	/**
+	 * This class only holds static methods.
+	 */
+	private CompressedFiles() {
+	}
+
+
+	/**
+	 * Sets the number of threads for the block (de)compression, this must be
+	 * called before the first compressed file is opened.
+	 *
+	 * @param threads
+	 */
+	public static synchronized void setNrThreads(int threads) {
+		if (blockExecutor != null) {
+			throw new IllegalStateException("the compression threads are " +
+					"already started");
+		}
+		nrThreads = Math.max(1, threads);
+	}
+
+
+	/**
+	 * Returns whether the given file name denotes a compressed output.
+	 *
+	 * @param fileName
+	 * @return
+	 */
+	public static boolean isCompressedName(String fileName) {
+		return fileName.endsWith(gzipExtension);
+	}
+
+
+	/**
+	 * Returns whether the given file is gzip (or BGZF) compressed, judged by
+	 * its first bytes.
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isCompressedFile(String fileName) throws IOException {
+		InputStream in = new FileInputStream(fileName);
+		try {
+			return (in.read() == 0x1f) && (in.read() == 0x8b);
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Opens the given file for reading, compressed files are decompressed.
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static InputStream openInputStream(String fileName)
+			throws IOException {
+		InputStream in = new BufferedInputStream(
+				new FileInputStream(fileName), bufferSize);
+
+		byte header[] = new byte[BGZFBlocks.headerSize];
+		in.mark(header.length);
+		int read = 0;
+		while (read < header.length) {
+			int n = in.read(header, read, header.length - read);
+			if (n < 0) {
+				break;
+			}
+			read += n;
+		}
+		in.reset();
+
+		if (BGZFBlocks.isBGZFHeader(header, read)) {
+			return new BGZFInputStream(in, getBlockExecutor(),
+					getMaxPendingBlocks());
+		} else if ((read >= 2) && (header[0] == 0x1f) &&
+				(header[1] == (byte)0x8b)) {
+			return new GZIPInputStream(in, bufferSize);
+		}
+		return in;
+	}
+
+
+	/**
+	 * Opens the given file for reading lines, compressed files are
+	 * decompressed.
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static BufferedReader openReader(String fileName)
+			throws IOException {
+		return new BufferedReader(
+				new InputStreamReader(openInputStream(fileName)));
+	}
+
+
+	/**
+	 * Opens the given file for writing, the output is written as BGZF, if the
+	 * file name ends with ".gz".
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static OutputStream openOutputStream(String fileName)
+			throws IOException {
+		OutputStream out = new FileOutputStream(fileName);
+		if (isCompressedName(fileName)) {
+			return new BGZFOutputStream(
+					new BufferedOutputStream(out, bufferSize),
+					getBlockExecutor(), getMaxPendingBlocks());
+		}
+		return out;
+	}
+
+
+	/**
+	 * Opens the given file for writing text, the output is written as BGZF,
+	 * if the file name ends with ".gz".
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static BufferedWriter openWriter(String fileName)
+			throws IOException {
+		return new BufferedWriter(
+				new OutputStreamWriter(openOutputStream(fileName)));
+	}
+
+
+	/**
+	 * Opens the given file for writing text with the given buffer size, the
+	 * output is written as BGZF, if the file name ends with ".gz".
+	 *
+	 * @param fileName
+	 * @param bufferSize the size of the character buffer
+	 * @return
+	 * @throws IOException
+	 */
+	public static BufferedWriter openWriter(String fileName, int bufferSize)
+			throws IOException {
+		return new BufferedWriter(
+				new OutputStreamWriter(openOutputStream(fileName)),
+				bufferSize);
+	}
+
+
+	/**
+	 * Returns the number of blocks, which a stream passes to the
+	 * (de)compression at the same time.
+	 *
+	 * @return
+	 */
+	static synchronized int getMaxPendingBlocks() {
+		return 4 * nrThreads;
+	}
+
+
+	/**
+	 * Returns the pool for the block (de)compression.
+	 *
+	 * @return
+	 */
+	static synchronized ExecutorService getBlockExecutor() {
+		if (blockExecutor == null) {
+			blockExecutor = Executors.newFixedThreadPool(nrThreads,
+					new ThreadFactory() {
+						private int nrThread = 0;
+
+						@Override
+						public synchronized Thread newThread(Runnable r) {
+							Thread thread = new Thread(r,
+									"bgzf-" + (nrThread++));
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return blockExecutor;
+	}
+}
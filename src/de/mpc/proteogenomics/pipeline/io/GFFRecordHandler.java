@@ -0,0 +1,25 @@
+package de.mpc.proteogenomics.pipeline.io;
+
+import java.io.IOException;
+
+
+/**
+ * Handles GFF records, e.g. the sorted records of a {@link GFFSorter}.
+ *
+ * @author julian
+ *
+ */
+public interface GFFRecordHandler {
+
+	/**
+	 * Handles the given GFF record.
+	 *
+	 * @param line the whole line of the record
+	 * @param seqid the sequence id (first column)
+	 * @param start the start position (fourth column)
+	 * @param end the end position (fifth column)
+	 * @throws IOException
+	 */
+	public void handleRecord(String line, String seqid, long start, long end)
+			throws IOException;
+}
@@ -0,0 +1,569 @@
+package de.mpc.proteogenomics.pipeline.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Sorts GFF records by their sequence id, start and end with a bounded
+ * memory (external merge sort).
+ * <p>
+ * The records are collected into a run, whose keys are held in primitive
+ * arrays (the sequence id as a number). When the estimated memory of the run
+ * exceeds the maximum, the run is sorted and spilled into a temporary file.
+ * At the end, the runs are merged (in several passes, if there are more than
+ * {@link #maxMergeWidth}). Records with the same key are ordered by their
+ * lines, so the order does not depend on the order in which the records were
+ * added (e.g. by concurrent writers), equal lines keep their order.
+ * <p>
+ * The sequence ids are sorted lexicographically, the positions numerically.
+ *
+ * @author julian
+ *
+ */
+public class GFFSorter implements Closeable {
+
+	private final static Logger logger = Logger.getLogger(GFFSorter.class);
+
+	/** the estimated memory of a record beside the characters of its line */
+	private static final int recordOverhead = 96;
+
+	/** the maximal number of runs merged at once */
+	private static final int maxMergeWidth = 64;
+
+	/** the size of the buffers of the run files */
+	private static final int runBufferSize = 1 << 16;
+
+
+	/** the maximal estimated memory of a run */
+	private long maxMemory;
+
+	/** the directory for the run files, null for the default */
+	private File tempDirectory;
+
+	/** the numbers of the sequence ids */
+	private Map<String, Integer> seqIdNumbers;
+
+	/** the sequence ids by their numbers */
+	private List<String> seqIds;
+
+	/** the lines of the current run */
+	private String runLines[];
+
+	/** the sequence id numbers of the current run */
+	private int runSeqIds[];
+
+	/** the start positions of the current run */
+	private long runStarts[];
+
+	/** the end positions of the current run */
+	private long runEnds[];
+
+	/** the number of records in the current run */
+	private int runSize;
+
+	/** the estimated memory of the current run */
+	private long runMemory;
+
+	/** the spilled runs */
+	private List<File> runFiles;
+
+	/** the number of added records */
+	private long nrRecords;
+
+
+	/**
+	 * Creates a sorter.
+	 *
+	 * @param maxMemory the maximal (estimated) memory in bytes used by the
+	 * records held in memory
+	 * @param tempDirectory the directory for the temporary files, null for the
+	 * default temporary directory
+	 */
+	public GFFSorter(long maxMemory, File tempDirectory) {
+		this.maxMemory = maxMemory;
+		this.tempDirectory = tempDirectory;
+		this.seqIdNumbers = new HashMap<String, Integer>();
+		this.seqIds = new ArrayList<String>();
+		this.runLines = new String[1024];
+		this.runSeqIds = new int[1024];
+		this.runStarts = new long[1024];
+		this.runEnds = new long[1024];
+		this.runSize = 0;
+		this.runMemory = 0;
+		this.runFiles = new ArrayList<File>();
+		this.nrRecords = 0;
+	}
+
+
+	/**
+	 * Adds a GFF record line.
+	 *
+	 * @param line
+	 * @throws IOException if spilling a run fails
+	 */
+	public void add(String line) throws IOException {
+		String seqid = getSeqId(line);
+		long start = parseColumn(line, 3, 0);
+		long end = parseColumn(line, 4, start);
+
+		Integer seqIdNumber = seqIdNumbers.get(seqid);
+		if (seqIdNumber == null) {
+			seqIdNumber = seqIds.size();
+			seqIdNumbers.put(seqid, seqIdNumber);
+			seqIds.add(seqid);
+		}
+
+		if (runSize == runLines.length) {
+			int capacity = 2 * runSize;
+			runLines = Arrays.copyOf(runLines, capacity);
+			runSeqIds = Arrays.copyOf(runSeqIds, capacity);
+			runStarts = Arrays.copyOf(runStarts, capacity);
+			runEnds = Arrays.copyOf(runEnds, capacity);
+		}
+
+		runLines[runSize] = line;
+		runSeqIds[runSize] = seqIdNumber;
+		runStarts[runSize] = start;
+		runEnds[runSize] = end;
+		runSize++;
+		nrRecords++;
+
+		runMemory += 2L * line.length() + recordOverhead;
+		if (runMemory > maxMemory) {
+			spillRun();
+		}
+	}
+
+
+	/**
+	 * Returns the number of added records.
+	 *
+	 * @return
+	 */
+	public long getNrRecords() {
+		return nrRecords;
+	}
+
+
+	/**
+	 * Returns the number of runs spilled into temporary files.
+	 *
+	 * @return
+	 */
+	public int getNrSpilledRuns() {
+		return runFiles.size();
+	}
+
+
+	/**
+	 * Passes all records sorted to the handler. Afterwards, the sorter is
+	 * empty.
+	 *
+	 * @param handler
+	 * @throws IOException
+	 */
+	public void sort(GFFRecordHandler handler) throws IOException {
+		int seqIdRanks[] = getSeqIdRanks();
+
+		if (runFiles.isEmpty()) {
+			// everything fits into memory
+			int order[] = sortRun(seqIdRanks);
+			for (int idx : order) {
+				handler.handleRecord(runLines[idx], seqIds.get(runSeqIds[idx]),
+						runStarts[idx], runEnds[idx]);
+			}
+			clearRun();
+			return;
+		}
+
+		if (runSize > 0) {
+			spillRun();
+		}
+		logger.info("merging " + runFiles.size() + " sorted runs of " +
+				nrRecords + " GFF records");
+
+		// merge the first runs into one, which is appended behind the others
+		// (records are ordered completely by key and line), until the rest
+		// can be merged at once
+		while (runFiles.size() > maxMergeWidth) {
+			List<File> merged = new ArrayList<File>(
+					runFiles.subList(0, maxMergeWidth));
+			File mergedFile = createRunFile();
+			final DataOutputStream out = openRunOutput(mergedFile);
+			try {
+				mergeRuns(merged, seqIdRanks, new GFFRecordHandler() {
+					@Override
+					public void handleRecord(String line, String seqid,
+							long start, long end) throws IOException {
+						writeRecord(out, line, seqIdNumbers.get(seqid), start,
+								end);
+					}
+				});
+			} finally {
+				out.close();
+			}
+
+			for (File file : merged) {
+				deleteFile(file);
+			}
+			runFiles.subList(0, maxMergeWidth).clear();
+			runFiles.add(mergedFile);
+		}
+
+		mergeRuns(runFiles, seqIdRanks, handler);
+		close();
+	}
+
+
+	/**
+	 * Deletes the temporary files and clears the records in memory.
+	 */
+	@Override
+	public void close() {
+		for (File file : runFiles) {
+			deleteFile(file);
+		}
+		runFiles.clear();
+		clearRun();
+	}
+
+
+	/**
+	 * Returns the sequence id of the line, i.e. its first column.
+	 */
+	static String getSeqId(String line) {
+		int tab = line.indexOf('\t');
+		return (tab < 0) ? line : line.substring(0, tab);
+	}
+
+
+	/**
+	 * Parses the number in the given (0-based) column of the line.
+	 *
+	 * @return the number or the default value, if the column is missing or no
+	 * number (e.g. ".")
+	 */
+	static long parseColumn(String line, int column, long defaultValue) {
+		int start = 0;
+		for (int i=0; i < column; i++) {
+			start = line.indexOf('\t', start) + 1;
+			if (start == 0) {
+				return defaultValue;
+			}
+		}
+
+		int end = line.indexOf('\t', start);
+		if (end < 0) {
+			end = line.length();
+		}
+
+		boolean negative = (start < end) && (line.charAt(start) == '-');
+		int pos = negative ? start + 1 : start;
+		if (pos == end) {
+			return defaultValue;
+		}
+
+		long value = 0;
+		for (; pos < end; pos++) {
+			char c = line.charAt(pos);
+			if ((c < '0') || (c > '9')) {
+				return defaultValue;
+			}
+			value = 10 * value + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+
+	/**
+	 * Returns the rank of each sequence id number in the lexicographic order
+	 * of the sequence ids.
+	 */
+	private int[] getSeqIdRanks() {
+		String sortedIds[] = seqIds.toArray(new String[seqIds.size()]);
+		Arrays.sort(sortedIds);
+
+		int ranks[] = new int[sortedIds.length];
+		for (int rank=0; rank < sortedIds.length; rank++) {
+			ranks[seqIdNumbers.get(sortedIds[rank])] = rank;
+		}
+		return ranks;
+	}
+
+
+	/**
+	 * Compares two records of the current run by their keys and lines.
+	 */
+	private int compareRunRecords(int idxOne, int idxTwo, int[] seqIdRanks) {
+		int cmp = compareKeys(seqIdRanks[runSeqIds[idxOne]], runStarts[idxOne],
+				runEnds[idxOne], seqIdRanks[runSeqIds[idxTwo]],
+				runStarts[idxTwo], runEnds[idxTwo]);
+		if (cmp == 0) {
+			cmp = runLines[idxOne].compareTo(runLines[idxTwo]);
+		}
+		return cmp;
+	}
+
+
+	/**
+	 * Compares the keys of two records.
+	 */
+	private static int compareKeys(int rankOne, long startOne, long endOne,
+			int rankTwo, long startTwo, long endTwo) {
+		if (rankOne != rankTwo) {
+			return (rankOne < rankTwo) ? -1 : 1;
+		} else if (startOne != startTwo) {
+			return (startOne < startTwo) ? -1 : 1;
+		} else if (endOne != endTwo) {
+			return (endOne < endTwo) ? -1 : 1;
+		}
+		return 0;
+	}
+
+
+	/**
+	 * Returns the indices of the current run in sorted order. The sort is a
+	 * stable merge sort on the primitive keys (and the lines for equal keys).
+	 */
+	private int[] sortRun(int[] seqIdRanks) {
+		int order[] = new int[runSize];
+		for (int i=0; i < runSize; i++) {
+			order[i] = i;
+		}
+		int buffer[] = new int[runSize];
+
+		for (int width=1; width < runSize; width *= 2) {
+			for (int left=0; left < runSize - width; left += 2 * width) {
+				int middle = left + width;
+				int right = Math.min(left + 2 * width, runSize);
+
+				if (compareRunRecords(order[middle - 1], order[middle],
+						seqIdRanks) <= 0) {
+					// already in order
+					continue;
+				}
+
+				int i = left;
+				int j = middle;
+				int k = left;
+				while ((i < middle) && (j < right)) {
+					if (compareRunRecords(order[j], order[i], seqIdRanks) < 0) {
+						buffer[k++] = order[j++];
+					} else {
+						buffer[k++] = order[i++];
+					}
+				}
+				while (i < middle) {
+					buffer[k++] = order[i++];
+				}
+				while (j < right) {
+					buffer[k++] = order[j++];
+				}
+				System.arraycopy(buffer, left, order, left, right - left);
+			}
+		}
+		return order;
+	}
+
+
+	/**
+	 * Sorts the current run and writes it into a new temporary file.
+	 */
+	private void spillRun() throws IOException {
+		int order[] = sortRun(getSeqIdRanks());
+
+		File runFile = createRunFile();
+		DataOutputStream out = openRunOutput(runFile);
+		try {
+			for (int idx : order) {
+				writeRecord(out, runLines[idx], runSeqIds[idx], runStarts[idx],
+						runEnds[idx]);
+			}
+		} finally {
+			out.close();
+		}
+		runFiles.add(runFile);
+
+		logger.debug("spilled run " + runFiles.size() + " with " + runSize +
+				" GFF records");
+		clearRun();
+	}
+
+
+	/**
+	 * Removes the records of the current run.
+	 */
+	private void clearRun() {
+		Arrays.fill(runLines, 0, runSize, null);
+		runSize = 0;
+		runMemory = 0;
+	}
+
+
+	/**
+	 * Merges the given runs and passes the records to the handler.
+	 */
+	private void mergeRuns(List<File> files, int[] seqIdRanks,
+			GFFRecordHandler handler) throws IOException {
+		PriorityQueue<RunCursor> cursors =
+				new PriorityQueue<RunCursor>(files.size());
+		try {
+			for (int runNr=0; runNr < files.size(); runNr++) {
+				RunCursor cursor =
+						new RunCursor(files.get(runNr), runNr, seqIdRanks);
+				if (cursor.next()) {
+					cursors.add(cursor);
+				} else {
+					cursor.close();
+				}
+			}
+
+			while (!cursors.isEmpty()) {
+				RunCursor cursor = cursors.poll();
+				handler.handleRecord(cursor.line, seqIds.get(cursor.seqId),
+						cursor.start, cursor.end);
+				if (cursor.next()) {
+					cursors.add(cursor);
+				} else {
+					cursor.close();
+				}
+			}
+		} finally {
+			for (RunCursor cursor : cursors) {
+				cursor.close();
+			}
+		}
+	}
+
+
+	/**
+	 * Creates a new temporary file for a run.
+	 */
+	private File createRunFile() throws IOException {
+		File file = File.createTempFile("gffrun", ".tmp", tempDirectory);
+		file.deleteOnExit();
+		return file;
+	}
+
+
+	/**
+	 * Opens the output of a run file.
+	 */
+	private static DataOutputStream openRunOutput(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), runBufferSize));
+	}
+
+
+	/**
+	 * Writes one record into a run file.
+	 */
+	private static void writeRecord(DataOutputStream out, String line,
+			int seqId, long start, long end) throws IOException {
+		byte bytes[] = line.getBytes("UTF-8");
+		out.writeInt(seqId);
+		out.writeLong(start);
+		out.writeLong(end);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+
+	/**
+	 * Deletes a temporary file.
+	 */
+	private static void deleteFile(File file) {
+		if (!file.delete()) {
+			logger.warn("could not delete temporary file " + file);
+		}
+	}
+
+
+	/**
+	 * The current record of a run file, ordered by its key and then by the
+	 * number of the run.
+	 */
+	private static class RunCursor implements Comparable<RunCursor>, Closeable {
+
+		private DataInputStream in;
+
+		private int runNr;
+
+		private int[] seqIdRanks;
+
+		private String line;
+
+		private int seqId;
+
+		private long start;
+
+		private long end;
+
+
+		public RunCursor(File file, int runNr, int[] seqIdRanks)
+				throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), runBufferSize));
+			this.runNr = runNr;
+			this.seqIdRanks = seqIdRanks;
+		}
+
+
+		/**
+		 * Reads the next record.
+		 *
+		 * @return false, if the run is finished
+		 */
+		public boolean next() throws IOException {
+			try {
+				seqId = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			start = in.readLong();
+			end = in.readLong();
+			byte bytes[] = new byte[in.readInt()];
+			in.readFully(bytes);
+			line = new String(bytes, "UTF-8");
+			return true;
+		}
+
+
+		@Override
+		public int compareTo(RunCursor other) {
+			int cmp = compareKeys(seqIdRanks[seqId], start, end,
+					seqIdRanks[other.seqId], other.start, other.end);
+			if (cmp == 0) {
+				cmp = line.compareTo(other.line);
+			}
+			if (cmp == 0) {
+				cmp = (runNr < other.runNr) ? -1 :
+						((runNr == other.runNr) ? 0 : 1);
+			}
+			return cmp;
+		}
+
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package de.mpc.proteogenomics.pipeline.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Queries the records of a coordinate sorted, BGZF compressed GFF file by
+ * regions, using its tabix index (as written by the {@link SortedGFFWriter}).
+ * Only the blocks containing records of the region's bins are decompressed.
+ *
+ * @author julian
+ *
+ */
+public class IndexedGFFReader implements Closeable {
+
+	/** the index of the file */
+	private TabixIndex index;
+
+	/** the reader of the compressed file */
+	private BGZFSeekableReader reader;
+
+
+	/**
+	 * Opens the given GFF file and reads its index (fileName.tbi).
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public IndexedGFFReader(String fileName) throws IOException {
+		this.index = TabixIndex.read(TabixIndex.getIndexFileName(fileName));
+		this.reader = new BGZFSeekableReader(fileName);
+	}
+
+
+	/**
+	 * Returns the sequence ids in the file.
+	 *
+	 * @return
+	 */
+	public List<String> getSeqIds() {
+		return index.getSeqIds();
+	}
+
+
+	/**
+	 * Returns the lines of all records of the sequence, which overlap the given
+	 * region, in the order of the file.
+	 *
+	 * @param seqid
+	 * @param start the start of the region (1-based)
+	 * @param end the end of the region (1-based, inclusive)
+	 * @return
+	 * @throws IOException
+	 */
+	public List<String> query(String seqid, long start, long end)
+			throws IOException {
+		List<String> records = new ArrayList<String>();
+		long chunks[] = index.getChunks(seqid, start, end);
+
+		for (int i=0; i < chunks.length; i += 2) {
+			reader.seek(chunks[i]);
+
+			String line;
+			while ((reader.getVirtualOffset() < chunks[i + 1]) &&
+					((line = reader.readLine()) != null)) {
+				if (line.startsWith("#") ||
+						!seqid.equals(GFFSorter.getSeqId(line))) {
+					continue;
+				}
+
+				long recordStart = GFFSorter.parseColumn(line, 3, 0);
+				if (recordStart > end) {
+					// all further records start behind the region
+					return records;
+				}
+
+				long recordEnd = GFFSorter.parseColumn(line, 4, recordStart);
+				if (recordEnd >= start) {
+					records.add(line);
+				}
+			}
+		}
+
+		return records;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -0,0 +1,288 @@
+package de.mpc.proteogenomics.pipeline.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * A writer for GFF, which writes the records sorted by sequence id, start and
+ * end. If the file name ends with ".gz", the file is BGZF compressed and
+ * indexed by a tabix index (fileName.tbi), otherwise it is written as plain
+ * text.
+ * <p>
+ * The written lines are collected by a {@link GFFSorter} with bounded memory,
+ * the sorted file (and its index) is written, when the writer is closed.
+ * Comment and directive lines (starting with '#') are written before all
+ * records.
+ * <p>
+ * Several threads can write into one sorted file by their own part writers
+ * (see {@link #createPartWriter()}), which pass only complete lines.
+ *
+ * @author julian
+ *
+ */
+public class SortedGFFWriter extends Writer {
+
+	private final static Logger logger = Logger.getLogger(SortedGFFWriter.class);
+
+	/** the default maximal memory of the records held in memory */
+	public static final long default_maxMemory = 1L << 26;
+
+
+	/** the name of the written file */
+	private String fileName;
+
+	/** the sorter of the records */
+	private GFFSorter sorter;
+
+	/** the comment and directive lines */
+	private List<String> headerLines;
+
+	/** the currently written line */
+	private StringBuilder line;
+
+	/** whether the writer is closed */
+	private boolean closed;
+
+
+	/**
+	 * Creates a writer with the default memory and temporary directory.
+	 *
+	 * @param fileName the name of the written file
+	 */
+	public SortedGFFWriter(String fileName) {
+		this(fileName, default_maxMemory, null);
+	}
+
+
+	/**
+	 * Creates a writer.
+	 *
+	 * @param fileName the name of the written file
+	 * @param maxMemory the maximal (estimated) memory in bytes of the records
+	 * held in memory
+	 * @param tempDirectory the directory for temporary files, null for the
+	 * default temporary directory
+	 */
+	public SortedGFFWriter(String fileName, long maxMemory,
+			File tempDirectory) {
+		this.fileName = fileName;
+		this.sorter = new GFFSorter(maxMemory, tempDirectory);
+		this.headerLines = new ArrayList<String>();
+		this.line = new StringBuilder(256);
+		this.closed = false;
+	}
+
+
+	/**
+	 * Returns the name of a sorted and indexed GFF file for the given file
+	 * name, i.e. it is ensured, that it ends with ".gz".
+	 *
+	 * @param fileName
+	 * @return
+	 */
+	public static String getSortedFileName(String fileName) {
+		if (CompressedFiles.isCompressedName(fileName)) {
+			return fileName;
+		}
+		return fileName + CompressedFiles.gzipExtension;
+	}
+
+
+	/**
+	 * Creates a writer, which passes its complete lines into this sorted file.
+	 * Each thread writing into the file needs its own part writer, which must
+	 * be closed before this writer.
+	 *
+	 * @return
+	 */
+	public Writer createPartWriter() {
+		return new PartWriter();
+	}
+
+
+	@Override
+	public void write(char[] chars, int offset, int length) throws IOException {
+		synchronized (lock) {
+			appendChars(line, chars, offset, length);
+		}
+	}
+
+
+	/**
+	 * The records can only be written sorted, when all are known, so nothing
+	 * is flushed.
+	 */
+	@Override
+	public void flush() {
+	}
+
+
+	/**
+	 * Sorts the records and writes the file and its index.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			synchronized (lock) {
+				addLine(line);
+			}
+			writeSorted();
+		} finally {
+			sorter.close();
+		}
+	}
+
+
+	/**
+	 * Appends the characters to the line and passes each completed line to
+	 * {@link #addLine(StringBuilder)}.
+	 */
+	private void appendChars(StringBuilder line, char[] chars, int offset,
+			int length) throws IOException {
+		int start = offset;
+		int end = offset + length;
+		for (int pos=offset; pos < end; pos++) {
+			if (chars[pos] == '\n') {
+				line.append(chars, start, pos - start);
+				addLine(line);
+				start = pos + 1;
+			}
+		}
+		line.append(chars, start, end - start);
+	}
+
+
+	/**
+	 * Passes the line to the sorter or the header lines and clears it.
+	 */
+	private void addLine(StringBuilder line) throws IOException {
+		int length = line.length();
+		if ((length > 0) && (line.charAt(length - 1) == '\r')) {
+			line.setLength(--length);
+		}
+
+		if (length > 0) {
+			String text = line.toString();
+			synchronized (lock) {
+				if (closed && (line != this.line)) {
+					throw new IOException("the sorted GFF is already closed");
+				}
+				if (text.startsWith("#")) {
+					headerLines.add(text);
+				} else {
+					sorter.add(text);
+				}
+			}
+		}
+		line.setLength(0);
+	}
+
+
+	/**
+	 * Writes the header lines and the sorted records and, for a compressed
+	 * file, creates the index.
+	 */
+	private void writeSorted() throws IOException {
+		if (!CompressedFiles.isCompressedName(fileName)) {
+			final OutputStream out = new BufferedOutputStream(
+					new FileOutputStream(fileName), 1 << 16);
+			try {
+				writeHeaderLines(out);
+				sorter.sort(new GFFRecordHandler() {
+					@Override
+					public void handleRecord(String line, String seqid,
+							long start, long end) throws IOException {
+						out.write(line.getBytes());
+						out.write('\n');
+					}
+				});
+			} finally {
+				out.close();
+			}
+			logger.info("wrote sorted " + fileName);
+			return;
+		}
+
+		final BGZFOutputStream out = new BGZFOutputStream(
+				new BufferedOutputStream(new FileOutputStream(fileName),
+						1 << 16),
+				CompressedFiles.getBlockExecutor(),
+				CompressedFiles.getMaxPendingBlocks());
+		final TabixIndex index = new TabixIndex();
+
+		try {
+			writeHeaderLines(out);
+			sorter.sort(new GFFRecordHandler() {
+				@Override
+				public void handleRecord(String line, String seqid, long start,
+						long end) throws IOException {
+					long startAddress = out.getBlockAddress();
+					out.write(line.getBytes());
+					out.write('\n');
+					index.addRecord(seqid, start, end, startAddress,
+							out.getBlockAddress());
+				}
+			});
+		} finally {
+			out.close();
+		}
+
+		index.translateAddresses(out);
+		index.write(TabixIndex.getIndexFileName(fileName));
+		logger.info("wrote sorted and indexed " + fileName);
+	}
+
+
+	/**
+	 * Writes the comment and directive lines.
+	 */
+	private void writeHeaderLines(OutputStream out) throws IOException {
+		for (String header : headerLines) {
+			out.write(header.getBytes());
+			out.write('\n');
+		}
+	}
+
+
+	/**
+	 * A writer of one thread, which passes its complete lines into the sorted
+	 * file.
+	 */
+	private class PartWriter extends Writer {
+
+		/** the currently written line of this part */
+		private StringBuilder partLine = new StringBuilder(256);
+
+
+		@Override
+		public void write(char[] chars, int offset, int length)
+				throws IOException {
+			appendChars(partLine, chars, offset, length);
+		}
+
+
+		@Override
+		public void flush() {
+		}
+
+
+		@Override
+		public void close() throws IOException {
+			addLine(partLine);
+		}
+	}
+}
@@ -0,0 +1,545 @@
+package de.mpc.proteogenomics.pipeline.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * A binning index of a coordinate sorted, BGZF compressed GFF file in the
+ * format of tabix (.tbi), so the files can also be used by genome browsers and
+ * the tabix tool.
+ * <p>
+ * For each sequence id, the records are assigned to the smallest bin of the
+ * UCSC binning scheme containing them, each bin holds the chunks (virtual
+ * file offsets) of its records. Additionally, a linear index gives the first
+ * record overlapping each 16 kb window. A region query only reads the chunks
+ * of the bins overlapping the region, behind the offset of the linear index.
+ *
+ * @author julian
+ *
+ */
+public class TabixIndex {
+
+	/** the file name extension of tabix indices */
+	public static final String indexExtension = ".tbi";
+
+	/** the shift of the 16 kb windows of the linear index */
+	private static final int linearShift = 14;
+
+	/** the largest position, which can be indexed */
+	private static final long maxPosition = (1L << 29) - 1;
+
+	/** the magic bytes of a tabix index */
+	private static final byte magic[] = new byte[] {'T', 'B', 'I', 1};
+
+	/** the format of GFF: generic with 1-based positions */
+	private static final int formatGeneric = 0;
+
+	/** the columns (1-based) of the sequence id, start and end in GFF */
+	private static final int columnSeqId = 1;
+	private static final int columnStart = 4;
+	private static final int columnEnd = 5;
+
+
+	/** the sequence ids, in the order of the file */
+	private List<String> seqIds;
+
+	/** the index of each sequence id */
+	private Map<String, Integer> seqIdIndices;
+
+	/** the indices of the sequences */
+	private List<SequenceIndex> sequenceIndices;
+
+
+	/**
+	 * Creates an empty index.
+	 */
+	public TabixIndex() {
+		this.seqIds = new ArrayList<String>();
+		this.seqIdIndices = new HashMap<String, Integer>();
+		this.sequenceIndices = new ArrayList<SequenceIndex>();
+	}
+
+
+	/**
+	 * Returns the indexed sequence ids.
+	 *
+	 * @return
+	 */
+	public List<String> getSeqIds() {
+		return seqIds;
+	}
+
+
+	/**
+	 * Returns the name of the index file of the given data file.
+	 *
+	 * @param fileName
+	 * @return
+	 */
+	public static String getIndexFileName(String fileName) {
+		return fileName + indexExtension;
+	}
+
+
+	/**
+	 * Adds a record, the records must be added sorted by start position within
+	 * each sequence id.
+	 *
+	 * @param seqid
+	 * @param start the start position (1-based, smaller values are treated as
+	 * 1)
+	 * @param end the end position (1-based, inclusive)
+	 * @param startOffset the offset of the record's first byte
+	 * @param endOffset the offset behind the record
+	 */
+	public void addRecord(String seqid, long start, long end,
+			long startOffset, long endOffset) {
+		Integer seqIdx = seqIdIndices.get(seqid);
+		if (seqIdx == null) {
+			seqIdx = seqIds.size();
+			seqIdIndices.put(seqid, seqIdx);
+			seqIds.add(seqid);
+			sequenceIndices.add(new SequenceIndex());
+		}
+
+		long beg = getBegin(start);
+		long endExclusive = getEnd(beg, end);
+		sequenceIndices.get(seqIdx).addRecord((int)beg, (int)endExclusive,
+				startOffset, endOffset);
+	}
+
+
+	/**
+	 * Returns the merged chunks (pairs of virtual file offsets in one array),
+	 * which contain all records of the sequence overlapping the given region.
+	 *
+	 * @param seqid
+	 * @param start the start of the region (1-based)
+	 * @param end the end of the region (1-based, inclusive)
+	 * @return the chunks, sorted by their offsets
+	 */
+	public long[] getChunks(String seqid, long start, long end) {
+		Integer seqIdx = seqIdIndices.get(seqid);
+		if ((seqIdx == null) || (end < start)) {
+			return new long[0];
+		}
+
+		long beg = getBegin(start);
+		return sequenceIndices.get(seqIdx).getChunks((int)beg,
+				(int)getEnd(beg, end));
+	}
+
+
+	/**
+	 * Translates all offsets from the block addresses of the given stream into
+	 * virtual file offsets, after the stream is closed.
+	 *
+	 * @param stream
+	 */
+	void translateAddresses(BGZFOutputStream stream) {
+		for (SequenceIndex index : sequenceIndices) {
+			index.translateAddresses(stream);
+		}
+	}
+
+
+	/**
+	 * Writes the index BGZF compressed into the given file.
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void write(String fileName) throws IOException {
+		OutputStream out = new BGZFOutputStream(
+				new BufferedOutputStream(new FileOutputStream(fileName)),
+				CompressedFiles.getBlockExecutor(),
+				CompressedFiles.getMaxPendingBlocks());
+		try {
+			out.write(magic);
+			writeInt(out, seqIds.size());
+			writeInt(out, formatGeneric);
+			writeInt(out, columnSeqId);
+			writeInt(out, columnStart);
+			writeInt(out, columnEnd);
+			writeInt(out, '#');
+			writeInt(out, 0);		// no skipped lines
+
+			int namesLength = 0;
+			for (String seqid : seqIds) {
+				namesLength += seqid.getBytes("UTF-8").length + 1;
+			}
+			writeInt(out, namesLength);
+			for (String seqid : seqIds) {
+				out.write(seqid.getBytes("UTF-8"));
+				out.write(0);
+			}
+
+			for (SequenceIndex index : sequenceIndices) {
+				index.write(out);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Reads the index from the given (compressed) file.
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static TabixIndex read(String fileName) throws IOException {
+		DataInputStream in =
+				new DataInputStream(CompressedFiles.openInputStream(fileName));
+		try {
+			byte fileMagic[] = new byte[magic.length];
+			in.readFully(fileMagic);
+			if (!Arrays.equals(fileMagic, magic)) {
+				throw new IOException(fileName + " is no tabix index");
+			}
+
+			TabixIndex index = new TabixIndex();
+			int nrSequences = readInt(in);
+			// format, columns, meta character and skipped lines
+			for (int i=0; i < 6; i++) {
+				readInt(in);
+			}
+
+			byte names[] = new byte[readInt(in)];
+			in.readFully(names);
+			int nameStart = 0;
+			for (int pos=0; pos < names.length; pos++) {
+				if (names[pos] == 0) {
+					String seqid =
+							new String(names, nameStart, pos - nameStart, "UTF-8");
+					index.seqIdIndices.put(seqid, index.seqIds.size());
+					index.seqIds.add(seqid);
+					nameStart = pos + 1;
+				}
+			}
+			if (index.seqIds.size() != nrSequences) {
+				throw new IOException("corrupt tabix index " + fileName);
+			}
+
+			for (int seqIdx=0; seqIdx < nrSequences; seqIdx++) {
+				index.sequenceIndices.add(SequenceIndex.read(in));
+			}
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Returns the 0-based begin of a region starting at the given 1-based
+	 * position.
+	 */
+	private static long getBegin(long start) {
+		return Math.min(Math.max(0, start - 1), maxPosition - 1);
+	}
+
+
+	/**
+	 * Returns the 0-based exclusive end of a region ending at the given
+	 * 1-based position, the region has at least one position.
+	 */
+	private static long getEnd(long begin, long end) {
+		return Math.min(Math.max(end, begin + 1), maxPosition);
+	}
+
+
+	/**
+	 * Returns the smallest bin containing the region [beg, end).
+	 */
+	static int regionToBin(int beg, int end) {
+		end--;
+		if ((beg >> 14) == (end >> 14)) {
+			return ((1 << 15) - 1) / 7 + (beg >> 14);
+		}
+		if ((beg >> 17) == (end >> 17)) {
+			return ((1 << 12) - 1) / 7 + (beg >> 17);
+		}
+		if ((beg >> 20) == (end >> 20)) {
+			return ((1 << 9) - 1) / 7 + (beg >> 20);
+		}
+		if ((beg >> 23) == (end >> 23)) {
+			return ((1 << 6) - 1) / 7 + (beg >> 23);
+		}
+		if ((beg >> 26) == (end >> 26)) {
+			return ((1 << 3) - 1) / 7 + (beg >> 26);
+		}
+		return 0;
+	}
+
+
+	/**
+	 * Returns all bins overlapping the region [beg, end).
+	 */
+	static List<Integer> regionToBins(int beg, int end) {
+		List<Integer> bins = new ArrayList<Integer>();
+		end--;
+		bins.add(0);
+		for (int k = 1 + (beg >> 26); k <= 1 + (end >> 26); k++) {
+			bins.add(k);
+		}
+		for (int k = 9 + (beg >> 23); k <= 9 + (end >> 23); k++) {
+			bins.add(k);
+		}
+		for (int k = 73 + (beg >> 20); k <= 73 + (end >> 20); k++) {
+			bins.add(k);
+		}
+		for (int k = 585 + (beg >> 17); k <= 585 + (end >> 17); k++) {
+			bins.add(k);
+		}
+		for (int k = 4681 + (beg >> 14); k <= 4681 + (end >> 14); k++) {
+			bins.add(k);
+		}
+		return bins;
+	}
+
+
+	/**
+	 * Writes a little endian int.
+	 */
+	private static void writeInt(OutputStream out, int value)
+			throws IOException {
+		out.write(value);
+		out.write(value >> 8);
+		out.write(value >> 16);
+		out.write(value >> 24);
+	}
+
+
+	/**
+	 * Writes a little endian long.
+	 */
+	private static void writeLong(OutputStream out, long value)
+			throws IOException {
+		writeInt(out, (int)value);
+		writeInt(out, (int)(value >>> 32));
+	}
+
+
+	/**
+	 * Reads a little endian int.
+	 */
+	private static int readInt(DataInputStream in) throws IOException {
+		return Integer.reverseBytes(in.readInt());
+	}
+
+
+	/**
+	 * Reads a little endian long.
+	 */
+	private static long readLong(DataInputStream in) throws IOException {
+		return Long.reverseBytes(in.readLong());
+	}
+
+
+	/**
+	 * The bins and the linear index of one sequence.
+	 */
+	private static class SequenceIndex {
+
+		/** the chunks (pairs of offsets) of each bin */
+		private TreeMap<Integer, long[]> binChunks;
+
+		/** the number of offsets in the chunks of each bin */
+		private Map<Integer, Integer> binSizes;
+
+		/** the first offset of each 16 kb window, -1 if none */
+		private long linearIndex[];
+
+		/** the number of windows in the linear index */
+		private int linearSize;
+
+
+		public SequenceIndex() {
+			this.binChunks = new TreeMap<Integer, long[]>();
+			this.binSizes = new HashMap<Integer, Integer>();
+			this.linearIndex = new long[16];
+			this.linearSize = 0;
+		}
+
+
+		/**
+		 * Adds a record, successive records of a bin are merged into one chunk.
+		 */
+		public void addRecord(int beg, int end, long startOffset,
+				long endOffset) {
+			int bin = regionToBin(beg, end);
+			long chunks[] = binChunks.get(bin);
+			int size = (chunks == null) ? 0 : binSizes.get(bin);
+
+			if ((size > 0) && (chunks[size - 1] == startOffset)) {
+				chunks[size - 1] = endOffset;
+			} else {
+				if (chunks == null) {
+					chunks = new long[4];
+				} else if (size == chunks.length) {
+					chunks = Arrays.copyOf(chunks, 2 * size);
+				}
+				chunks[size++] = startOffset;
+				chunks[size++] = endOffset;
+				binChunks.put(bin, chunks);
+				binSizes.put(bin, size);
+			}
+
+			int lastWindow = (end - 1) >> linearShift;
+			if (lastWindow >= linearIndex.length) {
+				linearIndex = Arrays.copyOf(linearIndex,
+						Math.max(2 * linearIndex.length, lastWindow + 1));
+			}
+			for (int window=linearSize; window <= lastWindow; window++) {
+				linearIndex[window] = -1;
+			}
+			linearSize = Math.max(linearSize, lastWindow + 1);
+			for (int window = beg >> linearShift; window <= lastWindow;
+					window++) {
+				if (linearIndex[window] == -1) {
+					linearIndex[window] = startOffset;
+				}
+			}
+		}
+
+
+		/**
+		 * Returns the merged chunks overlapping the region [beg, end).
+		 */
+		public long[] getChunks(int beg, int end) {
+			long minOffset = 0;
+			if (linearSize > 0) {
+				minOffset = linearIndex[
+						Math.min(beg >> linearShift, linearSize - 1)];
+			}
+
+			List<long[]> chunkList = new ArrayList<long[]>();
+			for (int bin : regionToBins(beg, end)) {
+				long chunks[] = binChunks.get(bin);
+				if (chunks == null) {
+					continue;
+				}
+				int size = binSizes.get(bin);
+				for (int i=0; i < size; i += 2) {
+					if (chunks[i + 1] > minOffset) {
+						chunkList.add(new long[] {
+								Math.max(chunks[i], minOffset), chunks[i + 1]});
+					}
+				}
+			}
+
+			long sorted[][] = chunkList.toArray(new long[chunkList.size()][]);
+			Arrays.sort(sorted, new Comparator<long[]>() {
+				@Override
+				public int compare(long[] one, long[] two) {
+					return (one[0] < two[0]) ? -1 :
+							((one[0] == two[0]) ? 0 : 1);
+				}
+			});
+
+			// merge overlapping and adjacent chunks
+			long merged[] = new long[2 * sorted.length];
+			int size = 0;
+			for (long[] chunk : sorted) {
+				if ((size > 0) && (chunk[0] <= merged[size - 1])) {
+					merged[size - 1] = Math.max(merged[size - 1], chunk[1]);
+				} else {
+					merged[size++] = chunk[0];
+					merged[size++] = chunk[1];
+				}
+			}
+			return Arrays.copyOf(merged, size);
+		}
+
+
+		/**
+		 * Translates all offsets from block addresses into virtual offsets and
+		 * fills the empty windows of the linear index.
+		 */
+		public void translateAddresses(BGZFOutputStream stream) {
+			for (Map.Entry<Integer, long[]> binIt : binChunks.entrySet()) {
+				long chunks[] = binIt.getValue();
+				int size = binSizes.get(binIt.getKey());
+				for (int i=0; i < size; i++) {
+					chunks[i] = stream.getVirtualOffset(chunks[i]);
+				}
+			}
+
+			long lastOffset = 0;
+			for (int window=0; window < linearSize; window++) {
+				if (linearIndex[window] == -1) {
+					linearIndex[window] = lastOffset;
+				} else {
+					linearIndex[window] =
+							stream.getVirtualOffset(linearIndex[window]);
+					lastOffset = linearIndex[window];
+				}
+			}
+		}
+
+
+		/**
+		 * Writes the bins and linear index in the tabix format.
+		 */
+		public void write(OutputStream out) throws IOException {
+			writeInt(out, binChunks.size());
+			for (Map.Entry<Integer, long[]> binIt : binChunks.entrySet()) {
+				long chunks[] = binIt.getValue();
+				int size = binSizes.get(binIt.getKey());
+
+				writeInt(out, binIt.getKey());
+				writeInt(out, size / 2);
+				for (int i=0; i < size; i++) {
+					writeLong(out, chunks[i]);
+				}
+			}
+
+			writeInt(out, linearSize);
+			for (int window=0; window < linearSize; window++) {
+				writeLong(out, linearIndex[window]);
+			}
+		}
+
+
+		/**
+		 * Reads the bins and linear index in the tabix format.
+		 */
+		public static SequenceIndex read(DataInputStream in)
+				throws IOException {
+			SequenceIndex index = new SequenceIndex();
+
+			int nrBins = readInt(in);
+			for (int i=0; i < nrBins; i++) {
+				int bin = readInt(in);
+				int size = 2 * readInt(in);
+				long chunks[] = new long[Math.max(size, 2)];
+				for (int j=0; j < size; j++) {
+					chunks[j] = readLong(in);
+				}
+				index.binChunks.put(bin, chunks);
+				index.binSizes.put(bin, size);
+			}
+
+			index.linearSize = readInt(in);
+			index.linearIndex = new long[Math.max(index.linearSize, 1)];
+			for (int window=0; window < index.linearSize; window++) {
+				index.linearIndex[window] = readLong(in);
+			}
+			return index;
+		}
+	}
+}
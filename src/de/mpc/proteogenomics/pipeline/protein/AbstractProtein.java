@@ -1,11 +1,15 @@
 package de.mpc.proteogenomics.pipeline.protein;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An abstract protein class.
@@ -18,6 +22,13 @@ public abstract class AbstractProtein {
 	/** the separator for accession and description */
 	public final static String headerSeparator = " "; 
 	
+	/** the upper case hexadecimal digits used by the URL encoding */
+	private final static char hexDigits[] = "0123456789ABCDEF".toCharArray();
+	
+	/** the URL encoded genome names, by genome name */
+	private final static Map<String, String> encodedGenomeNames =
+			new ConcurrentHashMap<String, String>();
+	
 	
 	/**
 	 * Returns the accession of the protein
@@ -68,6 +79,26 @@ public abstract class AbstractProtein {
 	public abstract Boolean getIsComplement();
 	
 	
+	/**
+	 * Returns the URL encoded genome name (with %20 for spaces), which is
+	 * encoded only once per genome name.
+	 * 
+	 * @param genomeName
+	 * @return
+	 * @throws UnsupportedEncodingException
+	 */
+	public static String encodeGenomeName(String genomeName)
+			throws UnsupportedEncodingException {
+		String encodedName = encodedGenomeNames.get(genomeName);
+		if (encodedName == null) {
+			encodedName =
+					URLEncoder.encode(genomeName, "UTF-8").replace("+", "%20");
+			encodedGenomeNames.put(genomeName, encodedName);
+		}
+		return encodedName;
+	}
+	
+	
 
 	/**
 	 * Build an GFF entry line for this protein.
@@ -78,37 +109,57 @@ public abstract class AbstractProtein {
 	public String buildGFFline()
 			throws UnsupportedEncodingException  {
 		StringBuilder line = new StringBuilder();
-		
-		line.append(URLEncoder.encode(getGenomeName(), "UTF-8").replace("+", "%20"));
-		line.append("\tProteoGenomicsPipeline");
-		line.append("\tprotein_coding_primary_transcript\t");
-		line.append(getStart());
-		line.append('\t');
-		line.append(getEnd());
-		line.append("\t.\t");	// no score
+		try {
+			writeGFFLine(line);
+		} catch (UnsupportedEncodingException e) {
+			throw e;
+		} catch (IOException e) {
+			// a StringBuilder throws no IOException
+			throw new IllegalStateException(e);
+		}
+		return line.toString();
+	}
+	
+	
+	/**
+	 * Writes the GFF entry line for this protein (without line separator)
+	 * directly into the given output.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeGFFLine(Appendable out) throws IOException {
+		appendChars(out, encodeGenomeName(getGenomeName()));
+		appendChars(out, "\tProteoGenomicsPipeline");
+		appendChars(out, "\tprotein_coding_primary_transcript\t");
+		appendNumber(out, getStart());
+		out.append('\t');
+		appendNumber(out, getEnd());
+		appendChars(out, "\t.\t");	// no score
 		
 		Boolean isComplement = getIsComplement();
 		if (isComplement != null) {
-			line.append((!isComplement) ? '+' : '-');
+			out.append((!isComplement) ? '+' : '-');
 		} else {
 			// not known, but relevant
-			line.append('.');
+			out.append('.');
 		}
 		
-		line.append('\t');
-		line.append('0');	// the phase is 0, as it is already given by the start and end
-		line.append('\t');
-		
-		String name = (getDescription() != null) ?
-				getAccession() + " - " + getDescription() :
-				getAccession();
+		out.append('\t');
+		out.append('0');	// the phase is 0, as it is already given by the start and end
+		out.append('\t');
 		
-		line.append("ID=" +
-				URLEncoder.encode(getAccession(), "UTF-8").replace("+", "%20") +
-				";Name=" +
-				URLEncoder.encode(name, "UTF-8").replace("+", "%20"));
+		String accession = getAccession();
+		String description = getDescription();
 		
-		return line.toString();
+		appendChars(out, "ID=");
+		appendURLEncoded(out, accession);
+		appendChars(out, ";Name=");
+		appendURLEncoded(out, accession);
+		if (description != null) {
+			appendURLEncoded(out, " - ");
+			appendURLEncoded(out, description);
+		}
 	}
 	
 	
@@ -118,28 +169,189 @@ public abstract class AbstractProtein {
 	 */
 	public String toFastaEntry() {
 		StringBuilder entry = new StringBuilder(200);
-		
+		try {
+			writeFasta(entry);
+		} catch (IOException e) {
+			// a StringBuilder throws no IOException
+			throw new IllegalStateException(e);
+		}
+		return entry.toString();
+	}
+	
+	
+	/**
+	 * Writes the FASTA entry of the protein (without trailing line separator)
+	 * directly into the given output.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeFasta(Appendable out) throws IOException {
 		// the header
-		entry.append(">");
-		entry.append(getAccession());
+		out.append('>');
+		appendChars(out, getAccession());
 		
-		entry.append(headerSeparator);
-		if (getDescription() != null) {
-			entry.append(getDescription());
+		appendChars(out, headerSeparator);
+		String description = getDescription();
+		if (description != null) {
+			appendChars(out, description);
 		}
 		
-		// the sequence
+		writeSequenceLines(out);
+	}
+	
+	
+	/**
+	 * Writes the sequence in lines of 60 amino acids, each line is started by
+	 * a line break.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	protected void writeSequenceLines(Appendable out) throws IOException {
 		int pos = 0;
 		String sequence = getSequence();
 		while (pos < sequence.length() - 60) {
-			entry.append("\n");
-			entry.append(sequence.substring(pos, pos+60));
+			out.append('\n');
+			appendChars(out, sequence, pos, pos+60);
 			pos += 60;
 		}
 		
-		entry.append("\n");
-		entry.append(sequence.substring(pos));
-		return entry.toString();
+		out.append('\n');
+		appendChars(out, sequence, pos, sequence.length());
+	}
+	
+	
+	/**
+	 * Appends the characters (or "null") to the output.
+	 * 
+	 * @param out
+	 * @param chars
+	 * @throws IOException
+	 */
+	protected static void appendChars(Appendable out, String chars)
+			throws IOException {
+		if (chars == null) {
+			chars = "null";
+		}
+		appendChars(out, chars, 0, chars.length());
+	}
+	
+	
+	/**
+	 * Appends the characters from start (inclusive) to end (exclusive) to the
+	 * output. Writers get the characters directly, as their
+	 * {@link Writer#append(CharSequence, int, int)} creates a substring.
+	 * 
+	 * @param out
+	 * @param chars
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	protected static void appendChars(Appendable out, String chars, int start,
+			int end) throws IOException {
+		if (out instanceof Writer) {
+			((Writer)out).write(chars, start, end - start);
+		} else {
+			out.append(chars, start, end);
+		}
+	}
+	
+	
+	/**
+	 * Appends the decimal representation of the number (or "null") to the
+	 * output.
+	 * 
+	 * @param out
+	 * @param number
+	 * @throws IOException
+	 */
+	protected static void appendNumber(Appendable out, Long number)
+			throws IOException {
+		if (number == null) {
+			appendChars(out, "null");
+			return;
+		}
+		
+		// work on the negative value, which also holds Long.MIN_VALUE
+		long value = number;
+		if (value < 0) {
+			out.append('-');
+		} else {
+			value = -value;
+		}
+		
+		long divisor = 1;
+		while (value / divisor <= -10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			out.append((char)('0' - (value / divisor) % 10));
+		}
+	}
+	
+	
+	/**
+	 * Appends the text URL encoded to the output, exactly as
+	 * {@link URLEncoder#encode(String, String)} with UTF-8, but with %20 for
+	 * spaces. Characters, which need no encoding, are appended in runs.
+	 * 
+	 * @param out
+	 * @param text
+	 * @throws IOException
+	 */
+	protected static void appendURLEncoded(Appendable out, String text)
+			throws IOException {
+		int length = text.length();
+		int runStart = 0;
+		int pos = 0;
+		while (pos < length) {
+			char c = text.charAt(pos);
+			if (isURLSafe(c)) {
+				pos++;
+				continue;
+			}
+			
+			if (runStart < pos) {
+				appendChars(out, text, runStart, pos);
+			}
+			
+			if (c == ' ') {
+				appendChars(out, "%20");
+				pos++;
+			} else {
+				// encode all following characters, which need encoding
+				int encodeStart = pos;
+				while ((pos < length) && !isURLSafe(text.charAt(pos)) &&
+						(text.charAt(pos) != ' ')) {
+					pos++;
+				}
+				
+				byte bytes[] =
+						text.substring(encodeStart, pos).getBytes("UTF-8");
+				for (byte b : bytes) {
+					out.append('%');
+					out.append(hexDigits[(b >> 4) & 0x0f]);
+					out.append(hexDigits[b & 0x0f]);
+				}
+			}
+			runStart = pos;
+		}
+		
+		if (runStart < length) {
+			appendChars(out, text, runStart, length);
+		}
+	}
+	
+	
+	/**
+	 * Returns whether the character is not changed by the URL encoding.
+	 */
+	private static boolean isURLSafe(char c) {
+		return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) ||
+				((c >= '0') && (c <= '9')) ||
+				(c == '.') || (c == '-') || (c == '*') || (c == '_');
 	}
 	
 	
@@ -1,9 +1,7 @@
 package de.mpc.proteogenomics.pipeline.protein;
 
 import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.Map;
@@ -12,6 +10,8 @@ import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 
+import de.mpc.proteogenomics.pipeline.io.CompressedFiles;
+
 
 /**
  * A protein which is not known to be a direct genetic translation.
@@ -221,8 +221,7 @@ public class GenericProtein extends AbstractProtein {
 	public static int parseProteinsFromGFF(String fileName,
 			Map<String, GenericProtein> proteins, Logger logger)
 			throws IOException {
-		BufferedReader gffReader = new BufferedReader(
-				new InputStreamReader(new FileInputStream(fileName)));
+		BufferedReader gffReader = CompressedFiles.openReader(fileName);
 		String line;
 		int nr_parsed = 0;
 		
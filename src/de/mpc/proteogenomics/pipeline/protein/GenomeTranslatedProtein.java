@@ -1,12 +1,13 @@
 package de.mpc.proteogenomics.pipeline.protein;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -14,6 +15,19 @@ import org.apache.log4j.Logger;
 
 /**
  * A protein which is a direct genetic translation.
+ * <p>
+ * As millions of these proteins are created for a genome, they are kept
+ * compact: the positions and flags are primitives, the amino acids are stored
+ * as bytes and the relations to known proteins are only created, if there
+ * are any.
+ * <p>
+ * Once a protein is finished, it can be frozen by {@link #freeze()}, which
+ * builds the accession and description once for all output formats. A frozen
+ * protein must not be changed anymore.
+ * <p>
+ * The ORFs of alternative start sites are created as views on the protein
+ * (see {@link #createStartSiteView(int, long, long)}), which share its amino
+ * acids instead of copying them.
  * 
  * @author julian
  *
@@ -25,23 +39,51 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	/** the genome name of the protein */
 	private String genomeName;
 	
-	/** the sequence of the protein */
-	private StringBuffer sequence;
+	/** the amino acids of the protein as ASCII characters */
+	private byte sequence[];
+	
+	/** the number of amino acids */
+	private int length;
+	
+	/** the index of the first amino acid in the sequence array */
+	private int sequenceOffset;
+	
+	/** whether the protein is a view starting with a start codon (translated as M) in another protein's sequence */
+	private boolean isStartSiteView;
 	
 	/** the start position in the genome */
-	private Long start;
+	private long start;
 	
 	/** the end position in the genome */
-	private Long end;
+	private long end;
 	
-	/** the frame (1,2,3 for forward, 4,5,6 for backward strand) */
-	private Integer frame;
+	/** the frame (0,1,2 for forward, 3,4,5 for backward strand) */
+	private int frame;
 	
 	/** whether this protein is an ORF protein, i.e. it starts with a start codon (which is translated as M) */
-	private Boolean isORFprotein;
+	private boolean isORFprotein;
+	
+	/** the bits of the relations, which the related proteins have */
+	private int relationFlags;
+	
+	/** the related (overlapped, elongated...) proteins, null if there are none */
+	private List<AbstractProtein> relatedProteins;
+	
+	/** the relations of the related proteins */
+	private byte relations[];
+	
+	/** the accession, set when the protein is frozen */
+	private String frozenAccession;
+	
+	/** the description, set when the protein is frozen */
+	private String frozenDescription;
 	
-	/** a list of related (overlapped, elongated...) proteins */
-	private Map<Integer, List<AbstractProtein>> relatedProteins;
+	
+	/** the charset of the amino acids */
+	private static final Charset aminoAcidCharset = Charset.forName("US-ASCII");
+	
+	/** the initial capacity of the sequence, if none is given */
+	private static final int defaultCapacity = 64;
 	
 	
 	/** the prefix for the accession */
@@ -69,20 +111,102 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 
 	
 	/**
-	 * Simple constructor, frame is set to the given value and start to null,
+	 * Simple constructor, frame is set to the given value and end to 0,
 	 * the sequence is initialised.
 	 * @param start
 	 * @param frame
 	 */
-	public GenomeTranslatedProtein(String genomeName, Long start,
-			Integer frame) {
+	public GenomeTranslatedProtein(String genomeName, long start, int frame) {
+		this(genomeName, start, frame, defaultCapacity);
+	}
+	
+	
+	/**
+	 * Constructor with room for the given number of amino acids.
+	 * 
+	 * @param genomeName
+	 * @param start
+	 * @param frame
+	 * @param capacity
+	 */
+	public GenomeTranslatedProtein(String genomeName, long start, int frame,
+			int capacity) {
 		this.genomeName = genomeName;
-		this.sequence = new StringBuffer();
+		this.sequence = new byte[Math.max(1, capacity)];
+		this.length = 0;
+		this.sequenceOffset = 0;
+		this.isStartSiteView = false;
 		this.start = start;
-		this.end = null;
+		this.end = 0;
 		this.frame = frame;
 		this.isORFprotein = false;
+		this.relationFlags = 0;
+		this.relatedProteins = null;
+		this.relations = null;
+		this.frozenAccession = null;
+		this.frozenDescription = null;
+	}
+	
+	
+	/**
+	 * Creates an ORF, which starts at the given index of the sequence of the
+	 * other protein, whose amino acid there is a start codon. The ORF shares
+	 * the amino acids with the other protein, which must not be changed
+	 * anymore.
+	 * 
+	 * @param protein
+	 * @param index
+	 * @param start
+	 * @param end
+	 */
+	private GenomeTranslatedProtein(GenomeTranslatedProtein protein,
+			int index, long start, long end) {
+		this.genomeName = protein.genomeName;
+		this.sequence = protein.sequence;
+		this.length = protein.length - index;
+		this.sequenceOffset = protein.sequenceOffset + index;
+		this.isStartSiteView = true;
+		this.start = start;
+		this.end = end;
+		this.frame = protein.frame;
+		this.isORFprotein = true;
+		this.relationFlags = 0;
 		this.relatedProteins = null;
+		this.relations = null;
+		this.frozenAccession = null;
+		this.frozenDescription = null;
+	}
+	
+	
+	/**
+	 * Returns the ORF of an alternative start site, i.e. the suffix of this
+	 * protein's sequence from the given index on, with the start codon
+	 * translated as M. The ORF is a view on this protein's amino acids, so
+	 * neither this protein nor the view must be changed anymore.
+	 * 
+	 * @param index the index of the start codon's amino acid in the sequence
+	 * @param start the start position of the ORF in the genome
+	 * @param end the end position of the ORF in the genome
+	 * @return
+	 */
+	public GenomeTranslatedProtein createStartSiteView(int index, long start,
+			long end) {
+		if ((index < 0) || (index >= length)) {
+			throw new IndexOutOfBoundsException("start site " + index +
+					" of a protein with length " + length);
+		}
+		return new GenomeTranslatedProtein(this, index, start, end);
+	}
+	
+	
+	/**
+	 * Returns the amino acid at the given index of the sequence.
+	 */
+	private char aminoAcidAt(int index) {
+		if (isStartSiteView && (index == 0)) {
+			return 'M';
+		}
+		return (char)sequence[sequenceOffset + index];
 	}
 	
 	
@@ -91,7 +215,19 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 * @param aminoAcid
 	 */
 	public void appendAminoAcid(Character aminoAcid) {
-		sequence.append(aminoAcid);
+		appendAminoAcid(aminoAcid.charValue());
+	}
+	
+	
+	/**
+	 * Appends the given amino acid to the sequence
+	 * @param aminoAcid
+	 */
+	public void appendAminoAcid(char aminoAcid) {
+		if (length == sequence.length) {
+			sequence = Arrays.copyOf(sequence, 2 * length);
+		}
+		sequence[length++] = (byte)aminoAcid;
 	}
 	
 	
@@ -100,7 +236,11 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 * are), used for frames 3,4,5
 	 */
 	public void reverseProtein() {
-		sequence.reverse();
+		for (int i=0, j=length-1; i < j; i++, j--) {
+			byte aminoAcid = sequence[i];
+			sequence[i] = sequence[j];
+			sequence[j] = aminoAcid;
+		}
 	}
 	
 	
@@ -109,7 +249,73 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 * @return
 	 */
 	public String getSequence() {
-		return sequence.toString();
+		if (!isStartSiteView) {
+			return new String(sequence, 0, length, aminoAcidCharset);
+		}
+		
+		byte aminoAcids[] = Arrays.copyOfRange(sequence, sequenceOffset,
+				sequenceOffset + length);
+		aminoAcids[0] = 'M';
+		return new String(aminoAcids, aminoAcidCharset);
+	}
+	
+	
+	/**
+	 * Writes the sequence lines directly from the amino acid bytes, a
+	 * {@link Writer} gets each line at once.
+	 */
+	@Override
+	protected void writeSequenceLines(Appendable out) throws IOException {
+		Writer writer = (out instanceof Writer) ? (Writer)out : null;
+		char line[] = (writer != null) ? new char[60] : null;
+	
+		int pos = 0;
+		do {
+			int lineEnd = Math.min(pos + 60, length);
+			out.append('\n');
+			if (writer != null) {
+				for (int i=pos; i < lineEnd; i++) {
+					line[i - pos] = (char)sequence[sequenceOffset + i];
+				}
+				if (isStartSiteView && (pos == 0)) {
+					line[0] = 'M';
+				}
+				writer.write(line, 0, lineEnd - pos);
+			} else {
+				for (int i=pos; i < lineEnd; i++) {
+					out.append(aminoAcidAt(i));
+				}
+			}
+			pos = lineEnd;
+		} while (pos < length);
+	}
+	
+
+	/**
+	 * Checks, whether the given protein has the same amino acid sequence as
+	 * this one, without creating the sequence strings.
+	 * 
+	 * @param protein
+	 * @return
+	 */
+	public boolean hasSameSequence(GenomeTranslatedProtein protein) {
+		if (length != protein.length) {
+			return false;
+		}
+		if (isStartSiteView || protein.isStartSiteView) {
+			for (int i=0; i < length; i++) {
+				if (aminoAcidAt(i) != protein.aminoAcidAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		for (int i=0; i < length; i++) {
+			if (sequence[i] != protein.sequence[i]) {
+				return false;
+			}
+		}
+		return true;
 	}
 	
 	
@@ -128,11 +334,11 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 */
 	public void recalculateStartForOverlap() {
 		if (frame < 3) {
-			start = end - 3 * sequence.length() - 3;
-			frame = end.intValue() % 3;
+			start = end - 3 * length - 3;
+			frame = (int)end % 3;
 		} else {
-			start = end - 3 * sequence.length() - 2;
-			frame = end.intValue() % 3 + 3;
+			start = end - 3 * length - 2;
+			frame = (int)end % 3 + 3;
 		}
 	}
 	
@@ -141,7 +347,7 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 * Sets the end of the protein
 	 * @return
 	 */
-	public void setEnd(Long end) {
+	public void setEnd(long end) {
 		this.end = end;
 	}
 	
@@ -159,7 +365,7 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 * Returns the frame of the protein
 	 * @return
 	 */
-	public Integer getFrame() {
+	public int getFrame() {
 		return frame;
 	}
 	
@@ -173,8 +379,8 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 * Returns the length of the sequence.
 	 * @return
 	 */
-	public Integer length() {
-		return sequence.length();
+	public int length() {
+		return length;
 	}
 	
 	
@@ -184,6 +390,10 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 * @return
 	 */
 	public String getAccession() {
+		if (frozenAccession != null) {
+			return frozenAccession;
+		}
+		
 		StringBuilder accession =
 				new StringBuilder(genome_translation_accession_prefix);
 		
@@ -204,8 +414,7 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 		
 		accession.append("-");
 		try {
-			accession.append(
-					URLEncoder.encode(genomeName, "UTF-8").replace("+", "%20"));
+			accession.append(encodeGenomeName(genomeName));
 		} catch (UnsupportedEncodingException e) {
 			logger.warn("trouble encoding genome name, using unencoded " +
 					genomeName,  e);
@@ -223,6 +432,10 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 * @return
 	 */
 	public String getDescription() {
+		if (frozenDescription != null) {
+			return frozenDescription;
+		}
+		
 		StringBuilder description = new StringBuilder("translation protein of " +
 				genomeName + " frame " + frame + ", " + start + "-" + end);
 		
@@ -230,46 +443,48 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 			description.append(", ORF protein");
 		}
 		
-		// as the relations may span multiple position hashes, put them into a set 
-		Set<String> relationTexts = new HashSet<String>();
 		if (relatedProteins != null) {
-			if (relatedProteins.containsKey(IN_KNOWN)) {
-				for (AbstractProtein protein : relatedProteins.get(IN_KNOWN)) {
-					relationTexts.add(", equal to " + protein.getAccession());
-				}
+			// report each relation text only once
+			Set<String> relationTexts = new HashSet<String>();
+			for (AbstractProtein protein : getRelatedProteins(IN_KNOWN)) {
+				relationTexts.add(", equal to " + protein.getAccession());
 			}
 			
-			if (relatedProteins.containsKey(ELONGATION_OF_KNOWN)) {
-				for (AbstractProtein protein
-						: relatedProteins.get(ELONGATION_OF_KNOWN)) {
-					relationTexts.add(", elongates " + protein.getAccession());
-				}
+			for (AbstractProtein protein
+					: getRelatedProteins(ELONGATION_OF_KNOWN)) {
+				relationTexts.add(", elongates " + protein.getAccession());
 			}
 			
-			if (relatedProteins.containsKey(PARTIAL_ELONGATION_OF_KNOWN)) {
-				for (AbstractProtein protein
-						: relatedProteins.get(PARTIAL_ELONGATION_OF_KNOWN)) {
-					relationTexts.add(", partial elongates " +
-							protein.getAccession());
-				}
+			for (AbstractProtein protein
+					: getRelatedProteins(PARTIAL_ELONGATION_OF_KNOWN)) {
+				relationTexts.add(", partial elongates " +
+						protein.getAccession());
 			}
 			
-			if (relatedProteins.containsKey(PART_OF_KNOWN)) {
-				for (AbstractProtein protein
-						: relatedProteins.get(PART_OF_KNOWN)) {
-					relationTexts.add(", part of " + protein.getAccession());
-				}
+			for (AbstractProtein protein : getRelatedProteins(PART_OF_KNOWN)) {
+				relationTexts.add(", part of " + protein.getAccession());
+			}
+			
+			for (String relationText : relationTexts) {
+				description.append(relationText);
 			}
-		}
-		
-		for (String relationText : relationTexts) {
-			description.append(relationText);
 		}
 		
 		return description.toString();
 	}
 	
 	
+	/**
+	 * Freezes the finished protein, i.e. its accession and description are
+	 * built once and returned by all further calls. The protein must not be
+	 * changed afterwards.
+	 */
+	public void freeze() {
+		frozenAccession = getAccession();
+		frozenDescription = getDescription();
+	}
+	
+	
 	@Override
 	public String getGenomeName() {
 		return genomeName;
@@ -280,7 +495,7 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 * Sets, whether this protein is an ORF protein
 	 * @return
 	 */
-	public void setIsORFProtein(Boolean isORF) {
+	public void setIsORFProtein(boolean isORF) {
 		this.isORFprotein = isORF;
 	}
 	
@@ -291,7 +506,7 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 * 
 	 * @return
 	 */
-	public Boolean getIsORFProtein() {
+	public boolean getIsORFProtein() {
 		return isORFprotein;
 	}
 	
@@ -302,58 +517,41 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 * 
 	 * @return
 	 */
-	public Boolean isInKnownProtein() {
-		if (relatedProteins == null) {
-			return false;
-		} else {
-			return relatedProteins.containsKey(IN_KNOWN);
-		}
+	public boolean isInKnownProtein() {
+		return (relationFlags & (1 << IN_KNOWN)) != 0;
 	}
 	
 	
 	/**
-	 * Checks, whether the protein is in the hash map of the given known
-	 * proteins or has any overlapping-relations to a protein in it.
+	 * Checks, whether the protein is in the given known
+	 * proteins or has any overlapping-relations to a protein in it. Only
+	 * proteins on the same strand and in the same frame are related.
 	 * 
-	 * @param prot
 	 * @param knownProteins
-	 * @param hashWidth
-	 * @return
 	 */
-	public void checkProteinRelations(
-			Map<Long, List<GenericProtein>> knownProteins, Long hashWidth) {
-		Long startHash = start / hashWidth;
-		Long endHash = end / hashWidth;
+	public void checkProteinRelations(ProteinOverlapSearch knownProteins) {
+		if (genomeName == null) {
+			return;
+		}
 		
-		for (Long h=startHash; h <= endHash; h++) {
-			List<GenericProtein> protList = knownProteins.get(h);
-			if (protList != null) {
-				for (GenericProtein protein : protList) {
-					if (genomeName.equals(protein.getGenomeName()) &&
-							(Math.max(start, protein.getStart()) < Math.min(end, protein.getEnd())) && // overlap
-							getIsComplement().equals(protein.getIsComplement()) &&	// same direction
-							(start % 3 == protein.getStart() % 3)) {	// same frame
-						
-						if (start.equals(protein.getStart()) && 
-								end.equals(protein.getEnd())) {
-							// exact match of start and end position
-							addRelatedProtein(IN_KNOWN, protein);
-						} else if ((start <= protein.getStart()) &&
-								(end >= protein.getEnd())) {
-							// the protein is an elongation of a known
-							addRelatedProtein(ELONGATION_OF_KNOWN, protein);
-						} else if (((start > protein.getStart()) && (end > protein.getEnd())) ||
-								((start < protein.getStart()) && (end < protein.getEnd()))) {
-							// the protein overlaps one end of a known protein
-							addRelatedProtein(PARTIAL_ELONGATION_OF_KNOWN,
-									protein);
-						} else if ((start >= protein.getStart()) &&
-								(end <= protein.getEnd())) {
-							// the protein is part of a known protein
-							addRelatedProtein(PART_OF_KNOWN, protein);
-						}
-					}
-				}
+		for (AbstractProtein protein : knownProteins.getOverlappingInFrame(
+				genomeName, (frame >= 3), start, end)) {
+			long knownStart = protein.getStart();
+			long knownEnd = protein.getEnd();
+			
+			if ((start == knownStart) && (end == knownEnd)) {
+				// exact match of start and end position
+				addRelatedProtein(IN_KNOWN, protein);
+			} else if ((start <= knownStart) && (end >= knownEnd)) {
+				// the protein is an elongation of a known
+				addRelatedProtein(ELONGATION_OF_KNOWN, protein);
+			} else if (((start > knownStart) && (end > knownEnd)) ||
+					((start < knownStart) && (end < knownEnd))) {
+				// the protein overlaps one end of a known protein
+				addRelatedProtein(PARTIAL_ELONGATION_OF_KNOWN, protein);
+			} else if ((start >= knownStart) && (end <= knownEnd)) {
+				// the protein is part of a known protein
+				addRelatedProtein(PART_OF_KNOWN, protein);
 			}
 		}
 	}
@@ -365,17 +563,36 @@ public class GenomeTranslatedProtein extends AbstractProtein {
 	 * @param relation
 	 * @param protein
 	 */
-	private void addRelatedProtein(Integer relation, AbstractProtein protein) {
+	private void addRelatedProtein(int relation, AbstractProtein protein) {
 		if (relatedProteins == null) {
-			relatedProteins = new HashMap<Integer, List<AbstractProtein>>();
+			relatedProteins = new ArrayList<AbstractProtein>(2);
+			relations = new byte[2];
+		} else if (relatedProteins.size() == relations.length) {
+			relations = Arrays.copyOf(relations, 2 * relations.length);
 		}
 		
-		List<AbstractProtein> proteinList = relatedProteins.get(relation);
-		if (proteinList == null) {
-			proteinList = new ArrayList<AbstractProtein>();
-			relatedProteins.put(relation, proteinList);
+		relations[relatedProteins.size()] = (byte)relation;
+		relatedProteins.add(protein);
+		relationFlags |= 1 << relation;
+	}
+	
+	
+	/**
+	 * Returns the related proteins with the given relation, in the order they
+	 * were added.
+	 * 
+	 * @param relation
+	 * @return
+	 */
+	public List<AbstractProtein> getRelatedProteins(int relation) {
+		List<AbstractProtein> proteins = new ArrayList<AbstractProtein>();
+		if ((relationFlags & (1 << relation)) != 0) {
+			for (int i=0; i < relatedProteins.size(); i++) {
+				if (relations[i] == relation) {
+					proteins.add(relatedProteins.get(i));
+				}
+			}
 		}
-		
-		proteinList.add(protein);
+		return proteins;
 	}
 }
\ No newline at end of file
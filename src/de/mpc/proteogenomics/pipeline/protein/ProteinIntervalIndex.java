@@ -0,0 +1,395 @@
+package de.mpc.proteogenomics.pipeline.protein;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * An index of proteins by their genome positions, which returns all proteins
+ * overlapping a given interval in O(log n + k). The proteins are returned in
+ * the order, in which they were given to the index.
+ * <p>
+ * The proteins are grouped by genome name, strand and frame (i.e. the start
+ * position modulo 3). The frame is the signed remainder, so the proteins
+ * spanning the origin of a circular genome (with negative starts) form own
+ * groups, like in the frame check of the relations. Each group is stored as
+ * an implicit interval tree: the intervals are sorted by their start and the
+ * array indices form a binary search tree, in which each node holds the
+ * maximal end of its subtree.
+ * <p>
+ * After creation, the index is not changed and can be used concurrently.
+ * If the index is created for sweeping, {@link #createSearch()} returns a
+ * {@link ProteinRelationSweep} for each (single threaded) user instead.
+ *
+ * @author julian
+ *
+ */
+public class ProteinIntervalIndex implements ProteinOverlapSearch {
+
+	/** the number of tree frames: the remainders -2 to 2 on each strand */
+	static final int nrTreeFrames = 10;
+
+	/** the interval trees of the tree frames (0-4 direct, 5-9 complement), by genome name */
+	private Map<String, IntervalTree[]> genomeTrees;
+
+	/** the indexed proteins in the given order */
+	private AbstractProtein indexedProteins[];
+
+	/** whether the searches are done by sweeping instead of tree lookups */
+	private boolean sweep;
+
+
+	/**
+	 * Creates the index for the given proteins. Proteins without genome name,
+	 * strand or a positive length are not indexed, as they can not overlap.
+	 *
+	 * @param proteins
+	 * @param sweep whether {@link #createSearch()} creates sweeps
+	 */
+	public ProteinIntervalIndex(Collection<? extends AbstractProtein> proteins,
+			boolean sweep) {
+		this.sweep = sweep;
+
+		Map<String, List<List<AbstractProtein>>> genomeProteins =
+				new HashMap<String, List<List<AbstractProtein>>>();
+		List<AbstractProtein> proteinList = new ArrayList<AbstractProtein>();
+
+		for (AbstractProtein protein : proteins) {
+			if ((protein.getGenomeName() == null) ||
+					(protein.getIsComplement() == null) ||
+					(protein.getStart() == null) || (protein.getEnd() == null) ||
+					(protein.getStart() >= protein.getEnd())) {
+				continue;
+			}
+
+			int frame = getTreeFrame(protein.getStart(),
+					protein.getIsComplement());
+
+			List<List<AbstractProtein>> frameProteins =
+					genomeProteins.get(protein.getGenomeName());
+			if (frameProteins == null) {
+				frameProteins =
+						new ArrayList<List<AbstractProtein>>(nrTreeFrames);
+				for (int i=0; i < nrTreeFrames; i++) {
+					frameProteins.add(new ArrayList<AbstractProtein>());
+				}
+				genomeProteins.put(protein.getGenomeName(), frameProteins);
+			}
+
+			frameProteins.get(frame).add(protein);
+			proteinList.add(protein);
+		}
+		indexedProteins =
+				proteinList.toArray(new AbstractProtein[proteinList.size()]);
+
+		// the ordinal of each protein is its position in the indexed proteins
+		Map<AbstractProtein, Integer> ordinals =
+				new IdentityHashMap<AbstractProtein, Integer>(indexedProteins.length);
+		for (int i=0; i < indexedProteins.length; i++) {
+			ordinals.put(indexedProteins[i], i);
+		}
+
+		genomeTrees = new HashMap<String, IntervalTree[]>(genomeProteins.size());
+		for (Map.Entry<String, List<List<AbstractProtein>>> genomeIt
+				: genomeProteins.entrySet()) {
+			IntervalTree trees[] = new IntervalTree[nrTreeFrames];
+			for (int frame=0; frame < nrTreeFrames; frame++) {
+				if (!genomeIt.getValue().get(frame).isEmpty()) {
+					trees[frame] = new IntervalTree(genomeIt.getValue().get(frame),
+							ordinals);
+				}
+			}
+			genomeTrees.put(genomeIt.getKey(), trees);
+		}
+	}
+
+
+	/**
+	 * Returns the number of indexed proteins
+	 * @return
+	 */
+	public int size() {
+		return indexedProteins.length;
+	}
+
+
+	/**
+	 * Returns a search for the overlapping proteins. This is either the index
+	 * itself or, if it was created for sweeping, a new
+	 * {@link ProteinRelationSweep}, which must only be used by one thread.
+	 *
+	 * @return
+	 */
+	public ProteinOverlapSearch createSearch() {
+		if (sweep) {
+			return new ProteinRelationSweep(this);
+		}
+		return this;
+	}
+
+
+	@Override
+	public List<AbstractProtein> getOverlappingInFrame(String genomeName,
+			boolean isComplement, long start, long end) {
+		IntervalTree tree =
+				getTree(genomeName, getTreeFrame(start, isComplement));
+		if (tree == null) {
+			return Collections.emptyList();
+		}
+
+		int found[] = tree.getOverlapping(start, end);
+		if (found == null) {
+			return Collections.emptyList();
+		}
+		return getProteins(found, found.length);
+	}
+
+
+	/**
+	 * Returns the tree of the given genome and tree frame or null, if there
+	 * is none.
+	 */
+	IntervalTree getTree(String genomeName, int treeFrame) {
+		IntervalTree trees[] = genomeTrees.get(genomeName);
+		if (trees == null) {
+			return null;
+		}
+		return trees[treeFrame];
+	}
+
+
+	/**
+	 * Returns the proteins for the given first ordinals.
+	 */
+	List<AbstractProtein> getProteins(int[] ordinals, int nrOrdinals) {
+		List<AbstractProtein> proteins =
+				new ArrayList<AbstractProtein>(nrOrdinals);
+		for (int i=0; i < nrOrdinals; i++) {
+			proteins.add(indexedProteins[ordinals[i]]);
+		}
+		return proteins;
+	}
+
+
+	/**
+	 * Returns the index of the tree for the given start and strand. As in the
+	 * frame check of the relations, the signed remainder of the start is
+	 * used, i.e. a negative start is only in the frame of other negative
+	 * starts with the same remainder (and of the non-negative starts for the
+	 * remainder 0).
+	 */
+	static int getTreeFrame(long start, boolean isComplement) {
+		int frame = (int)(start % 3) + 2;
+		return isComplement ? frame + 5 : frame;
+	}
+
+
+	/**
+	 * An implicit interval tree over primitive coordinates. The intervals are
+	 * half-open, i.e. they overlap, if max(starts) < min(ends).
+	 */
+	static class IntervalTree {
+
+		/** the starts of the intervals, sorted ascending */
+		long starts[];
+
+		/** the ends of the intervals */
+		long ends[];
+
+		/** the maximal end in the subtree of each node */
+		private long maxEnds[];
+
+		/** the ordinals of the intervals' proteins in the index */
+		int ordinals[];
+
+		/** the level of the root node */
+		private int rootLevel;
+
+
+		public IntervalTree(List<AbstractProtein> intervalProteins,
+				Map<AbstractProtein, Integer> proteinOrdinals) {
+			// stable sort, so proteins with equal starts keep their order
+			Collections.sort(intervalProteins, new Comparator<AbstractProtein>() {
+				@Override
+				public int compare(AbstractProtein o1, AbstractProtein o2) {
+					return o1.getStart().compareTo(o2.getStart());
+				}
+			});
+
+			int n = intervalProteins.size();
+			starts = new long[n];
+			ends = new long[n];
+			maxEnds = new long[n];
+			ordinals = new int[n];
+			for (int i=0; i < n; i++) {
+				AbstractProtein protein = intervalProteins.get(i);
+				starts[i] = protein.getStart();
+				ends[i] = protein.getEnd();
+				ordinals[i] = proteinOrdinals.get(protein);
+			}
+
+			rootLevel = buildMaxEnds();
+		}
+
+
+		/**
+		 * Calculates the maximal ends of the subtrees. The nodes on level k
+		 * are at the indices, which have exactly k trailing 1-bits, the
+		 * leaves (level 0) are at the even indices.
+		 *
+		 * @return the level of the root
+		 */
+		private int buildMaxEnds() {
+			int n = starts.length;
+			int lastIdx = 0;
+			long lastMax = 0;
+
+			for (int i=0; i < n; i += 2) {
+				lastIdx = i;
+				lastMax = ends[i];
+				maxEnds[i] = ends[i];
+			}
+
+			int level;
+			for (level=1; (1L << level) <= n; level++) {
+				int x = 1 << (level - 1);
+				int step = x << 2;
+				for (int i=(x << 1) - 1; i < n; i += step) {
+					// the right child may be missing, then the last max is used
+					long maxEnd = Math.max(ends[i], maxEnds[i - x]);
+					maxEnd = Math.max(maxEnd,
+							(i + x < n) ? maxEnds[i + x] : lastMax);
+					maxEnds[i] = maxEnd;
+				}
+
+				lastIdx = (((lastIdx >> level) & 1) != 0) ?
+						lastIdx - x : lastIdx + x;
+				if ((lastIdx < n) && (maxEnds[lastIdx] > lastMax)) {
+					lastMax = maxEnds[lastIdx];
+				}
+			}
+
+			return level - 1;
+		}
+
+
+		/**
+		 * Returns the sorted ordinals of the proteins overlapping the given
+		 * interval or null, if there are none.
+		 */
+		int[] getOverlapping(long start, long end) {
+			int found[] = getOverlappingNodes(start, end);
+			if (found == null) {
+				return null;
+			}
+			for (int i=0; i < found.length; i++) {
+				found[i] = ordinals[found[i]];
+			}
+			Arrays.sort(found);
+			return found;
+		}
+
+
+		/**
+		 * Returns the node indices of the intervals overlapping the given
+		 * interval, sorted ascending, or null if there are none.
+		 */
+		int[] getOverlappingNodes(long start, long end) {
+			int found[] = null;
+			int nrFound = 0;
+			int n = starts.length;
+
+			// a top-down traversal, with the node index, level and whether the
+			// left child was processed
+			long stackIdx[] = new long[64];
+			int stackLevel[] = new int[64];
+			boolean stackLeftDone[] = new boolean[64];
+			int top = 0;
+
+			stackIdx[top] = (1L << rootLevel) - 1;
+			stackLevel[top] = rootLevel;
+			stackLeftDone[top++] = false;
+
+			while (top > 0) {
+				top--;
+				long idx = stackIdx[top];
+				int level = stackLevel[top];
+
+				if (level <= 3) {
+					// small subtree, check all its nodes
+					int i0 = (int)(idx >> level << level);
+					long i1 = Math.min(n, i0 + (1L << (level + 1)) - 1);
+					for (int i=i0; (i < i1) && (starts[i] < end); i++) {
+						if (start < ends[i]) {
+							found = addNode(found, nrFound++, i);
+						}
+					}
+				} else if (!stackLeftDone[top]) {
+					// re-add the node and go into the left child, if it may
+					// overlap or is out of range
+					long left = idx - (1L << (level - 1));
+					stackLeftDone[top++] = true;
+					if ((left >= n) || (maxEnds[(int)left] > start)) {
+						stackIdx[top] = left;
+						stackLevel[top] = level - 1;
+						stackLeftDone[top++] = false;
+					}
+				} else if ((idx < n) && (starts[(int)idx] < end)) {
+					// check the node and go into the right child
+					if (start < ends[(int)idx]) {
+						found = addNode(found, nrFound++, (int)idx);
+					}
+					stackIdx[top] = idx + (1L << (level - 1));
+					stackLevel[top] = level - 1;
+					stackLeftDone[top++] = false;
+				}
+			}
+
+			if (found == null) {
+				return null;
+			}
+			return Arrays.copyOf(found, nrFound);
+		}
+
+
+		/**
+		 * Returns the index of the first interval, which starts at or after
+		 * the given position.
+		 */
+		int firstStartingAt(long position) {
+			int low = 0;
+			int high = starts.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (starts[mid] < position) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+
+		/**
+		 * Sets the node at the given position of the array, which is
+		 * created or enlarged, if needed.
+		 */
+		private static int[] addNode(int[] found, int pos, int node) {
+			if (found == null) {
+				found = new int[4];
+			} else if (pos == found.length) {
+				found = Arrays.copyOf(found, 2 * pos);
+			}
+			found[pos] = node;
+			return found;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package de.mpc.proteogenomics.pipeline.protein;
+
+import java.util.List;
+
+
+/**
+ * Searches the known proteins, which overlap a pseudo protein in the same
+ * frame.
+ * 
+ * @author julian
+ *
+ */
+public interface ProteinOverlapSearch {
+	
+	/**
+	 * Returns the known proteins of the given genome and strand, which are
+	 * in the same frame as the given interval (i.e. have the same start modulo
+	 * 3) and overlap it. The proteins are returned in the order, in which
+	 * they were given to the index.
+	 * 
+	 * @param genomeName
+	 * @param isComplement
+	 * @param start
+	 * @param end
+	 * @return the overlapping proteins (may be empty)
+	 */
+	public List<AbstractProtein> getOverlappingInFrame(String genomeName,
+			boolean isComplement, long start, long end);
+}
@@ -0,0 +1,168 @@
+package de.mpc.proteogenomics.pipeline.protein;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.mpc.proteogenomics.pipeline.protein.ProteinIntervalIndex.IntervalTree;
+
+
+/**
+ * Searches the overlapping known proteins with a sweep line over the known
+ * proteins of a {@link ProteinIntervalIndex}, which are sorted by their start
+ * for each strand and frame.
+ * <p>
+ * The pseudo proteins of a frame are finished in ascending order of their
+ * starts. For each strand and frame, the sweep keeps the position of the
+ * next known protein and the set of active known proteins, which may still
+ * overlap. So all pseudo proteins of a genome are classified in one linear
+ * pass. If a start is smaller than the previous one (e.g. for the proteins
+ * spanning the origin of the circular genome), the sweep restarts with a
+ * lookup in the index.
+ * <p>
+ * A sweep must only be used by one thread.
+ *
+ * @author julian
+ *
+ */
+public class ProteinRelationSweep implements ProteinOverlapSearch {
+
+	/** the swept index */
+	private ProteinIntervalIndex index;
+
+	/** the genome of the current sweeps */
+	private String genomeName;
+
+	/** the sweeps of the tree frames of the current genome */
+	private FrameSweep frameSweeps[];
+
+
+	public ProteinRelationSweep(ProteinIntervalIndex index) {
+		this.index = index;
+		this.genomeName = null;
+		this.frameSweeps = new FrameSweep[ProteinIntervalIndex.nrTreeFrames];
+	}
+
+
+	@Override
+	public List<AbstractProtein> getOverlappingInFrame(String genomeName,
+			boolean isComplement, long start, long end) {
+		if (!genomeName.equals(this.genomeName)) {
+			this.genomeName = genomeName;
+			Arrays.fill(frameSweeps, null);
+		}
+
+		int treeFrame = ProteinIntervalIndex.getTreeFrame(start, isComplement);
+		IntervalTree tree = index.getTree(genomeName, treeFrame);
+		if (tree == null) {
+			return Collections.emptyList();
+		}
+
+		if (frameSweeps[treeFrame] == null) {
+			frameSweeps[treeFrame] = new FrameSweep(tree);
+		}
+		return frameSweeps[treeFrame].getOverlapping(start, end);
+	}
+
+
+	/**
+	 * The sweep over the known proteins of one strand and frame.
+	 */
+	private class FrameSweep {
+
+		private IntervalTree tree;
+
+		/** the next known protein, which was not yet added to the active ones */
+		private int next;
+
+		/** the active known proteins, which may overlap further proteins */
+		private int active[];
+
+		/** the number of active known proteins */
+		private int nrActive;
+
+		/** the start of the last swept protein */
+		private long lastStart;
+
+		/** the ordinals of the found overlapping proteins */
+		private int found[];
+
+
+		public FrameSweep(IntervalTree tree) {
+			this.tree = tree;
+			this.next = -1;
+			this.active = new int[16];
+			this.nrActive = 0;
+			this.lastStart = Long.MIN_VALUE;
+			this.found = new int[16];
+		}
+
+
+		/**
+		 * Sweeps to the given interval and returns the overlapping proteins.
+		 */
+		public List<AbstractProtein> getOverlapping(long start, long end) {
+			if ((next < 0) || (start < lastStart)) {
+				restart(start, end);
+			} else {
+				// add the known proteins starting before the end
+				while ((next < tree.starts.length) && (tree.starts[next] < end)) {
+					if (tree.ends[next] > start) {
+						addActive(next);
+					}
+					next++;
+				}
+			}
+			lastStart = start;
+
+			// remove the known proteins ending before the start and collect
+			// the overlapping ones
+			int nrFound = 0;
+			int kept = 0;
+			for (int i=0; i < nrActive; i++) {
+				int node = active[i];
+				if (tree.ends[node] <= start) {
+					continue;
+				}
+				active[kept++] = node;
+
+				if (tree.starts[node] < end) {
+					if (nrFound == found.length) {
+						found = Arrays.copyOf(found, 2 * nrFound);
+					}
+					found[nrFound++] = tree.ordinals[node];
+				}
+			}
+			nrActive = kept;
+
+			if (nrFound == 0) {
+				return Collections.emptyList();
+			}
+			Arrays.sort(found, 0, nrFound);
+			return index.getProteins(found, nrFound);
+		}
+
+
+		/**
+		 * Restarts the sweep at the given interval, using the tree.
+		 */
+		private void restart(long start, long end) {
+			nrActive = 0;
+			int nodes[] = tree.getOverlappingNodes(start, end);
+			if (nodes != null) {
+				for (int node : nodes) {
+					addActive(node);
+				}
+			}
+			next = tree.firstStartingAt(end);
+		}
+
+
+		private void addActive(int node) {
+			if (nrActive == active.length) {
+				active = Arrays.copyOf(active, 2 * nrActive);
+			}
+			active[nrActive++] = node;
+		}
+	}
+}